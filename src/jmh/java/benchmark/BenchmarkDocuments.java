@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.ui.ModelMap;
+
+/**
+ * Raw documents of different shapes used by the benchmarks
+ * 
+ *  - small  : a few scalar fields and one sub-document, like the documents in the tests
+ *  - medium : about a hundred fields of mixed types, with arrays and sub-documents
+ *  - nested : sub-documents embedded 16 levels deep, with a few fields on each level
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class BenchmarkDocuments {
+
+	/**
+	 * Create a raw document of the shape "small", "medium" or "nested"
+	 */
+	public static ModelMap create (String shape) {
+		
+		switch (shape) {
+		case "small":
+			return createSmall ();
+		case "medium":
+			return createMedium ();
+		case "nested":
+			return createNested (16);
+		default:
+			throw new IllegalArgumentException("Unknown document shape: " + shape);
+		}
+	}
+	
+	private static ModelMap createSmall () {
+		ModelMap author = new ModelMap ();
+		author.addAttribute("name", "Gordon")
+		      .addAttribute("address", "6955 fielding");
+		
+		ModelMap doc = new ModelMap ();
+		doc.addAttribute("author", author)
+		   .addAttribute("content", "Here is the content")
+		   .addAttribute("pages", 120);
+		return doc;
+	}
+	
+	private static ModelMap createMedium () {
+		ModelMap doc = new ModelMap ();
+		
+		for (int i = 0; i < 40; i++)
+			doc.addAttribute("text" + i, "Some text value of field number " + i);
+		
+		for (int i = 0; i < 30; i++)
+			doc.addAttribute("number" + i, i * 1000 + 0.5);
+		
+		for (int i = 0; i < 10; i++) {
+			List <Integer> array = new ArrayList <Integer> ();
+			for (int j = 0; j < 20; j++)
+				array.add(i * j);
+			doc.addAttribute("array" + i, array);
+		}
+		
+		for (int i = 0; i < 20; i++)
+			doc.addAttribute("sub" + i, createSmall ());
+		
+		return doc;
+	}
+	
+	private static ModelMap createNested (int depth) {
+		ModelMap doc = createSmall ();
+		
+		if (depth > 0)
+			doc.addAttribute("child", createNested (depth - 1));
+		
+		return doc;
+	}
+}
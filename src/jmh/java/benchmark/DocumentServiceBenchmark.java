@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ui.ModelMap;
+
+import docservice.DocumentNotFoundException;
+import docservice.DocumentService;
+import repository.InMemoryDocRepository;
+import repository.StoredDocument;
+
+/**
+ * Benchmark of the CRUD methods of {@link DocumentService} against {@link InMemoryDocRepository},
+ * measuring the overhead of the service layer without the database.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentServiceBenchmark {
+
+	@Param({"small", "medium", "nested"})
+	private String shape;
+	
+	private DocumentService service;
+	
+	private ModelMap doc;
+	
+	private String id;
+	
+	@Setup
+	public void setup () {
+		service = new DocumentService (new InMemoryDocRepository ());
+		
+		doc = BenchmarkDocuments.create(shape);
+		id = service.insertDocument(doc);
+	}
+	
+	@Benchmark
+	public StoredDocument getDocumentById () throws DocumentNotFoundException {
+		return service.getDocumentById(id);
+	}
+	
+	@Benchmark
+	public void updateDocument () throws DocumentNotFoundException {
+		service.updateDocument(id, doc);
+	}
+	
+	/**
+	 * Insert followed by delete, so the repository does not grow during the benchmark
+	 */
+	@Benchmark
+	public void insertAndDeleteDocument () throws DocumentNotFoundException {
+		service.deleteDocument(service.insertDocument(doc));
+	}
+}
@@ -0,0 +1,133 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.ui.ModelMap;
+
+import repository.StoredDocument;
+
+/**
+ * Benchmark of the JSON message conversion done for the REST controller:
+ * 
+ *  - writing a {@link StoredDocument} as the response of GET
+ *  - reading a request body of POST/PUT into a {@link ModelMap}
+ * 
+ * The converter is configured the same way as by Spring Boot.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageConverterBenchmark {
+
+	@Param({"small", "medium", "nested"})
+	private String shape;
+	
+	private MappingJackson2HttpMessageConverter converter;
+	
+	private StoredDocument doc;
+	
+	private byte[] json;
+	
+	private BufferOutputMessage output;
+	
+	@Setup
+	public void setup () throws IOException {
+		converter = new MappingJackson2HttpMessageConverter (
+				Jackson2ObjectMapperBuilder.json().build());
+		
+		doc = new StoredDocument (BenchmarkDocuments.create(shape));
+		doc.setId("5694ae3bd4c66a0ba8a5b0c1");
+		
+		json = converter.getObjectMapper().writeValueAsBytes(doc.getDocument());
+		
+		output = new BufferOutputMessage ();
+	}
+	
+	/**
+	 * StoredDocument to JSON, as the response of GET /restAPI/items/{id}
+	 */
+	@Benchmark
+	public int writeStoredDocument () throws IOException {
+		output.reset();
+		converter.write(doc, MediaType.APPLICATION_JSON, output);
+		return output.body.size();
+	}
+	
+	/**
+	 * JSON to ModelMap, as the request body of POST /restAPI/items
+	 */
+	@Benchmark
+	public Object readModelMap () throws IOException {
+		return converter.read(ModelMap.class, new BufferInputMessage (json));
+	}
+	
+	/*
+	 * HTTP output message writing to a reusable buffer
+	 */
+	private static class BufferOutputMessage implements HttpOutputMessage {
+		
+		private HttpHeaders headers = new HttpHeaders ();
+		
+		private ByteArrayOutputStream body = new ByteArrayOutputStream (64 * 1024);
+		
+		void reset () {
+			headers = new HttpHeaders ();
+			body.reset();
+		}
+		
+		@Override
+		public HttpHeaders getHeaders () { return headers; }
+		
+		@Override
+		public OutputStream getBody () { return body; }
+	}
+	
+	/*
+	 * HTTP input message reading JSON from a byte array
+	 */
+	private static class BufferInputMessage implements HttpInputMessage {
+		
+		private HttpHeaders headers = new HttpHeaders ();
+		
+		private InputStream body;
+		
+		BufferInputMessage (byte[] json) {
+			headers.setContentType(MediaType.APPLICATION_JSON);
+			body = new ByteArrayInputStream (json);
+		}
+		
+		@Override
+		public HttpHeaders getHeaders () { return headers; }
+		
+		@Override
+		public InputStream getBody () { return body; }
+	}
+}
@@ -0,0 +1,109 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.convert.DbRefProxyHandler;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.DbRefResolverCallback;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+import repository.StoredDocument;
+
+/**
+ * Benchmark of the conversion between {@link StoredDocument} and BSON {@link DBObject} 
+ * done by {@link MappingMongoConverter} when documents are written to and read from Mongodb.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MongoConverterBenchmark {
+
+	@Param({"small", "medium", "nested"})
+	private String shape;
+	
+	private MappingMongoConverter converter;
+	
+	private StoredDocument doc;
+	
+	private DBObject dbObject;
+	
+	@Setup
+	public void setup () {
+		MongoMappingContext context = new MongoMappingContext ();
+		context.afterPropertiesSet();
+		
+		converter = new MappingMongoConverter (new NoDbRefResolver (), context);
+		converter.afterPropertiesSet();
+		
+		doc = new StoredDocument (BenchmarkDocuments.create(shape));
+		doc.setId("5694ae3bd4c66a0ba8a5b0c1");
+		
+		dbObject = new BasicDBObject ();
+		converter.write(doc, dbObject);
+	}
+	
+	/**
+	 * StoredDocument to DBObject, as on insert and update
+	 */
+	@Benchmark
+	public DBObject write () {
+		DBObject result = new BasicDBObject ();
+		converter.write(doc, result);
+		return result;
+	}
+	
+	/**
+	 * DBObject to StoredDocument, as on find
+	 */
+	@Benchmark
+	public StoredDocument read () {
+		return converter.read(StoredDocument.class, dbObject);
+	}
+	
+	/*
+	 * Documents do not have DBRefs, so there is nothing to resolve
+	 */
+	private static class NoDbRefResolver implements DbRefResolver {
+
+		@Override
+		public Object resolveDbRef (MongoPersistentProperty property, DBRef dbref,
+				DbRefResolverCallback callback, DbRefProxyHandler proxyHandler) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DBRef createDbRef (org.springframework.data.mongodb.core.mapping.DBRef annotation,
+				MongoPersistentEntity<?> entity, Object id) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DBObject fetch (DBRef dbRef) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
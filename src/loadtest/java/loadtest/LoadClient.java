@@ -0,0 +1,224 @@
+package loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import loadtest.LoadSettings.Operation;
+
+/**
+ * Client of the REST API sending the operations of the workload over HTTP,
+ * with the documents created by the workload shared by all clients.
+ *
+ * Each document is { "author" : { "name", "address" }, "content", "pages" },
+ * with the content padded to the size chosen from the distribution of sizes.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class LoadClient {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper ();
+
+	private final String itemsUrl;
+
+	private final LoadSettings settings;
+
+	private final List <byte[]> documents = new ArrayList <byte[]> ();
+
+	private final int [] documentWeights;
+
+	private final Operation [] operations;
+
+	private final int [] operationWeights;
+
+	private final List <String> ids = new ArrayList <String> ();
+
+	/**
+	 * Construct the client of the application
+	 * @param port The port of the application
+	 * @param settings The settings of the workload
+	 * @throws IOException If the documents can not be created
+	 */
+	public LoadClient (int port, LoadSettings settings) throws IOException {
+
+		this.itemsUrl = "http://localhost:" + port + "/restAPI/items";
+		this.settings = settings;
+
+		// The documents of each size are created once, as creating them is not part of the workload
+		Random random = new Random (0);
+		documentWeights = new int [settings.getDocSizes().size()];
+		int i = 0;
+		for (Map.Entry <Integer, Integer> size : settings.getDocSizes().entrySet()) {
+			documents.add(createDocument (size.getKey(), random));
+			documentWeights[i++] = size.getValue();
+		}
+
+		operations = settings.getMix().keySet().toArray(new Operation [0]);
+		operationWeights = new int [operations.length];
+		for (i = 0; i < operations.length; i++)
+			operationWeights[i] = settings.getMix().get(operations[i]);
+	}
+
+	/**
+	 * Add the documents of the preload
+	 * @throws IOException If any document can not be added
+	 */
+	public void preload () throws IOException {
+		for (int i = 0; i < settings.getPreload(); i++)
+			if (run (Operation.CREATE) != HttpURLConnection.HTTP_CREATED)
+				throw new IOException("Preload failed");
+	}
+
+	/**
+	 * Choose the next operation by the weights of the mix
+	 */
+	public Operation nextOperation () {
+		return operations[choose (operationWeights)];
+	}
+
+	/**
+	 * Run an operation on a document. Reads, updates and deletes are on documents added before,
+	 * and are sent as creates if there is no document.
+	 *
+	 * @param operation The operation
+	 * @return The HTTP status
+	 * @throws IOException If the request fails
+	 */
+	public int run (Operation operation) throws IOException {
+
+		String id = null;
+		if (operation != Operation.CREATE) {
+			id = (operation == Operation.DELETE ? removeId () : randomId ());
+			if (id == null)
+				operation = Operation.CREATE;
+		}
+
+		switch (operation) {
+		case READ:
+			return send ("GET", itemsUrl + "/" + id, null, null);
+
+		case UPDATE:
+			return send ("PUT", itemsUrl + "/" + id, randomDocument (), null);
+
+		case DELETE:
+			return send ("DELETE", itemsUrl + "/" + id, null, null);
+
+		default:
+			ByteArrayOutputStream response = new ByteArrayOutputStream ();
+			int status = send ("POST", itemsUrl, randomDocument (), response);
+			if (status == HttpURLConnection.HTTP_CREATED)
+				addId ((String) MAPPER.readValue(response.toByteArray(), Map.class).get("id"));
+			return status;
+		}
+	}
+
+	/*
+	 * Send a request and read the whole response, with the connection kept alive for the next request
+	 */
+	private static int send (String method, String url, byte[] body, OutputStream response) throws IOException {
+
+		HttpURLConnection connection = (HttpURLConnection) new URL (url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Accept", "application/json");
+
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream output = connection.getOutputStream()) {
+				output.write(body);
+			}
+		}
+
+		int status = connection.getResponseCode();
+
+		InputStream input = (status < 400 ? connection.getInputStream() : connection.getErrorStream());
+		if (input != null) {
+			try (InputStream in = input) {
+				byte[] buffer = new byte [8192];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					if (response != null) response.write(buffer, 0, n);
+			}
+		}
+
+		return status;
+	}
+
+	/*
+	 * Create a document of about the size in JSON
+	 */
+	private static byte[] createDocument (int size, Random random) throws IOException {
+
+		Map <String, Object> author = new LinkedHashMap <String, Object> ();
+		author.put("name", "Load");
+		author.put("address", "1 load test road");
+
+		Map <String, Object> doc = new LinkedHashMap <String, Object> ();
+		doc.put("author", author);
+		doc.put("content", "");
+		doc.put("pages", random.nextInt(1000));
+
+		int padding = Math.max(0, size - MAPPER.writeValueAsBytes(doc).length);
+		StringBuilder content = new StringBuilder (padding);
+		for (int i = 0; i < padding; i++)
+			content.append((char) ('a' + random.nextInt(26)));
+		doc.put("content", content.toString());
+
+		return MAPPER.writeValueAsString(doc).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[] randomDocument () {
+		return documents.get(choose (documentWeights));
+	}
+
+	private synchronized void addId (String id) {
+		ids.add(id);
+	}
+
+	private synchronized String randomId () {
+		return ids.isEmpty() ? null : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+	}
+
+	/*
+	 * Remove a random ID, by moving the last one in its place
+	 */
+	private synchronized String removeId () {
+		if (ids.isEmpty()) return null;
+
+		int i = ThreadLocalRandom.current().nextInt(ids.size());
+		String id = ids.get(i);
+		ids.set(i, ids.get(ids.size() - 1));
+		ids.remove(ids.size() - 1);
+		return id;
+	}
+
+	/*
+	 * Choose an index at random by the weights
+	 */
+	private static int choose (int [] weights) {
+
+		int total = 0;
+		for (int weight : weights) total += weight;
+
+		int r = ThreadLocalRandom.current().nextInt(total);
+		for (int i = 0; i < weights.length; i++) {
+			r -= weights[i];
+			if (r < 0) return i;
+		}
+		return weights.length - 1;
+	}
+}
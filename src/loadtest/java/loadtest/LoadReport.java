@@ -0,0 +1,248 @@
+package loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import loadtest.LoadSettings.Operation;
+import metrics.HistogramMetric;
+
+/**
+ * Results of a load test run: the latency of each operation from sending the request
+ * until the whole response is read, the HTTP errors, and the throughput.
+ *
+ * Responses of 404 Not Found are counted apart from the errors, as a document may be deleted
+ * by one client while another client is reading or updating it.
+ *
+ * The results are compared with the baselines of the same workload, kept as properties:
+ *
+ *  - settings.{name}         : the settings of the workload, see {@link LoadSettings#describe()}
+ *  - {operation}.throughput  : minimum operations per second, of each operation and "all"
+ *  - {operation}.p99-ms      : maximum 99th percentile of latency in milliseconds
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class LoadReport {
+
+	private final Map <Operation, HistogramMetric> latencies = new EnumMap <Operation, HistogramMetric> (Operation.class);
+
+	private final Map <Operation, LongAdder> errors = new EnumMap <Operation, LongAdder> (Operation.class);
+
+	private final Map <Operation, LongAdder> notFound = new EnumMap <Operation, LongAdder> (Operation.class);
+
+	private volatile long seconds;
+
+	public LoadReport () {
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new HistogramMetric ());
+			errors.put(operation, new LongAdder ());
+			notFound.put(operation, new LongAdder ());
+		}
+	}
+
+	/**
+	 * Record an operation
+	 * @param operation The operation
+	 * @param nanos The latency in nanoseconds
+	 * @param status The HTTP status, or 0 if the request failed without a response
+	 */
+	public void record (Operation operation, long nanos, int status) {
+
+		if (status == 404)
+			notFound.get(operation).increment();
+		else if (status == 0 || status >= 400)
+			errors.get(operation).increment();
+
+		latencies.get(operation).record(nanos);
+	}
+
+	/**
+	 * Set the time the operations were recorded in
+	 */
+	public void setSeconds (long seconds) {
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Get the total number of errors, not including 404 Not Found
+	 */
+	public long getErrors () {
+		long total = 0;
+		for (LongAdder count : errors.values()) total += count.sum();
+		return total;
+	}
+
+	/**
+	 * Summarize the results of each operation which was run, and of "all" operations
+	 *
+	 * @return The summary of each, with count, throughput (per second),
+	 *         latency percentiles and max in milliseconds, errors and notFound
+	 */
+	public Map <String, Map <String, Number>> summarize () {
+
+		Map <String, Map <String, Number>> summary = new LinkedHashMap <String, Map <String, Number>> ();
+
+		Histogram all = new Histogram (3);
+		long allErrors = 0, allNotFound = 0;
+
+		for (Operation operation : Operation.values()) {
+			Histogram histogram = latencies.get(operation).snapshot();
+			if (histogram.getTotalCount() == 0) continue;
+
+			summary.put(operation.label(), summarize (histogram,
+					errors.get(operation).sum(), notFound.get(operation).sum()));
+
+			all.add(histogram);
+			allErrors += errors.get(operation).sum();
+			allNotFound += notFound.get(operation).sum();
+		}
+
+		summary.put("all", summarize (all, allErrors, allNotFound));
+		return summary;
+	}
+
+	/**
+	 * Print the summary as a table
+	 */
+	public void print () {
+
+		System.out.println();
+		System.out.println(String.format("%-8s %10s %10s %9s %9s %9s %9s %9s %8s %8s",
+				"", "count", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms", "errors", "404"));
+
+		for (Map.Entry <String, Map <String, Number>> result : summarize().entrySet()) {
+			Map <String, Number> values = result.getValue();
+			System.out.println(String.format("%-8s %10d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f %8d %8d",
+					result.getKey(), values.get("count"), values.get("throughput"),
+					values.get("p50-ms"), values.get("p90-ms"), values.get("p99-ms"),
+					values.get("p999-ms"), values.get("max-ms"), values.get("errors"), values.get("notFound")));
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Write the settings and the summary as JSON
+	 * @param file The file to write
+	 * @param settings The settings of the run
+	 * @throws IOException If writing fails
+	 */
+	public void write (File file, LoadSettings settings) throws IOException {
+
+		Map <String, Object> results = new LinkedHashMap <String, Object> ();
+		results.put("settings", settings.describe());
+		results.put("results", summarize());
+
+		new ObjectMapper ().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, results);
+	}
+
+	/**
+	 * Compare the results with the baselines of the same workload
+	 *
+	 * @param file The file of the baselines
+	 * @param settings The settings of the run
+	 * @param tolerance The fraction the results may be worse than the baselines, e.g. 0.2
+	 * @return The regressions past the baselines, empty if none
+	 * @throws IOException If the baselines can not be read
+	 * @throws IllegalArgumentException If the baselines are of a different workload
+	 */
+	public List <String> compare (File file, LoadSettings settings, double tolerance) throws IOException {
+
+		Properties baselines = new Properties ();
+		try (InputStream input = new FileInputStream (file)) {
+			baselines.load(input);
+		}
+
+		for (Map.Entry <String, String> setting : settings.describe().entrySet())
+			if (!setting.getValue().equals(baselines.getProperty("settings." + setting.getKey())))
+				throw new IllegalArgumentException("Baselines are of a different workload, " + setting.getKey()
+						+ " is " + baselines.getProperty("settings." + setting.getKey()) + " instead of " + setting.getValue());
+
+		List <String> regressions = new ArrayList <String> ();
+
+		for (Map.Entry <String, Map <String, Number>> result : summarize().entrySet()) {
+			String name = result.getKey();
+
+			String throughput = baselines.getProperty(name + ".throughput");
+			if (throughput != null) {
+				double actual = result.getValue().get("throughput").doubleValue();
+				if (actual < Double.parseDouble(throughput) * (1 - tolerance))
+					regressions.add(String.format("%s throughput %.1f ops/s is below the baseline %s", name, actual, throughput));
+			}
+
+			String p99 = baselines.getProperty(name + ".p99-ms");
+			if (p99 != null) {
+				double actual = result.getValue().get("p99-ms").doubleValue();
+				if (actual > Double.parseDouble(p99) * (1 + tolerance))
+					regressions.add(String.format("%s p99 %.2f ms is above the baseline %s ms", name, actual, p99));
+			}
+		}
+
+		return regressions;
+	}
+
+	/**
+	 * Keep the results as the baselines of the workload
+	 *
+	 * @param file The file of the baselines
+	 * @param settings The settings of the run
+	 * @throws IOException If writing fails
+	 */
+	public void writeBaselines (File file, LoadSettings settings) throws IOException {
+
+		// Sorted, so the changes of baselines are easy to review
+		Map <String, String> baselines = new TreeMap <String, String> ();
+
+		for (Map.Entry <String, String> setting : settings.describe().entrySet())
+			baselines.put("settings." + setting.getKey(), setting.getValue());
+
+		for (Map.Entry <String, Map <String, Number>> result : summarize().entrySet()) {
+			baselines.put(result.getKey() + ".throughput",
+					String.format(Locale.ROOT, "%.1f", result.getValue().get("throughput").doubleValue()));
+			baselines.put(result.getKey() + ".p99-ms",
+					String.format(Locale.ROOT, "%.2f", result.getValue().get("p99-ms").doubleValue()));
+		}
+
+		try (OutputStream output = new FileOutputStream (file)) {
+			StringBuilder lines = new StringBuilder ("# Baselines of the load test on this machine, written by its first run or -Ploadtest.update-baselines=true\n");
+			for (Map.Entry <String, String> baseline : baselines.entrySet())
+				lines.append(baseline.getKey()).append('=').append(baseline.getValue()).append('\n');
+			output.write(lines.toString().getBytes("ISO-8859-1"));
+		}
+	}
+
+	/*
+	 * Summarize the latencies of an operation
+	 */
+	private Map <String, Number> summarize (Histogram histogram, long errorCount, long notFoundCount) {
+
+		Map <String, Number> values = new LinkedHashMap <String, Number> ();
+		values.put("count", histogram.getTotalCount());
+		values.put("throughput", seconds == 0 ? 0.0 : (double) histogram.getTotalCount() / seconds);
+		values.put("p50-ms", histogram.getValueAtPercentile(50) / 1e6);
+		values.put("p90-ms", histogram.getValueAtPercentile(90) / 1e6);
+		values.put("p99-ms", histogram.getValueAtPercentile(99) / 1e6);
+		values.put("p999-ms", histogram.getValueAtPercentile(99.9) / 1e6);
+		values.put("max-ms", histogram.getMaxValue() / 1e6);
+		values.put("errors", errorCount);
+		values.put("notFound", notFoundCount);
+		return values;
+	}
+}
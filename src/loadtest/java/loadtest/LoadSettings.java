@@ -0,0 +1,157 @@
+package loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Settings of a load test run, read from system properties (set by gradle from -Ploadtest.*):
+ *
+ *  - loadtest.concurrency      : number of clients sending requests at the same time (default 16)
+ *  - loadtest.warmup-seconds   : time of running the workload before measuring (default 10)
+ *  - loadtest.duration-seconds : time of measuring (default 30)
+ *  - loadtest.preload          : number of documents added before running (default 1000)
+ *  - loadtest.mix              : weights of the operations, e.g. "read:70,create:10,update:15,delete:5" (default)
+ *  - loadtest.doc-sizes        : weights of the document sizes in bytes, e.g. "512:70,8192:25,65536:5" (default)
+ *  - loadtest.mongo.uri        : Mongodb to run against, instead of the in-memory stand-in started by the test
+ *  - loadtest.app.{property}   : property of the application, e.g. loadtest.app.docservice.cache.max-entries
+ *
+ * The settings of the workload (concurrency, mix, sizes...) are kept with the baselines,
+ * as the results of different workloads can not be compared.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class LoadSettings {
+
+	private final int concurrency;
+
+	private final int warmupSeconds;
+
+	private final int durationSeconds;
+
+	private final int preload;
+
+	private final Map <Operation, Integer> mix;
+
+	private final Map <Integer, Integer> docSizes;
+
+	/**
+	 * Operations of the workload
+	 */
+	public enum Operation {
+		READ, CREATE, UPDATE, DELETE;
+
+		/**
+		 * Name of the operation in the settings and reports
+		 */
+		public String label () { return name().toLowerCase(); }
+	}
+
+	/**
+	 * Read the settings
+	 * @param properties The system properties
+	 * @throws IllegalArgumentException If any setting is not valid
+	 */
+	public LoadSettings (Properties properties) {
+		concurrency = parsePositive (properties, "loadtest.concurrency", "16");
+		warmupSeconds = parsePositive (properties, "loadtest.warmup-seconds", "10");
+		durationSeconds = parsePositive (properties, "loadtest.duration-seconds", "30");
+		preload = parsePositive (properties, "loadtest.preload", "1000");
+
+		mix = new LinkedHashMap <Operation, Integer> ();
+		for (Map.Entry <String, Integer> weight : parseWeights (properties, "loadtest.mix",
+				"read:70,create:10,update:15,delete:5").entrySet())
+			mix.put(Operation.valueOf(weight.getKey().toUpperCase()), weight.getValue());
+
+		docSizes = new LinkedHashMap <Integer, Integer> ();
+		for (Map.Entry <String, Integer> weight : parseWeights (properties, "loadtest.doc-sizes",
+				"512:70,8192:25,65536:5").entrySet())
+			docSizes.put(Integer.parseInt(weight.getKey()), weight.getValue());
+	}
+
+	public int getConcurrency () { return concurrency; }
+
+	public int getWarmupSeconds () { return warmupSeconds; }
+
+	public int getDurationSeconds () { return durationSeconds; }
+
+	public int getPreload () { return preload; }
+
+	/**
+	 * Get the weights of the operations
+	 */
+	public Map <Operation, Integer> getMix () { return mix; }
+
+	/**
+	 * Get the weights of the document sizes, by the size in bytes
+	 */
+	public Map <Integer, Integer> getDocSizes () { return docSizes; }
+
+	/**
+	 * Describe the workload, to be kept with the baselines. The warmup is not part of the workload.
+	 */
+	public Map <String, String> describe () {
+		Map <String, String> description = new LinkedHashMap <String, String> ();
+		description.put("concurrency", String.valueOf(concurrency));
+		description.put("duration-seconds", String.valueOf(durationSeconds));
+		description.put("preload", String.valueOf(preload));
+		description.put("mix", format (mix));
+		description.put("doc-sizes", format (docSizes));
+		return description;
+	}
+
+	/*
+	 * Parse a positive integer setting
+	 */
+	private static int parsePositive (Properties properties, String name, String defaultValue) {
+		try {
+			int value = Integer.parseInt(properties.getProperty(name, defaultValue).trim());
+			if (value > 0) return value;
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("Invalid " + name + ": " + properties.getProperty(name));
+	}
+
+	/*
+	 * Parse weights in the form of "key:weight,key:weight"
+	 */
+	private static Map <String, Integer> parseWeights (Properties properties, String name, String defaultValue) {
+
+		Map <String, Integer> weights = new LinkedHashMap <String, Integer> ();
+		String value = properties.getProperty(name, defaultValue);
+
+		try {
+			for (String item : value.split(",")) {
+				String [] pair = item.trim().split(":");
+				int weight = Integer.parseInt(pair[1].trim());
+				if (pair.length != 2 || weight < 0)
+					throw new IllegalArgumentException();
+				weights.put(pair[0].trim(), weight);
+			}
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+
+		int total = 0;
+		for (int weight : weights.values()) total += weight;
+		if (total == 0)
+			throw new IllegalArgumentException("No weight in " + name + ": " + value);
+
+		return weights;
+	}
+
+	/*
+	 * Format weights in the form they are parsed
+	 */
+	private static String format (Map <?, Integer> weights) {
+		StringBuilder builder = new StringBuilder ();
+		for (Map.Entry <?, Integer> weight : weights.entrySet()) {
+			if (builder.length() > 0) builder.append(',');
+			builder.append(weight.getKey() instanceof Operation ? ((Operation) weight.getKey()).label() : weight.getKey())
+				.append(':').append(weight.getValue());
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,183 @@
+package loadtest;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import loadtest.LoadSettings.Operation;
+import restapi.Application;
+
+/**
+ * Load test of the REST API end to end, run by: gradle loadTest
+ *
+ * The application is started on an ephemeral port, against an in-memory Mongodb stand-in
+ * (mongo-java-server) on an ephemeral port, unless loadtest.mongo.uri is given.
+ * Clients send a mix of CRUD requests over HTTP, as configured by {@link LoadSettings},
+ * first for the warmup and then for the measurement.
+ *
+ * The results are printed, written as JSON to loadtest.report if given, and compared with the
+ * baselines in loadtest.baselines. The run fails (exit code 1) if any request fails, or the throughput
+ * or p99 latency of any operation is worse than the baseline by more than loadtest.tolerance (default 0.25).
+ * If the file does not exist, or with loadtest.update-baselines=true, the results are kept as the
+ * new baselines instead.
+ *
+ * The stand-in keeps documents in memory and does not write to disk, so the results show the cost
+ * of the service rather than of Mongodb. Baselines are only comparable on the same machine,
+ * so they are kept on each machine rather than committed.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class LoadTest {
+
+	public static void main (String [] args) throws Exception {
+
+		Properties properties = System.getProperties();
+		LoadSettings settings = new LoadSettings (properties);
+
+		MongoServer mongoServer = null;
+		String mongoUri = properties.getProperty("loadtest.mongo.uri");
+
+		if (mongoUri == null) {
+			mongoServer = new MongoServer (new MemoryBackend ());
+			InetSocketAddress address = mongoServer.bind();
+			mongoUri = "mongodb://" + address.getHostString() + ":" + address.getPort() + "/loadtest";
+		}
+
+		ConfigurableApplicationContext application = null;
+		int status;
+
+		try {
+			application = new SpringApplicationBuilder (Application.class).run(applicationArgs (properties, mongoUri));
+			int port = Integer.parseInt(application.getEnvironment().getProperty("local.server.port"));
+
+			LoadClient client = new LoadClient (port, settings);
+
+			System.out.println("Preloading " + settings.getPreload() + " documents");
+			client.preload();
+
+			System.out.println("Warming up for " + settings.getWarmupSeconds() + " seconds");
+			run (client, settings.getConcurrency(), settings.getWarmupSeconds());
+
+			System.out.println("Measuring for " + settings.getDurationSeconds() + " seconds, "
+					+ settings.getConcurrency() + " clients, " + settings.describe());
+			LoadReport report = run (client, settings.getConcurrency(), settings.getDurationSeconds());
+
+			report.print();
+			status = check (report, settings, properties);
+
+		} finally {
+			if (application != null) application.close();
+			if (mongoServer != null) mongoServer.shutdownNow();
+		}
+
+		System.exit(status);
+	}
+
+	/*
+	 * Run the workload with concurrent clients for a time, and record the results
+	 */
+	private static LoadReport run (LoadClient client, int concurrency, int seconds) throws InterruptedException {
+
+		LoadReport report = new LoadReport ();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+
+		for (int i = 0; i < concurrency; i++) {
+			clients.execute(() -> {
+				while (System.nanoTime() < end) {
+					Operation operation = client.nextOperation();
+					long start = System.nanoTime();
+					int status;
+					try {
+						status = client.run(operation);
+					} catch (Exception e) {
+						status = 0;
+					}
+					report.record(operation, System.nanoTime() - start, status);
+				}
+			});
+		}
+
+		clients.shutdown();
+		clients.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+		report.setSeconds(seconds);
+		return report;
+	}
+
+	/*
+	 * Write the results, and compare them with the baselines or keep them as the baselines
+	 * @return The exit code, 1 if the run failed
+	 */
+	private static int check (LoadReport report, LoadSettings settings, Properties properties) throws Exception {
+
+		if (properties.getProperty("loadtest.report") != null) {
+			File file = new File (properties.getProperty("loadtest.report"));
+			report.write(file, settings);
+			System.out.println("Results written to " + file);
+		}
+
+		if (report.getErrors() > 0) {
+			System.out.println("FAILED: " + report.getErrors() + " requests failed");
+			return 1;
+		}
+
+		String baselines = properties.getProperty("loadtest.baselines");
+		if (baselines == null)
+			return 0;
+
+		File file = new File (baselines);
+
+		if (!file.exists() || Boolean.parseBoolean(properties.getProperty("loadtest.update-baselines"))) {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			report.writeBaselines(file, settings);
+			System.out.println("Baselines of this machine written to " + file);
+			return 0;
+		}
+
+		double tolerance = Double.parseDouble(properties.getProperty("loadtest.tolerance", "0.25"));
+
+		List <String> regressions = report.compare(file, settings, tolerance);
+		for (String regression : regressions)
+			System.out.println("REGRESSION: " + regression);
+
+		if (!regressions.isEmpty()) {
+			System.out.println("FAILED: " + regressions.size() + " results regressed past the baselines in " + file
+					+ " by more than " + tolerance);
+			return 1;
+		}
+
+		System.out.println("Passed the baselines in " + file);
+		return 0;
+	}
+
+	/*
+	 * The arguments of the application: an ephemeral port, the Mongodb, and loadtest.app.* properties
+	 */
+	private static String [] applicationArgs (Properties properties, String mongoUri) {
+
+		List <String> args = new ArrayList <String> ();
+		args.add("--server.port=0");
+		args.add("--spring.data.mongodb.uri=" + mongoUri);
+		args.add("--logging.level.root=WARN");
+
+		for (Map.Entry <Object, Object> property : properties.entrySet())
+			if (property.getKey().toString().startsWith("loadtest.app."))
+				args.add("--" + property.getKey().toString().substring("loadtest.app.".length()) + "=" + property.getValue());
+
+		return args.toArray(new String [0]);
+	}
+}
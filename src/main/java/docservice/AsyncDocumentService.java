@@ -0,0 +1,144 @@
+package docservice;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.ui.ModelMap;
+
+import repository.FieldProjection;
+import repository.StoredDocument;
+
+/**
+ * 
+ * Asynchronous variants of the operations of {@link DocumentService}.
+ * 
+ * Each operation runs on a dedicated and bounded executor (see {@link DocumentExecutorConfig}),
+ * and returns a {@link CompletableFuture} completed with the result, or completed exceptionally
+ * with the same exception as thrown by {@link DocumentService}. 
+ * 
+ * If the executor can not take more operations, the future is completed exceptionally
+ * with {@link RejectedExecutionException}.
+ *    
+ * @author goldyliang@gmail.com
+ *
+ */
+@Service
+public class AsyncDocumentService {
+
+	private DocumentService service;
+	
+	private Executor executor;
+	
+	/**
+	 * Construct the service
+	 * @param service The service to run the operations with
+	 * @param executor The executor to run the operations on
+	 */
+	@Autowired
+	public AsyncDocumentService (DocumentService service, 
+			@Qualifier(DocumentExecutorConfig.EXECUTOR) Executor executor) {
+		this.service = service;
+		this.executor = executor;
+	}
+	
+	/**
+	 * @see DocumentService#insertDocument(ModelMap)
+	 */
+	public CompletableFuture <String> insertDocument (ModelMap doc) {
+		return submit (() -> service.insertDocument(doc));
+	}
+	
+	/**
+	 * @see DocumentService#insertDocuments(List, boolean)
+	 */
+	public CompletableFuture <List <String>> insertDocuments (List <ModelMap> docs, boolean ordered) {
+		return submit (() -> service.insertDocuments(docs, ordered));
+	}
+	
+	/**
+	 * @see DocumentService#updateDocument(String, ModelMap)
+	 */
+	public CompletableFuture <Void> updateDocument (String id, ModelMap doc) {
+		return submit (() -> {
+			service.updateDocument(id, doc);
+			return null;
+		});
+	}
+	
+	/**
+	 * @see DocumentService#patchDocument(String, Map)
+	 */
+	public CompletableFuture <Void> patchDocument (String id, Map <String, Object> patch) {
+		return submit (() -> {
+			service.patchDocument(id, patch);
+			return null;
+		});
+	}
+	
+	/**
+	 * @see DocumentService#deleteDocument(String)
+	 */
+	public CompletableFuture <Void> deleteDocument (String id) {
+		return submit (() -> {
+			service.deleteDocument(id);
+			return null;
+		});
+	}
+	
+	/**
+	 * @see DocumentService#getDocumentById(String)
+	 */
+	public CompletableFuture <StoredDocument> getDocumentById (String id) {
+		return submit (() -> service.getDocumentById(id));
+	}
+	
+	/**
+	 * @see DocumentService#getDocumentById(String, FieldProjection)
+	 */
+	public CompletableFuture <StoredDocument> getDocumentById (String id, FieldProjection fields) {
+		return submit (() -> service.getDocumentById(id, fields));
+	}
+	
+	/**
+	 * @see DocumentService#getAllDocuments(FieldProjection)
+	 */
+	public CompletableFuture <List <StoredDocument>> getAllDocuments (FieldProjection fields) {
+		return submit (() -> service.getAllDocuments(fields));
+	}
+	
+	/**
+	 * @see DocumentService#getDocumentsPage(String, int)
+	 */
+	public CompletableFuture <DocumentPage> getDocumentsPage (String after, int limit) {
+		return submit (() -> service.getDocumentsPage(after, limit));
+	}
+	
+	/*
+	 * Run a task on the executor, and complete the future with its result or exception as is
+	 */
+	private <T> CompletableFuture <T> submit (Callable <T> task) {
+		
+		CompletableFuture <T> future = new CompletableFuture <T> ();
+		
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		
+		return future;
+	}
+}
@@ -0,0 +1,274 @@
+package docservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+
+import repository.DocRepository;
+import repository.DocumentConsistency;
+import repository.StoredDocument;
+
+/**
+ * {@link DocumentInserter} which queues the documents, and inserts them into the repository 
+ * in batches (group commit).
+ * 
+ * A batch is written by one batch insert as soon as it has maxBatchSize documents, 
+ * or maxDelayMillis after its first document is queued, whichever comes first. 
+ * Documents queued while a batch is being written go to the next batch, 
+ * so the batches grow with the load and the added latency is at most maxDelayMillis.
+ * 
+ * IDs are assigned before the batch is written, and the batch is written unordered, so one failed
+ * document does not stop the others. The future of each document is completed after its batch is 
+ * acknowledged by the repository. If the batch fails, each document not found by its ID is inserted
+ * on its own, so that each future is completed with the outcome of its own document.
+ * 
+ * Each document is written with the write concern of the thread inserting it (e.g. that of the headers 
+ * of its request), so the documents of a batch with different write concerns are written by separate 
+ * batch inserts.
+ * 
+ * If the queue is full, or the inserter is closed, the future is completed exceptionally with 
+ * {@link RejectedExecutionException}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class BatchingDocumentInserter implements DocumentInserter, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchingDocumentInserter.class);
+	
+	private DocRepository docRepository;
+	
+	private DocumentConsistency consistency;
+	
+	private int maxBatchSize;
+	
+	private long maxDelayNanos;
+	
+	private BlockingQueue <PendingInsert> queue;
+	
+	private Thread writer;
+	
+	private volatile boolean closed;
+	
+	/*
+	 * A queued document, with the write concern of the thread inserting it (NULL for the one of 
+	 * the connection), and the future to complete after it is inserted
+	 */
+	private static class PendingInsert {
+		final StoredDocument doc;
+		final WriteConcern writeConcern;
+		final CompletableFuture <StoredDocument> future = new CompletableFuture <StoredDocument> ();
+		
+		PendingInsert (StoredDocument doc, WriteConcern writeConcern) { 
+			this.doc = doc;
+			this.writeConcern = writeConcern;
+		}
+	}
+	
+	/**
+	 * Construct the inserter with the default consistency, and start the thread writing the batches
+	 * 
+	 * @see #BatchingDocumentInserter(DocRepository, DocumentConsistency, int, long, int)
+	 */
+	public BatchingDocumentInserter (DocRepository docRep, 
+			int maxBatchSize, long maxDelayMillis, int queueCapacity) {
+		this (docRep, new DocumentConsistency (), maxBatchSize, maxDelayMillis, queueCapacity);
+	}
+	
+	/**
+	 * Construct the inserter, and start the thread writing the batches
+	 * 
+	 * @param docRep The repository of documents
+	 * @param consistency The consistency of the repository, whose write concern of the thread 
+	 *                    inserting a document is used to write it
+	 * @param maxBatchSize The maximum number of documents in one batch
+	 * @param maxDelayMillis The maximum time in milliseconds to wait for more documents 
+	 *                       after the first document of a batch is queued
+	 * @param queueCapacity The maximum number of documents waiting to be written
+	 */
+	public BatchingDocumentInserter (DocRepository docRep, DocumentConsistency consistency,
+			int maxBatchSize, long maxDelayMillis, int queueCapacity) {
+		
+		if (maxBatchSize <= 0 || maxDelayMillis < 0 || queueCapacity <= 0)
+			throw new IllegalArgumentException("Invalid insert batch settings");
+		
+		this.docRepository = docRep;
+		this.consistency = consistency;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.queue = new ArrayBlockingQueue <PendingInsert> (queueCapacity);
+		
+		writer = new Thread (this::writeBatches, "docservice-insert-batch");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	@Override
+	public CompletableFuture <StoredDocument> insert (StoredDocument doc) {
+		
+		PendingInsert pending = new PendingInsert (doc, consistency.getWriteConcern());
+		
+		if (closed || !queue.offer(pending))
+			reject (pending);
+		
+		// Closed meanwhile, and the writer may be gone: take it back unless the writer or close took it
+		else if (closed && queue.remove(pending))
+			reject (pending);
+		
+		return pending.future;
+	}
+	
+	/**
+	 * Stop taking documents, and wait until the queued documents are written.
+	 * 
+	 * If interrupted while waiting, the writer is interrupted and the documents not written 
+	 * are completed exceptionally, with the interrupt status of the thread kept.
+	 */
+	@Override
+	public void close () {
+		closed = true;
+		
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		
+		// Queued after the writer saw the queue empty
+		PendingInsert pending;
+		while ((pending = queue.poll()) != null)
+			reject (pending);
+	}
+	
+	private static void reject (PendingInsert pending) {
+		pending.future.completeExceptionally(
+				new RejectedExecutionException("Insert queue is full or closed"));
+	}
+	
+	/*
+	 * Collect and write batches until closed and all queued documents are written
+	 */
+	private void writeBatches () {
+		
+		List <PendingInsert> batch = new ArrayList <PendingInsert> (maxBatchSize);
+		
+		try {
+			while (!closed || !queue.isEmpty()) {
+				
+				// Poll rather than take, to see when closed
+				PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+				
+				batch.add(first);
+				collectBatch (batch, System.nanoTime() + maxDelayNanos);
+				
+				writeByWriteConcern (batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			queue.drainTo(batch);
+			log.warn("Insert batch writer interrupted, with {} documents not written", batch.size());
+			
+			for (PendingInsert pending : batch)
+				pending.future.completeExceptionally(e);
+		}
+	}
+	
+	/*
+	 * Add queued documents to the batch until it is full or the deadline passes
+	 */
+	private void collectBatch (List <PendingInsert> batch, long deadline) throws InterruptedException {
+		
+		while (batch.size() < maxBatchSize) {
+			
+			// Take those already queued without waiting
+			queue.drainTo(batch, maxBatchSize - batch.size());
+			if (batch.size() >= maxBatchSize) return;
+			
+			long wait = deadline - System.nanoTime();
+			if (wait <= 0) return;
+			
+			PendingInsert next = queue.poll(wait, TimeUnit.NANOSECONDS);
+			if (next == null) return;
+			
+			batch.add(next);
+		}
+	}
+	
+	/*
+	 * Write the documents of a batch with one batch insert for each write concern
+	 */
+	private void writeByWriteConcern (List <PendingInsert> batch) {
+		
+		Map <WriteConcern, List <PendingInsert>> byWriteConcern = new LinkedHashMap <WriteConcern, List <PendingInsert>> ();
+		for (PendingInsert pending : batch)
+			byWriteConcern.computeIfAbsent(pending.writeConcern, 
+					writeConcern -> new ArrayList <PendingInsert> ()).add(pending);
+		
+		for (Map.Entry <WriteConcern, List <PendingInsert>> entry : byWriteConcern.entrySet()) {
+			// Read from the primary to find the documents written by a failed batch
+			consistency.override(ReadPreference.primary(), entry.getKey());
+			try {
+				writeBatch (entry.getValue());
+			} finally {
+				consistency.clearOverride();
+			}
+		}
+	}
+	
+	/*
+	 * Write a batch with one batch insert, and complete the futures of its documents
+	 */
+	private void writeBatch (List <PendingInsert> batch) {
+		
+		List <StoredDocument> docs = new ArrayList <StoredDocument> (batch.size());
+		for (PendingInsert pending : batch) {
+			// Assigned here, so the documents inserted by a failed batch can be found
+			pending.doc.setId(ObjectId.get().toHexString());
+			docs.add(pending.doc);
+		}
+		
+		try {
+			docRepository.insertBatch(docs, false);
+		} catch (RuntimeException e) {
+			log.debug("Insert batch of {} documents failed, inserting them one by one", batch.size(), e);
+			
+			for (PendingInsert pending : batch)
+				writeOne (pending);
+			return;
+		}
+		
+		for (PendingInsert pending : batch)
+			pending.future.complete(pending.doc);
+	}
+	
+	/*
+	 * Insert a document of a failed batch on its own, unless the batch inserted it, 
+	 * and complete its future with its own outcome
+	 */
+	private void writeOne (PendingInsert pending) {
+		try {
+			if (docRepository.findVersion(pending.doc.getId()) == null)
+				docRepository.insertBatch(Collections.singletonList(pending.doc), true);
+			
+			pending.future.complete(pending.doc);
+		} catch (RuntimeException e) {
+			pending.future.completeExceptionally(e);
+		}
+	}
+}
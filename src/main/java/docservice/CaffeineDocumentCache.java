@@ -0,0 +1,124 @@
+package docservice;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import repository.StoredDocument;
+
+/**
+ * {@link DocumentCache} backed by Caffeine, with W-TinyLFU eviction.
+ * 
+ * The cache is bounded by both the number of documents and their estimated size in bytes.
+ * Caffeine bounds by one total weight only, so each document weighs its estimated size
+ * but no less than maxBytes / maxEntries: the total weight can then reach maxBytes 
+ * neither by large documents nor by more than maxEntries small ones.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class CaffeineDocumentCache implements DocumentCache {
+
+	private Cache <String, StoredDocument> cache;
+	
+	/**
+	 * Construct the cache
+	 * 
+	 * @param maxEntries The maximum number of documents in the cache
+	 * @param maxBytes The maximum estimated size in bytes of the documents in the cache
+	 * @param ttlSeconds Time to live of a document after it is loaded in seconds, 
+	 *                   or 0 if it never expires
+	 */
+	public CaffeineDocumentCache (long maxEntries, long maxBytes, long ttlSeconds) {
+		
+		if (maxEntries <= 0 || maxBytes <= 0 || ttlSeconds < 0)
+			throw new IllegalArgumentException("Invalid document cache settings");
+		
+		int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / maxEntries));
+		
+		Caffeine <String, StoredDocument> builder = Caffeine.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((String id, StoredDocument doc) -> 
+					(int) Math.min(Integer.MAX_VALUE, Math.max(minWeight, estimateSize(doc))))
+				.recordStats();
+		
+		if (ttlSeconds > 0)
+			builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+		
+		cache = builder.build();
+	}
+	
+	@Override
+	public StoredDocument get (String id, Function <String, StoredDocument> loader) {
+		// A NULL from the loader (document not found) is not cached
+		return cache.get(id, loader);
+	}
+	
+	@Override
+	public StoredDocument getIfPresent (String id) {
+		return cache.getIfPresent(id);
+	}
+	
+	@Override
+	public void invalidate (String id) {
+		cache.invalidate(id);
+	}
+	
+	@Override
+	public void invalidateAll () {
+		cache.invalidateAll();
+	}
+	
+	@Override
+	public DocumentCacheStats getStats () {
+		CacheStats stats = cache.stats();
+		
+		return new DocumentCacheStats (
+				stats.hitCount(), 
+				stats.missCount(), 
+				stats.evictionCount(), 
+				cache.estimatedSize(),
+				cache.policy().eviction().get().weightedSize().orElse(0));
+	}
+	
+	/*
+	 * Estimate the size of a document in bytes, as held in memory
+	 */
+	static long estimateSize (StoredDocument doc) {
+		return 64 + estimateSize ((Object) doc.getId()) + estimateSize (doc.getDocument());
+	}
+	
+	/*
+	 * Estimate the size of a value in a raw document in bytes, with sub-documents and arrays
+	 */
+	private static long estimateSize (Object value) {
+		
+		if (value == null)
+			return 8;
+		
+		if (value instanceof String)
+			return 40 + 2L * ((String) value).length();
+		
+		if (value instanceof Map) {
+			long size = 64;
+			for (Map.Entry <?, ?> entry : ((Map <?, ?>) value).entrySet())
+				size += 32 + estimateSize (entry.getKey()) + estimateSize (entry.getValue());
+			return size;
+		}
+		
+		if (value instanceof Collection) {
+			long size = 40;
+			for (Object element : (Collection <?>) value)
+				size += 8 + estimateSize (element);
+			return size;
+		}
+		
+		// Numbers, booleans, dates and other small values
+		return 24;
+	}
+}
@@ -0,0 +1,98 @@
+package docservice;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import repository.StoredDocument;
+
+/**
+ * Loader of documents by ID which coalesces concurrent loads of the same document.
+ *
+ * The first caller for an ID loads the document from the repository, and callers for the same ID
+ * arriving meanwhile wait for that load instead of starting their own. All of them get the same
+ * document, or the same NULL if it is not found, or the same exception if the load fails.
+ * A load is shared only while it is in flight: a caller arriving after it completes starts a new one.
+ *
+ * The loads in flight are kept in a {@link ConcurrentHashMap}, so callers for different IDs
+ * do not contend on a lock, and lookups of an ID already in flight take no lock at all.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+class CoalescingLoader implements Function <String, StoredDocument> {
+
+	private final Function <String, StoredDocument> loader;
+
+	private final ConcurrentHashMap <String, CompletableFuture <StoredDocument>> inFlight =
+			new ConcurrentHashMap <String, CompletableFuture <StoredDocument>> ();
+
+	/**
+	 * Construct the loader
+	 *
+	 * @param loader Function to load the document from the repository,
+	 *               returning NULL if the document is not found
+	 */
+	CoalescingLoader (Function <String, StoredDocument> loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * Load a document, or wait for the load of the document already in flight
+	 *
+	 * @param id The ID of the document
+	 * @return The document, or NULL if it is not found
+	 */
+	@Override
+	public StoredDocument apply (String id) {
+
+		CompletableFuture <StoredDocument> load = inFlight.get(id);
+
+		if (load == null) {
+			CompletableFuture <StoredDocument> myLoad = new CompletableFuture <StoredDocument> ();
+			load = inFlight.putIfAbsent(id, myLoad);
+
+			if (load == null)
+				return load (id, myLoad);
+		}
+
+		try {
+			return load.join();
+		} catch (CompletionException e) {
+			// Rethrow what the loading caller got
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop sharing the load of a document in flight, e.g. after the document is written,
+	 * so that callers from now on load the new content rather than wait for the old one.
+	 *
+	 * @param id The ID of the document
+	 */
+	void forget (String id) {
+		inFlight.remove(id);
+	}
+
+	/*
+	 * Load a document as the first caller, and pass the outcome to the callers waiting for it
+	 */
+	private StoredDocument load (String id, CompletableFuture <StoredDocument> myLoad) {
+		try {
+			StoredDocument doc = loader.apply(id);
+			myLoad.complete(doc);
+			return doc;
+		} catch (RuntimeException | Error e) {
+			myLoad.completeExceptionally(e);
+			throw e;
+		} finally {
+			// Only if not forgotten and replaced by a newer load meanwhile
+			inFlight.remove(id, myLoad);
+		}
+	}
+}
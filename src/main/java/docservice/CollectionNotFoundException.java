@@ -0,0 +1,17 @@
+package docservice;
+
+/** 
+ * Exception class indicating a collection of documents can not be found
+ * @author goldyliang@gmail.com
+ *
+ */
+public class CollectionNotFoundException extends Exception 
+{
+
+	/*
+	 * Nothing special to do here
+	 */
+	private static final long serialVersionUID = -6393508825210465037L;
+	
+	
+}
@@ -0,0 +1,53 @@
+package docservice;
+
+import java.util.function.Function;
+
+import repository.StoredDocument;
+
+/**
+ * 
+ * In-process cache of documents by ID, used by {@link DocumentService} in front of the repository.
+ * 
+ * Only documents found in the repository are cached. 
+ * Implementations shall be thread-safe.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public interface DocumentCache {
+
+	/**
+	 * Get a document from the cache, or load it with the loader and cache it if not present.
+	 * 
+	 * @param id The ID of the document
+	 * @param loader Function to load the document from the repository, 
+	 *               returning NULL if the document is not found
+	 * @return The document, or NULL if it is not found
+	 */
+	StoredDocument get (String id, Function <String, StoredDocument> loader);
+	
+	/**
+	 * Get a document from the cache only, without loading it.
+	 * 
+	 * @param id The ID of the document
+	 * @return The document, or NULL if it is not in the cache
+	 */
+	StoredDocument getIfPresent (String id);
+	
+	/**
+	 * Remove a document from the cache, so the next get loads it from the repository again.
+	 * 
+	 * @param id The ID of the document
+	 */
+	void invalidate (String id);
+	
+	/**
+	 * Remove all documents from the cache, e.g. when the collection is dropped
+	 */
+	void invalidateAll ();
+	
+	/**
+	 * Get the statistics of the cache
+	 */
+	DocumentCacheStats getStats ();
+}
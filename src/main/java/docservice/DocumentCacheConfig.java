@@ -0,0 +1,47 @@
+package docservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 
+ * Configuration of the {@link DocumentCache} used by {@link DocumentService}, with properties:
+ * 
+ *  - docservice.cache.max-entries : maximum number of cached documents, 0 to disable the cache (default)
+ *  - docservice.cache.max-bytes   : maximum estimated size of cached documents in bytes (default 64MB)
+ *  - docservice.cache.ttl-seconds : time to live of a cached document, 0 for no expiry (default)
+ *  
+ * The cache is disabled by default, as documents updated by other instances of the service
+ * would be served stale from the cache until they expire.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class DocumentCacheConfig {
+
+	@Bean
+	public DocumentCache documentCache (
+			@Value("${docservice.cache.max-entries:0}") long maxEntries,
+			@Value("${docservice.cache.max-bytes:67108864}") long maxBytes,
+			@Value("${docservice.cache.ttl-seconds:0}") long ttlSeconds) {
+		
+		return newDocumentCache (maxEntries, maxBytes, ttlSeconds);
+	}
+	
+	/**
+	 * Create a cache of documents, also for the collections other than the default one
+	 * @param maxEntries Maximum number of cached documents, 0 for no cache
+	 * @param maxBytes Maximum estimated size of cached documents in bytes
+	 * @param ttlSeconds Time to live of a cached document, 0 for no expiry
+	 * @return The cache
+	 */
+	public static DocumentCache newDocumentCache (long maxEntries, long maxBytes, long ttlSeconds) {
+		
+		if (maxEntries <= 0)
+			return new NoDocumentCache ();
+		
+		return new CaffeineDocumentCache (maxEntries, maxBytes, ttlSeconds);
+	}
+}
@@ -0,0 +1,67 @@
+package docservice;
+
+/**
+ * Statistics of a {@link DocumentCache}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentCacheStats {
+
+	private long hitCount;
+	
+	private long missCount;
+	
+	private long evictionCount;
+	
+	private long size;
+	
+	private long estimatedBytes;
+	
+	/**
+	 * Default constructor
+	 */
+	public DocumentCacheStats () {}
+	
+	/**
+	 * Construct the statistics
+	 * @param hitCount Number of gets served from the cache
+	 * @param missCount Number of gets loaded from the repository
+	 * @param evictionCount Number of documents evicted for size or expiry
+	 * @param size Number of documents in the cache
+	 * @param estimatedBytes Estimated size in bytes of the documents in the cache
+	 */
+	public DocumentCacheStats (long hitCount, long missCount, long evictionCount, 
+			long size, long estimatedBytes) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+		this.estimatedBytes = estimatedBytes;
+	}
+	
+	/**
+	 * Get the number of gets served from the cache
+	 */
+	public long getHitCount () { return hitCount; }
+	
+	/**
+	 * Get the number of gets loaded from the repository
+	 */
+	public long getMissCount () { return missCount; }
+	
+	/**
+	 * Get the number of documents evicted for size or expiry
+	 */
+	public long getEvictionCount () { return evictionCount; }
+	
+	/**
+	 * Get the number of documents in the cache
+	 */
+	public long getSize () { return size; }
+	
+	/**
+	 * Get the estimated size in bytes of the documents in the cache
+	 */
+	public long getEstimatedBytes () { return estimatedBytes; }
+}
@@ -0,0 +1,323 @@
+package docservice;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import repository.DocRepository;
+import repository.DocRepositoryFactory;
+import repository.DocumentConsistency;
+
+/**
+ * 
+ * Service routing the operations on documents and indexes to a collection selected by the caller,
+ * so that each tenant has its own collection, indexes and cache, and can be dropped at once.
+ * 
+ * The default collection is served by the {@link DocumentService} and {@link DocumentIndexService} beans.
+ * The services of other collections are created on first use to write, or to read a collection 
+ * which exists, with the cache configured by properties of the collection, falling back to those 
+ * of the default cache (see {@link DocumentCacheConfig}):
+ * 
+ *  - docservice.collections.{name}.cache.max-entries
+ *  - docservice.collections.{name}.cache.max-bytes
+ *  - docservice.collections.{name}.cache.ttl-seconds
+ *  
+ * Inserts are batched in each collection the same as in the default one (see {@link DocumentInserterConfig}).
+ * 
+ * The services of a collection not used for a while are closed, with its cache discarded, 
+ * and created again on the next use. They are closed when the services of another collection are created,
+ * unless an index of the collection is being built, after the time of the property:
+ * 
+ *  - docservice.collections.idle-seconds : time in seconds a collection is not used (default 600)
+ * 
+ * Collection names are 1 to 64 letters, digits, '_' or '-', other than the literal segments 
+ * under /restAPI (e.g. "async" of /restAPI/async/items), which would take the requests of those paths.
+ *    
+ * @author goldyliang@gmail.com
+ *
+ */
+@Service
+public class DocumentCollectionService {
+
+	private static final Pattern COLLECTION_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+	
+	// The literal segments of the paths under /restAPI
+	private static final Set <String> RESERVED_NAMES = new HashSet <String> (
+			Arrays.asList("async", "items", "metrics", "_collections"));
+	
+	/*
+	 * The services of one collection
+	 */
+	private static class Collection {
+		
+		final DocumentService documentService;
+		
+		final DocumentIndexService indexService;
+		
+		final DocumentCache cache;
+		
+		final BatchingDocumentInserter inserter;
+		
+		// The time last used in System.nanoTime()
+		volatile long lastUsed;
+		
+		Collection (DocumentService documentService, DocumentIndexService indexService, 
+				DocumentCache cache, BatchingDocumentInserter inserter) {
+			this.documentService = documentService;
+			this.indexService = indexService;
+			this.cache = cache;
+			this.inserter = inserter;
+		}
+	}
+	
+	private DocRepositoryFactory repositoryFactory;
+	
+	private Environment env;
+	
+	private DocumentConsistency consistency;
+	
+	private String defaultName;
+	
+	private Collection defaultCollection;
+	
+	private ConcurrentMap <String, Collection> collections = new ConcurrentHashMap <String, Collection> ();
+	
+	private long idleNanos;
+	
+	@Autowired
+	public DocumentCollectionService (DocRepositoryFactory repositoryFactory, Environment env,
+			DocumentConsistency consistency, DocumentService documentService, 
+			DocumentIndexService indexService, DocumentCache cache) {
+		
+		this.repositoryFactory = repositoryFactory;
+		this.env = env;
+		this.consistency = consistency;
+		
+		this.defaultName = repositoryFactory.getDefaultCollectionName();
+		this.defaultCollection = new Collection (documentService, indexService, cache, null);
+		
+		long idleSeconds = env.getProperty("docservice.collections.idle-seconds", Long.class, 600L);
+		if (idleSeconds <= 0)
+			throw new IllegalArgumentException("Invalid idle time of collections: " + idleSeconds);
+		this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+	}
+	
+	/**
+	 * Stop the services of all collections other than the default one
+	 */
+	@PreDestroy
+	public void close () {
+		for (Collection collection : collections.values())
+			closeCollection (collection);
+		collections.clear();
+	}
+	
+	/**
+	 * Get the name of the default collection
+	 */
+	public String getDefaultCollectionName () {
+		return defaultName;
+	}
+	
+	/**
+	 * Get the service of documents in a collection, created if the collection does not exist
+	 * @param name The name of the collection, or NULL for the default collection
+	 * @return The service
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public DocumentService getDocumentService (String name) {
+		return getCollection (name, true).documentService;
+	}
+	
+	/**
+	 * Get the service of documents in a collection
+	 * @param name The name of the collection, or NULL for the default collection
+	 * @param create Whether to create the service if the collection does not exist, e.g. to write to it
+	 * @return The service
+	 * @throws CollectionNotFoundException If the collection does not exist and the service is not created
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public DocumentService getDocumentService (String name, boolean create) throws CollectionNotFoundException {
+		return getExistingCollection (name, create).documentService;
+	}
+	
+	/**
+	 * Get the service of indexes in a collection, created if the collection does not exist
+	 * @param name The name of the collection, or NULL for the default collection
+	 * @return The service
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public DocumentIndexService getIndexService (String name) {
+		return getCollection (name, true).indexService;
+	}
+	
+	/**
+	 * Get the service of indexes in a collection
+	 * @param name The name of the collection, or NULL for the default collection
+	 * @param create Whether to create the service if the collection does not exist, e.g. to create an index
+	 * @return The service
+	 * @throws CollectionNotFoundException If the collection does not exist and the service is not created
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public DocumentIndexService getIndexService (String name, boolean create) throws CollectionNotFoundException {
+		return getExistingCollection (name, create).indexService;
+	}
+	
+	/**
+	 * Get the names of all collections with documents or indexes
+	 * @return The names in alphabetical order
+	 */
+	public Set <String> getCollectionNames () {
+		return repositoryFactory.findCollectionNames();
+	}
+	
+	/**
+	 * Drop a collection with all its documents and indexes, at once instead of deleting each document
+	 * 
+	 * @param name The name of the collection
+	 * @throws CollectionNotFoundException If the collection does not exist
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public void dropCollection (String name) throws CollectionNotFoundException {
+		
+		checkName (name);
+		
+		Collection collection = (name.equals(defaultName) ? defaultCollection : collections.remove(name));
+		if (collection != null && collection != defaultCollection)
+			closeCollection (collection);
+		
+		if (!repositoryFactory.dropCollection(name))
+			throw new CollectionNotFoundException ();
+		
+		if (collection != null)
+			collection.cache.invalidateAll();
+	}
+	
+	/*
+	 * Get the services of a collection, which must exist unless they are created
+	 */
+	private Collection getExistingCollection (String name, boolean create) throws CollectionNotFoundException {
+		
+		Collection collection = getCollection (name, create);
+		if (collection == null)
+			throw new CollectionNotFoundException ();
+		
+		return collection;
+	}
+	
+	/*
+	 * Get the services of a collection, created on first use, 
+	 * or NULL if the collection does not exist and they are not created
+	 */
+	private Collection getCollection (String name, boolean create) {
+		
+		if (name == null || name.equals(defaultName))
+			return defaultCollection;
+		
+		checkName (name);
+		
+		long now = System.nanoTime();
+		
+		// Used recently, so it is not closed as idle for a while yet, without locking
+		Collection collection = collections.get(name);
+		if (collection != null && now - collection.lastUsed < idleNanos / 2)
+			return collection;
+		
+		if (collection == null && !create && !repositoryFactory.collectionExists(name))
+			return null;
+		
+		// Marked used atomically with closing it as idle, so it is not closed once returned
+		boolean [] created = new boolean [1];
+		collection = collections.compute(name, (key, current) -> {
+			Collection used = current;
+			if (used == null) {
+				used = createCollection (key);
+				created[0] = true;
+			}
+			used.lastUsed = now;
+			return used;
+		});
+		
+		if (created[0])
+			closeIdleCollections (now);
+		
+		return collection;
+	}
+	
+	/*
+	 * Close the services of the collections not used for the idle time, unless an index is being built
+	 */
+	private void closeIdleCollections (long now) {
+		
+		for (String name : collections.keySet()) {
+			
+			Collection [] idle = new Collection [1];
+			collections.computeIfPresent(name, (key, collection) -> {
+				if (now - collection.lastUsed < idleNanos || collection.indexService.isBuilding())
+					return collection;
+				
+				idle[0] = collection;
+				return null;
+			});
+			
+			if (idle[0] != null)
+				closeCollection (idle[0]);
+		}
+	}
+	
+	/*
+	 * Create the services of a collection
+	 */
+	private Collection createCollection (String name) {
+		
+		DocRepository repository = repositoryFactory.getRepository(name);
+		
+		String prefix = "docservice.collections." + name + ".cache.";
+		DocumentCache cache = DocumentCacheConfig.newDocumentCache(
+				env.getProperty(prefix + "max-entries", Long.class, 
+						env.getProperty("docservice.cache.max-entries", Long.class, 0L)),
+				env.getProperty(prefix + "max-bytes", Long.class, 
+						env.getProperty("docservice.cache.max-bytes", Long.class, 67108864L)),
+				env.getProperty(prefix + "ttl-seconds", Long.class, 
+						env.getProperty("docservice.cache.ttl-seconds", Long.class, 0L)));
+		
+		BatchingDocumentInserter inserter = null;
+		int maxBatchSize = env.getProperty("docservice.insert-batch.max-size", Integer.class, 0);
+		if (maxBatchSize > 0)
+			inserter = new BatchingDocumentInserter (repository, consistency, maxBatchSize, 
+					env.getProperty("docservice.insert-batch.max-delay-ms", Long.class, 2L), 
+					env.getProperty("docservice.insert-batch.queue-capacity", Integer.class, 10000));
+		
+		DocumentService documentService = new DocumentService (repository, cache, inserter);
+		documentService.setConsistency(consistency);
+		
+		return new Collection (documentService, new DocumentIndexService (repository), cache, inserter);
+	}
+	
+	/*
+	 * Stop the services of a collection
+	 */
+	private static void closeCollection (Collection collection) {
+		collection.indexService.close();
+		if (collection.inserter != null)
+			collection.inserter.close();
+	}
+	
+	/*
+	 * Check the name of a collection is valid
+	 */
+	private static void checkName (String name) {
+		if (name == null || !COLLECTION_NAME.matcher(name).matches() || RESERVED_NAMES.contains(name))
+			throw new IllegalArgumentException("Invalid collection name: " + name);
+	}
+}
@@ -0,0 +1,40 @@
+package docservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import repository.DocumentConsistency;
+
+/**
+ *
+ * Configuration of the {@link DocumentConsistency} of reads and writes of documents, with properties:
+ *
+ *  - docservice.read-preference : read preference of reading documents (not aggregations or counts),
+ *                                 one of primary (default), primaryPreferred, secondary,
+ *                                 secondaryPreferred or nearest
+ *  - docservice.write-concern   : write concern of all writes of documents, one of unacknowledged,
+ *                                 w1, majority or journaled, empty for the one of the connection (default)
+ *
+ * Reads from secondaries may return documents older than the latest writes,
+ * and unacknowledged writes are not known to succeed, so an update or delete of
+ * a document not found is not reported.
+ *
+ * The template of Mongodb resolves its write concern by the bean (see {@link repository.MongoRepositoryConfig}).
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class DocumentConsistencyConfig {
+
+	@Bean
+	public DocumentConsistency documentConsistency (
+			@Value("${docservice.read-preference:primary}") String readPreference,
+			@Value("${docservice.write-concern:}") String writeConcern) {
+
+		return new DocumentConsistency (
+				DocumentConsistency.parseReadPreference(readPreference),
+				DocumentConsistency.parseWriteConcern(writeConcern));
+	}
+}
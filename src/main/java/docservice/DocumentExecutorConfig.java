@@ -0,0 +1,56 @@
+package docservice;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import repository.DocumentConsistency;
+
+/**
+ * 
+ * Configuration of the executor running the operations of {@link AsyncDocumentService}, 
+ * with properties:
+ * 
+ *  - docservice.async.threads        : number of threads (default 16)
+ *  - docservice.async.queue-capacity : maximum number of operations waiting for a thread, 
+ *                                      beyond which operations are rejected (default 10000)
+ *  
+ * Each operation runs with the read preference and write concern of the thread submitting it
+ * (see {@link DocumentConsistency#propagate(Runnable)}), e.g. those of the headers of its request.
+ *  
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class DocumentExecutorConfig {
+
+	/**
+	 * Name of the executor bean
+	 */
+	public static final String EXECUTOR = "documentServiceExecutor";
+	
+	@Bean (name = EXECUTOR)
+	public Executor documentServiceExecutor (
+			@Value("${docservice.async.threads:16}") int threads,
+			@Value("${docservice.async.queue-capacity:10000}") int queueCapacity,
+			DocumentConsistency consistency) {
+		
+		// AsyncDocumentService submits the operations by execute
+		@SuppressWarnings("serial")
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor () {
+			@Override
+			public void execute (Runnable task) {
+				super.execute(consistency.propagate(task));
+			}
+		};
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("docservice-");
+		
+		return executor;
+	}
+}
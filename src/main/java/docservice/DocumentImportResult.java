@@ -0,0 +1,35 @@
+package docservice;
+
+/**
+ * Result of importing one document by {@link DocumentService#importDocuments(java.util.List)},
+ * either the ID of the document inserted or the reason of failure
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentImportResult {
+
+	private String id;
+
+	private String error;
+
+	/**
+	 * Construct a result
+	 * @param id The ID of the document inserted, or NULL if failed
+	 * @param error The reason of failure, or NULL if inserted
+	 */
+	public DocumentImportResult (String id, String error) {
+		this.id = id;
+		this.error = error;
+	}
+
+	/**
+	 * Get the ID of the document inserted, or NULL if failed
+	 */
+	public String getId () { return id; }
+
+	/**
+	 * Get the reason of failure, or NULL if inserted
+	 */
+	public String getError () { return error; }
+}
@@ -0,0 +1,175 @@
+package docservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import repository.DocRepository;
+import repository.DocumentIndex;
+import repository.FieldProjection;
+import repository.IndexBuildProgress;
+
+/**
+ * 
+ * Service to manage the secondary indexes on fields of the raw documents.
+ * 
+ * Indexes are built in the background by the database, one at a time, so that 
+ * reads and writes of documents go on while building. The state of each build
+ * started since the service is up is kept, with the progress reported by the database.
+ *    
+ * @author goldyliang@gmail.com
+ *
+ */
+@Service
+public class DocumentIndexService {
+
+	private DocRepository docRepository;
+	
+	private ExecutorService builder;
+	
+	private Map <String, IndexBuild> builds = new ConcurrentHashMap <String, IndexBuild> ();
+	
+	@Autowired
+	public DocumentIndexService (DocRepository docRepository) {
+		this.docRepository = docRepository;
+		
+		this.builder = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread (task, "docservice-index-build");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Stop building indexes not yet started
+	 */
+	@PreDestroy
+	public void close () {
+		builder.shutdownNow();
+	}
+	
+	/**
+	 * Get all secondary indexes of the documents, including those being built
+	 * @return The list of indexes, the index of ID not included
+	 */
+	public List <DocumentIndex> getIndexes () {
+		return docRepository.findIndexes();
+	}
+	
+	/**
+	 * Start building an index. The index is built in the background, and the state
+	 * of the build can be got by {@link #getIndexBuilds()}.
+	 * 
+	 * @param index The index to create. If the name is not given, it is generated from the fields
+	 *              in the same way as Mongodb, e.g. "document.author.name_1_document.pages_-1"
+	 * @return The name of the index
+	 * @throws IllegalArgumentException If the fields are not valid, or an index of the name is being built
+	 */
+	public String createIndex (DocumentIndex index) {
+		
+		if (index.getFields() == null || index.getFields().isEmpty())
+			throw new IllegalArgumentException("No fields of index");
+		
+		// Check the paths early, rather than failing the build
+		List <String> paths = new ArrayList <String> ();
+		StringBuilder name = new StringBuilder ();
+		for (String field : index.getFields()) {
+			boolean descending = field.startsWith("-");
+			String path = (descending ? field.substring(1) : field);
+			paths.add(path);
+			
+			if (name.length() > 0) name.append('_');
+			name.append("document.").append(path).append(descending ? "_-1" : "_1");
+		}
+		new FieldProjection (paths, false);
+		
+		if (index.getTtlSeconds() != null && (index.getTtlSeconds() < 0 || paths.size() != 1))
+			throw new IllegalArgumentException("TTL requires an index on a single field and no negative time");
+		
+		if (index.getName() == null || index.getName().isEmpty())
+			index.setName(name.toString());
+		
+		// Installed atomically, so a build of the name ending meanwhile is not brought back as running
+		IndexBuild build = new IndexBuild (index.getName(), IndexBuild.State.RUNNING, null, 0, 0);
+		IndexBuild current = builds.compute(index.getName(), (key, previous) -> 
+				previous != null && previous.getState() == IndexBuild.State.RUNNING ? previous : build);
+		if (current != build)
+			throw new IllegalArgumentException("Index is being built: " + index.getName());
+		
+		builder.execute(() -> {
+			try {
+				docRepository.createIndex(index);
+				builds.replace(index.getName(), build, 
+						new IndexBuild (index.getName(), IndexBuild.State.DONE, null, 0, 0));
+			} catch (RuntimeException e) {
+				builds.replace(index.getName(), build, 
+						new IndexBuild (index.getName(), IndexBuild.State.FAILED, e.getMessage(), 0, 0));
+			}
+		});
+		
+		return index.getName();
+	}
+	
+	/**
+	 * Drop an index. An index being built is dropped as well, which fails the build.
+	 * @param name The name of the index
+	 * @throws IndexNotFoundException If the index does not exist
+	 */
+	public void dropIndex (String name) throws IndexNotFoundException {
+		
+		if (!docRepository.dropIndex(name))
+			throw new IndexNotFoundException ();
+		
+		IndexBuild build = builds.get(name);
+		if (build != null && build.getState() != IndexBuild.State.RUNNING)
+			builds.remove(name, build);
+	}
+	
+	/*
+	 * Check whether an index is being built, or waiting to be built
+	 */
+	boolean isBuilding () {
+		for (IndexBuild build : builds.values())
+			if (build.getState() == IndexBuild.State.RUNNING)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Get the state of the index builds started since the service is up, 
+	 * with the progress of those running as reported by the database.
+	 * 
+	 * Only the last build of each index name is kept, until the index is dropped.
+	 * 
+	 * @return The list of builds
+	 */
+	public List <IndexBuild> getIndexBuilds () {
+		
+		Map <String, IndexBuildProgress> progresses = null;
+		
+		List <IndexBuild> result = new ArrayList <IndexBuild> ();
+		for (IndexBuild build : builds.values()) {
+			if (build.getState() == IndexBuild.State.RUNNING) {
+				if (progresses == null)
+					progresses = docRepository.findIndexBuilds();
+				
+				// Not in progress if still waiting for the previous build
+				IndexBuildProgress progress = progresses.get(build.getName());
+				if (progress != null)
+					build = new IndexBuild (build.getName(), build.getState(), null, 
+							progress.getDone(), progress.getTotal());
+			}
+			result.add(build);
+		}
+		
+		return result;
+	}
+}
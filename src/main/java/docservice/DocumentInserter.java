@@ -0,0 +1,26 @@
+package docservice;
+
+import java.util.concurrent.CompletableFuture;
+
+import repository.StoredDocument;
+
+/**
+ * 
+ * Inserter of single documents into the repository, used by {@link DocumentService}.
+ * 
+ * Implementations shall be thread-safe.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public interface DocumentInserter {
+
+	/**
+	 * Insert a document, and auto-generate its ID
+	 * 
+	 * @param doc The document to insert, with null ID
+	 * @return The future completed with the inserted document with its ID set, 
+	 *         or completed exceptionally if the insert fails
+	 */
+	CompletableFuture <StoredDocument> insert (StoredDocument doc);
+}
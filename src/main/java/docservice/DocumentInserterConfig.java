@@ -0,0 +1,43 @@
+package docservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import repository.DocRepository;
+import repository.DocumentConsistency;
+
+/**
+ * 
+ * Configuration of the {@link DocumentInserter} used by {@link DocumentService}, with properties:
+ * 
+ *  - docservice.insert-batch.max-size       : maximum number of documents in one batch insert,
+ *                                             0 to insert each document on its own (default),
+ *                                             in which case there is no inserter
+ *  - docservice.insert-batch.max-delay-ms   : maximum time in milliseconds a document waits 
+ *                                             for more documents of its batch (default 2)
+ *  - docservice.insert-batch.queue-capacity : maximum number of documents waiting to be inserted,
+ *                                             beyond which inserts are rejected (default 10000)
+ *  
+ * Batching is disabled by default, as each insert then waits for up to max-delay-ms, 
+ * which only pays off with many concurrent inserts.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class DocumentInserterConfig {
+
+	@Bean
+	@ConditionalOnExpression ("${docservice.insert-batch.max-size:0} > 0")
+	public DocumentInserter documentInserter (
+			DocRepository docRepository,
+			DocumentConsistency consistency,
+			@Value("${docservice.insert-batch.max-size}") int maxBatchSize,
+			@Value("${docservice.insert-batch.max-delay-ms:2}") long maxDelayMillis,
+			@Value("${docservice.insert-batch.queue-capacity:10000}") int queueCapacity) {
+		
+		return new BatchingDocumentInserter (docRepository, consistency, maxBatchSize, maxDelayMillis, queueCapacity);
+	}
+}
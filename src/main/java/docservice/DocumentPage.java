@@ -0,0 +1,53 @@
+package docservice;
+
+import java.util.List;
+
+import repository.StoredDocument;
+
+/**
+ * One page of documents returned by keyset pagination, with the token to retrieve the next page.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentPage {
+
+	private List <StoredDocument> documents;
+	
+	private String next;
+	
+	/**
+	 * Default constructor
+	 */
+	public DocumentPage () {}
+	
+	/**
+	 * Construct a page
+	 * @param documents The documents in this page
+	 * @param next The opaque token of the next page, or null if this is the last page
+	 */
+	public DocumentPage (List <StoredDocument> documents, String next) {
+		this.documents = documents;
+		this.next = next;
+	}
+	
+	/**
+	 * Get the documents in this page
+	 */
+	public List <StoredDocument> getDocuments () { return documents; }
+	
+	/**
+	 * Set the documents in this page
+	 */
+	public void setDocuments (List <StoredDocument> documents) { this.documents = documents; }
+	
+	/**
+	 * Get the token of the next page, or null if this is the last page
+	 */
+	public String getNext () { return next; }
+	
+	/**
+	 * Set the token of the next page
+	 */
+	public void setNext (String next) { this.next = next; }
+}
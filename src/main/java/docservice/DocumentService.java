@@ -1,12 +1,29 @@
 package docservice;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
 import org.springframework.ui.ModelMap;
 
 import repository.DocRepository;
+import repository.DocumentConsistency;
+import repository.DocumentQuery;
+import repository.FieldProjection;
 import repository.StoredDocument;
 
 /**
@@ -16,6 +33,7 @@ import repository.StoredDocument;
  * Each document to be stored is composed with:
  *  - A field name "id" (String, auto-generated)
  *  - Raw document named "document".
+ *  - A version, which is changed on every insert and update of the document.
  *
  * The raw document can be in arbitrary scheme, represented by the map class of {@link ModelMap}
  * Fields in raw document can be embedded with sub-documents.
@@ -26,27 +44,208 @@ import repository.StoredDocument;
  @Service 
  public class DocumentService {
 
+	/**
+	 * The maximum number of documents in one page of {@link #getDocumentsPage(String, int)}
+	 */
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * The maximum number of threads of an export
+	 */
+	public static final int MAX_EXPORT_PARALLELISM = 64;
+	
 	private DocRepository docRepository;
 	
-	@Autowired
+	private DocumentCache docCache;
+	
+	private DocumentInserter docInserter;
+	
+	private CoalescingLoader docLoader;
+	
+	private DocumentConsistency consistency = new DocumentConsistency ();
+	
+	/**
+	 * Construct the service without caching documents
+	 * @param docRep The repository of documents
+	 */
 	public DocumentService (DocRepository docRep) {
+		this (docRep, new NoDocumentCache ());
+	}
+	
+	/**
+	 * Construct the service, which inserts each document on its own
+	 * @param docRep The repository of documents
+	 * @param docCache The cache of documents read by {@link #getDocumentById(String)}
+	 */
+	@Autowired (required = false)
+	public DocumentService (DocRepository docRep, DocumentCache docCache) {
+		this (docRep, docCache, null);
+	}
+	
+	/**
+	 * Construct the service, which inserts documents with an inserter if it is configured 
+	 * (see {@link DocumentInserterConfig})
+	 * @param docRep The repository of documents
+	 * @param docCache The cache of documents read by {@link #getDocumentById(String)}
+	 * @param docInserter The inserter of documents by {@link #insertDocument(ModelMap)}, 
+	 *                    or NULL to insert each document on its own
+	 */
+	@Autowired (required = false)
+	public DocumentService (DocRepository docRep, DocumentCache docCache, DocumentInserter docInserter) {
 		this.docRepository = docRep;
+		this.docCache = docCache;
+		this.docInserter = docInserter;
+		this.docLoader = new CoalescingLoader (id -> docRepository.findOne(id));
+	}
+	
+	/**
+	 * Set the consistency of the repository, whose override of the calling thread
+	 * also applies to the threads reading an export (see {@link DocumentConsistencyConfig})
+	 * @param consistency The consistency
+	 */
+	@Autowired
+	public void setConsistency (DocumentConsistency consistency) {
+		this.consistency = consistency;
 	}
 	
 	/**
 	 * Insert a raw document in the repository, and auto-generate an ID
+	 * 
+	 * The document gets a new ID, so there is nothing to invalidate in the cache.
+	 * 
+	 * If a {@link DocumentInserter} is configured, the document is inserted by it, possibly in a batch 
+	 * together with documents inserted by other threads, and this method returns after 
+	 * the document is inserted.
+	 * 
 	 * @param doc The raw document provided in the form of <String, Object> map.
 	 *            Embedded documents are supported.
 	 * @return The auto-generated document ID in String. Or NULL if doc == NULl
+	 * @throws java.util.concurrent.RejectedExecutionException If the inserter can not take more documents
 	 */
 	public String insertDocument (ModelMap doc) {
 		
 		if (doc == null) return null;
 		
     	StoredDocument myDoc = new StoredDocument (doc);
+    	myDoc.setVersion(StoredDocument.newVersion());
     	
-    	StoredDocument newDoc =  docRepository.insert(myDoc);
-    	return newDoc.getId();
+    	if (docInserter == null)
+    		return docRepository.insert(myDoc).getId();
+    	
+    	try {
+    		return docInserter.insert(myDoc).join().getId();
+    	} catch (CompletionException e) {
+    		// Throw the exception of the insert as if it was done here
+    		if (e.getCause() instanceof RuntimeException)
+    			throw (RuntimeException) e.getCause();
+    		throw e;
+    	}
+	}
+	
+	/**
+	 * Insert a list of raw documents in the repository with one ordered batch write,
+	 * and auto-generate their IDs
+	 * 
+	 * @see #insertDocuments(List, boolean)
+	 */
+	public List <String> insertDocuments (List <ModelMap> docs) {
+		return insertDocuments (docs, true);
+	}
+	
+	/**
+	 * Insert a list of raw documents in the repository with one batch write, 
+	 * and auto-generate their IDs
+	 * 
+	 * @param docs The raw documents, each provided in the form of <String, Object> map.
+	 * @param ordered If true, the insert stops at the first failed document; 
+	 *                otherwise the rest of documents are still inserted if any fails.
+	 * @return The auto-generated document IDs in String, in the same order as docs. 
+	 *         Or NULL if docs == NULL
+	 * @throws IllegalArgumentException If any of the documents is NULL
+	 */
+	public List <String> insertDocuments (List <ModelMap> docs, boolean ordered) {
+		
+		if (docs == null) return null;
+		
+		List <StoredDocument> myDocs = new ArrayList <StoredDocument> (docs.size());
+		
+		for (ModelMap doc : docs) {
+			if (doc == null)
+				throw new IllegalArgumentException("Null document in batch");
+			
+			StoredDocument myDoc = new StoredDocument (doc);
+			myDoc.setVersion(StoredDocument.newVersion());
+			myDocs.add(myDoc);
+		}
+		
+		List <String> ids = new ArrayList <String> (myDocs.size());
+		
+		if (myDocs.isEmpty()) return ids;
+		
+		for (StoredDocument newDoc : docRepository.insertBatch(myDocs, ordered))
+			ids.add(newDoc.getId());
+		
+		return ids;
+	}
+	
+	/**
+	 * Insert a batch of raw documents of an import, with one unordered batch write, 
+	 * and report the result of each document.
+	 * 
+	 * IDs are assigned before the write. If the batch write fails, the documents are inserted 
+	 * one by one, so that only the failed documents are reported as failed. A document failing
+	 * on a duplicate key is found by its ID from the primary: it was inserted by the batch if found, 
+	 * otherwise it is rejected by a unique index and reported as failed.
+	 * 
+	 * @param docs The raw documents, each provided in the form of <String, Object> map.
+	 * @return The result of each document, in the same order as docs
+	 * @throws DataAccessResourceFailureException If the database can not be reached
+	 */
+	public List <DocumentImportResult> importDocuments (List <ModelMap> docs) {
+		
+		List <StoredDocument> myDocs = new ArrayList <StoredDocument> (docs.size());
+		
+		for (ModelMap doc : docs) {
+			StoredDocument myDoc = new StoredDocument (doc);
+			myDoc.setId(ObjectId.get().toHexString());
+			myDoc.setVersion(StoredDocument.newVersion());
+			myDocs.add(myDoc);
+		}
+		
+		List <DocumentImportResult> results = new ArrayList <DocumentImportResult> (myDocs.size());
+		
+		try {
+			if (!myDocs.isEmpty())
+				docRepository.insertBatch(myDocs, false);
+			
+			for (StoredDocument myDoc : myDocs)
+				results.add(new DocumentImportResult (myDoc.getId(), null));
+			
+			return results;
+		} catch (DataAccessResourceFailureException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			// Find out which documents failed
+		}
+		
+		for (StoredDocument myDoc : myDocs) {
+			try {
+				docRepository.insertBatch(Collections.singletonList(myDoc), true);
+				results.add(new DocumentImportResult (myDoc.getId(), null));
+			} catch (DuplicateKeyException e) {
+				// Inserted by the batch write, unless a unique index rejects it
+				if (consistency.readPrimary(() -> docRepository.findVersion(myDoc.getId())) != null)
+					results.add(new DocumentImportResult (myDoc.getId(), null));
+				else
+					results.add(new DocumentImportResult (null, e.getMessage()));
+			} catch (DataAccessResourceFailureException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				results.add(new DocumentImportResult (null, e.getMessage()));
+			}
+		}
+		
+		return results;
 	}
 	
 	/**
@@ -58,14 +257,81 @@ import repository.StoredDocument;
 	 */
 	public void updateDocument (String id, ModelMap doc) throws DocumentNotFoundException {
 		
-		if (docRepository.findOne(id) == null)
-			throw new DocumentNotFoundException();
-		
     	StoredDocument myDoc = new StoredDocument (doc);
 
     	myDoc.setId(id);
+    	myDoc.setVersion(StoredDocument.newVersion());
     	
-		docRepository.save (myDoc);
+    	// Replace in one round trip, and tell whether it is found from the matched count
+		if (!docRepository.replace (myDoc))
+			throw new DocumentNotFoundException();
+		
+		// Invalidate after the write, so any load from now on gets the new content
+		invalidate (id);
+	}
+	
+	/**
+	 * Update part of an existing document with a JSON Merge Patch (RFC 7386)
+	 * 
+	 * The patch is translated to one atomic update of the changed fields, 
+	 * without reading or rewriting the whole document:
+	 *  - A field with null value is removed.
+	 *  - A field with an object value is merged into the field recursively.
+	 *  - A field with any other value (including arrays) replaces the field.
+	 * 
+	 * Unlike RFC 7386, an object value is merged into a field which is not an object 
+	 * (which is then rejected by the repository), and an empty object value changes nothing.
+	 * 
+	 * @param id The ID of the document which is to be updated
+	 * @param patch The merge patch
+	 * @throws DocumentNotFoundException  if the document with id is not found.
+	 * @throws IllegalArgumentException If a field name in the patch can not be used as a path, 
+	 *         which is empty, contains '.' or starts with '$'
+	 */
+	public void patchDocument (String id, Map <String, Object> patch) throws DocumentNotFoundException {
+		
+		Map <String, Object> set = new LinkedHashMap <String, Object> ();
+		List <String> unset = new ArrayList <String> ();
+		
+		flattenMergePatch ("", patch, set, unset);
+		
+		if (!docRepository.update(id, set, unset, StoredDocument.newVersion()))
+			throw new DocumentNotFoundException();
+		
+		invalidate (id);
+	}
+	
+	/*
+	 * Flatten a merge patch to the values to set and the fields to remove, by dotted paths
+	 */
+	@SuppressWarnings("unchecked")
+	private static void flattenMergePatch (String prefix, Map <String, Object> patch, 
+			Map <String, Object> set, List <String> unset) {
+		
+		for (Map.Entry <String, Object> field : patch.entrySet()) {
+			
+			String name = field.getKey();
+			if (name.isEmpty() || name.contains(".") || name.startsWith("$"))
+				throw new IllegalArgumentException("Invalid field name in patch: " + name);
+			
+			String path = prefix + name;
+			Object value = field.getValue();
+			
+			if (value == null)
+				unset.add(path);
+			else if (value instanceof Map)
+				flattenMergePatch (path + ".", (Map <String, Object>) value, set, unset);
+			else
+				set.put(path, value);
+		}
+	}
+	
+	/*
+	 * Invalidate a document after it is written, in the cache and for the reads in flight
+	 */
+	private void invalidate (String id) {
+		docLoader.forget(id);
+		docCache.invalidate(id);
 	}
 	
 	/**
@@ -76,10 +342,82 @@ import repository.StoredDocument;
 	 */
 	public void deleteDocument (String id)  throws DocumentNotFoundException {
 		
-		if (docRepository.findOne(id) == null)
+		if (!docRepository.remove(id))
+			throw new DocumentNotFoundException();
+		
+		invalidate (id);
+	}
+	
+	/**
+	 * Insert a raw document provided in JSON, and auto-generate an ID
+	 * 
+	 * The JSON is converted directly to BSON and stored, without being mapped to {@link ModelMap}.
+	 * 
+	 * @param json The raw document in JSON, which shall be a JSON object
+	 * @return The auto-generated document ID in String
+	 * @throws IOException If the JSON is not valid or can not be read
+	 */
+	public String insertRawDocument (InputStream json) throws IOException {
+		return docRepository.insertRaw(json, StoredDocument.newVersion());
+	}
+	
+	/**
+	 * Update an existing document provided a specific id, with a raw document provided in JSON
+	 * 
+	 * The JSON is converted directly to BSON and stored, without being mapped to {@link ModelMap}.
+	 * 
+	 * @param id The ID of the document which is to be updated
+	 * @param json The raw document in JSON, which shall be a JSON object
+	 * @throws DocumentNotFoundException  if the document with id is not found.
+	 * @throws IOException If the JSON is not valid or can not be read
+	 */
+	public void updateRawDocument (String id, InputStream json) 
+			throws DocumentNotFoundException, IOException {
+		
+		if (!docRepository.replaceRaw(id, json, StoredDocument.newVersion()))
+			throw new DocumentNotFoundException();
+		
+		invalidate (id);
+	}
+	
+	/**
+	 * Get a document with a specific ID, and write it as JSON to the output.
+	 * 
+	 * The JSON is converted directly from the BSON read from the repository, 
+	 * without building {@link StoredDocument}, and the document cache is not used.
+	 * 
+	 * @param id The Id of the document to be retrieved
+	 * @param json The output to write the JSON to, which is not written if the document is not found
+	 * @throws DocumentNotFoundException If the document is not found
+	 * @throws IOException If writing the output fails
+	 */
+	public void writeRawDocumentById (String id, OutputStream json) 
+			throws DocumentNotFoundException, IOException {
+		
+		if (!docRepository.writeRaw(id, json))
 			throw new DocumentNotFoundException();
+	}
+	
+	/**
+	 * Export all documents as NDJSON, one document per line in the same form as
+	 * {@link #writeRawDocumentById(String, OutputStream)}, in no particular order.
+	 * 
+	 * The IDs are split into ranges which are read in parallel, and the documents are converted
+	 * directly from BSON to JSON, so the time is bound by the database and the output rather than
+	 * by one cursor. Documents inserted or deleted during the export may or may not be included.
+	 * 
+	 * @param out The output to write to, not closed
+	 * @param parallelism The number of threads reading the documents
+	 * @param gzip Whether to compress the output by gzip
+	 * @return The number of documents exported
+	 * @throws IOException If writing the output fails
+	 */
+	public long exportDocuments (OutputStream out, int parallelism, boolean gzip) throws IOException {
 		
-    	docRepository.delete(id);
+		if (parallelism <= 0 || parallelism > MAX_EXPORT_PARALLELISM)
+			throw new IllegalArgumentException ("Parallelism must be between 1 and " + MAX_EXPORT_PARALLELISM);
+		
+		return new ParallelExport (docRepository, consistency, parallelism, gzip).run(out);
 	}
 	
 	/**
@@ -95,19 +433,217 @@ import repository.StoredDocument;
 		return listDocs;
 	}
 	
+	/**
+	 * Get all documents with only the fields of the raw documents in a projection.
+	 * 
+	 * The projection is applied by the database, so the other fields are never read or transferred.
+	 * 
+	 * @param fields The fields of the raw documents to return or exclude, 
+	 *               or NULL to return the whole raw documents
+	 * @return The list of documents, wrapped with the projected raw documents and their IDs
+	 */
+	public List <StoredDocument> getAllDocuments (FieldProjection fields) {
+		
+		if (fields == null) return getAllDocuments ();
+		
+		return docRepository.findAllProjected(fields);
+	}
+	
+	/**
+	 * Get all documents as an iterator over a database cursor.
+	 * 
+	 * Unlike {@link #getAllDocuments()}, the documents are fetched from the repository
+	 * while iterating, so the memory used does not grow with the number of documents.
+	 * 
+	 * The caller must close the iterator after use.
+	 * 
+	 * @return The iterator of documents, wrapped with the raw documents and their IDs
+	 */
+	public CloseableIterator <StoredDocument> streamAllDocuments () {
+		
+		return docRepository.streamAll();
+	}
+	
+	/**
+	 * Find documents matching a query, as an iterator over a database cursor.
+	 * 
+	 * The filter, sort, limit and projection are all applied by the database, so only
+	 * the matching documents are read, with indexes if they exist.
+	 * 
+	 * The caller must close the iterator after use.
+	 * 
+	 * @param query The query of documents, see {@link DocumentQuery} for the supported filters
+	 * @return The iterator of matching documents, wrapped with the raw documents and their IDs
+	 * @throws IllegalArgumentException If the query is not valid
+	 */
+	public CloseableIterator <StoredDocument> searchDocuments (DocumentQuery query) {
+		
+		return docRepository.search(query);
+	}
+	
+	/**
+	 * Aggregate the documents by the database, returning only the results
+	 * 
+	 * @param pipeline The restricted pipeline of stages, see {@link DocRepository#aggregate(List)}
+	 * @return The list of results
+	 * @throws IllegalArgumentException If the pipeline is not valid or not supported
+	 */
+	public List <Map <String, Object>> aggregateDocuments (List <Map <String, Object>> pipeline) {
+		
+		return docRepository.aggregate(pipeline);
+	}
+	
+	/**
+	 * Count the documents matching a filter, by the database
+	 * 
+	 * @param filter The filter in the form of {@link DocumentQuery#getFilter()}, or NULL for all documents
+	 * @param estimated If true, count all documents from the metadata of the collection, 
+	 *                  which is fast but may be inaccurate. Only without filter.
+	 * @return The number of documents
+	 * @throws IllegalArgumentException If the filter is not valid, or given with estimated count
+	 */
+	public long countDocuments (Map <String, Object> filter, boolean estimated) {
+		
+		return docRepository.count(filter, estimated);
+	}
+	
+	/**
+	 * Explain how the database runs a query of documents, without reading the documents
+	 * 
+	 * @param query The query of documents, as to {@link #searchDocuments(DocumentQuery)}
+	 * @return The explanation, with the names of the indexes used as "indexes" (empty 
+	 *         if the collection is scanned), and the query plan of the database as "plan"
+	 * @throws IllegalArgumentException If the query is not valid
+	 */
+	public Map <String, Object> explainSearch (DocumentQuery query) {
+		
+		return docRepository.explain(query);
+	}
+	
+	/**
+	 * Get one page of documents with keyset pagination.
+	 * 
+	 * Documents are returned in ascending order of ID. The page is located by a range query 
+	 * on the ID rather than skipping documents, so every page costs the same no matter how deep it is.
+	 * 
+	 * @param after The opaque token returned as next of the previous page, 
+	 *              or NULL to get the first page
+	 * @param limit The maximum number of documents in the page, from 1 to {@link #MAX_PAGE_SIZE}
+	 * @return The page of documents, with the token of the next page or NULL if it is the last page
+	 * @throws IllegalArgumentException If the token is not valid or the limit is out of range
+	 */
+	public DocumentPage getDocumentsPage (String after, int limit) {
+		
+		if (limit < 1 || limit > MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("Page limit out of range: " + limit);
+		
+		String afterId = (after == null ? null : decodePageToken(after));
+		
+		// Ask for one more document to know whether there is a next page
+		List <StoredDocument> docs = docRepository.findAfter(afterId, limit + 1);
+		
+		String next = null;
+		if (docs.size() > limit) {
+			docs = docs.subList(0, limit);
+			next = encodePageToken(docs.get(limit - 1).getId());
+		}
+		
+		return new DocumentPage (docs, next);
+	}
+	
+	/*
+	 * Encode a document ID to an opaque page token
+	 */
+	private static String encodePageToken (String id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(
+				id.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/*
+	 * Decode a page token to the document ID
+	 */
+	private static String decodePageToken (String token) {
+		
+		String id = new String (Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		
+		if (id.isEmpty())
+			throw new IllegalArgumentException("Invalid page token");
+		
+		return id;
+	}
+	
 	/**
 	 * Get a document with a specific ID.
 	 * 
+	 * The document is read through the document cache, if it is enabled.
+	 * Concurrent reads of the same document missing the cache share one read from the repository,
+	 * and all get its document or all get not found.
+	 * 
 	 * @param id The Id of the document to be retrieved
 	 * @return The document object wrapped with the ID and the raw document.
 	 * @throws DocumentNotFoundException If the document is not found
 	 */
 	public StoredDocument getDocumentById (String id) throws DocumentNotFoundException {
-		StoredDocument doc = docRepository.findOne (id);
+		StoredDocument doc = docCache.get (id, docLoader);
 		
 		if (doc == null) 
 			throw new DocumentNotFoundException();
 		else
 			return doc;
 	}
+	
+	/**
+	 * Get a document with a specific ID, with only the fields of the raw document in a projection.
+	 * 
+	 * The projection is applied by the database. The document cache holds whole documents only, 
+	 * so a projected document is always read from the repository.
+	 * 
+	 * @param id The Id of the document to be retrieved
+	 * @param fields The fields of the raw document to return or exclude, 
+	 *               or NULL to return the whole raw document
+	 * @return The document object wrapped with the ID and the projected raw document.
+	 * @throws DocumentNotFoundException If the document is not found
+	 */
+	public StoredDocument getDocumentById (String id, FieldProjection fields) 
+			throws DocumentNotFoundException {
+		
+		if (fields == null) return getDocumentById (id);
+		
+		StoredDocument doc = docRepository.findOneProjected(id, fields);
+		
+		if (doc == null) 
+			throw new DocumentNotFoundException();
+		else
+			return doc;
+	}
+	
+	/**
+	 * Get the version of a document with a specific ID, which is changed on every write of the document.
+	 * 
+	 * The version is taken from the document cache if the document is cached, 
+	 * otherwise only the version is read from the repository, without the raw document.
+	 * 
+	 * @param id The Id of the document
+	 * @return The version, or NULL if the document is stored without a version
+	 * @throws DocumentNotFoundException If the document is not found
+	 */
+	public String getDocumentVersion (String id) throws DocumentNotFoundException {
+		
+		StoredDocument doc = docCache.getIfPresent(id);
+		
+		if (doc == null)
+			doc = docRepository.findVersion(id);
+		
+		if (doc == null) 
+			throw new DocumentNotFoundException();
+		else
+			return doc.getVersion();
+	}
+	
+	/**
+	 * Get the statistics of the document cache
+	 */
+	public DocumentCacheStats getCacheStats () {
+		return docCache.getStats();
+	}
 }
@@ -0,0 +1,66 @@
+package docservice;
+
+/**
+ * State of an index build started by {@link DocumentIndexService}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class IndexBuild {
+
+	/**
+	 * States of a build
+	 */
+	public enum State { RUNNING, DONE, FAILED }
+	
+	private String name;
+	
+	private State state;
+	
+	private String error;
+	
+	private long done;
+	
+	private long total;
+	
+	/**
+	 * Construct the state of a build
+	 * @param name The name of the index
+	 * @param state The state of the build
+	 * @param error The reason of failure, or NULL if not failed
+	 * @param done The number of documents indexed, if known
+	 * @param total The total number of documents to index, if known
+	 */
+	public IndexBuild (String name, State state, String error, long done, long total) {
+		this.name = name;
+		this.state = state;
+		this.error = error;
+		this.done = done;
+		this.total = total;
+	}
+	
+	/**
+	 * Get the name of the index
+	 */
+	public String getName () { return name; }
+	
+	/**
+	 * Get the state of the build
+	 */
+	public State getState () { return state; }
+	
+	/**
+	 * Get the reason of failure, or NULL if not failed
+	 */
+	public String getError () { return error; }
+	
+	/**
+	 * Get the number of documents indexed, 0 if not reported by the database
+	 */
+	public long getDone () { return done; }
+	
+	/**
+	 * Get the total number of documents to index, 0 if not reported by the database
+	 */
+	public long getTotal () { return total; }
+}
@@ -0,0 +1,17 @@
+package docservice;
+
+/** 
+ * Exception class indicating an index of documents can not be found
+ * @author goldyliang@gmail.com
+ *
+ */
+public class IndexNotFoundException extends Exception 
+{
+
+	/*
+	 * Nothing special to do here
+	 */
+	private static final long serialVersionUID = 4817232740163591264L;
+	
+	
+}
@@ -0,0 +1,43 @@
+package docservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import repository.StoredDocument;
+
+/**
+ * {@link DocumentCache} which caches nothing, and loads every document from the repository.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class NoDocumentCache implements DocumentCache {
+
+	private AtomicLong missCount = new AtomicLong ();
+	
+	@Override
+	public StoredDocument get (String id, Function <String, StoredDocument> loader) {
+		missCount.incrementAndGet();
+		return loader.apply(id);
+	}
+	
+	@Override
+	public StoredDocument getIfPresent (String id) {
+		return null;
+	}
+	
+	@Override
+	public void invalidate (String id) {
+		// Nothing cached
+	}
+	
+	@Override
+	public void invalidateAll () {
+		// Nothing cached
+	}
+	
+	@Override
+	public DocumentCacheStats getStats () {
+		return new DocumentCacheStats (0, missCount.get(), 0, 0, 0);
+	}
+}
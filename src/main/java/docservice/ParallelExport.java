@@ -0,0 +1,254 @@
+package docservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import repository.DocRepository;
+import repository.DocumentConsistency;
+import repository.IdRange;
+
+/**
+ * Export of all documents as NDJSON, read in parallel by ranges of IDs.
+ *
+ * The IDs are split into more ranges than threads, so that a thread finishing a small range
+ * takes another rather than idling while others read large ones. Each range is read by one task
+ * in a fork-join pool, which writes its documents into chunks of whole lines. The chunks are
+ * passed through a bounded queue to the caller thread, which writes them to the output in the order
+ * they are ready, so documents of different ranges are interleaved by chunks.
+ *
+ * The queue holds at most two chunks per thread, so the memory used does not grow with the number of
+ * documents, and the tasks wait for the output if it is slower than reading.
+ *
+ * The tasks read with the read preference of the caller thread (see {@link DocumentConsistency#propagate(Runnable)}).
+ *
+ * With gzip, each chunk is compressed by its task as a separate gzip member. Concatenated members
+ * are a valid gzip stream, so compressing also runs in parallel. An export without any document
+ * is one empty gzip member, as an empty output is not a valid gzip stream.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+class ParallelExport {
+
+	/**
+	 * The number of ranges of IDs for each thread
+	 */
+	static final int RANGES_PER_THREAD = 4;
+
+	/**
+	 * The size of a chunk of lines before compressing
+	 */
+	static final int CHUNK_BYTES = 256 * 1024;
+
+	// Sent by each task when it ends, whether it completes or fails
+	private static final byte [] END = new byte [0];
+
+	private static final byte [] EMPTY_GZIP = emptyGzip ();
+
+	private final DocRepository docRepository;
+
+	private final DocumentConsistency consistency;
+
+	private final int parallelism;
+
+	private final boolean gzip;
+
+	private final BlockingQueue <byte []> chunks;
+
+	private final AtomicLong count = new AtomicLong ();
+
+	private final AtomicReference <Throwable> failure = new AtomicReference <Throwable> ();
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Construct an export
+	 * @param docRepository The repository to read the documents from
+	 * @param consistency The consistency of the repository, whose override of the caller thread the tasks use
+	 * @param parallelism The number of threads reading the documents
+	 * @param gzip Whether to compress the output by gzip
+	 */
+	ParallelExport (DocRepository docRepository, DocumentConsistency consistency, int parallelism, boolean gzip) {
+		this.docRepository = docRepository;
+		this.consistency = consistency;
+		this.parallelism = parallelism;
+		this.gzip = gzip;
+		this.chunks = new ArrayBlockingQueue <byte []> (parallelism * 2);
+	}
+
+	/**
+	 * Export the documents
+	 * @param out The output to write to, not closed
+	 * @return The number of documents exported
+	 * @throws IOException If writing the output fails
+	 */
+	long run (OutputStream out) throws IOException {
+
+		List <IdRange> ranges = docRepository.splitIdRanges(parallelism * RANGES_PER_THREAD);
+
+		ForkJoinPool pool = new ForkJoinPool (parallelism);
+		boolean written = false;
+
+		try {
+			for (IdRange range : ranges)
+				pool.execute(consistency.propagate(() -> exportRange (range)));
+
+			int running = ranges.size();
+
+			// Keep taking the chunks until all tasks end, even after a failure, so that no task waits forever
+			while (running > 0) {
+				byte [] chunk = chunks.take();
+
+				if (chunk == END) {
+					running--;
+				} else if (!cancelled) {
+					try {
+						out.write(chunk);
+						written = true;
+					} catch (IOException | RuntimeException e) {
+						fail (e);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			cancelled = true;
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException ("Export interrupted");
+		} finally {
+			pool.shutdownNow();
+		}
+
+		Throwable e = failure.get();
+		if (e instanceof IOException) throw (IOException) e;
+		if (e instanceof RuntimeException) throw (RuntimeException) e;
+		if (e != null) throw new IllegalStateException (e);
+
+		if (gzip && !written)
+			out.write(EMPTY_GZIP);
+
+		out.flush();
+		return count.get();
+	}
+
+	/*
+	 * Export the documents of a range, in a task of the pool
+	 */
+	private void exportRange (IdRange range) {
+		try {
+			if (!cancelled) {
+				ChunkOutput chunkOut = new ChunkOutput ();
+				count.addAndGet(docRepository.writeRawRange(range, chunkOut));
+				chunkOut.send(chunkOut.size);
+			}
+		} catch (Throwable e) {
+			fail (e);
+		} finally {
+			try {
+				chunks.put(END);
+			} catch (InterruptedException e) {
+				// The pool is shut down as the caller has stopped taking chunks
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Compress nothing into a gzip member
+	 */
+	private static byte [] emptyGzip () {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream ();
+		try {
+			new GZIPOutputStream (compressed).close();
+		} catch (IOException e) {
+			throw new UncheckedIOException (e);
+		}
+		return compressed.toByteArray();
+	}
+
+	private void fail (Throwable e) {
+		failure.compareAndSet(null, e);
+		cancelled = true;
+	}
+
+	/*
+	 * Output of a task, which sends the lines written as chunks ending at a line break.
+	 * JSON written by RawDocumentCodec has no raw line break inside a document, as line breaks
+	 * in strings are escaped, so any '\n' ends a document.
+	 */
+	private class ChunkOutput extends OutputStream {
+
+		private byte [] buffer = new byte [CHUNK_BYTES + 8192];
+
+		private int size;
+
+		@Override
+		public void write (int b) throws IOException {
+			ensure (1);
+			buffer[size++] = (byte) b;
+			if (b == '\n' && size >= CHUNK_BYTES)
+				send (size);
+		}
+
+		@Override
+		public void write (byte [] b, int off, int len) throws IOException {
+			ensure (len);
+			System.arraycopy(b, off, buffer, size, len);
+			size += len;
+
+			if (size >= CHUNK_BYTES) {
+				int end = size;
+				while (end > 0 && buffer[end - 1] != '\n') end--;
+				if (end > 0) send (end);
+			}
+		}
+
+		private void ensure (int len) {
+			if (size + len > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + len));
+		}
+
+		/*
+		 * Send the first bytes of the buffer as a chunk, and keep the rest
+		 */
+		void send (int end) throws IOException {
+
+			if (cancelled)
+				throw new IOException ("Export cancelled");
+
+			if (end == 0) return;
+
+			byte [] chunk;
+			if (gzip) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream (end / 4);
+				try (GZIPOutputStream gzipOut = new GZIPOutputStream (compressed, 64 * 1024)) {
+					gzipOut.write(buffer, 0, end);
+				}
+				chunk = compressed.toByteArray();
+			} else {
+				chunk = Arrays.copyOf(buffer, end);
+			}
+
+			System.arraycopy(buffer, end, buffer, 0, size - end);
+			size -= end;
+
+			try {
+				chunks.put(chunk);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException ("Export cancelled");
+			}
+		}
+	}
+}
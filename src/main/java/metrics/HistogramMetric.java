@@ -0,0 +1,39 @@
+package metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Distribution of recorded values (latencies, sizes), backed by HdrHistogram.
+ * 
+ * Recording is lock-free and does not allocate, so it can be done on every request.
+ * Values are kept with 3 significant digits, and the range grows as needed.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class HistogramMetric {
+
+	private Recorder recorder = new Recorder (3);
+	
+	// Accumulated values of all intervals, guarded by this
+	private Histogram total = new Histogram (3);
+	
+	private Histogram interval;
+	
+	/**
+	 * Record a value. Negative values are recorded as 0.
+	 */
+	public void record (long value) {
+		recorder.recordValue(Math.max(0, value));
+	}
+	
+	/**
+	 * Get a copy of the distribution of all values recorded so far
+	 */
+	public synchronized Histogram snapshot () {
+		interval = recorder.getIntervalHistogram(interval);
+		total.add(interval);
+		return total.copy();
+	}
+}
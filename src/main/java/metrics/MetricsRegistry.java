@@ -0,0 +1,202 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.stereotype.Component;
+
+/**
+ * 
+ * Registry of the metrics of the service, exported in Prometheus text format.
+ * 
+ * Two kinds of metrics are supported, each identified by a name and a set of labels:
+ *  - counters, exported as Prometheus counters
+ *  - histograms, exported as Prometheus summaries with quantiles 0.5, 0.99, 0.999,
+ *    and a gauge of the maximum named with suffix "_max"
+ *  
+ * Histogram values are recorded as integers (e.g. nanoseconds), and exported multiplied by 
+ * the scale of the metric (e.g. 1e-9 to export seconds).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+public class MetricsRegistry {
+
+	private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+	
+	/*
+	 * Labels of a metric as names and values in turn, compared by the values in the array,
+	 * so looking up a metric does not format its labels
+	 */
+	private static class Labels {
+		final String[] values;
+		final int hash;
+		String formatted;
+		
+		Labels (String[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+		
+		@Override
+		public int hashCode () {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals (Object other) {
+			return other instanceof Labels && Arrays.equals(values, ((Labels) other).values);
+		}
+	}
+	
+	/*
+	 * Metrics of the same name, with different labels
+	 */
+	private static class Family <T> {
+		String help;
+		double scale;
+		ConcurrentMap <Labels, T> metrics = new ConcurrentHashMap <Labels, T> ();
+		
+		Family (String help, double scale) {
+			this.help = help;
+			this.scale = scale;
+		}
+		
+		T get (String[] labels, Supplier <T> factory) {
+			T metric = metrics.get(new Labels (labels));
+			if (metric != null)
+				return metric;
+			
+			// Formatted once when registered, from a copy the caller can not change
+			Labels key = new Labels (labels.clone());
+			key.formatted = formatLabels (key.values);
+			return metrics.computeIfAbsent(key, k -> factory.get());
+		}
+	}
+	
+	private ConcurrentMap <String, Family <LongAdder>> counters = 
+			new ConcurrentHashMap <String, Family <LongAdder>> ();
+	
+	private ConcurrentMap <String, Family <HistogramMetric>> histograms = 
+			new ConcurrentHashMap <String, Family <HistogramMetric>> ();
+	
+	/**
+	 * Get a counter, registered on first use
+	 * 
+	 * @param name The name of the counter
+	 * @param help The description of the counter
+	 * @param labels The labels of the counter, as names and values in turn
+	 * @return The counter
+	 */
+	public LongAdder counter (String name, String help, String... labels) {
+		return counters.computeIfAbsent(name, n -> new Family <LongAdder> (help, 1))
+				.get(labels, LongAdder::new);
+	}
+	
+	/**
+	 * Get a histogram, registered on first use
+	 * 
+	 * @param name The name of the histogram
+	 * @param help The description of the histogram
+	 * @param scale The factor to multiply the recorded values by when exported
+	 * @param labels The labels of the histogram, as names and values in turn
+	 * @return The histogram
+	 */
+	public HistogramMetric histogram (String name, String help, double scale, String... labels) {
+		return histograms.computeIfAbsent(name, n -> new Family <HistogramMetric> (help, scale))
+				.get(labels, HistogramMetric::new);
+	}
+	
+	/**
+	 * Write all metrics in Prometheus text format (version 0.0.4)
+	 * 
+	 * @param out The writer to write to
+	 * @throws IOException If writing fails
+	 */
+	public void writePrometheus (Writer out) throws IOException {
+		
+		for (Map.Entry <String, Family <LongAdder>> family : counters.entrySet()) {
+			String name = family.getKey();
+			
+			writeHeader (out, name, family.getValue().help, "counter");
+			
+			for (Map.Entry <Labels, LongAdder> metric : family.getValue().metrics.entrySet())
+				writeSample (out, name, metric.getKey().formatted, null, metric.getValue().sum());
+		}
+		
+		for (Map.Entry <String, Family <HistogramMetric>> family : histograms.entrySet()) {
+			String name = family.getKey();
+			double scale = family.getValue().scale;
+			
+			StringBuilder max = new StringBuilder ();
+			
+			writeHeader (out, name, family.getValue().help, "summary");
+			
+			for (Map.Entry <Labels, HistogramMetric> metric : family.getValue().metrics.entrySet()) {
+				String labels = metric.getKey().formatted;
+				Histogram histogram = metric.getValue().snapshot();
+				
+				for (double quantile : QUANTILES)
+					writeSample (out, name, labels, "quantile=\"" + quantile + "\"", 
+							histogram.getValueAtPercentile(quantile * 100) * scale);
+				
+				writeSample (out, name + "_sum", labels, null, 
+						histogram.getMean() * histogram.getTotalCount() * scale);
+				writeSample (out, name + "_count", labels, null, histogram.getTotalCount());
+				
+				writeSample (max, name + "_max", labels, null, histogram.getMaxValue() * scale);
+			}
+			
+			writeHeader (out, name + "_max", "Maximum of " + name, "gauge");
+			out.append(max);
+		}
+	}
+	
+	private static void writeHeader (Appendable out, String name, String help, String type) 
+			throws IOException {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void writeSample (Appendable out, String name, String labels, 
+			String extraLabel, double value) throws IOException {
+		
+		out.append(name);
+		
+		if (!labels.isEmpty() || extraLabel != null) {
+			out.append('{').append(labels);
+			if (extraLabel != null)
+				out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+			out.append('}');
+		}
+		
+		out.append(' ').append(Double.toString(value)).append('\n');
+	}
+	
+	/*
+	 * Format labels provided as names and values in turn, e.g. name1="value1",name2="value2"
+	 */
+	private static String formatLabels (String[] labels) {
+		
+		StringBuilder result = new StringBuilder ();
+		
+		for (int i = 0; i + 1 < labels.length; i += 2) {
+			if (i > 0)
+				result.append(',');
+			
+			result.append(labels[i]).append("=\"")
+			      .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+			      .append('"');
+		}
+		
+		return result.toString();
+	}
+}
@@ -0,0 +1,69 @@
+package metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import repository.DocRepository;
+
+/**
+ * 
+ * Wrap the {@link DocRepository} bean, to record the latency and errors of each call 
+ * from the service to the repository, labeled by the repository method:
+ * 
+ *  - repository_operation_seconds{operation}
+ *  - repository_errors_total{operation,exception}
+ *  
+ * For methods returning a cursor (e.g. streamAll), only opening the cursor is timed.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+	private MetricsRegistry metrics;
+	
+	@Autowired
+	public RepositoryMetricsPostProcessor (MetricsRegistry metrics) {
+		this.metrics = metrics;
+	}
+	
+	@Override
+	public Object postProcessBeforeInitialization (Object bean, String beanName) throws BeansException {
+		return bean;
+	}
+	
+	@Override
+	public Object postProcessAfterInitialization (Object bean, String beanName) throws BeansException {
+		
+		if (!(bean instanceof DocRepository))
+			return bean;
+		
+		return Proxy.newProxyInstance(DocRepository.class.getClassLoader(), 
+				new Class <?> [] {DocRepository.class}, 
+				(proxy, method, args) -> {
+					
+					if (method.getDeclaringClass() == Object.class)
+						return method.invoke(bean, args);
+					
+					long start = System.nanoTime();
+					try {
+						return method.invoke(bean, args);
+					} catch (InvocationTargetException e) {
+						metrics.counter("repository_errors_total", "Errors of repository operations", 
+								"operation", method.getName(), 
+								"exception", e.getCause().getClass().getSimpleName()).increment();
+						throw e.getCause();
+					} finally {
+						metrics.histogram("repository_operation_seconds", 
+								"Latency of repository operations", 1e-9, 
+								"operation", method.getName()).record(System.nanoTime() - start);
+					}
+				});
+	}
+}
@@ -9,12 +9,22 @@ import org.springframework.stereotype.Repository;
  * 
  * Each document is represented by {@link StoredDocument}, with id and raw document contents.
  * 
+ * Operations not provided by {@link MongoRepository} are declared in {@link DocRepositoryCustom}
+ * 
  * A concrete object is to be instanced by the framework and wired to proper service bean(s)
  * 
  * @author goldyliang@gmail.com
  *
  */
 @Repository
-public interface DocRepository extends MongoRepository < StoredDocument, String> {
-	// Nothing special to do here
+public interface DocRepository extends MongoRepository < StoredDocument, String>, DocRepositoryCustom {
+	
+	/**
+	 * Find a document by ID, implemented by {@link DocRepositoryImpl#findOne(String)} 
+	 * with the read preference of {@link DocumentConsistency}.
+	 * 
+	 * Declared here as it is declared by both {@link MongoRepository} and {@link DocRepositoryCustom}.
+	 */
+	@Override
+	StoredDocument findOne (String id);
 }
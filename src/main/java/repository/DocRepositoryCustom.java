@@ -0,0 +1,284 @@
+package repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ * 
+ * Custom operations on the document repository which are not provided by 
+ * {@link org.springframework.data.mongodb.repository.MongoRepository}
+ * 
+ * The implementation is provided by {@link DocRepositoryImpl}, and is merged into 
+ * {@link DocRepository} by the framework.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public interface DocRepositoryCustom {
+
+	/**
+	 * Find a document by ID, with the read preference of {@link DocumentConsistency}.
+	 *
+	 * This takes the place of the method of {@link org.springframework.data.repository.CrudRepository},
+	 * which always reads with the read preference of the template.
+	 *
+	 * @param id The ID of the document
+	 * @return The document, or NULL if it is not found
+	 */
+	StoredDocument findOne (String id);
+
+	/**
+	 * Find all documents, with the read preference of {@link DocumentConsistency}.
+	 *
+	 * @return The list of all documents
+	 * @see #findOne(String)
+	 */
+	List <StoredDocument> findAll ();
+
+	/**
+	 * Iterate all documents through a database cursor, without loading all of them into memory.
+	 * 
+	 * The iterator must be closed after use, to release the underlying cursor.
+	 * 
+	 * @return The iterator of all documents
+	 */
+	CloseableIterator <StoredDocument> streamAll ();
+	
+	/**
+	 * Find documents in ascending order of ID, starting after a specific ID.
+	 * 
+	 * This is a range query on the ID, so the cost does not depend on how many 
+	 * documents are before afterId.
+	 * 
+	 * @param afterId Only documents with ID greater than afterId are returned. 
+	 *                Start from the first document if NULL
+	 * @param limit The maximum number of documents to return
+	 * @return The list of documents found, in ascending order of ID
+	 */
+	List <StoredDocument> findAfter (String afterId, int limit);
+	
+	/**
+	 * Find a document by ID, reading only the fields of the raw document in a projection.
+	 * 
+	 * The projection is applied by the database, so the other fields are never transferred.
+	 * The ID and the version of the document are always read.
+	 * 
+	 * @param id The ID of the document
+	 * @param fields The fields of the raw document to return or exclude
+	 * @return The document with the projected raw content, or NULL if it is not found
+	 */
+	StoredDocument findOneProjected (String id, FieldProjection fields);
+	
+	/**
+	 * Find all documents, reading only the fields of the raw documents in a projection.
+	 * 
+	 * @param fields The fields of the raw documents to return or exclude
+	 * @return The list of documents with the projected raw contents
+	 * @see #findOneProjected(String, FieldProjection)
+	 */
+	List <StoredDocument> findAllProjected (FieldProjection fields);
+	
+	/**
+	 * Split the IDs of all documents into ranges, to read the documents by ranges in parallel.
+	 * 
+	 * ObjectIds are split into ranges of equal time between the earliest and the latest 
+	 * timestamps of the ObjectIds, and the IDs which are not ObjectIds are in one more range.
+	 * Documents inserted later than the split may be beyond the ranges.
+	 * 
+	 * @param count The number of ranges of ObjectIds, fewer if the timestamps span fewer seconds
+	 * @return The ranges, together covering all documents when split
+	 */
+	List <IdRange> splitIdRanges (int count);
+	
+	/**
+	 * Read the documents with IDs in a range through a database cursor, with the read preference 
+	 * of {@link DocumentConsistency}, and write each as one line of JSON converted directly from BSON 
+	 * by {@link RawDocumentCodec}, in the same form as {@link #writeRaw(String, OutputStream)}.
+	 * 
+	 * @param range The range of IDs
+	 * @param ndjson The output to write the documents to, each followed by '\n'
+	 * @return The number of documents written
+	 * @throws IOException If writing the output fails
+	 */
+	long writeRawRange (IdRange range, OutputStream ndjson) throws IOException;
+	
+	/**
+	 * Find documents matching a query, through a database cursor.
+	 * 
+	 * The filter, sort, limit and projection are all applied by the database, so only
+	 * the matching documents are transferred, and indexes are used if they exist.
+	 * 
+	 * The iterator must be closed after use, to release the underlying cursor.
+	 * 
+	 * @param query The query of documents
+	 * @return The iterator of matching documents
+	 * @throws IllegalArgumentException If the query is not valid
+	 */
+	CloseableIterator <StoredDocument> search (DocumentQuery query);
+	
+	/**
+	 * Explain how the database runs a query, including whether an index is used, 
+	 * without returning the documents.
+	 * 
+	 * @param query The query of documents
+	 * @return The explanation, with the names of the indexes used as "indexes" 
+	 *         and the plan reported by the database as "plan"
+	 * @throws IllegalArgumentException If the query is not valid
+	 */
+	Map <String, Object> explain (DocumentQuery query);
+	
+	/**
+	 * Run an aggregation of the documents by the database, with a restricted pipeline of stages 
+	 * in the form of the Mongodb aggregation pipeline on the raw documents:
+	 * 
+	 *  - { "$match" : filter }, with a filter in the form of {@link DocumentQuery#getFilter()}
+	 *  - { "$group" : { "_id" : null | "$path" | { name : "$path", ... }, 
+	 *                   name : { "$sum" | "$avg" | "$min" | "$max" : number | "$path" }, ... } }
+	 *  - { "$count" : name }
+	 *  - { "$sort" : { path : 1 | -1, ... } }
+	 *  - { "$limit" : number }
+	 *  
+	 * Paths are dotted paths into the raw documents before the first $group or $count,
+	 * and names of the grouped results after it. There must be at least one $group or $count,
+	 * so that only the results are returned rather than the documents.
+	 * 
+	 * @param pipeline The list of stages
+	 * @return The list of results
+	 * @throws IllegalArgumentException If the pipeline is not valid or not supported
+	 */
+	List <Map <String, Object>> aggregate (List <Map <String, Object>> pipeline);
+	
+	/**
+	 * Count the documents matching a filter
+	 * 
+	 * @param filter The filter in the form of {@link DocumentQuery#getFilter()}, or NULL for all documents
+	 * @param estimated If true, count all documents from the metadata of the collection
+	 *                  without reading any document or index, which may be off after
+	 *                  an unclean shutdown or with sharding. Only without filter.
+	 * @return The number of documents
+	 * @throws IllegalArgumentException If the filter is not valid, or given with estimated count
+	 */
+	long count (Map <String, Object> filter, boolean estimated);
+	
+	/**
+	 * Find the secondary indexes on fields of the raw documents, not including the index of IDs
+	 * 
+	 * @return The list of indexes
+	 */
+	List <DocumentIndex> findIndexes ();
+	
+	/**
+	 * Create a secondary index on fields of the raw documents, built in the background 
+	 * by the database without blocking other operations.
+	 * 
+	 * This method returns when the index is built.
+	 * 
+	 * @param index The index, with a name set
+	 * @throws IllegalArgumentException If the index is not valid, or can not be built with the documents
+	 */
+	void createIndex (DocumentIndex index);
+	
+	/**
+	 * Drop a secondary index
+	 * 
+	 * @param name The name of the index
+	 * @return true if the index is found and dropped, false if it is not found
+	 */
+	boolean dropIndex (String name);
+	
+	/**
+	 * Find the progress of the indexes being built by the database
+	 * 
+	 * @return The progress by the names of the indexes
+	 */
+	Map <String, IndexBuildProgress> findIndexBuilds ();
+	
+	/**
+	 * Insert a batch of documents in one write to the database, and set their auto-generated IDs.
+	 * 
+	 * @param docs The documents to insert, with null IDs
+	 * @param ordered If true, stop at the first failed document; 
+	 *                otherwise continue inserting the rest of documents if any fails
+	 * @return The documents inserted (the same list as docs), with their IDs set
+	 */
+	List <StoredDocument> insertBatch (List <StoredDocument> docs, boolean ordered);
+	
+	/**
+	 * Find the version of a document by ID, without reading the raw content.
+	 * 
+	 * @param id The ID of the document
+	 * @return The document with the ID and version only, or NULL if it is not found
+	 */
+	StoredDocument findVersion (String id);
+	
+	/**
+	 * Replace the raw content and the version of an existing document, 
+	 * with one conditional update on the ID.
+	 * 
+	 * @param doc The document with the ID to match, and the new raw content and version
+	 * @return true if the document is found and replaced, false if it is not found
+	 */
+	boolean replace (StoredDocument doc);
+	
+	/**
+	 * Update fields of the raw content of an existing document, and replace its version,
+	 * with one atomic conditional update on the ID, without reading the document.
+	 * 
+	 * @param id The ID of the document to update
+	 * @param set The values to set, by dotted paths into the raw content
+	 * @param unset The dotted paths into the raw content of the fields to remove
+	 * @param version The new version of the document
+	 * @return true if the document is found and updated, false if it is not found
+	 */
+	boolean update (String id, Map <String, Object> set, Collection <String> unset, String version);
+	
+	/**
+	 * Delete an existing document, with one conditional delete on the ID.
+	 * 
+	 * @param id The ID of the document to delete
+	 * @return true if the document is found and deleted, false if it is not found
+	 */
+	boolean remove (String id);
+	
+	/**
+	 * Insert a raw document provided in JSON, converted directly to BSON 
+	 * by {@link RawDocumentCodec} without mapping it to {@link StoredDocument}.
+	 * 
+	 * @param json The raw document in JSON
+	 * @param version The version of the document
+	 * @return The auto-generated document ID
+	 * @throws IOException If the JSON is not valid or can not be read
+	 */
+	String insertRaw (InputStream json, String version) throws IOException;
+	
+	/**
+	 * Replace the raw content of an existing document with a raw document provided in JSON, 
+	 * converted directly to BSON by {@link RawDocumentCodec}, with one conditional update on the ID.
+	 * 
+	 * @param id The ID of the document to replace
+	 * @param json The raw document in JSON
+	 * @param version The new version of the document
+	 * @return true if the document is found and replaced, false if it is not found
+	 * @throws IOException If the JSON is not valid or can not be read
+	 */
+	boolean replaceRaw (String id, InputStream json, String version) throws IOException;
+	
+	/**
+	 * Find a document and write it as JSON converted directly from BSON by {@link RawDocumentCodec},
+	 * in the same form as {@link StoredDocument}.
+	 * 
+	 * Nothing is written if the document is not found.
+	 * 
+	 * @param id The ID of the document
+	 * @param json The output to write the document to
+	 * @return true if the document is found and written, false if it is not found
+	 * @throws IOException If writing the output fails
+	 */
+	boolean writeRaw (String id, OutputStream json) throws IOException;
+}
@@ -0,0 +1,54 @@
+package repository;
+
+import java.util.Set;
+
+/**
+ * 
+ * Factory of {@link DocRepository} for collections other than the default one of {@link StoredDocument}, 
+ * so that documents of different tenants are kept in their own collections with their own indexes.
+ * 
+ * Implemented by {@link MongoDocRepositoryFactory}, or by {@link InMemoryDocRepositoryFactory} 
+ * with the profile "memory", or by {@link LogDocRepositoryFactory} with the profile "embedded".
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public interface DocRepositoryFactory {
+
+	/**
+	 * Get the name of the default collection, used by the {@link DocRepository} bean
+	 */
+	String getDefaultCollectionName ();
+	
+	/**
+	 * Create a repository of the documents in a collection. 
+	 * The collection is created on the first write.
+	 * 
+	 * @param collectionName The name of the collection
+	 * @return The repository
+	 */
+	DocRepository getRepository (String collectionName);
+	
+	/**
+	 * Find the names of the collections of documents, not including the system collections
+	 * 
+	 * @return The names in alphabetical order
+	 */
+	Set <String> findCollectionNames ();
+	
+	/**
+	 * Check whether a collection exists, i.e. is among {@link #findCollectionNames()}
+	 * 
+	 * @param collectionName The name of the collection
+	 * @return True if the collection exists
+	 */
+	boolean collectionExists (String collectionName);
+	
+	/**
+	 * Drop a collection with all documents and indexes
+	 * 
+	 * @param collectionName The name of the collection
+	 * @return False if the collection does not exist
+	 */
+	boolean dropCollection (String collectionName);
+}
@@ -0,0 +1,981 @@
+package repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Field;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.InsertOptions;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBDecoder;
+import com.mongodb.LazyDBEncoder;
+import com.mongodb.LazyDBObject;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+
+/**
+ * 
+ * Implementation of {@link DocRepositoryCustom} with {@link MongoOperations}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocRepositoryImpl implements DocRepositoryCustom {
+
+	// The operators supported, the same by InMemoryDocuments
+	static final Set <String> LOGICAL_OPERATORS = 
+			new HashSet <String> (Arrays.asList("$and", "$or", "$nor"));
+	
+	static final Set <String> COMPARISON_OPERATORS = 
+			new HashSet <String> (Arrays.asList("$eq", "$ne", "$gt", "$gte", "$lt", "$lte"));
+	
+	static final Set <String> ACCUMULATORS = 
+			new HashSet <String> (Arrays.asList("$sum", "$avg", "$min", "$max"));
+	
+	private static final String ID_INDEX = "_id_";
+	
+	// Comparisons in Mongodb match values of the same type only, so {$gte: MIN_OBJECT_ID} matches all ObjectIds
+	private static final ObjectId MIN_OBJECT_ID = new ObjectId ("000000000000000000000000");
+	
+	private MongoOperations mongoOps;
+	
+	private String collectionName;
+	
+	private DocumentConsistency consistency;
+	
+	/**
+	 * Construct the repository of documents in the collection of {@link StoredDocument},
+	 * with the defaults of the driver for read preference and write concern
+	 * @param mongoOps The operations on Mongodb
+	 */
+	public DocRepositoryImpl (MongoOperations mongoOps) {
+		this (mongoOps, new DocumentConsistency ());
+	}
+	
+	/**
+	 * Construct the repository of documents in the collection of {@link StoredDocument}
+	 * @param mongoOps The operations on Mongodb
+	 * @param consistency The read preference and write concern
+	 */
+	@Autowired
+	public DocRepositoryImpl (MongoOperations mongoOps, DocumentConsistency consistency) {
+		this (mongoOps, mongoOps.getCollectionName(StoredDocument.class), consistency);
+	}
+	
+	/**
+	 * Construct the repository of documents in a collection
+	 * @param mongoOps The operations on Mongodb
+	 * @param collectionName The name of the collection
+	 * @param consistency The read preference and write concern
+	 */
+	public DocRepositoryImpl (MongoOperations mongoOps, String collectionName, DocumentConsistency consistency) {
+		this.mongoOps = mongoOps;
+		this.collectionName = collectionName;
+		this.consistency = consistency;
+	}
+	
+	@Override
+	public StoredDocument findOne (String id) {
+		return findOneProjected (id, null);
+	}
+	
+	@Override
+	public List <StoredDocument> findAll () {
+		return findAllProjected (null);
+	}
+	
+	@Override
+	public CloseableIterator <StoredDocument> streamAll () {
+		return stream (new Query());
+	}
+	
+	@Override
+	public List <StoredDocument> findAfter (String afterId, int limit) {
+		
+		DBObject filter = new BasicDBObject ();
+		
+		if (afterId != null)
+			filter.put("_id", new BasicDBObject ("$gt", toMongoId(afterId)));
+		
+		Query query = new BasicQuery (filter).with(new Sort(Sort.Direction.ASC, "_id")).limit(limit);
+		
+		return readAll (query);
+	}
+	
+	@Override
+	public StoredDocument findOneProjected (String id, FieldProjection fields) {
+		
+		DBObject fieldsObject = project(new Query(), fields).getFieldsObject();
+		
+		// Read through the driver, as MongoOperations only reads with the read preference of the template
+		DBObject dbObject = mongoOps.execute(getCollectionName(), 
+				collection -> collection.findOne(new BasicDBObject("_id", toMongoId(id)), 
+						fieldsObject, consistency.getReadPreference()));
+		
+		return dbObject == null ? null : mongoOps.getConverter().read(StoredDocument.class, dbObject);
+	}
+	
+	@Override
+	public List <StoredDocument> findAllProjected (FieldProjection fields) {
+		
+		return readAll (project(new Query(), fields));
+	}
+	
+	@Override
+	public CloseableIterator <StoredDocument> search (DocumentQuery query) {
+		return stream (toMongoQuery (query));
+	}
+	
+	@Override
+	public Map <String, Object> explain (DocumentQuery query) {
+		
+		Query mongoQuery = toMongoQuery (query);
+		
+		DBObject plan = mongoOps.execute(getCollectionName(), 
+				collection -> openCursor (collection, mongoQuery).explain());
+		
+		Set <String> indexes = new LinkedHashSet <String> ();
+		findIndexNames (plan, indexes);
+		
+		Map <String, Object> explanation = new LinkedHashMap <String, Object> ();
+		explanation.put("indexes", indexes);
+		explanation.put("plan", plan);
+		return explanation;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List <Map <String, Object>> aggregate (List <Map <String, Object>> pipeline) {
+		
+		List <DBObject> mongoPipeline = new ArrayList <DBObject> ();
+		
+		// Paths refer to the raw documents until grouped
+		String prefix = "document.";
+		
+		for (Map <String, Object> stage : pipeline) {
+			if (stage == null || stage.size() != 1)
+				throw new IllegalArgumentException("A stage requires exactly one operator: " + stage);
+			
+			String op = stage.keySet().iterator().next();
+			Object value = stage.get(op);
+			
+			switch (op) {
+			case "$match":
+				if (!(value instanceof Map))
+					throw new IllegalArgumentException("$match requires a filter");
+				mongoPipeline.add(new BasicDBObject (op, toMongoFilter ((Map <String, Object>) value, prefix)));
+				break;
+				
+			case "$group":
+				if (!(value instanceof Map) || !((Map <?, ?>) value).containsKey("_id"))
+					throw new IllegalArgumentException("$group requires an object with _id");
+				mongoPipeline.add(new BasicDBObject (op, toMongoGroup ((Map <String, Object>) value, prefix)));
+				prefix = "";
+				break;
+				
+			case "$count":
+				// As a group of all, since $count is not supported before Mongodb 3.4
+				if (!(value instanceof String) || ((String) value).isEmpty() 
+						|| ((String) value).contains(".") || ((String) value).startsWith("$") 
+						|| value.equals("_id"))
+					throw new IllegalArgumentException("$count requires a field name");
+				mongoPipeline.add(new BasicDBObject ("$group", new BasicDBObject ("_id", null)
+						.append((String) value, new BasicDBObject ("$sum", 1))));
+				mongoPipeline.add(new BasicDBObject ("$project", new BasicDBObject ("_id", 0)
+						.append((String) value, 1)));
+				prefix = "";
+				break;
+				
+			case "$sort":
+				if (!(value instanceof Map) || ((Map <?, ?>) value).isEmpty())
+					throw new IllegalArgumentException("$sort requires an object of paths");
+				DBObject sort = new BasicDBObject ();
+				for (Map.Entry <String, Object> field : ((Map <String, Object>) value).entrySet()) {
+					FieldProjection.checkPath(field.getKey());
+					if (!(field.getValue() instanceof Number) || Math.abs(((Number) field.getValue()).intValue()) != 1)
+						throw new IllegalArgumentException("$sort of " + field.getKey() + " requires 1 or -1");
+					sort.put(prefix + field.getKey(), ((Number) field.getValue()).intValue());
+				}
+				mongoPipeline.add(new BasicDBObject (op, sort));
+				break;
+				
+			case "$limit":
+				if (!(value instanceof Integer || value instanceof Long) || ((Number) value).longValue() <= 0)
+					throw new IllegalArgumentException("$limit requires a positive integer");
+				mongoPipeline.add(new BasicDBObject (op, value));
+				break;
+				
+			default:
+				throw new IllegalArgumentException("Unsupported stage: " + op);
+			}
+		}
+		
+		if (!prefix.isEmpty())
+			throw new IllegalArgumentException("A pipeline requires $group or $count, use _search to find documents");
+		
+		// Results are returned with a cursor, so not limited to the size of one document
+		AggregationOptions options = AggregationOptions.builder()
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+		
+		return mongoOps.execute(getCollectionName(), collection -> {
+			List <Map <String, Object>> results = new ArrayList <Map <String, Object>> ();
+			try (Cursor cursor = collection.aggregate(mongoPipeline, options)) {
+				while (cursor.hasNext())
+					results.add(cursor.next().toMap());
+			}
+			return results;
+		});
+	}
+	
+	@Override
+	public long count (Map <String, Object> filter, boolean estimated) {
+		
+		if (estimated) {
+			if (filter != null && !filter.isEmpty())
+				throw new IllegalArgumentException("Estimated count is only of all documents");
+			
+			// Without a query, the count is answered from the metadata of the collection
+			return mongoOps.execute(getCollectionName(), collection -> collection.getCount());
+		}
+		
+		// When counting all, a query matching every document rather than the metadata, which may drift
+		// (e.g. after an unclean shutdown). Each document is fetched, so this is a full exact count.
+		DBObject mongoFilter = (filter == null || filter.isEmpty() ?
+				new BasicDBObject ("_id", new BasicDBObject ("$exists", true)) : toMongoFilter (filter));
+		
+		return mongoOps.count(new BasicQuery (mongoFilter), StoredDocument.class, getCollectionName());
+	}
+	
+	@Override
+	public List <DocumentIndex> findIndexes () {
+		
+		List <DocumentIndex> indexes = new ArrayList <DocumentIndex> ();
+		
+		for (DBObject info : mongoOps.execute(getCollectionName(), collection -> collection.getIndexInfo())) {
+			
+			if (ID_INDEX.equals(info.get("name"))) continue;
+			
+			DocumentIndex index = new DocumentIndex ();
+			index.setName((String) info.get("name"));
+			
+			List <String> fields = new ArrayList <String> ();
+			DBObject keys = (DBObject) info.get("key");
+			for (String key : keys.keySet()) {
+				boolean descending = (keys.get(key) instanceof Number) 
+						&& ((Number) keys.get(key)).intValue() < 0;
+				fields.add((descending ? "-" : "") + fromMongoPath (key));
+			}
+			index.setFields(fields);
+			
+			index.setUnique(Boolean.TRUE.equals(info.get("unique")));
+			index.setSparse(Boolean.TRUE.equals(info.get("sparse")));
+			
+			if (info.get("partialFilterExpression") != null)
+				index.setPartialFilter(fromMongoFilter ((DBObject) info.get("partialFilterExpression")));
+			
+			if (info.get("expireAfterSeconds") instanceof Number)
+				index.setTtlSeconds(((Number) info.get("expireAfterSeconds")).longValue());
+			
+			indexes.add(index);
+		}
+		
+		return indexes;
+	}
+	
+	@Override
+	public void createIndex (DocumentIndex index) {
+		
+		if (index.getName() == null || index.getName().isEmpty() || ID_INDEX.equals(index.getName()))
+			throw new IllegalArgumentException("Invalid index name: " + index.getName());
+		
+		if (index.getFields() == null || index.getFields().isEmpty())
+			throw new IllegalArgumentException("No fields of index");
+		
+		DBObject keys = new BasicDBObject ();
+		for (String field : index.getFields()) {
+			boolean descending = field.startsWith("-");
+			String path = (descending ? field.substring(1) : field);
+			FieldProjection.checkPath(path);
+			
+			keys.put("document." + path, descending ? -1 : 1);
+		}
+		
+		// Built in the background, so reads and writes go on while building
+		DBObject options = new BasicDBObject ("name", index.getName()).append("background", true);
+		
+		if (index.isUnique())
+			options.put("unique", true);
+		
+		if (index.isSparse())
+			options.put("sparse", true);
+		
+		if (index.getPartialFilter() != null)
+			options.put("partialFilterExpression", toMongoFilter (index.getPartialFilter()));
+		
+		if (index.getTtlSeconds() != null) {
+			if (index.getTtlSeconds() < 0 || keys.keySet().size() != 1)
+				throw new IllegalArgumentException("TTL requires an index on a single field and no negative time");
+			options.put("expireAfterSeconds", index.getTtlSeconds());
+		}
+		
+		try {
+			mongoOps.execute(getCollectionName(), collection -> {
+				collection.createIndex(keys, options);
+				return null;
+			});
+		} catch (DataAccessResourceFailureException e) {
+			throw e;
+		} catch (DataAccessException e) {
+			// Rejected by the database, for options not supported or documents not fitting the index
+			throw new IllegalArgumentException("Index can not be created: " 
+					+ e.getMostSpecificCause().getMessage(), e);
+		}
+	}
+	
+	@Override
+	public boolean dropIndex (String name) {
+		
+		boolean found = false;
+		for (DocumentIndex index : findIndexes ())
+			found |= index.getName().equals(name);
+		
+		if (!found) 
+			return false;
+		
+		mongoOps.execute(getCollectionName(), collection -> {
+			collection.dropIndex(name);
+			return null;
+		});
+		return true;
+	}
+	
+	@Override
+	public Map <String, IndexBuildProgress> findIndexBuilds () {
+		
+		DBObject currentOps;
+		try {
+			currentOps = mongoOps.executeCommand(new BasicDBObject ("currentOp", 1));
+		} catch (DataAccessResourceFailureException e) {
+			throw e;
+		} catch (DataAccessException e) {
+			// The command is not supported before Mongodb 3.2
+			currentOps = mongoOps.execute(db -> db.getCollection("$cmd.sys.inprog").findOne());
+		}
+		
+		Map <String, IndexBuildProgress> builds = new LinkedHashMap <String, IndexBuildProgress> ();
+		
+		Object ops = (currentOps == null ? null : currentOps.get("inprog"));
+		if (!(ops instanceof List)) 
+			return builds;
+		
+		String collectionName = getCollectionName();
+		
+		for (Object op : (List <?>) ops) {
+			DBObject progress = (DBObject) ((DBObject) op).get("progress");
+			if (progress == null) continue;
+			
+			// The build is started by the createIndexes command, or by an insert to system.indexes before 2.6
+			DBObject command = (DBObject) ((DBObject) op).get("command");
+			if (command == null) 
+				command = (DBObject) ((DBObject) op).get("query");
+			if (command == null) continue;
+			
+			List <DBObject> specs = new ArrayList <DBObject> ();
+			if (collectionName.equals(command.get("createIndexes")) && command.get("indexes") instanceof List) {
+				for (Object spec : (List <?>) command.get("indexes"))
+					specs.add((DBObject) spec);
+			} else if (command.get("ns") != null 
+					&& command.get("ns").toString().endsWith("." + collectionName)) {
+				specs.add(command);
+			}
+			
+			for (DBObject spec : specs)
+				builds.put((String) spec.get("name"), new IndexBuildProgress (
+						((Number) progress.get("done")).longValue(), 
+						((Number) progress.get("total")).longValue()));
+		}
+		
+		return builds;
+	}
+	
+	@Override
+	public List <StoredDocument> insertBatch (List <StoredDocument> docs, boolean ordered) {
+		
+		List <DBObject> dbObjects = new ArrayList <DBObject> (docs.size());
+		
+		for (StoredDocument doc : docs) {
+			DBObject dbObject = new BasicDBObject ();
+			mongoOps.getConverter().write(doc, dbObject);
+			dbObjects.add(dbObject);
+		}
+		
+		// The driver splits the list into as few messages as the server allows,
+		// and generates the _id of each DBObject in place
+		mongoOps.execute(getCollectionName(), 
+				collection -> collection.insert(dbObjects, 
+						new InsertOptions().continueOnError(!ordered)
+								.writeConcern(getWriteConcern (collection))));
+		
+		for (int i = 0; i < docs.size(); i++)
+			docs.get(i).setId(dbObjects.get(i).get("_id").toString());
+		
+		return docs;
+	}
+	
+	@Override
+	public StoredDocument findVersion (String id) {
+		
+		DBObject dbObject = mongoOps.execute(getCollectionName(), 
+				collection -> collection.findOne(new BasicDBObject("_id", toMongoId(id)), 
+						new BasicDBObject("version", 1), consistency.getReadPreference()));
+		
+		return dbObject == null ? null : mongoOps.getConverter().read(StoredDocument.class, dbObject);
+	}
+	
+	@Override
+	public boolean replace (StoredDocument doc) {
+		
+		Query query = new Query(Criteria.where("id").is(doc.getId()));
+		
+		return isWritten (mongoOps.updateFirst(query, 
+				Update.update("document", doc.getDocument()).set("version", doc.getVersion()), 
+				StoredDocument.class, getCollectionName()), getWriteConcern ());
+	}
+	
+	@Override
+	public boolean update (String id, Map <String, Object> set, Collection <String> unset, String version) {
+		
+		Query query = new Query(Criteria.where("id").is(id));
+		
+		Update update = Update.update("version", version);
+		
+		for (Map.Entry <String, Object> field : set.entrySet())
+			update.set("document." + field.getKey(), field.getValue());
+		
+		for (String path : unset)
+			update.unset("document." + path);
+		
+		return isWritten (mongoOps.updateFirst(query, update, StoredDocument.class, getCollectionName()), 
+				getWriteConcern ());
+	}
+	
+	@Override
+	public boolean remove (String id) {
+		
+		Query query = new Query(Criteria.where("id").is(id));
+		
+		return isWritten (mongoOps.remove(query, StoredDocument.class, getCollectionName()), getWriteConcern ());
+	}
+	
+	@Override
+	public String insertRaw (InputStream json, String version) throws IOException {
+		
+		ObjectId id = new ObjectId ();
+		
+		DBObject raw = toLazyDBObject (RawDocumentCodec.jsonToBson(id, version, json));
+		
+		// The lazy encoder writes the BSON bytes as they are
+		mongoOps.execute(getCollectionName(), 
+				collection -> collection.insert(Collections.singletonList(raw), 
+						new InsertOptions().dbEncoder(new LazyDBEncoder())
+								.writeConcern(getWriteConcern (collection))));
+		
+		return id.toHexString();
+	}
+	
+	@Override
+	public boolean replaceRaw (String id, InputStream json, String version) throws IOException {
+		
+		Object mongoId = toMongoId(id);
+		
+		DBObject raw = toLazyDBObject (RawDocumentCodec.jsonToBson(mongoId, version, json));
+		
+		WriteConcern writeConcern = getWriteConcern ();
+		
+		return isWritten (mongoOps.execute(getCollectionName(), 
+				collection -> collection.update(new BasicDBObject("_id", mongoId), raw, 
+						false, false, writeConcern, new LazyDBEncoder())), writeConcern);
+	}
+	
+	@Override
+	public boolean writeRaw (String id, OutputStream json) throws IOException {
+		
+		// The lazy decoder keeps the BSON bytes of the document as they are received
+		LazyDBObject raw = (LazyDBObject) mongoOps.execute(getCollectionName(), collection -> {
+			DBCursor cursor = collection.find(new BasicDBObject("_id", toMongoId(id)))
+					.limit(-1)
+					.setReadPreference(consistency.getReadPreference())
+					.setDecoderFactory(LazyDBDecoder.FACTORY);
+			try {
+				return cursor.hasNext() ? cursor.next() : null;
+			} finally {
+				cursor.close();
+			}
+		});
+		
+		if (raw == null)
+			return false;
+		
+		ByteArrayOutputStream bson = new ByteArrayOutputStream (raw.getBSONSize());
+		raw.pipe(bson);
+		
+		RawDocumentCodec.bsonToJson(bson.toByteArray(), json);
+		return true;
+	}
+	
+	@Override
+	public List <IdRange> splitIdRanges (int count) {
+		return IdRange.split(findObjectIdEnd (1), findObjectIdEnd (-1), count);
+	}
+	
+	@Override
+	public long writeRawRange (IdRange range, OutputStream ndjson) throws IOException {
+		
+		DBObject filter = range.isObjectIds() ? 
+				new BasicDBObject ("_id", new BasicDBObject ("$gte", new ObjectId (range.getFrom()))
+						.append("$lt", new ObjectId (range.getTo()))) :
+				new BasicDBObject ("_id", new BasicDBObject ("$not", new BasicDBObject ("$gte", MIN_OBJECT_ID)));
+		
+		try {
+			return mongoOps.execute(getCollectionName(), collection -> {
+				// The lazy decoder keeps the BSON bytes of each document as they are received
+				DBCursor cursor = collection.find(filter)
+						.setReadPreference(consistency.getReadPreference())
+						.setDecoderFactory(LazyDBDecoder.FACTORY);
+				
+				ByteArrayOutputStream bson = new ByteArrayOutputStream ();
+				long count = 0;
+				
+				try {
+					while (cursor.hasNext()) {
+						LazyDBObject raw = (LazyDBObject) cursor.next();
+						
+						bson.reset();
+						raw.pipe(bson);
+						
+						RawDocumentCodec.bsonToJson(bson.toByteArray(), ndjson);
+						ndjson.write('\n');
+						count++;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException (e);
+				} finally {
+					cursor.close();
+				}
+				return count;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/*
+	 * Find the first (1) or last (-1) ID which is an ObjectId
+	 */
+	private ObjectId findObjectIdEnd (int order) {
+		
+		return mongoOps.execute(getCollectionName(), collection -> {
+			DBCursor cursor = collection.find(new BasicDBObject ("_id", new BasicDBObject ("$gte", MIN_OBJECT_ID)), 
+					new BasicDBObject ("_id", 1))
+					.sort(new BasicDBObject ("_id", order))
+					.limit(-1);
+			try {
+				return cursor.hasNext() ? (ObjectId) cursor.next().get("_id") : null;
+			} finally {
+				cursor.close();
+			}
+		});
+	}
+	
+	/*
+	 * Translate a DocumentQuery to a Mongodb query on the raw documents
+	 */
+	private static Query toMongoQuery (DocumentQuery query) {
+		
+		if (query.getLimit() < 0)
+			throw new IllegalArgumentException("Invalid limit: " + query.getLimit());
+		
+		DBObject filter = (query.getFilter() == null ? 
+				new BasicDBObject () : toMongoFilter (query.getFilter()));
+		
+		FieldProjection fields = FieldProjection.parse(query.getFields());
+		DBObject fieldsObject = (fields == null ? null : project(new Query(), fields).getFieldsObject());
+		
+		Query mongoQuery = new BasicQuery (filter, fieldsObject).limit(query.getLimit());
+		
+		if (query.getSort() != null) {
+			for (String field : query.getSort()) {
+				boolean descending = field.startsWith("-");
+				String path = (descending ? field.substring(1) : field);
+				FieldProjection.checkPath(path);
+				
+				mongoQuery.with(new Sort(descending ? Sort.Direction.DESC : Sort.Direction.ASC, 
+						"document." + path));
+			}
+		}
+		
+		return mongoQuery;
+	}
+	
+	/*
+	 * Translate the filter of a DocumentQuery to a Mongodb query on the raw documents,
+	 * checking only the supported operators are used
+	 */
+	private static DBObject toMongoFilter (Map <String, Object> filter) {
+		return toMongoFilter (filter, "document.");
+	}
+	
+	/*
+	 * Translate a filter to a Mongodb query, with the prefix added to all paths
+	 */
+	@SuppressWarnings("unchecked")
+	private static DBObject toMongoFilter (Map <String, Object> filter, String prefix) {
+		
+		DBObject mongoFilter = new BasicDBObject ();
+		
+		for (Map.Entry <String, Object> field : filter.entrySet()) {
+			
+			String name = field.getKey();
+			Object value = field.getValue();
+			
+			if (LOGICAL_OPERATORS.contains(name)) {
+				if (!(value instanceof List) || ((List <?>) value).isEmpty())
+					throw new IllegalArgumentException(name + " requires a non-empty array of filters");
+				
+				List <DBObject> mongoFilters = new ArrayList <DBObject> ();
+				for (Object subFilter : (List <?>) value) {
+					if (!(subFilter instanceof Map))
+						throw new IllegalArgumentException(name + " requires a non-empty array of filters");
+					mongoFilters.add(toMongoFilter ((Map <String, Object>) subFilter, prefix));
+				}
+				mongoFilter.put(name, mongoFilters);
+			} else {
+				FieldProjection.checkPath(name);
+				mongoFilter.put(prefix + name, toMongoCondition (name, value));
+			}
+		}
+		
+		return mongoFilter;
+	}
+	
+	/*
+	 * Translate the $group stage of an aggregation, with only references to paths
+	 * as the keys, and only simple accumulators of numbers or paths
+	 */
+	private static DBObject toMongoGroup (Map <String, Object> group, String prefix) {
+		
+		DBObject mongoGroup = new BasicDBObject ();
+		
+		for (Map.Entry <String, Object> field : group.entrySet()) {
+			String name = field.getKey();
+			Object value = field.getValue();
+			
+			if (name.equals("_id")) {
+				if (value instanceof Map) {
+					DBObject keys = new BasicDBObject ();
+					for (Map.Entry <?, ?> key : ((Map <?, ?>) value).entrySet()) {
+						if (key.getKey().toString().isEmpty() || key.getKey().toString().contains(".")
+								|| key.getKey().toString().startsWith("$"))
+							throw new IllegalArgumentException("Invalid key name of $group: " + key.getKey());
+						keys.put(key.getKey().toString(), toMongoReference (key.getValue(), prefix));
+					}
+					mongoGroup.put(name, keys);
+				} else {
+					mongoGroup.put(name, value == null ? null : toMongoReference (value, prefix));
+				}
+				continue;
+			}
+			
+			if (name.isEmpty() || name.contains(".") || name.startsWith("$"))
+				throw new IllegalArgumentException("Invalid field name of $group: " + name);
+			
+			if (!(value instanceof Map) || ((Map <?, ?>) value).size() != 1)
+				throw new IllegalArgumentException("$group of " + name + " requires one accumulator");
+			
+			Map.Entry <?, ?> accumulator = ((Map <?, ?>) value).entrySet().iterator().next();
+			String op = accumulator.getKey().toString();
+			if (!ACCUMULATORS.contains(op))
+				throw new IllegalArgumentException("Unsupported accumulator of " + name + ": " + op);
+			
+			Object operand = accumulator.getValue();
+			mongoGroup.put(name, new BasicDBObject (op, 
+					operand instanceof Number ? operand : toMongoReference (operand, prefix)));
+		}
+		
+		return mongoGroup;
+	}
+	
+	/*
+	 * Translate a reference to a path in an aggregation, in the form of "$path"
+	 */
+	private static String toMongoReference (Object reference, String prefix) {
+		
+		if (!(reference instanceof String) || !((String) reference).startsWith("$"))
+			throw new IllegalArgumentException("Invalid reference to a path: " + reference);
+		
+		String path = ((String) reference).substring(1);
+		FieldProjection.checkPath(path);
+		
+		return "$" + prefix + path;
+	}
+	
+	/*
+	 * Check the condition on a field of a filter, which is either a value to be equal to,
+	 * or an object of supported operators
+	 */
+	private static Object toMongoCondition (String name, Object condition) {
+		
+		if (!(condition instanceof Map)) 
+			return condition;
+		
+		Map <?, ?> operators = (Map <?, ?>) condition;
+		
+		// An object without operators is an embedded document to be equal to
+		boolean hasOperator = false;
+		for (Object operator : operators.keySet())
+			hasOperator |= operator.toString().startsWith("$");
+		
+		if (!hasOperator)
+			return condition;
+		
+		for (Map.Entry <?, ?> operator : operators.entrySet()) {
+			
+			String op = operator.getKey().toString();
+			Object value = operator.getValue();
+			
+			if (op.equals("$in") || op.equals("$nin")) {
+				if (!(value instanceof List))
+					throw new IllegalArgumentException(op + " of " + name + " requires an array");
+			} else if (op.equals("$exists")) {
+				if (!(value instanceof Boolean))
+					throw new IllegalArgumentException(op + " of " + name + " requires true or false");
+			} else if (!COMPARISON_OPERATORS.contains(op)) {
+				throw new IllegalArgumentException("Unsupported operator of " + name + ": " + op);
+			}
+		}
+		
+		return new BasicDBObject (operators);
+	}
+	
+	/*
+	 * Translate a Mongodb filter on the raw documents back to the form of a DocumentQuery
+	 */
+	private static Map <String, Object> fromMongoFilter (DBObject mongoFilter) {
+		
+		Map <String, Object> filter = new LinkedHashMap <String, Object> ();
+		
+		for (String name : mongoFilter.keySet()) {
+			Object value = mongoFilter.get(name);
+			
+			if (LOGICAL_OPERATORS.contains(name) && value instanceof List) {
+				List <Object> filters = new ArrayList <Object> ();
+				for (Object subFilter : (List <?>) value)
+					filters.add(fromMongoFilter ((DBObject) subFilter));
+				filter.put(name, filters);
+			} else {
+				filter.put(fromMongoPath (name), value);
+			}
+		}
+		
+		return filter;
+	}
+	
+	/*
+	 * Get the path into the raw document from the path of a field in Mongodb
+	 */
+	private static String fromMongoPath (String path) {
+		return path.startsWith("document.") ? path.substring("document.".length()) : path;
+	}
+	
+	/*
+	 * Collect the names of the indexes used in a query plan, reported as "indexName" of 
+	 * the stages since Mongodb 3.0, or in "cursor" as "BtreeCursor <name>" before
+	 */
+	private static void findIndexNames (Object plan, Set <String> indexes) {
+		
+		if (plan instanceof List) {
+			for (Object item : (List <?>) plan)
+				findIndexNames (item, indexes);
+		} else if (plan instanceof DBObject) {
+			DBObject stage = (DBObject) plan;
+			
+			for (String key : stage.keySet()) {
+				Object value = stage.get(key);
+				
+				// The rejected plans were not used
+				if (key.equals("rejectedPlans") || key.equals("allPlans")) continue;
+				
+				if (key.equals("indexName") && value instanceof String)
+					indexes.add((String) value);
+				else if (key.equals("cursor") && value instanceof String 
+						&& ((String) value).startsWith("BtreeCursor "))
+					indexes.add(((String) value).substring("BtreeCursor ".length()).split(" ")[0]);
+				else
+					findIndexNames (value, indexes);
+			}
+		}
+	}
+	
+	/*
+	 * Get the name of the collection of documents
+	 */
+	private String getCollectionName () {
+		return collectionName;
+	}
+	
+	/*
+	 * Get the write concern of the current thread, or the one of the collection by default
+	 */
+	private WriteConcern getWriteConcern (DBCollection collection) {
+		
+		WriteConcern writeConcern = consistency.getWriteConcern();
+		
+		return writeConcern == null ? collection.getWriteConcern() : writeConcern;
+	}
+	
+	/*
+	 * Get the write concern of the current thread, or the one of the collection by default, 
+	 * the same as the template resolves it by DocumentConsistency
+	 */
+	private WriteConcern getWriteConcern () {
+		return mongoOps.execute(getCollectionName(), this::getWriteConcern);
+	}
+	
+	/*
+	 * Tell whether a write with a write concern matched a document. 
+	 * An unacknowledged write is not known to match or not, so it is taken as matched,
+	 * without asking the database for the result of the write.
+	 */
+	private static boolean isWritten (WriteResult result, WriteConcern writeConcern) {
+		
+		if (!writeConcern.callGetLastError())
+			return true;
+		
+		return result.getN() > 0;
+	}
+	
+	/*
+	 * Stream the documents found by a query from the collection, 
+	 * as MongoOperations only streams from the collection of the entity class
+	 */
+	private CloseableIterator <StoredDocument> stream (Query query) {
+		
+		DBCursor cursor = mongoOps.execute(getCollectionName(), collection -> openCursor (collection, query));
+		
+		return new CloseableIterator <StoredDocument> () {
+			
+			@Override
+			public boolean hasNext () { return cursor.hasNext(); }
+			
+			@Override
+			public StoredDocument next () {
+				return mongoOps.getConverter().read(StoredDocument.class, cursor.next());
+			}
+			
+			@Override
+			public void close () { cursor.close(); }
+		};
+	}
+	
+	/*
+	 * Read all the documents found by a query from the collection
+	 */
+	private List <StoredDocument> readAll (Query query) {
+		
+		return mongoOps.execute(getCollectionName(), collection -> {
+			List <StoredDocument> docs = new ArrayList <StoredDocument> ();
+			try (DBCursor cursor = openCursor (collection, query)) {
+				while (cursor.hasNext())
+					docs.add(mongoOps.getConverter().read(StoredDocument.class, cursor.next()));
+			}
+			return docs;
+		});
+	}
+	
+	/*
+	 * Open a cursor on a collection with the filter, projection, sort and limit of a query,
+	 * reading with the read preference of the current thread
+	 */
+	private DBCursor openCursor (DBCollection collection, Query query) {
+		
+		DBCursor cursor = collection.find(query.getQueryObject(), query.getFieldsObject())
+				.limit(query.getLimit())
+				.setReadPreference(consistency.getReadPreference());
+		
+		if (query.getSortObject() != null)
+			cursor.sort(query.getSortObject());
+		
+		return cursor;
+	}
+	
+	/*
+	 * Add the projection of raw document fields to a query.
+	 * The ID is returned by Mongodb unless it is excluded explicitly, and the version is always returned.
+	 */
+	private static Query project (Query query, FieldProjection fields) {
+		
+		if (fields == null) 
+			return query;
+		
+		Field queryFields = query.fields();
+		
+		for (String path : fields.getPaths()) {
+			if (fields.isExclude())
+				queryFields.exclude("document." + path);
+			else
+				queryFields.include("document." + path);
+		}
+		
+		if (!fields.isExclude())
+			queryFields.include("version");
+		
+		return query;
+	}
+	
+	/*
+	 * Convert a document ID to the type stored in Mongodb.
+	 * IDs are stored as ObjectId when they are valid ObjectIds, the same as by the mapping converter.
+	 */
+	private static Object toMongoId (String id) {
+		return ObjectId.isValid(id) ? new ObjectId(id) : id;
+	}
+	
+	/*
+	 * Wrap BSON bytes as a read-only DBObject
+	 */
+	private static DBObject toLazyDBObject (byte[] bson) {
+		return new LazyDBObject (bson, new LazyDBCallback (null));
+	}
+}
@@ -0,0 +1,202 @@
+package repository;
+
+import java.util.function.Supplier;
+
+import org.springframework.data.mongodb.core.MongoAction;
+import org.springframework.data.mongodb.core.WriteConcernResolver;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+
+/**
+ *
+ * The read preference and write concern used by {@link DocRepositoryImpl},
+ * trading consistency and durability for latency.
+ *
+ * The defaults are configured for all operations, and can be overridden for the operations
+ * in the current thread (e.g. of one request) with {@link #override(ReadPreference, WriteConcern)}.
+ * Operations of the thread run by other threads get the override with {@link #propagate(Runnable)}.
+ *
+ * The read preference applies to all reads of documents, other than aggregations and counts.
+ * The write concern applies to all writes of documents, also those through {@link org.springframework.data.mongodb.core.MongoTemplate}
+ * when this is set as its {@link WriteConcernResolver}.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentConsistency implements WriteConcernResolver {
+
+	private final ReadPreference defaultReadPreference;
+
+	private final WriteConcern defaultWriteConcern;
+
+	private final ThreadLocal <ReadPreference> readPreferenceOverride = new ThreadLocal <ReadPreference> ();
+
+	private final ThreadLocal <WriteConcern> writeConcernOverride = new ThreadLocal <WriteConcern> ();
+
+	/**
+	 * Construct with the defaults of the driver, i.e. reading from the primary
+	 * and the write concern of the connection
+	 */
+	public DocumentConsistency () {
+		this (null, null);
+	}
+
+	/**
+	 * Construct with configured defaults
+	 * @param readPreference The default read preference, or NULL to read from the primary
+	 * @param writeConcern The default write concern, or NULL for the one of the connection
+	 */
+	public DocumentConsistency (ReadPreference readPreference, WriteConcern writeConcern) {
+		this.defaultReadPreference = readPreference;
+		this.defaultWriteConcern = writeConcern;
+	}
+
+	/**
+	 * Override the defaults for the operations in the current thread, until {@link #clearOverride()}
+	 * @param readPreference The read preference, or NULL to keep the default
+	 * @param writeConcern The write concern, or NULL to keep the default
+	 */
+	public void override (ReadPreference readPreference, WriteConcern writeConcern) {
+		readPreferenceOverride.set(readPreference);
+		writeConcernOverride.set(writeConcern);
+	}
+
+	/**
+	 * Restore the defaults for the operations in the current thread
+	 */
+	public void clearOverride () {
+		readPreferenceOverride.remove();
+		writeConcernOverride.remove();
+	}
+
+	/**
+	 * Wrap a task to run with the override of the current thread, in the thread running it, 
+	 * e.g. an operation of a request run by an executor
+	 * @param task The task
+	 * @return The task which overrides the defaults as the current thread does, 
+	 *         and restores the override of the thread running it after
+	 */
+	public Runnable propagate (Runnable task) {
+
+		ReadPreference readPreference = readPreferenceOverride.get();
+		WriteConcern writeConcern = writeConcernOverride.get();
+
+		return () -> {
+			ReadPreference previousReadPreference = readPreferenceOverride.get();
+			WriteConcern previousWriteConcern = writeConcernOverride.get();
+
+			override (readPreference, writeConcern);
+			try {
+				task.run();
+			} finally {
+				if (previousReadPreference == null && previousWriteConcern == null)
+					clearOverride ();
+				else
+					override (previousReadPreference, previousWriteConcern);
+			}
+		};
+	}
+
+	/**
+	 * Read from the primary in the current thread, whatever the read preference, 
+	 * e.g. to find a document just written
+	 * @param read The read
+	 * @return The result of the read
+	 */
+	public <T> T readPrimary (Supplier <T> read) {
+
+		ReadPreference readPreference = readPreferenceOverride.get();
+
+		readPreferenceOverride.set(ReadPreference.primary());
+		try {
+			return read.get();
+		} finally {
+			if (readPreference == null)
+				readPreferenceOverride.remove();
+			else
+				readPreferenceOverride.set(readPreference);
+		}
+	}
+
+	/**
+	 * Get the read preference of the current thread
+	 */
+	public ReadPreference getReadPreference () {
+
+		ReadPreference readPreference = readPreferenceOverride.get();
+
+		if (readPreference == null)
+			readPreference = defaultReadPreference;
+
+		return readPreference == null ? ReadPreference.primary() : readPreference;
+	}
+
+	/**
+	 * Get the write concern of the current thread
+	 * @return The write concern, or NULL for the one of the connection
+	 */
+	public WriteConcern getWriteConcern () {
+
+		WriteConcern writeConcern = writeConcernOverride.get();
+
+		return writeConcern == null ? defaultWriteConcern : writeConcern;
+	}
+
+	@Override
+	public WriteConcern resolve (MongoAction action) {
+
+		WriteConcern writeConcern = getWriteConcern ();
+
+		return writeConcern == null ? action.getDefaultWriteConcern() : writeConcern;
+	}
+
+	/**
+	 * Parse a read preference by its name in Mongodb: primary, primaryPreferred,
+	 * secondary, secondaryPreferred or nearest
+	 *
+	 * @param name The name
+	 * @return The read preference, or NULL if name is NULL or empty
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public static ReadPreference parseReadPreference (String name) {
+
+		if (name == null || name.trim().isEmpty()) return null;
+
+		try {
+			return ReadPreference.valueOf(name.trim());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid read preference: " + name);
+		}
+	}
+
+	/**
+	 * Parse a write concern by its name:
+	 *
+	 *  - unacknowledged : not waiting for any acknowledgement
+	 *  - w1             : acknowledged by the primary
+	 *  - majority       : acknowledged by the majority of the replica set
+	 *  - journaled      : acknowledged by the primary after written to the journal
+	 *
+	 * @param name The name
+	 * @return The write concern, or NULL if name is NULL or empty
+	 * @throws IllegalArgumentException If the name is not valid
+	 */
+	public static WriteConcern parseWriteConcern (String name) {
+
+		if (name == null || name.trim().isEmpty()) return null;
+
+		switch (name.trim().toLowerCase()) {
+		case "unacknowledged":
+			return WriteConcern.UNACKNOWLEDGED;
+		case "w1":
+			return new WriteConcern (1);
+		case "majority":
+			return WriteConcern.MAJORITY;
+		case "journaled":
+			return WriteConcern.JOURNALED;
+		default:
+			throw new IllegalArgumentException("Invalid write concern: " + name);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package repository;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A secondary index on fields of the raw documents.
+ * 
+ * The fields are dotted paths into the raw document, in ascending order 
+ * or in descending order with a leading '-' (e.g. [ "author.name", "-pages" ]).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentIndex {
+
+	private String name;
+	
+	private List <String> fields;
+	
+	private boolean unique;
+	
+	private boolean sparse;
+	
+	private Map <String, Object> partialFilter;
+	
+	private Long ttlSeconds;
+	
+	/**
+	 * Default constructor
+	 */
+	public DocumentIndex () {}
+	
+	/**
+	 * Get the name of the index, or NULL to generate it from the fields
+	 */
+	public String getName () { return name; }
+	
+	/**
+	 * Set the name of the index
+	 */
+	public void setName (String name) { this.name = name; }
+	
+	/**
+	 * Get the indexed fields, a compound index if there are more than one
+	 */
+	public List <String> getFields () { return fields; }
+	
+	/**
+	 * Set the indexed fields
+	 */
+	public void setFields (List <String> fields) { this.fields = fields; }
+	
+	/**
+	 * Tell whether two documents can not have the same values of the indexed fields
+	 */
+	public boolean isUnique () { return unique; }
+	
+	/**
+	 * Set whether the index is unique
+	 */
+	public void setUnique (boolean unique) { this.unique = unique; }
+	
+	/**
+	 * Tell whether documents without the indexed fields are left out of the index
+	 */
+	public boolean isSparse () { return sparse; }
+	
+	/**
+	 * Set whether the index is sparse
+	 */
+	public void setSparse (boolean sparse) { this.sparse = sparse; }
+	
+	/**
+	 * Get the filter of the documents in the index, in the form of {@link DocumentQuery#getFilter()}, 
+	 * or NULL to index all documents
+	 */
+	public Map <String, Object> getPartialFilter () { return partialFilter; }
+	
+	/**
+	 * Set the filter of the documents in the index
+	 */
+	public void setPartialFilter (Map <String, Object> partialFilter) { this.partialFilter = partialFilter; }
+	
+	/**
+	 * Get the time in seconds after which a document is deleted, counted from the date
+	 * in the indexed field, or NULL if documents never expire.
+	 * 
+	 * Only for an index on a single field. Documents are not expired if the field is not a date.
+	 */
+	public Long getTtlSeconds () { return ttlSeconds; }
+	
+	/**
+	 * Set the time in seconds after which a document is deleted
+	 */
+	public void setTtlSeconds (Long ttlSeconds) { this.ttlSeconds = ttlSeconds; }
+}
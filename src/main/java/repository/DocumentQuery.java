@@ -0,0 +1,82 @@
+package repository;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query of documents by the fields of their raw documents, with sort, limit and projection.
+ * 
+ * The filter is a restricted form of the Mongodb query language, where field names are 
+ * dotted paths into the raw document, for example:
+ * 
+ * { "author.name" : "Gordon", "pages" : { "$gte" : 100, "$lt" : 200 },
+ *   "$or" : [ { "tags" : { "$in" : [ "a", "b" ] } }, { "draft" : { "$exists" : false } } ] }
+ * 
+ * Only these operators are supported:
+ *  - Comparison : $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin
+ *  - Element    : $exists
+ *  - Logical    : $and, $or, $nor (with an array of filters)
+ *  
+ * A field with any other value (including an object without operators) must be equal to the value.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class DocumentQuery {
+
+	private Map <String, Object> filter;
+	
+	private List <String> sort;
+	
+	private int limit;
+	
+	private String fields;
+	
+	/**
+	 * Default constructor, for a query of all documents
+	 */
+	public DocumentQuery () {}
+	
+	/**
+	 * Get the filter, or NULL to match all documents
+	 */
+	public Map <String, Object> getFilter () { return filter; }
+	
+	/**
+	 * Set the filter, or NULL to match all documents
+	 */
+	public void setFilter (Map <String, Object> filter) { this.filter = filter; }
+	
+	/**
+	 * Get the dotted paths of the fields to sort by, in ascending order 
+	 * or in descending order with a leading '-' (e.g. [ "-pages", "author.name" ]),
+	 * or NULL to return documents in any order
+	 */
+	public List <String> getSort () { return sort; }
+	
+	/**
+	 * Set the fields to sort by
+	 */
+	public void setSort (List <String> sort) { this.sort = sort; }
+	
+	/**
+	 * Get the maximum number of documents to return, or 0 for no limit
+	 */
+	public int getLimit () { return limit; }
+	
+	/**
+	 * Set the maximum number of documents to return, or 0 for no limit
+	 */
+	public void setLimit (int limit) { this.limit = limit; }
+	
+	/**
+	 * Get the fields of the raw documents to return or exclude in the form of 
+	 * {@link FieldProjection#parse(String)}, or NULL to return the whole raw documents
+	 */
+	public String getFields () { return fields; }
+	
+	/**
+	 * Set the fields of the raw documents to return or exclude
+	 */
+	public void setFields (String fields) { this.fields = fields; }
+}
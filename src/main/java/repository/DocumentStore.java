@@ -0,0 +1,91 @@
+package repository;
+
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * 
+ * Storage of the documents of a collection by ID, under {@link InMemoryDocRepository} 
+ * which evaluates the queries on the documents. 
+ * 
+ * The keys are the IDs of the documents as stored, and the documents are in the order of keys.
+ * A document returned is not modified by the caller, and a document given is not modified after,
+ * so a store can keep and return documents without copying.
+ * Each write of a document is atomic, and reads run concurrently with writes.
+ * 
+ * Implemented by {@link MemoryDocumentStore} and {@link LogDocumentStore}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+interface DocumentStore {
+
+	/**
+	 * Get a document
+	 * @param key The ID of the document
+	 * @return The document, or NULL if not found
+	 */
+	StoredDocument get (String key);
+	
+	/**
+	 * Get the version of a document, without reading the raw content if possible
+	 * @param key The ID of the document
+	 * @return The document with the ID and version, or NULL if not found
+	 */
+	StoredDocument getVersion (String key);
+	
+	/**
+	 * Tell whether a document exists
+	 */
+	boolean contains (String key);
+	
+	/**
+	 * Get the number of documents
+	 */
+	long size ();
+	
+	/**
+	 * Read documents in the order of keys
+	 * @param fromKey The first key, or NULL from the first document
+	 * @param fromInclusive Whether the document of the first key is included
+	 * @param toKey The key to stop before (exclusive), or NULL to the last document
+	 * @return The documents, read lazily
+	 */
+	Stream <StoredDocument> scan (String fromKey, boolean fromInclusive, String toKey);
+	
+	/**
+	 * Read the keys of all documents in order, without reading the documents
+	 */
+	Stream <String> keys ();
+	
+	/**
+	 * Write a document, replacing the one with the same key if any
+	 */
+	void put (StoredDocument doc);
+	
+	/**
+	 * Write a document if there is none with the same key
+	 * @return false if a document with the key exists
+	 */
+	boolean insert (StoredDocument doc);
+	
+	/**
+	 * Replace an existing document by a function of it, atomically
+	 * @param key The ID of the document
+	 * @param update The function returning the new document, which may be run more than once
+	 *               if the document is written concurrently, and is not run if the document is not found
+	 * @return false if the document is not found
+	 */
+	boolean update (String key, UnaryOperator <StoredDocument> update);
+	
+	/**
+	 * Remove a document
+	 * @return false if the document is not found
+	 */
+	boolean remove (String key);
+	
+	/**
+	 * Remove all documents
+	 */
+	void clear ();
+}
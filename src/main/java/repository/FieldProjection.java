@@ -0,0 +1,96 @@
+package repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A projection of the raw document, which is the list of fields to be returned
+ * (or to be excluded) when documents are read from the repository.
+ *
+ * Each field is a dotted path into the raw document, e.g. "author.name".
+ * The document ID is always returned.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class FieldProjection {
+
+	private final List <String> paths;
+
+	private final boolean exclude;
+
+	/**
+	 * Construct a projection
+	 * @param paths The dotted paths of fields in the raw document, not empty
+	 * @param exclude If true, all fields except the paths are returned;
+	 *                otherwise only the paths are returned
+	 */
+	public FieldProjection (List <String> paths, boolean exclude) {
+		if (paths == null || paths.isEmpty())
+			throw new IllegalArgumentException("Empty field projection");
+
+		for (String path : paths)
+			checkPath (path);
+
+		this.paths = Collections.unmodifiableList(new ArrayList <String> (paths));
+		this.exclude = exclude;
+	}
+
+	/**
+	 * Parse a projection from a comma separated list of dotted paths.
+	 *
+	 * Either all paths are included, e.g. "author.name,content",
+	 * or all paths are excluded with a leading '-', e.g. "-author.address,-content".
+	 *
+	 * @param fields The comma separated list of paths
+	 * @return The projection, or NULL if fields is NULL or empty
+	 * @throws IllegalArgumentException If any path is not valid,
+	 *         or included and excluded paths are mixed
+	 */
+	public static FieldProjection parse (String fields) {
+
+		if (fields == null || fields.trim().isEmpty()) return null;
+
+		List <String> paths = new ArrayList <String> ();
+		int excluded = 0;
+
+		for (String field : fields.split(",", -1)) {
+			String path = field.trim();
+
+			if (path.startsWith("-")) {
+				path = path.substring(1);
+				excluded++;
+			}
+			paths.add(path);
+		}
+
+		// Mongodb does not support mixing included and excluded fields
+		if (excluded != 0 && excluded != paths.size())
+			throw new IllegalArgumentException("Included and excluded fields can not be mixed: " + fields);
+
+		return new FieldProjection (paths, excluded != 0);
+	}
+
+	/**
+	 * Get the dotted paths of fields in the raw document
+	 */
+	public List <String> getPaths () { return paths; }
+
+	/**
+	 * Tell whether the paths are excluded (true) or included (false)
+	 */
+	public boolean isExclude () { return exclude; }
+
+	/*
+	 * Check a path has no empty segment, and no segment which is an operator for Mongodb
+	 */
+	static void checkPath (String path) {
+		if (path == null || path.isEmpty())
+			throw new IllegalArgumentException("Empty field path");
+
+		for (String segment : path.split("\\.", -1))
+			if (segment.isEmpty() || segment.startsWith("$"))
+				throw new IllegalArgumentException("Invalid field path: " + path);
+	}
+}
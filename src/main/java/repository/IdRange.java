@@ -0,0 +1,104 @@
+package repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+/**
+ * A range of document IDs, to read the documents of a collection in parallel by ranges.
+ *
+ * A range is either of the IDs which are ObjectIds, from an ObjectId (inclusive) to another (exclusive),
+ * or of all IDs which are not ObjectIds (e.g. IDs given as strings).
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class IdRange {
+
+	private final String from;
+
+	private final String to;
+
+	/**
+	 * Construct a range of ObjectIds
+	 * @param from The first ObjectId in hex, inclusive
+	 * @param to The last ObjectId in hex, exclusive
+	 */
+	public IdRange (String from, String to) {
+		if (from == null || to == null)
+			throw new IllegalArgumentException("Range of ObjectIds requires both ends");
+
+		this.from = from;
+		this.to = to;
+	}
+
+	private IdRange () {
+		this.from = null;
+		this.to = null;
+	}
+
+	/**
+	 * Get the range of all IDs which are not ObjectIds
+	 */
+	public static IdRange notObjectIds () {
+		return new IdRange ();
+	}
+
+	/**
+	 * Split the ObjectIds between two into ranges of equal time, followed by the range of 
+	 * all IDs which are not ObjectIds. The timestamps of ObjectIds are in seconds, 
+	 * so there are no more ranges of ObjectIds than seconds between them.
+	 * 
+	 * @param first The first ObjectId, or NULL if there are no ObjectIds
+	 * @param last The last ObjectId, or NULL if there are no ObjectIds
+	 * @param count The number of ranges of ObjectIds
+	 * @return The ranges, together covering all IDs from the first to the last, and all which are not ObjectIds
+	 */
+	public static List <IdRange> split (ObjectId first, ObjectId last, int count) {
+		
+		if (count <= 0)
+			throw new IllegalArgumentException("Invalid number of ranges: " + count);
+		
+		List <IdRange> ranges = new ArrayList <IdRange> ();
+		
+		if (first != null && last != null) {
+			long from = first.getTimestamp() & 0xFFFFFFFFL;
+			long to = (last.getTimestamp() & 0xFFFFFFFFL) + 1;
+			long step = (to - from + count - 1) / count;
+			
+			for (long start = from; start < to; start += step)
+				ranges.add(new IdRange (toObjectIdBound (start), toObjectIdBound (Math.min(start + step, to))));
+		}
+		
+		ranges.add(notObjectIds());
+		return ranges;
+	}
+	
+	/*
+	 * The least ObjectId of a timestamp in seconds
+	 */
+	private static String toObjectIdBound (long timestamp) {
+		return String.format("%08x0000000000000000", timestamp);
+	}
+
+	/**
+	 * Tell whether this is a range of ObjectIds, or of all IDs which are not ObjectIds
+	 */
+	public boolean isObjectIds () { return from != null; }
+
+	/**
+	 * Get the first ObjectId in hex (inclusive), or NULL if not a range of ObjectIds
+	 */
+	public String getFrom () { return from; }
+
+	/**
+	 * Get the last ObjectId in hex (exclusive), or NULL if not a range of ObjectIds
+	 */
+	public String getTo () { return to; }
+
+	@Override
+	public String toString () {
+		return isObjectIds() ? "[" + from + ", " + to + ")" : "[not ObjectIds]";
+	}
+}
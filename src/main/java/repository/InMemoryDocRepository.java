@@ -0,0 +1,681 @@
+package repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.ui.ModelMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ *
+ * Implementation of {@link DocRepository} keeping the documents of a collection in memory,
+ * as an alternative to Mongodb for tests and for a low-latency tier which does not need durability.
+ * Repositories are created by {@link InMemoryDocRepositoryFactory} with the profile "memory".
+ *
+ * The documents are in a {@link MemoryDocumentStore}, a concurrent skip list by ID, so reads never lock
+ * and run concurrently with writes, and documents are paged and exported by ranges in the order of IDs 
+ * the same as in Mongodb (IDs which are ObjectIds are kept in lower case hex, which is in the order of ObjectIds).
+ * A stored document is never modified: a write replaces it with a new copy by compare-and-set,
+ * so each write of a document is atomic without locks, and reads get copies.
+ * The documents may also be kept in another {@link DocumentStore}, e.g. on disk by {@link LogDocRepository}.
+ *
+ * Queries, aggregations and projections are the same as by {@link DocRepositoryImpl},
+ * evaluated by {@link InMemoryDocuments} by scanning the documents.
+ * Secondary indexes are only kept as definitions, so unique and TTL indexes are not supported.
+ * The read preference and write concern of {@link DocumentConsistency} do not apply.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class InMemoryDocRepository implements DocRepository {
+
+	private static final ObjectMapper mapper = new ObjectMapper ()
+			.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false)
+			.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+	private final DocumentStore store;
+
+	private final ConcurrentSkipListMap <String, DocumentIndex> indexes = new ConcurrentSkipListMap <String, DocumentIndex> ();
+
+	/**
+	 * Construct an empty repository
+	 */
+	public InMemoryDocRepository () {
+		this (new MemoryDocumentStore ());
+	}
+
+	/**
+	 * Construct a repository of the documents in a store
+	 */
+	InMemoryDocRepository (DocumentStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Tell whether the repository has neither documents nor indexes, as a collection not existing
+	 */
+	public boolean isEmpty () {
+		return store.size() == 0 && indexes.isEmpty();
+	}
+
+	/**
+	 * Remove all documents and indexes
+	 */
+	public void clear () {
+		deleteAll ();
+		indexes.clear();
+	}
+
+	@Override
+	public <S extends StoredDocument> S save (S entity) {
+
+		if (entity.getId() == null)
+			entity.setId(ObjectId.get().toHexString());
+
+		String key = toKey (entity.getId());
+		entity.setId(key);
+
+		store.put(store (key, entity.getDocument(), entity.getVersion()));
+
+		return entity;
+	}
+
+	@Override
+	public <S extends StoredDocument> List <S> save (Iterable <S> entities) {
+
+		List <S> saved = new ArrayList <S> ();
+		for (S entity : entities)
+			saved.add(save (entity));
+		return saved;
+	}
+
+	@Override
+	public <S extends StoredDocument> S insert (S entity) {
+		insertAll (Collections.singletonList(entity), true);
+		return entity;
+	}
+
+	@Override
+	public <S extends StoredDocument> List <S> insert (Iterable <S> entities) {
+
+		List <S> list = new ArrayList <S> ();
+		for (S entity : entities)
+			list.add(entity);
+
+		insertAll (list, true);
+		return list;
+	}
+
+	@Override
+	public List <StoredDocument> insertBatch (List <StoredDocument> docs, boolean ordered) {
+		insertAll (docs, ordered);
+		return docs;
+	}
+
+	@Override
+	public StoredDocument findOne (String id) {
+		return findOneProjected (id, null);
+	}
+
+	@Override
+	public boolean exists (String id) {
+		return store.contains(toKey (id));
+	}
+
+	@Override
+	public List <StoredDocument> findAll () {
+		return findAllProjected (null);
+	}
+
+	@Override
+	public List <StoredDocument> findAll (Sort sort) {
+
+		List <StoredDocument> found = findAll ();
+		if (sort != null)
+			found.sort(toComparator (sort));
+		return found;
+	}
+
+	@Override
+	public Page <StoredDocument> findAll (Pageable pageable) {
+
+		List <StoredDocument> found = findAll (pageable.getSort());
+
+		int from = Math.min(pageable.getOffset(), found.size());
+		int to = Math.min(from + pageable.getPageSize(), found.size());
+
+		return new PageImpl <StoredDocument> (new ArrayList <StoredDocument> (found.subList(from, to)),
+				pageable, found.size());
+	}
+
+	@Override
+	public Iterable <StoredDocument> findAll (Iterable <String> ids) {
+
+		List <StoredDocument> found = new ArrayList <StoredDocument> ();
+		for (String id : ids) {
+			StoredDocument doc = findOne (id);
+			if (doc != null)
+				found.add(doc);
+		}
+		return found;
+	}
+
+	@Override
+	public long count () {
+		return store.size();
+	}
+
+	@Override
+	public void delete (String id) {
+		remove (id);
+	}
+
+	@Override
+	public void delete (StoredDocument entity) {
+		remove (entity.getId());
+	}
+
+	@Override
+	public void delete (Iterable <? extends StoredDocument> entities) {
+		for (StoredDocument entity : entities)
+			remove (entity.getId());
+	}
+
+	@Override
+	public void deleteAll () {
+		store.clear();
+	}
+
+	@Override
+	public CloseableIterator <StoredDocument> streamAll () {
+		return toIterator (store.scan(null, false, null).map(doc -> toResult (doc, null)));
+	}
+
+	@Override
+	public List <StoredDocument> findAfter (String afterId, int limit) {
+
+		Stream <StoredDocument> from = store.scan(afterId == null ? null : toKey (afterId), false, null);
+
+		if (limit > 0)
+			from = from.limit(limit);
+
+		return from.map(doc -> toResult (doc, null)).collect(Collectors.toList());
+	}
+
+	@Override
+	public StoredDocument findOneProjected (String id, FieldProjection fields) {
+
+		StoredDocument doc = store.get(toKey (id));
+
+		return doc == null ? null : toResult (doc, fields);
+	}
+
+	@Override
+	public List <StoredDocument> findAllProjected (FieldProjection fields) {
+
+		return store.scan(null, false, null).map(doc -> toResult (doc, fields)).collect(Collectors.toList());
+	}
+
+	@Override
+	public List <IdRange> splitIdRanges (int count) {
+
+		ObjectId first = null, last = null;
+
+		Iterator <String> keys = store.keys().iterator();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			if (!ObjectId.isValid(key)) continue;
+			if (first == null) first = new ObjectId (key);
+			last = new ObjectId (key);
+		}
+
+		return IdRange.split(first, last, count);
+	}
+
+	@Override
+	public long writeRawRange (IdRange range, OutputStream ndjson) throws IOException {
+
+		Iterator <StoredDocument> docs = (range.isObjectIds() ?
+				store.scan(range.getFrom(), true, range.getTo()) : store.scan(null, false, null)).iterator();
+
+		long count = 0;
+		while (docs.hasNext()) {
+			StoredDocument doc = docs.next();
+			if (ObjectId.isValid(doc.getId()) != range.isObjectIds()) continue;
+
+			mapper.writeValue(ndjson, doc);
+			ndjson.write('\n');
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public CloseableIterator <StoredDocument> search (DocumentQuery query) {
+		return toIterator (select (query));
+	}
+
+	@Override
+	public Map <String, Object> explain (DocumentQuery query) {
+
+		select (query).close();
+
+		Map <String, Object> plan = new LinkedHashMap <String, Object> ();
+		plan.put("stage", "COLLSCAN");
+		plan.put("filter", query.getFilter());
+
+		Map <String, Object> explanation = new LinkedHashMap <String, Object> ();
+		explanation.put("indexes", new ArrayList <String> ());
+		explanation.put("plan", plan);
+		return explanation;
+	}
+
+	@Override
+	public List <Map <String, Object>> aggregate (List <Map <String, Object>> pipeline) {
+
+		List <Map <String, Object>> results = new ArrayList <Map <String, Object>> ();
+
+		// Copied, as the results may refer to the values in the stored documents
+		for (Map <String, Object> result : InMemoryDocuments.aggregate(pipeline,
+				() -> store.scan(null, false, null).map(InMemoryDocRepository::rawOf).iterator()))
+			results.add(InMemoryDocuments.copy(result));
+
+		return results;
+	}
+
+	@Override
+	public long count (Map <String, Object> filter, boolean estimated) {
+
+		if (filter == null || filter.isEmpty())
+			return count ();
+
+		if (estimated)
+			throw new IllegalArgumentException("Estimated count is only of all documents");
+
+		Predicate <Map <String, Object>> predicate = InMemoryDocuments.toPredicate(filter);
+
+		return store.scan(null, false, null).filter(doc -> predicate.test(rawOf (doc))).count();
+	}
+
+	@Override
+	public List <DocumentIndex> findIndexes () {
+
+		List <DocumentIndex> found = new ArrayList <DocumentIndex> ();
+		for (DocumentIndex index : indexes.values())
+			found.add(copy (index));
+		return found;
+	}
+
+	@Override
+	public void createIndex (DocumentIndex index) {
+
+		if (index.getName() == null || index.getName().isEmpty() || index.getName().equals("_id_"))
+			throw new IllegalArgumentException("Invalid index name: " + index.getName());
+
+		if (index.getFields() == null || index.getFields().isEmpty())
+			throw new IllegalArgumentException("No fields of index");
+
+		for (String field : index.getFields())
+			FieldProjection.checkPath(field.startsWith("-") ? field.substring(1) : field);
+
+		if (index.getPartialFilter() != null)
+			InMemoryDocuments.toPredicate(index.getPartialFilter());
+
+		// Without an index structure to check or expire documents by
+		if (index.isUnique() || index.getTtlSeconds() != null)
+			throw new IllegalArgumentException("Index can not be created: unique and TTL indexes are not supported in memory");
+
+		DocumentIndex existing = indexes.putIfAbsent(index.getName(), copy (index));
+
+		if (existing != null && !(existing.getFields().equals(index.getFields()) && existing.isSparse() == index.isSparse()))
+			throw new IllegalArgumentException("Index can not be created: index " + index.getName()
+					+ " already exists with different options");
+	}
+
+	@Override
+	public boolean dropIndex (String name) {
+		return indexes.remove(name) != null;
+	}
+
+	@Override
+	public Map <String, IndexBuildProgress> findIndexBuilds () {
+		// Indexes are created at once
+		return new LinkedHashMap <String, IndexBuildProgress> ();
+	}
+
+	@Override
+	public StoredDocument findVersion (String id) {
+
+		StoredDocument doc = store.getVersion(toKey (id));
+		if (doc == null)
+			return null;
+
+		StoredDocument version = new StoredDocument ();
+		version.setId(doc.getId());
+		version.setVersion(doc.getVersion());
+		return version;
+	}
+
+	@Override
+	public boolean replace (StoredDocument doc) {
+
+		String key = toKey (doc.getId());
+		StoredDocument stored = store (key, doc.getDocument(), doc.getVersion());
+
+		return store.update(key, old -> stored);
+	}
+
+	@Override
+	public boolean update (String id, Map <String, Object> set, Collection <String> unset, String version) {
+
+		String key = toKey (id);
+
+		// The function may be run more than once if the document is written concurrently, so it only makes a copy
+		return store.update(key, old -> {
+
+			ModelMap doc = InMemoryDocuments.copy(rawOf (old));
+
+			for (Map.Entry <String, Object> field : set.entrySet())
+				InMemoryDocuments.set(doc, field.getKey(), field.getValue());
+
+			for (String path : unset)
+				InMemoryDocuments.unset(doc, path);
+
+			StoredDocument updated = new StoredDocument (doc);
+			updated.setId(key);
+			updated.setVersion(version);
+			return updated;
+		});
+	}
+
+	@Override
+	public boolean remove (String id) {
+		return store.remove(toKey (id));
+	}
+
+	@Override
+	public String insertRaw (InputStream json, String version) throws IOException {
+
+		ModelMap doc = readRaw (json);
+
+		String id = ObjectId.get().toHexString();
+		store.put(store (id, doc, version));
+
+		return id;
+	}
+
+	@Override
+	public boolean replaceRaw (String id, InputStream json, String version) throws IOException {
+
+		StoredDocument doc = new StoredDocument (readRaw (json));
+		doc.setId(id);
+		doc.setVersion(version);
+
+		return replace (doc);
+	}
+
+	@Override
+	public boolean writeRaw (String id, OutputStream json) throws IOException {
+
+		StoredDocument doc = store.get(toKey (id));
+		if (doc == null)
+			return false;
+
+		mapper.writeValue(json, doc);
+		return true;
+	}
+
+	/**
+	 * Write all documents as a snapshot, each as one line of JSON with the ID, version and raw document.
+	 * Indexes are not in the snapshot.
+	 *
+	 * @param ndjson The output to write the documents to, each followed by '\n'
+	 * @return The number of documents written
+	 * @throws IOException If writing the output fails
+	 */
+	long writeSnapshot (OutputStream ndjson) throws IOException {
+
+		long count = 0;
+		Iterator <StoredDocument> docs = store.scan(null, false, null).iterator();
+		while (docs.hasNext()) {
+			StoredDocument doc = docs.next();
+			Map <String, Object> line = new LinkedHashMap <String, Object> ();
+			line.put("id", doc.getId());
+			line.put("version", doc.getVersion());
+			line.put("document", doc.getDocument());
+
+			mapper.writeValue(ndjson, line);
+			ndjson.write('\n');
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Read the documents of a snapshot written by {@link #writeSnapshot(OutputStream)}, 
+	 * replacing the documents with the same IDs
+	 *
+	 * @param ndjson The snapshot
+	 * @return The number of documents read
+	 * @throws IOException If the snapshot is not valid or can not be read
+	 */
+	long readSnapshot (InputStream ndjson) throws IOException {
+
+		long count = 0;
+		try (MappingIterator <SnapshotLine> lines = mapper.readerFor(SnapshotLine.class).readValues(ndjson)) {
+			while (lines.hasNext()) {
+				SnapshotLine line = lines.next();
+				if (line.id == null)
+					throw new JsonParseException("Document without ID in snapshot", lines.getCurrentLocation());
+
+				StoredDocument doc = new StoredDocument (line.document);
+				doc.setId(line.id);
+				doc.setVersion(line.version);
+				save (doc);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Insert documents with IDs generated if not set, failing on documents with existing IDs.
+	 * In order, the documents after a failed one are not inserted; otherwise the failure is
+	 * thrown after inserting the others, the same as by Mongodb.
+	 */
+	private void insertAll (List <? extends StoredDocument> entities, boolean ordered) {
+
+		for (StoredDocument entity : entities)
+			entity.setId(entity.getId() == null ? ObjectId.get().toHexString() : toKey (entity.getId()));
+
+		DuplicateKeyException failure = null;
+
+		for (StoredDocument entity : entities) {
+			if (store.insert(store (entity.getId(), entity.getDocument(), entity.getVersion())))
+				continue;
+
+			failure = new DuplicateKeyException ("E11000 duplicate key error, _id: " + entity.getId());
+			if (ordered)
+				throw failure;
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	/*
+	 * Select the documents of a query, checking the query before any document is read
+	 */
+	private Stream <StoredDocument> select (DocumentQuery query) {
+
+		if (query.getLimit() < 0)
+			throw new IllegalArgumentException("Invalid limit: " + query.getLimit());
+
+		Predicate <Map <String, Object>> predicate = InMemoryDocuments.toPredicate(query.getFilter());
+		FieldProjection fields = FieldProjection.parse(query.getFields());
+
+		Stream <StoredDocument> selected = store.scan(null, false, null).filter(doc -> predicate.test(rawOf (doc)));
+
+		if (query.getSort() != null) {
+			Comparator <Map <String, Object>> comparator = InMemoryDocuments.toComparator(query.getSort());
+			selected = selected.sorted((doc1, doc2) -> comparator.compare(rawOf (doc1), rawOf (doc2)));
+		}
+
+		if (query.getLimit() > 0)
+			selected = selected.limit(query.getLimit());
+
+		return selected.map(doc -> toResult (doc, fields));
+	}
+
+	/*
+	 * Compare documents by the properties of StoredDocument, e.g. "id" or "document.author.name"
+	 */
+	private static Comparator <StoredDocument> toComparator (Sort sort) {
+
+		Comparator <StoredDocument> comparator = (doc1, doc2) -> 0;
+
+		for (Sort.Order order : sort) {
+			String property = order.getProperty();
+			Comparator <StoredDocument> byProperty;
+
+			if (property.equals("id")) {
+				byProperty = Comparator.comparing(StoredDocument::getId);
+			} else if (property.equals("version")) {
+				byProperty = Comparator.comparing(StoredDocument::getVersion, Comparator.nullsFirst(Comparator.naturalOrder()));
+			} else if (property.startsWith("document.")) {
+				Comparator <Map <String, Object>> byPath = InMemoryDocuments.toComparator(
+						Collections.singletonList(property.substring("document.".length())));
+				byProperty = (doc1, doc2) -> byPath.compare(rawOf (doc1), rawOf (doc2));
+			} else {
+				throw new IllegalArgumentException("Invalid property to sort by: " + property);
+			}
+
+			comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+		}
+
+		return comparator;
+	}
+
+	/*
+	 * Read a raw document in JSON, which shall be one JSON object
+	 */
+	private static ModelMap readRaw (InputStream json) throws IOException {
+
+		try (JsonParser parser = mapper.getFactory().createParser(json)) {
+
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonParseException("Document shall be a JSON object", parser.getCurrentLocation());
+
+			ModelMap doc = mapper.readValue(parser, ModelMap.class);
+
+			if (parser.nextToken() != null)
+				throw new JsonParseException("Unexpected content after the document", parser.getCurrentLocation());
+
+			return doc;
+		}
+	}
+
+	/*
+	 * The document to store, with a copy of the raw document not shared with the caller
+	 */
+	private static StoredDocument store (String key, ModelMap raw, String version) {
+
+		StoredDocument doc = new StoredDocument (raw == null ? null : InMemoryDocuments.copy(raw));
+		doc.setId(key);
+		doc.setVersion(version);
+		return doc;
+	}
+
+	/*
+	 * The document to return, with a copy of the raw document or of its projection
+	 */
+	private static StoredDocument toResult (StoredDocument stored, FieldProjection fields) {
+
+		ModelMap raw = stored.getDocument();
+
+		StoredDocument doc = new StoredDocument (raw == null ? null :
+				fields == null ? InMemoryDocuments.copy(raw) : InMemoryDocuments.project(raw, fields));
+		doc.setId(stored.getId());
+		doc.setVersion(stored.getVersion());
+		return doc;
+	}
+
+	/*
+	 * The raw document to match, empty if the document has none
+	 */
+	private static Map <String, Object> rawOf (StoredDocument doc) {
+		return doc.getDocument() == null ? new ModelMap () : doc.getDocument();
+	}
+
+	private static DocumentIndex copy (DocumentIndex index) {
+
+		DocumentIndex copy = new DocumentIndex ();
+		copy.setName(index.getName());
+		copy.setFields(new ArrayList <String> (index.getFields()));
+		copy.setUnique(index.isUnique());
+		copy.setSparse(index.isSparse());
+		copy.setPartialFilter(index.getPartialFilter());
+		copy.setTtlSeconds(index.getTtlSeconds());
+		return copy;
+	}
+
+	/*
+	 * The key of a document ID: IDs which are valid ObjectIds are kept in lower case,
+	 * the same as they are read back from Mongodb
+	 */
+	private static String toKey (String id) {
+		return ObjectId.isValid(id) ? id.toLowerCase() : id;
+	}
+
+	/*
+	 * A line of a snapshot
+	 */
+	private static class SnapshotLine {
+		public String id;
+		public String version;
+		public ModelMap document;
+	}
+
+	private static CloseableIterator <StoredDocument> toIterator (Stream <StoredDocument> stream) {
+
+		Iterator <StoredDocument> iterator = stream.iterator();
+
+		return new CloseableIterator <StoredDocument> () {
+
+			@Override
+			public boolean hasNext () { return iterator.hasNext(); }
+
+			@Override
+			public StoredDocument next () { return iterator.next(); }
+
+			@Override
+			public void close () { stream.close(); }
+		};
+	}
+}
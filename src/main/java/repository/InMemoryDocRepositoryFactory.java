@@ -0,0 +1,178 @@
+package repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.stereotype.Component;
+
+/**
+ * 
+ * Factory of {@link DocRepository} of collections kept in memory by {@link InMemoryDocRepository},
+ * with the profile "memory", which also serves the {@link DocRepository} bean of the default collection
+ * through {@link InMemoryRepositoryConfig}. So the service runs without Mongodb, with property:
+ * 
+ *  - docservice.memory.snapshot-dir : directory to keep the documents across restarts, empty for none (default).
+ *                                     The documents of each collection are written on shutdown to
+ *                                     a file "name.ndjson" in the directory, and read back on start.
+ *                                     Indexes are not kept.
+ * 
+ * Documents written after the last snapshot are lost if the process is killed.
+ * 
+ * Repositories created are post-processed the same as the {@link DocRepository} bean 
+ * (e.g. wrapped to record metrics).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+@Profile ("memory")
+public class InMemoryDocRepositoryFactory implements DocRepositoryFactory {
+	
+	private static final Logger log = LoggerFactory.getLogger(InMemoryDocRepositoryFactory.class);
+	
+	private static final String SNAPSHOT_SUFFIX = ".ndjson";
+
+	private final String defaultName = StoredDocument.class.getAnnotation(Document.class).collection();
+	
+	private final Map <String, InMemoryDocRepository> repositories = new ConcurrentHashMap <String, InMemoryDocRepository> ();
+	
+	private final Path snapshotDir;
+	
+	private AutowireCapableBeanFactory beanFactory;
+	
+	@Autowired
+	public InMemoryDocRepositoryFactory (@Value("${docservice.memory.snapshot-dir:}") String snapshotDir,
+			AutowireCapableBeanFactory beanFactory) {
+		this.snapshotDir = snapshotDir.isEmpty() ? null : Paths.get(snapshotDir);
+		this.beanFactory = beanFactory;
+	}
+	
+	/**
+	 * Read the documents of all collections from the snapshot directory, if set
+	 * @throws IOException If a snapshot is not valid or can not be read
+	 */
+	@PostConstruct
+	public void loadSnapshots () throws IOException {
+		
+		if (snapshotDir == null || !Files.isDirectory(snapshotDir))
+			return;
+		
+		try (DirectoryStream <Path> files = Files.newDirectoryStream(snapshotDir, "*" + SNAPSHOT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				name = name.substring(0, name.length() - SNAPSHOT_SUFFIX.length());
+				
+				try (InputStream in = new BufferedInputStream (Files.newInputStream(file), 64 * 1024)) {
+					long count = getRawRepository (name).readSnapshot(in);
+					log.info("Read {} documents of collection {} from {}", count, name, file);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Write the documents of all collections to the snapshot directory, if set.
+	 * Each file is replaced atomically, so a failure leaves the previous snapshot of the collection.
+	 * @throws IOException If a snapshot can not be written
+	 */
+	@PreDestroy
+	public void saveSnapshots () throws IOException {
+		
+		if (snapshotDir == null)
+			return;
+		
+		Files.createDirectories(snapshotDir);
+		
+		for (Map.Entry <String, InMemoryDocRepository> repository : repositories.entrySet()) {
+			Path target = snapshotDir.resolve(repository.getKey() + SNAPSHOT_SUFFIX);
+			
+			// The snapshot of a collection dropped since it was read
+			if (repository.getValue().isEmpty()) {
+				Files.deleteIfExists(target);
+				continue;
+			}
+			
+			Path temp = Files.createTempFile(snapshotDir, "." + repository.getKey(), ".tmp");
+			try {
+				long count;
+				try (OutputStream out = new BufferedOutputStream (Files.newOutputStream(temp), 64 * 1024)) {
+					count = repository.getValue().writeSnapshot(out);
+				}
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				log.info("Wrote {} documents of collection {} to {}", count, repository.getKey(), target);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+	
+	@Override
+	public String getDefaultCollectionName () {
+		return defaultName;
+	}
+	
+	@Override
+	public DocRepository getRepository (String collectionName) {
+		return (DocRepository) beanFactory.applyBeanPostProcessorsAfterInitialization(
+				getRawRepository (collectionName), "docRepository." + collectionName);
+	}
+	
+	/**
+	 * Get the repository of a collection without post-processing, 
+	 * which is the same for all calls with the same name
+	 */
+	InMemoryDocRepository getRawRepository (String collectionName) {
+		return repositories.computeIfAbsent(collectionName, name -> new InMemoryDocRepository ());
+	}
+	
+	@Override
+	public Set <String> findCollectionNames () {
+		
+		Set <String> names = new TreeSet <String> ();
+		for (Map.Entry <String, InMemoryDocRepository> repository : repositories.entrySet())
+			if (!repository.getValue().isEmpty())
+				names.add(repository.getKey());
+		
+		return names;
+	}
+	
+	@Override
+	public boolean collectionExists (String collectionName) {
+		InMemoryDocRepository repository = repositories.get(collectionName);
+		return repository != null && !repository.isEmpty();
+	}
+	
+	@Override
+	public boolean dropCollection (String collectionName) {
+		
+		InMemoryDocRepository repository = repositories.get(collectionName);
+		if (repository == null || repository.isEmpty())
+			return false;
+		
+		// Kept empty, so its snapshot is deleted on shutdown
+		repository.clear();
+		return true;
+	}
+}
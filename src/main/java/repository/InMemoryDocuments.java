@@ -0,0 +1,761 @@
+package repository;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.springframework.ui.ModelMap;
+
+/**
+ * Evaluation of the filters, sorts, projections and aggregations of {@link DocRepositoryCustom}
+ * on raw documents in memory, for {@link InMemoryDocRepository}.
+ *
+ * The same operators are supported and checked as by {@link DocRepositoryImpl}, with the semantics
+ * of Mongodb for the values of JSON: a path through an array matches any of its elements,
+ * comparisons only match values of the same type, and values of different types are ordered
+ * null, numbers, strings, objects, arrays, booleans.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+final class InMemoryDocuments {
+
+	private InMemoryDocuments () {}
+
+	/**
+	 * Compile a filter in the form of {@link DocumentQuery#getFilter()} to a predicate on raw documents
+	 * @param filter The filter, or NULL for all documents
+	 * @return The predicate
+	 * @throws IllegalArgumentException If the filter is not valid
+	 */
+	@SuppressWarnings("unchecked")
+	static Predicate <Map <String, Object>> toPredicate (Map <String, Object> filter) {
+
+		Predicate <Map <String, Object>> predicate = doc -> true;
+
+		if (filter == null)
+			return predicate;
+
+		for (Map.Entry <String, Object> field : filter.entrySet()) {
+
+			String name = field.getKey();
+			Object value = field.getValue();
+
+			if (DocRepositoryImpl.LOGICAL_OPERATORS.contains(name)) {
+				if (!(value instanceof List) || ((List <?>) value).isEmpty())
+					throw new IllegalArgumentException(name + " requires a non-empty array of filters");
+
+				List <Predicate <Map <String, Object>>> predicates = new ArrayList <Predicate <Map <String, Object>>> ();
+				for (Object subFilter : (List <?>) value) {
+					if (!(subFilter instanceof Map))
+						throw new IllegalArgumentException(name + " requires a non-empty array of filters");
+					predicates.add(toPredicate ((Map <String, Object>) subFilter));
+				}
+
+				if (name.equals("$and"))
+					predicate = predicate.and(doc -> predicates.stream().allMatch(p -> p.test(doc)));
+				else if (name.equals("$or"))
+					predicate = predicate.and(doc -> predicates.stream().anyMatch(p -> p.test(doc)));
+				else
+					predicate = predicate.and(doc -> predicates.stream().noneMatch(p -> p.test(doc)));
+			} else {
+				FieldProjection.checkPath(name);
+				String [] path = name.split("\\.");
+				Predicate <List <Object>> condition = toCondition (name, value);
+				predicate = predicate.and(doc -> condition.test(find (doc, path)));
+			}
+		}
+
+		return predicate;
+	}
+
+	/*
+	 * Compile the condition on a field, which is either a value to be equal to,
+	 * or an object of supported operators, to a predicate on the values found at the path
+	 */
+	private static Predicate <List <Object>> toCondition (String name, Object condition) {
+
+		if (!(condition instanceof Map) || !hasOperator ((Map <?, ?>) condition))
+			return values -> matchesEqual (values, condition);
+
+		Predicate <List <Object>> predicate = values -> true;
+
+		for (Map.Entry <?, ?> operator : ((Map <?, ?>) condition).entrySet()) {
+
+			String op = operator.getKey().toString();
+			Object value = operator.getValue();
+
+			switch (op) {
+			case "$eq":
+				predicate = predicate.and(values -> matchesEqual (values, value));
+				break;
+			case "$ne":
+				predicate = predicate.and(values -> !matchesEqual (values, value));
+				break;
+			case "$gt":
+				predicate = predicate.and(values -> matchesCompare (values, value, c -> c > 0));
+				break;
+			case "$gte":
+				predicate = predicate.and(values -> matchesCompare (values, value, c -> c >= 0));
+				break;
+			case "$lt":
+				predicate = predicate.and(values -> matchesCompare (values, value, c -> c < 0));
+				break;
+			case "$lte":
+				predicate = predicate.and(values -> matchesCompare (values, value, c -> c <= 0));
+				break;
+			case "$in":
+			case "$nin":
+				if (!(value instanceof List))
+					throw new IllegalArgumentException(op + " of " + name + " requires an array");
+				List <?> list = (List <?>) value;
+				boolean in = op.equals("$in");
+				predicate = predicate.and(values -> list.stream().anyMatch(v -> matchesEqual (values, v)) == in);
+				break;
+			case "$exists":
+				if (!(value instanceof Boolean))
+					throw new IllegalArgumentException(op + " of " + name + " requires true or false");
+				predicate = predicate.and(values -> !values.isEmpty() == (Boolean) value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported operator of " + name + ": " + op);
+			}
+		}
+
+		return predicate;
+	}
+
+	/*
+	 * Tell whether an object has operators, otherwise it is an embedded document to be equal to
+	 */
+	private static boolean hasOperator (Map <?, ?> condition) {
+		for (Object key : condition.keySet())
+			if (key.toString().startsWith("$"))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Tell whether any value found, or any element of an array found, is equal to a value.
+	 * NULL is also matched by a field not found.
+	 */
+	private static boolean matchesEqual (List <Object> values, Object value) {
+
+		if (value == null && values.isEmpty())
+			return true;
+
+		for (Object found : values) {
+			if (compare (found, value) == 0)
+				return true;
+			if (found instanceof List)
+				for (Object element : (List <?>) found)
+					if (compare (element, value) == 0)
+						return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Tell whether any value found, or any element of an array found, of the same type as a value
+	 * compares to the value as expected
+	 */
+	private static boolean matchesCompare (List <Object> values, Object value, Predicate <Integer> expected) {
+
+		for (Object found : values) {
+			if (typeOrder (found) == typeOrder (value) && expected.test(compare (found, value)))
+				return true;
+			if (found instanceof List)
+				for (Object element : (List <?>) found)
+					if (typeOrder (element) == typeOrder (value) && expected.test(compare (element, value)))
+						return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Find the values at a dotted path of a raw document.
+	 * A path through an array finds the values in all its elements which are objects,
+	 * or in the element of the index if the segment is a number.
+	 *
+	 * @param doc The raw document
+	 * @param path The segments of the path
+	 * @return The values found, empty if the field does not exist
+	 */
+	static List <Object> find (Map <String, Object> doc, String [] path) {
+		List <Object> values = new ArrayList <Object> (1);
+		find (doc, path, 0, values);
+		return values;
+	}
+
+	private static void find (Object value, String [] path, int index, List <Object> values) {
+
+		if (index == path.length) {
+			values.add(value);
+		} else if (value instanceof Map) {
+			Map <?, ?> map = (Map <?, ?>) value;
+			if (map.containsKey(path[index]))
+				find (map.get(path[index]), path, index + 1, values);
+		} else if (value instanceof List) {
+			List <?> list = (List <?>) value;
+			for (Object element : list)
+				if (element instanceof Map)
+					find (element, path, index, values);
+
+			int position = toIndex (path[index]);
+			if (position >= 0 && position < list.size())
+				find (list.get(position), path, index + 1, values);
+		}
+	}
+
+	private static int toIndex (String segment) {
+		for (int i = 0; i < segment.length(); i++)
+			if (!Character.isDigit(segment.charAt(i)))
+				return -1;
+		return segment.length() > 9 ? -1 : Integer.parseInt(segment);
+	}
+
+	/**
+	 * Get the comparator of raw documents by the paths of {@link DocumentQuery#getSort()}.
+	 * An array is ordered by its least element in ascending order, and by its greatest in descending order,
+	 * and a field not found is ordered as NULL.
+	 *
+	 * @param sort The dotted paths, with a leading '-' for descending order
+	 * @return The comparator
+	 * @throws IllegalArgumentException If any path is not valid
+	 */
+	static Comparator <Map <String, Object>> toComparator (List <String> sort) {
+
+		Comparator <Map <String, Object>> comparator = (doc1, doc2) -> 0;
+
+		for (String field : sort) {
+			boolean descending = field.startsWith("-");
+			String name = (descending ? field.substring(1) : field);
+			FieldProjection.checkPath(name);
+			String [] path = name.split("\\.");
+
+			Comparator <Map <String, Object>> byField =
+					(doc1, doc2) -> compare (sortKey (doc1, path, descending), sortKey (doc2, path, descending));
+
+			comparator = comparator.thenComparing(descending ? byField.reversed() : byField);
+		}
+
+		return comparator;
+	}
+
+	private static Object sortKey (Map <String, Object> doc, String [] path, boolean descending) {
+
+		Object key = null;
+		boolean found = false;
+
+		for (Object value : find (doc, path)) {
+			List <?> candidates = (value instanceof List && !((List <?>) value).isEmpty() ?
+					(List <?>) value : Collections.singletonList(value));
+
+			for (Object candidate : candidates) {
+				if (!found || (descending ? compare (candidate, key) > 0 : compare (candidate, key) < 0))
+					key = candidate;
+				found = true;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Compare two values of JSON in the order of Mongodb
+	 */
+	static int compare (Object value1, Object value2) {
+
+		int order = Integer.compare(typeOrder (value1), typeOrder (value2));
+		if (order != 0)
+			return order;
+
+		if (value1 instanceof Number)
+			return compareNumbers ((Number) value1, (Number) value2);
+
+		if (value1 instanceof String)
+			return ((String) value1).compareTo((String) value2);
+
+		if (value1 instanceof Boolean)
+			return Boolean.compare((Boolean) value1, (Boolean) value2);
+
+		if (value1 instanceof Map) {
+			Iterator <? extends Map.Entry <?, ?>> entries1 = ((Map <?, ?>) value1).entrySet().iterator();
+			Iterator <? extends Map.Entry <?, ?>> entries2 = ((Map <?, ?>) value2).entrySet().iterator();
+			while (entries1.hasNext() && entries2.hasNext()) {
+				Map.Entry <?, ?> entry1 = entries1.next(), entry2 = entries2.next();
+				order = entry1.getKey().toString().compareTo(entry2.getKey().toString());
+				if (order == 0)
+					order = compare (entry1.getValue(), entry2.getValue());
+				if (order != 0)
+					return order;
+			}
+			return Boolean.compare(entries1.hasNext(), entries2.hasNext());
+		}
+
+		if (value1 instanceof List) {
+			List <?> list1 = (List <?>) value1, list2 = (List <?>) value2;
+			for (int i = 0; i < list1.size() && i < list2.size(); i++) {
+				order = compare (list1.get(i), list2.get(i));
+				if (order != 0)
+					return order;
+			}
+			return Integer.compare(list1.size(), list2.size());
+		}
+
+		return value1 == null ? 0 : value1.toString().compareTo(value2.toString());
+	}
+
+	private static int typeOrder (Object value) {
+		if (value == null) return 0;
+		if (value instanceof Number) return 1;
+		if (value instanceof String) return 2;
+		if (value instanceof Map) return 3;
+		if (value instanceof List) return 4;
+		if (value instanceof Boolean) return 5;
+		return 6;
+	}
+
+	private static int compareNumbers (Number number1, Number number2) {
+
+		if (isIntegral (number1) && isIntegral (number2))
+			return Long.compare(number1.longValue(), number2.longValue());
+
+		if (number1 instanceof BigDecimal || number1 instanceof BigInteger
+				|| number2 instanceof BigDecimal || number2 instanceof BigInteger)
+			return new BigDecimal (number1.toString()).compareTo(new BigDecimal (number2.toString()));
+
+		return Double.compare(number1.doubleValue(), number2.doubleValue());
+	}
+
+	private static boolean isIntegral (Number number) {
+		return number instanceof Integer || number instanceof Long
+				|| number instanceof Short || number instanceof Byte;
+	}
+
+	/**
+	 * Project the fields of a raw document
+	 * @param doc The raw document, not modified
+	 * @param fields The fields to return or exclude
+	 * @return A new raw document with the fields projected
+	 */
+	static ModelMap project (Map <String, Object> doc, FieldProjection fields) {
+
+		if (fields.isExclude()) {
+			ModelMap projected = copy (doc);
+			for (String path : fields.getPaths())
+				remove (projected, path.split("\\."), 0);
+			return projected;
+		}
+
+		ModelMap projected = new ModelMap ();
+		for (String path : fields.getPaths())
+			include (doc, projected, path.split("\\."), 0);
+		return projected;
+	}
+
+	/*
+	 * Copy the field at a path from a document to the projected one,
+	 * through the objects in arrays in the same positions
+	 */
+	@SuppressWarnings("unchecked")
+	private static void include (Map <?, ?> from, Map <String, Object> to, String [] path, int index) {
+
+		if (!from.containsKey(path[index]))
+			return;
+
+		String name = path[index];
+		Object value = from.get(name);
+
+		if (index == path.length - 1) {
+			to.put(name, copyValue (value));
+		} else if (value instanceof Map) {
+			Object sub = to.get(name);
+			if (!(sub instanceof Map))
+				to.put(name, sub = new LinkedHashMap <String, Object> ());
+			include ((Map <?, ?>) value, (Map <String, Object>) sub, path, index + 1);
+		} else if (value instanceof List) {
+			List <?> list = (List <?>) value;
+			List <Object> subs = (to.get(name) instanceof List ? (List <Object>) to.get(name) : null);
+			if (subs == null) {
+				subs = new ArrayList <Object> ();
+				for (Object element : list)
+					if (element instanceof Map)
+						subs.add(new LinkedHashMap <String, Object> ());
+				to.put(name, subs);
+			}
+			int position = 0;
+			for (Object element : list)
+				if (element instanceof Map)
+					include ((Map <?, ?>) element, (Map <String, Object>) subs.get(position++), path, index + 1);
+		}
+	}
+
+	/*
+	 * Remove the field at a path, through the objects in arrays
+	 */
+	private static void remove (Object value, String [] path, int index) {
+
+		if (value instanceof Map) {
+			if (index == path.length - 1)
+				((Map <?, ?>) value).remove(path[index]);
+			else
+				remove (((Map <?, ?>) value).get(path[index]), path, index + 1);
+		} else if (value instanceof List) {
+			for (Object element : (List <?>) value)
+				remove (element, path, index);
+		}
+	}
+
+	/**
+	 * Set the value at a dotted path of a raw document, creating the objects on the path which do not exist
+	 * @param doc The raw document to modify
+	 * @param path The dotted path
+	 * @param value The value
+	 * @throws IllegalArgumentException If a value on the path is not an object
+	 */
+	@SuppressWarnings("unchecked")
+	static void set (Map <String, Object> doc, String path, Object value) {
+
+		String [] segments = path.split("\\.");
+		Map <String, Object> parent = doc;
+
+		for (int i = 0; i < segments.length - 1; i++) {
+			Object sub = parent.get(segments[i]);
+			if (sub == null && !parent.containsKey(segments[i]))
+				parent.put(segments[i], sub = new LinkedHashMap <String, Object> ());
+			if (!(sub instanceof Map))
+				throw new IllegalArgumentException("Can not set " + path + " in a field which is not an object");
+			parent = (Map <String, Object>) sub;
+		}
+
+		parent.put(segments[segments.length - 1], copyValue (value));
+	}
+
+	/**
+	 * Remove the value at a dotted path of a raw document, if it exists
+	 * @param doc The raw document to modify
+	 * @param path The dotted path
+	 */
+	static void unset (Map <String, Object> doc, String path) {
+
+		String [] segments = path.split("\\.");
+		Object parent = doc;
+
+		for (int i = 0; i < segments.length - 1 && parent instanceof Map; i++)
+			parent = ((Map <?, ?>) parent).get(segments[i]);
+
+		if (parent instanceof Map)
+			((Map <?, ?>) parent).remove(segments[segments.length - 1]);
+	}
+
+	/**
+	 * Copy a raw document deeply, so that it does not share any object or array with the original
+	 */
+	static ModelMap copy (Map <String, Object> doc) {
+		ModelMap copy = new ModelMap ();
+		for (Map.Entry <String, Object> field : doc.entrySet())
+			copy.put(field.getKey(), copyValue (field.getValue()));
+		return copy;
+	}
+
+	private static Object copyValue (Object value) {
+
+		if (value instanceof Map) {
+			Map <String, Object> copy = new LinkedHashMap <String, Object> ();
+			for (Map.Entry <?, ?> field : ((Map <?, ?>) value).entrySet())
+				copy.put(field.getKey().toString(), copyValue (field.getValue()));
+			return copy;
+		}
+
+		if (value instanceof List) {
+			List <Object> copy = new ArrayList <Object> (((List <?>) value).size());
+			for (Object element : (List <?>) value)
+				copy.add(copyValue (element));
+			return copy;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Run an aggregation pipeline in the form of {@link DocRepositoryCustom#aggregate(List)} on raw documents
+	 * @param pipeline The list of stages
+	 * @param docs The raw documents
+	 * @return The list of results
+	 * @throws IllegalArgumentException If the pipeline is not valid or not supported
+	 */
+	@SuppressWarnings("unchecked")
+	static List <Map <String, Object>> aggregate (List <Map <String, Object>> pipeline, Iterable <? extends Map <String, Object>> docs) {
+
+		// Check all stages before reading any document, the same as by the database
+		List <Function <List <Map <String, Object>>, List <Map <String, Object>>>> stages =
+				new ArrayList <Function <List <Map <String, Object>>, List <Map <String, Object>>>> ();
+		boolean grouped = false;
+
+		for (Map <String, Object> stage : pipeline) {
+			if (stage == null || stage.size() != 1)
+				throw new IllegalArgumentException("A stage requires exactly one operator: " + stage);
+
+			String op = stage.keySet().iterator().next();
+			Object value = stage.get(op);
+
+			switch (op) {
+			case "$match":
+				if (!(value instanceof Map))
+					throw new IllegalArgumentException("$match requires a filter");
+				Predicate <Map <String, Object>> predicate = toPredicate ((Map <String, Object>) value);
+				stages.add(results -> { results.removeIf(predicate.negate()); return results; });
+				break;
+
+			case "$group":
+				if (!(value instanceof Map) || !((Map <?, ?>) value).containsKey("_id"))
+					throw new IllegalArgumentException("$group requires an object with _id");
+				Map <String, Object> group = (Map <String, Object>) value;
+				checkGroup (group);
+				stages.add(results -> group (results, group));
+				grouped = true;
+				break;
+
+			case "$count":
+				if (!(value instanceof String) || ((String) value).isEmpty()
+						|| ((String) value).contains(".") || ((String) value).startsWith("$")
+						|| value.equals("_id"))
+					throw new IllegalArgumentException("$count requires a field name");
+				stages.add(results -> results.isEmpty() ? results :
+					Collections.singletonList(Collections.singletonMap((String) value, (Object) results.size())));
+				grouped = true;
+				break;
+
+			case "$sort":
+				if (!(value instanceof Map) || ((Map <?, ?>) value).isEmpty())
+					throw new IllegalArgumentException("$sort requires an object of paths");
+				List <String> sort = new ArrayList <String> ();
+				for (Map.Entry <String, Object> field : ((Map <String, Object>) value).entrySet()) {
+					FieldProjection.checkPath(field.getKey());
+					if (!(field.getValue() instanceof Number) || Math.abs(((Number) field.getValue()).intValue()) != 1)
+						throw new IllegalArgumentException("$sort of " + field.getKey() + " requires 1 or -1");
+					sort.add((((Number) field.getValue()).intValue() < 0 ? "-" : "") + field.getKey());
+				}
+				Comparator <Map <String, Object>> comparator = toComparator (sort);
+				stages.add(results -> { results.sort(comparator); return results; });
+				break;
+
+			case "$limit":
+				if (!(value instanceof Integer || value instanceof Long) || ((Number) value).longValue() <= 0)
+					throw new IllegalArgumentException("$limit requires a positive integer");
+				long limit = ((Number) value).longValue();
+				stages.add(results -> results.size() <= limit ? results : results.subList(0, (int) limit));
+				break;
+
+			default:
+				throw new IllegalArgumentException("Unsupported stage: " + op);
+			}
+		}
+
+		if (!grouped)
+			throw new IllegalArgumentException("A pipeline requires $group or $count, use _search to find documents");
+
+		List <Map <String, Object>> results = new ArrayList <Map <String, Object>> ();
+		for (Map <String, Object> doc : docs)
+			results.add(doc);
+
+		for (Function <List <Map <String, Object>>, List <Map <String, Object>>> stage : stages)
+			results = new ArrayList <Map <String, Object>> (stage.apply(results));
+
+		return results;
+	}
+
+	/*
+	 * Check the $group stage, with only references to paths as the keys,
+	 * and only simple accumulators of numbers or paths
+	 */
+	private static void checkGroup (Map <String, Object> group) {
+
+		for (Map.Entry <String, Object> field : group.entrySet()) {
+			String name = field.getKey();
+			Object value = field.getValue();
+
+			if (name.equals("_id")) {
+				if (value instanceof Map) {
+					for (Map.Entry <?, ?> key : ((Map <?, ?>) value).entrySet()) {
+						if (key.getKey().toString().isEmpty() || key.getKey().toString().contains(".")
+								|| key.getKey().toString().startsWith("$"))
+							throw new IllegalArgumentException("Invalid key name of $group: " + key.getKey());
+						checkReference (key.getValue());
+					}
+				} else if (value != null) {
+					checkReference (value);
+				}
+				continue;
+			}
+
+			if (name.isEmpty() || name.contains(".") || name.startsWith("$"))
+				throw new IllegalArgumentException("Invalid field name of $group: " + name);
+
+			if (!(value instanceof Map) || ((Map <?, ?>) value).size() != 1)
+				throw new IllegalArgumentException("$group of " + name + " requires one accumulator");
+
+			Map.Entry <?, ?> accumulator = ((Map <?, ?>) value).entrySet().iterator().next();
+			String op = accumulator.getKey().toString();
+			if (!DocRepositoryImpl.ACCUMULATORS.contains(op))
+				throw new IllegalArgumentException("Unsupported accumulator of " + name + ": " + op);
+
+			if (!(accumulator.getValue() instanceof Number))
+				checkReference (accumulator.getValue());
+		}
+	}
+
+	private static void checkReference (Object reference) {
+		if (!(reference instanceof String) || !((String) reference).startsWith("$"))
+			throw new IllegalArgumentException("Invalid reference to a path: " + reference);
+		FieldProjection.checkPath(((String) reference).substring(1));
+	}
+
+	/*
+	 * Group the documents by the keys of _id, in the order the keys are first found
+	 */
+	private static List <Map <String, Object>> group (List <Map <String, Object>> docs, Map <String, Object> group) {
+
+		Map <Object, List <Map <String, Object>>> groups = new LinkedHashMap <Object, List <Map <String, Object>>> ();
+
+		for (Map <String, Object> doc : docs) {
+			Object key = group.get("_id");
+			if (key instanceof Map) {
+				Map <String, Object> keys = new LinkedHashMap <String, Object> ();
+				for (Map.Entry <?, ?> field : ((Map <?, ?>) key).entrySet())
+					keys.put(field.getKey().toString(), resolve (doc, field.getValue()));
+				key = keys;
+			} else if (key != null) {
+				key = resolve (doc, key);
+			}
+			groups.computeIfAbsent(new GroupKey (key), k -> new ArrayList <Map <String, Object>> ()).add(doc);
+		}
+
+		List <Map <String, Object>> results = new ArrayList <Map <String, Object>> ();
+
+		for (Map.Entry <Object, List <Map <String, Object>>> entry : groups.entrySet()) {
+			Map <String, Object> result = new LinkedHashMap <String, Object> ();
+			result.put("_id", ((GroupKey) entry.getKey()).key);
+
+			for (Map.Entry <String, Object> field : group.entrySet()) {
+				if (field.getKey().equals("_id")) continue;
+				Map.Entry <?, ?> accumulator = ((Map <?, ?>) field.getValue()).entrySet().iterator().next();
+				result.put(field.getKey(), accumulate (accumulator.getKey().toString(), accumulator.getValue(), entry.getValue()));
+			}
+			results.add(result);
+		}
+
+		return results;
+	}
+
+	/*
+	 * Compute an accumulator of a number or a path on the documents of a group
+	 */
+	private static Object accumulate (String op, Object operand, List <Map <String, Object>> docs) {
+
+		List <Object> values = new ArrayList <Object> ();
+		for (Map <String, Object> doc : docs)
+			values.add(operand instanceof Number ? operand : resolve (doc, operand));
+
+		switch (op) {
+		case "$sum":
+			long longSum = 0;
+			double doubleSum = 0;
+			boolean integral = true;
+			for (Object value : values) {
+				if (!(value instanceof Number)) continue;
+				if (isIntegral ((Number) value))
+					longSum += ((Number) value).longValue();
+				else
+					integral = false;
+				doubleSum += ((Number) value).doubleValue();
+			}
+			if (!integral) return doubleSum;
+			return (longSum == (int) longSum ? (Object) (int) longSum : (Object) longSum);
+
+		case "$avg":
+			double total = 0;
+			int count = 0;
+			for (Object value : values) {
+				if (!(value instanceof Number)) continue;
+				total += ((Number) value).doubleValue();
+				count++;
+			}
+			return count == 0 ? null : total / count;
+
+		default:
+			Object extreme = null;
+			for (Object value : values) {
+				if (value == null) continue;
+				if (extreme == null || (op.equals("$min") ? compare (value, extreme) < 0 : compare (value, extreme) > 0))
+					extreme = value;
+			}
+			return extreme;
+		}
+	}
+
+	/*
+	 * Resolve a reference to a path in the form of "$path", NULL if not found.
+	 * A path through an array resolves to the array of the values in its elements.
+	 */
+	private static Object resolve (Map <String, Object> doc, Object reference) {
+		return resolve (doc, ((String) reference).substring(1).split("\\."), 0);
+	}
+
+	private static Object resolve (Object value, String [] path, int index) {
+
+		if (index == path.length)
+			return value;
+
+		if (value instanceof Map)
+			return resolve (((Map <?, ?>) value).get(path[index]), path, index + 1);
+
+		if (value instanceof List) {
+			List <Object> values = new ArrayList <Object> ();
+			for (Object element : (List <?>) value) {
+				Object resolved = (element instanceof Map ? resolve (element, path, index) : null);
+				if (resolved != null)
+					values.add(resolved);
+			}
+			return values;
+		}
+
+		return null;
+	}
+
+	/*
+	 * The key of a group, equal to the keys of the same values in the order of Mongodb (e.g. 1 and 1.0)
+	 */
+	private static class GroupKey {
+
+		final Object key;
+
+		GroupKey (Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals (Object other) {
+			return other instanceof GroupKey && typeOrder (key) == typeOrder (((GroupKey) other).key)
+					&& compare (key, ((GroupKey) other).key) == 0;
+		}
+
+		@Override
+		public int hashCode () {
+			// Numbers of different types may be equal, so all numbers are in one bucket by their double value
+			if (key instanceof Number)
+				return Double.hashCode(((Number) key).doubleValue());
+			if (key instanceof Map || key instanceof List)
+				return typeOrder (key);
+			return key == null ? 0 : key.hashCode();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package repository;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * 
+ * Configuration of the {@link DocRepository} bean kept in memory with the profile "memory", 
+ * as the repository of the default collection of {@link InMemoryDocRepositoryFactory}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+@Profile ("memory")
+public class InMemoryRepositoryConfig {
+
+	@Bean
+	public DocRepository docRepository (InMemoryDocRepositoryFactory repositoryFactory) {
+		return repositoryFactory.getRawRepository(repositoryFactory.getDefaultCollectionName());
+	}
+}
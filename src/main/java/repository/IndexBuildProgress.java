@@ -0,0 +1,34 @@
+package repository;
+
+/**
+ * Progress of an index being built by the database
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class IndexBuildProgress {
+
+	private long done;
+	
+	private long total;
+	
+	/**
+	 * Construct the progress
+	 * @param done The number of documents indexed
+	 * @param total The total number of documents to index
+	 */
+	public IndexBuildProgress (long done, long total) {
+		this.done = done;
+		this.total = total;
+	}
+	
+	/**
+	 * Get the number of documents indexed
+	 */
+	public long getDone () { return done; }
+	
+	/**
+	 * Get the total number of documents to index
+	 */
+	public long getTotal () { return total; }
+}
@@ -0,0 +1,170 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ *
+ * Implementation of {@link DocRepository} keeping the documents of a collection on disk 
+ * in an append-only log by {@link LogDocumentStore}, as an embedded alternative to Mongodb 
+ * for a single node. Repositories are created by {@link LogDocRepositoryFactory} with the profile "embedded".
+ *
+ * Queries, aggregations and updates are the same as by {@link InMemoryDocRepository}, on the documents
+ * read from the log. Raw documents are written out from the log as stored, without being parsed.
+ * The definitions of secondary indexes are kept in the file "indexes.json" beside the log.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class LogDocRepository extends InMemoryDocRepository implements Closeable {
+
+	private static final ObjectMapper mapper = new ObjectMapper ();
+
+	private static final String INDEXES_FILE = "indexes.json";
+
+	private final LogDocumentStore store;
+
+	/**
+	 * Construct a repository of the documents in a log, with the indexes kept beside it
+	 * @throws IOException If the indexes can not be read
+	 */
+	LogDocRepository (LogDocumentStore store) throws IOException {
+
+		super (store);
+		this.store = store;
+
+		Path indexes = store.getDirectory().resolve(INDEXES_FILE);
+		if (Files.exists(indexes))
+			for (DocumentIndex index : mapper.<List <DocumentIndex>> readValue(indexes.toFile(), 
+					new TypeReference <List <DocumentIndex>> () {}))
+				super.createIndex(index);
+	}
+
+	/**
+	 * Force the documents written since the last time to disk
+	 * @throws IOException If writing to disk fails
+	 */
+	public void sync () throws IOException {
+		store.sync();
+	}
+
+	/**
+	 * Reclaim the space of documents replaced or deleted
+	 * @param ratio The minimum ratio of the space of documents replaced or deleted, of a segment of the log to reclaim
+	 * @return The number of segments reclaimed
+	 * @throws IOException If reading or writing the log fails
+	 */
+	public int compact (double ratio) throws IOException {
+		return store.compact(ratio);
+	}
+
+	/**
+	 * Force all documents to disk and close the log
+	 */
+	@Override
+	public void close () throws IOException {
+		store.close();
+	}
+
+	@Override
+	public boolean writeRaw (String id, OutputStream json) throws IOException {
+		return writeRawKey (ObjectId.isValid(id) ? id.toLowerCase() : id, json);
+	}
+
+	@Override
+	public long writeRawRange (IdRange range, OutputStream ndjson) throws IOException {
+
+		Iterator <String> keys = (range.isObjectIds() ? 
+				store.keys(range.getFrom(), range.getTo()) : store.keys()).iterator();
+
+		long count = 0;
+		while (keys.hasNext()) {
+			String key = keys.next();
+			if (ObjectId.isValid(key) != range.isObjectIds()) continue;
+
+			if (writeRawKey (key, ndjson)) {
+				ndjson.write('\n');
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void createIndex (DocumentIndex index) {
+		super.createIndex(index);
+		saveIndexes ();
+	}
+
+	@Override
+	public synchronized boolean dropIndex (String name) {
+
+		if (!super.dropIndex(name))
+			return false;
+
+		saveIndexes ();
+		return true;
+	}
+
+	@Override
+	public synchronized void clear () {
+		super.clear();
+		saveIndexes ();
+	}
+
+	/*
+	 * Write a document in the same form as StoredDocument, with the raw document from the log
+	 */
+	private boolean writeRawKey (String key, OutputStream json) throws IOException {
+
+		ByteBuffer document = store.getJson(key);
+		if (document == null)
+			return false;
+
+		json.write(("{\"id\":" + mapper.writeValueAsString(key) + ",\"document\":").getBytes(StandardCharsets.UTF_8));
+
+		byte [] buffer = new byte [Math.min(document.remaining(), 8192)];
+		while (document.hasRemaining()) {
+			int length = Math.min(document.remaining(), buffer.length);
+			document.get(buffer, 0, length);
+			json.write(buffer, 0, length);
+		}
+
+		json.write('}');
+		return true;
+	}
+
+	/*
+	 * Write the definitions of the indexes, replaced atomically
+	 */
+	private void saveIndexes () {
+
+		Path path = store.getDirectory().resolve(INDEXES_FILE);
+
+		try {
+			Path temp = Files.createTempFile(store.getDirectory(), "." + INDEXES_FILE, ".tmp");
+			try {
+				mapper.writeValue(temp.toFile(), findIndexes ());
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			throw new DataAccessResourceFailureException("Indexes can not be written: " + path, e);
+		}
+	}
+}
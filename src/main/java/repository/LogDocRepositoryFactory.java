@@ -0,0 +1,246 @@
+package repository;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.stereotype.Component;
+
+/**
+ * 
+ * Factory of {@link DocRepository} of collections kept on disk by {@link LogDocRepository},
+ * with the profile "embedded", which also serves the {@link DocRepository} bean of the default collection
+ * through {@link LogRepositoryConfig}. So the service runs on a single node without Mongodb, with properties:
+ * 
+ *  - docservice.embedded.data-dir                  : directory of the data, with a directory of each collection (default "data")
+ *  - docservice.embedded.segment-bytes             : size of a segment file of the log, 
+ *                                                    which is also the maximum size of a document (default 64MB)
+ *  - docservice.embedded.sync-interval-ms          : interval to force the writes to disk, 0 to force each write 
+ *                                                    before it returns (default 100). Writes in the interval are lost
+ *                                                    if the machine fails, but not if only the process is killed.
+ *  - docservice.embedded.compact-ratio             : minimum ratio of the space of documents replaced or deleted
+ *                                                    in a segment, to reclaim it (default 0.5)
+ *  - docservice.embedded.compact-interval-seconds  : interval to reclaim space in the background (default 60)
+ * 
+ * Repositories created are post-processed the same as the {@link DocRepository} bean 
+ * (e.g. wrapped to record metrics).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+@Profile ("embedded")
+public class LogDocRepositoryFactory implements DocRepositoryFactory {
+	
+	private static final Logger log = LoggerFactory.getLogger(LogDocRepositoryFactory.class);
+	
+	private final String defaultName = StoredDocument.class.getAnnotation(Document.class).collection();
+	
+	private final Map <String, LogDocRepository> repositories = new ConcurrentHashMap <String, LogDocRepository> ();
+	
+	private final Path dataDir;
+	
+	private final int segmentBytes;
+	
+	private final long syncIntervalMs;
+	
+	private final double compactRatio;
+	
+	private final long compactIntervalSeconds;
+	
+	private AutowireCapableBeanFactory beanFactory;
+	
+	private ScheduledExecutorService maintenance;
+	
+	@Autowired
+	public LogDocRepositoryFactory (@Value("${docservice.embedded.data-dir:data}") String dataDir,
+			@Value("${docservice.embedded.segment-bytes:67108864}") int segmentBytes,
+			@Value("${docservice.embedded.sync-interval-ms:100}") long syncIntervalMs,
+			@Value("${docservice.embedded.compact-ratio:0.5}") double compactRatio,
+			@Value("${docservice.embedded.compact-interval-seconds:60}") long compactIntervalSeconds,
+			AutowireCapableBeanFactory beanFactory) {
+		
+		if (syncIntervalMs < 0 || compactIntervalSeconds <= 0 || compactRatio <= 0 || compactRatio > 1)
+			throw new IllegalArgumentException ("Invalid configuration of the embedded storage");
+		
+		this.dataDir = Paths.get(dataDir);
+		this.segmentBytes = segmentBytes;
+		this.syncIntervalMs = syncIntervalMs;
+		this.compactRatio = compactRatio;
+		this.compactIntervalSeconds = compactIntervalSeconds;
+		this.beanFactory = beanFactory;
+	}
+	
+	/**
+	 * Open the collections in the data directory, and start forcing writes to disk and reclaiming space
+	 * in the background
+	 * @throws IOException If the data can not be read
+	 */
+	@PostConstruct
+	public void open () throws IOException {
+		
+		Files.createDirectories(dataDir);
+		
+		try (DirectoryStream <Path> dirs = Files.newDirectoryStream(dataDir, Files::isDirectory)) {
+			for (Path dir : dirs)
+				getRawRepository (dir.getFileName().toString());
+		}
+		
+		maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread (task, "docservice-embedded-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		if (syncIntervalMs > 0)
+			maintenance.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+		maintenance.scheduleWithFixedDelay(this::compact, compactIntervalSeconds, compactIntervalSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stop the background tasks, and close the collections with all writes forced to disk
+	 * @throws Exception If a collection can not be closed, or interrupted waiting for the background tasks
+	 */
+	@PreDestroy
+	public void close () throws Exception {
+		
+		if (maintenance != null) {
+			maintenance.shutdown();
+			maintenance.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		
+		for (LogDocRepository repository : repositories.values())
+			repository.close();
+	}
+	
+	/**
+	 * Force the writes of all collections to disk
+	 */
+	public void sync () {
+		for (Map.Entry <String, LogDocRepository> repository : repositories.entrySet()) {
+			try {
+				repository.getValue().sync();
+			} catch (IOException | RuntimeException e) {
+				log.error("Failed to force writes of collection {} to disk", repository.getKey(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Reclaim the space of documents replaced or deleted of all collections
+	 */
+	public void compact () {
+		for (Map.Entry <String, LogDocRepository> repository : repositories.entrySet()) {
+			try {
+				repository.getValue().compact(compactRatio);
+			} catch (IOException | RuntimeException e) {
+				log.error("Failed to reclaim space of collection {}", repository.getKey(), e);
+			}
+		}
+	}
+	
+	@Override
+	public String getDefaultCollectionName () {
+		return defaultName;
+	}
+	
+	@Override
+	public DocRepository getRepository (String collectionName) {
+		return (DocRepository) beanFactory.applyBeanPostProcessorsAfterInitialization(
+				getRawRepository (collectionName), "docRepository." + collectionName);
+	}
+	
+	/**
+	 * Get the repository of a collection without post-processing, 
+	 * which is the same for all calls with the same name
+	 */
+	LogDocRepository getRawRepository (String collectionName) {
+		return repositories.computeIfAbsent(collectionName, name -> {
+			try {
+				return new LogDocRepository (new LogDocumentStore (dataDir.resolve(name), segmentBytes, syncIntervalMs == 0));
+			} catch (IOException e) {
+				throw new DataAccessResourceFailureException("Collection can not be opened: " + name, e);
+			}
+		});
+	}
+	
+	@Override
+	public Set <String> findCollectionNames () {
+		
+		Set <String> names = new TreeSet <String> ();
+		for (Map.Entry <String, LogDocRepository> repository : repositories.entrySet())
+			if (!repository.getValue().isEmpty())
+				names.add(repository.getKey());
+		
+		return names;
+	}
+	
+	@Override
+	public boolean collectionExists (String collectionName) {
+		LogDocRepository repository = repositories.get(collectionName);
+		return repository != null && !repository.isEmpty();
+	}
+	
+	/**
+	 * Drop a collection. The directory of the collection is deleted, unless it is the default collection,
+	 * whose repository is kept open by the {@link DocRepository} bean and cleared.
+	 */
+	@Override
+	public boolean dropCollection (String collectionName) {
+		
+		LogDocRepository repository = repositories.get(collectionName);
+		if (repository == null || repository.isEmpty())
+			return false;
+		
+		if (collectionName.equals(defaultName)) {
+			repository.clear();
+			return true;
+		}
+		
+		// Not opened again by getRepository until deleted
+		repositories.computeIfPresent(collectionName, (name, dropped) -> {
+			try {
+				dropped.close();
+				deleteDirectory (dataDir.resolve(name));
+			} catch (IOException e) {
+				throw new DataAccessResourceFailureException("Collection can not be dropped: " + name, e);
+			}
+			return null;
+		});
+		
+		return true;
+	}
+	
+	/*
+	 * Delete a directory with the files in it
+	 */
+	private static void deleteDirectory (Path dir) throws IOException {
+		
+		try (DirectoryStream <Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files)
+				Files.delete(file);
+		}
+		
+		Files.delete(dir);
+	}
+}
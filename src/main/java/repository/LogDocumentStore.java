@@ -0,0 +1,894 @@
+package repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.ui.ModelMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ *
+ * Storage of documents on disk in an append-only log, in a directory of its own.
+ *
+ * The log is a sequence of segment files "n.log" of a fixed size, of which only the last one is written.
+ * Each write of a document appends a record to the segment through a {@link FileChannel}:
+ * the document in JSON for a write, or a tombstone for a delete. The segments are also mapped
+ * into memory read-only, so a document is read from the page cache without a system call,
+ * and written out as stored without being parsed, from {@link #getJson(String)}.
+ *
+ * Record: int length | int CRC32 of the rest | byte type | short ID length | ID |
+ *         short version length (-1 for NULL) | version | document in JSON (for a write)
+ *
+ * The location of the latest record of each document is kept in memory in a concurrent skip list by ID,
+ * with the version so that it is read without the document. On open, the index is rebuilt from
+ * the "n.hint" file of each segment if written, which has the IDs and locations of the records of
+ * the segment and is read mapped; otherwise from the records of the segment, up to the first
+ * record which is not complete, e.g. after a crash while writing.
+ *
+ * Writes are serialized by a lock, so the records of a document are in the order of the writes.
+ * Reads do not lock. The records are forced to disk by {@link #sync()}, or on each write if configured.
+ *
+ * Records replaced or deleted are reclaimed by {@link #compact(double)}: the records still in use
+ * of a segment with enough of them replaced are appended again to the last segment, and the segment
+ * is deleted. Readers which have found a record of a deleted segment still read it from its mapping,
+ * which is only released when they are done.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+final class LogDocumentStore implements DocumentStore, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(LogDocumentStore.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper ()
+			.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false)
+			.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final String HINT_SUFFIX = ".hint";
+
+	private static final byte PUT = 1;
+
+	private static final byte DELETE = 2;
+
+	// Length, checksum and type
+	private static final int HEADER_BYTES = 9;
+
+	private final Path dir;
+
+	private final int segmentBytes;
+
+	private final boolean syncOnWrite;
+
+	// The segments by number, the last one is written
+	private final ConcurrentSkipListMap <Long, Segment> segments = new ConcurrentSkipListMap <Long, Segment> ();
+
+	private final ConcurrentSkipListMap <String, Location> locations = new ConcurrentSkipListMap <String, Location> ();
+
+	// The size of the skip list is counted by traversing, so it is kept as documents are added and removed
+	private final AtomicLong size = new AtomicLong ();
+
+	private final ReentrantLock writeLock = new ReentrantLock ();
+
+	// Changed under the write lock
+	private volatile Segment active;
+
+	// The following are guarded by the write lock
+	private boolean dirty;
+
+	private boolean closed;
+
+	/*
+	 * A segment file, mapped read-only in full
+	 */
+	private static class Segment {
+
+		final long number;
+
+		final MappedByteBuffer map;
+
+		// Only of the active segment
+		FileChannel channel;
+
+		// The end of the records, only changed by writes to the active segment
+		volatile int end;
+
+		// The bytes of the records in use, changed under the write lock
+		volatile long live;
+
+		Segment (long number, MappedByteBuffer map) {
+			this.number = number;
+			this.map = map;
+		}
+	}
+
+	/*
+	 * The location of the latest record of a document
+	 */
+	private static class Location {
+
+		final Segment segment;
+
+		final int offset;
+
+		final int length;
+
+		// The offset of the document in the record
+		final int documentOffset;
+
+		final String version;
+
+		Location (Segment segment, int offset, Record record) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = record.length;
+			this.documentOffset = record.documentOffset;
+			this.version = record.version;
+		}
+	}
+
+	/*
+	 * The header of a record
+	 */
+	private static class Record {
+
+		byte type;
+
+		String key;
+
+		String version;
+
+		int length;
+
+		int documentOffset;
+	}
+
+	/**
+	 * Open the store in a directory, created if it does not exist
+	 * @param dir The directory
+	 * @param segmentBytes The size of a segment, the maximum size of a record
+	 * @param syncOnWrite Whether to force each write to disk before it returns
+	 * @throws IOException If the files can not be read or created
+	 */
+	LogDocumentStore (Path dir, int segmentBytes, boolean syncOnWrite) throws IOException {
+
+		if (segmentBytes < 1024)
+			throw new IllegalArgumentException("Invalid segment size: " + segmentBytes);
+
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.syncOnWrite = syncOnWrite;
+
+		Files.createDirectories(dir);
+
+		NavigableMap <Long, Path> files = new TreeMap <Long, Path> ();
+		try (DirectoryStream <Path> paths = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : paths) {
+				String name = path.getFileName().toString();
+				try {
+					files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), path);
+				} catch (NumberFormatException e) {
+					log.warn("Not a segment of the log: {}", path);
+				}
+			}
+		}
+
+		for (Map.Entry <Long, Path> file : files.entrySet()) {
+			boolean last = file.getKey().equals(files.lastKey());
+			Segment segment = openSegment (file.getKey(), file.getValue(), last);
+			segments.put(segment.number, segment);
+			if (last)
+				active = segment;
+		}
+
+		if (active == null)
+			active = createSegment (1);
+
+		log.info("Opened {} documents in {} segments in {}", size.get(), segments.size(), dir);
+	}
+
+	/**
+	 * Get the directory of the store
+	 */
+	Path getDirectory () {
+		return dir;
+	}
+
+	@Override
+	public StoredDocument get (String key) {
+
+		Location location = locations.get(key);
+		return location == null ? null : read (key, location);
+	}
+
+	@Override
+	public StoredDocument getVersion (String key) {
+
+		Location location = locations.get(key);
+		if (location == null)
+			return null;
+
+		StoredDocument doc = new StoredDocument ();
+		doc.setId(key);
+		doc.setVersion(location.version);
+		return doc;
+	}
+
+	@Override
+	public boolean contains (String key) {
+		return locations.containsKey(key);
+	}
+
+	@Override
+	public long size () {
+		return size.get();
+	}
+
+	@Override
+	public Stream <StoredDocument> scan (String fromKey, boolean fromInclusive, String toKey) {
+
+		NavigableMap <String, Location> range;
+		if (fromKey == null)
+			range = (toKey == null ? locations : locations.headMap(toKey, false));
+		else
+			range = (toKey == null ? locations.tailMap(fromKey, fromInclusive)
+					: locations.subMap(fromKey, fromInclusive, toKey, false));
+
+		return range.entrySet().stream().map(location -> read (location.getKey(), location.getValue()));
+	}
+
+	@Override
+	public Stream <String> keys () {
+		return locations.keySet().stream();
+	}
+
+	/**
+	 * Read the keys of documents in order, from a key (inclusive) to another (exclusive)
+	 */
+	Stream <String> keys (String fromKey, String toKey) {
+		return locations.navigableKeySet().subSet(fromKey, true, toKey, false).stream();
+	}
+
+	/**
+	 * Get the raw document of a document in JSON as stored, to be written out without parsing it
+	 * @param key The ID of the document
+	 * @return The JSON in UTF-8 from the mapped segment, or NULL if the document is not found
+	 */
+	ByteBuffer getJson (String key) {
+
+		Location location = locations.get(key);
+		if (location == null)
+			return null;
+
+		return slice (location.segment, location.offset + location.documentOffset,
+				location.offset + location.length).asReadOnlyBuffer();
+	}
+
+	@Override
+	public void put (StoredDocument doc) {
+
+		ByteBuffer record = encode (PUT, doc.getId(), doc.getVersion(), toJson (doc.getDocument()));
+
+		writeLock.lock();
+		try {
+			append (record);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean insert (StoredDocument doc) {
+
+		ByteBuffer record = encode (PUT, doc.getId(), doc.getVersion(), toJson (doc.getDocument()));
+
+		writeLock.lock();
+		try {
+			if (locations.containsKey(doc.getId()))
+				return false;
+
+			append (record);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean update (String key, UnaryOperator <StoredDocument> update) {
+
+		writeLock.lock();
+		try {
+			Location location = locations.get(key);
+			if (location == null)
+				return false;
+
+			StoredDocument doc = update.apply(read (key, location));
+			append (encode (PUT, key, doc.getVersion(), toJson (doc.getDocument())));
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove (String key) {
+
+		ByteBuffer record = encode (DELETE, key, null, null);
+
+		writeLock.lock();
+		try {
+			if (!locations.containsKey(key))
+				return false;
+
+			append (record);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void clear () {
+
+		writeLock.lock();
+		try {
+			checkOpen ();
+
+			for (Segment segment : segments.values())
+				deleteSegment (segment);
+
+			locations.clear();
+			size.set(0);
+			active = createSegment (active.number + 1);
+		} catch (IOException e) {
+			throw new DataAccessResourceFailureException("Log can not be cleared: " + dir, e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Force the records written since the last time to disk
+	 * @throws IOException If writing to disk fails
+	 */
+	void sync () throws IOException {
+
+		FileChannel channel;
+
+		writeLock.lock();
+		try {
+			if (!dirty || closed)
+				return;
+
+			dirty = false;
+			channel = active.channel;
+		} finally {
+			writeLock.unlock();
+		}
+
+		// Not holding the lock, so writes go on while forcing; a segment being full is forced when closed
+		try {
+			channel.force(false);
+		} catch (ClosedChannelException e) {
+			// Forced when the segment is full, or closed by an interrupt and opened again
+			markDirty ();
+		} catch (IOException e) {
+			markDirty ();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reclaim the space of the records replaced or deleted in the segments which are full,
+	 * and write the hint files of the segments without one
+	 * @param ratio The minimum ratio of the bytes of records replaced or deleted, of a segment to reclaim
+	 * @return The number of segments reclaimed
+	 * @throws IOException If reading or writing the segments fails
+	 */
+	int compact (double ratio) throws IOException {
+
+		int compacted = 0;
+
+		for (Segment segment : new ArrayList <Segment> (segments.values())) {
+			if (segment == active) break;
+
+			if (segment.end - segment.live >= ratio * segment.end) {
+				relocate (segment);
+				compacted++;
+			} else if (!Files.exists(hintPath (segment.number))) {
+				writeHint (segment);
+			}
+		}
+
+		return compacted;
+	}
+
+	/**
+	 * Force all records to disk and close the files, with the hint file of the last segment written
+	 * so that it is opened without reading the records
+	 */
+	@Override
+	public void close () throws IOException {
+
+		writeLock.lock();
+		try {
+			if (closed) return;
+			closed = true;
+
+			active.channel.force(false);
+			active.channel.close();
+			writeHint (active);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * Append a record to the active segment and update the location of its document,
+	 * under the write lock
+	 */
+	private void append (ByteBuffer record) {
+
+		checkOpen ();
+
+		try {
+			if (active.end + record.remaining() > segmentBytes)
+				roll ();
+
+			int offset = active.end;
+			int length = record.remaining();
+			write (record, offset);
+			active.end = offset + length;
+
+			apply (active, offset, decode (active.map, offset, active.end));
+		} catch (IOException e) {
+			throw new DataAccessResourceFailureException("Log can not be written: " + dir, e);
+		}
+	}
+
+	/*
+	 * Write a record from position 0 at an offset of the active segment, and force it to disk if configured.
+	 * The offset is given with each write, so a record partly written by a failed write is written over.
+	 */
+	private void write (ByteBuffer record, int offset) throws IOException {
+
+		// An interrupt of the thread would close the channel, so it is kept until after the write
+		boolean interrupted = Thread.interrupted();
+		try {
+			// Closed by an interrupt during a write, which still holds
+			if (!active.channel.isOpen())
+				active.channel = FileChannel.open(segmentPath (active.number), StandardOpenOption.WRITE);
+
+			while (record.hasRemaining())
+				active.channel.write(record, offset + record.position());
+
+			if (syncOnWrite)
+				active.channel.force(false);
+			else
+				dirty = true;
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Update the location of the document of a record, and the bytes in use of the segments
+	 */
+	private void apply (Segment segment, int offset, Record record) {
+
+		Location old = (record.type == PUT ?
+				locations.put(record.key, new Location (segment, offset, record)) : locations.remove(record.key));
+
+		if (old != null)
+			old.segment.live -= old.length;
+		if (record.type == PUT)
+			segment.live += record.length;
+
+		if (old == null && record.type == PUT)
+			size.incrementAndGet();
+		else if (old != null && record.type == DELETE)
+			size.decrementAndGet();
+	}
+
+	/*
+	 * Close the active segment when it is full, and start the next one
+	 */
+	private void roll () throws IOException {
+
+		active.channel.force(false);
+		active.channel.close();
+		dirty = false;
+
+		active = createSegment (active.number + 1);
+	}
+
+	/*
+	 * Append the records in use of a segment to the active segment again, and delete the segment
+	 */
+	private void relocate (Segment segment) throws IOException {
+
+		long before = segment.end;
+
+		for (int offset = 0; offset < segment.end; ) {
+			Record record = decode (segment.map, offset, segment.end);
+			if (record == null) break;
+
+			writeLock.lock();
+			try {
+				checkOpen ();
+
+				Location location = locations.get(record.key);
+				boolean inUse = (record.type == PUT ?
+						location != null && location.segment == segment && location.offset == offset :
+						// A delete is kept while a record of the document before it may be in an older segment
+						location == null && segments.firstKey() < segment.number);
+
+				if (inUse)
+					append (slice (segment, offset, offset + record.length).slice());
+			} finally {
+				writeLock.unlock();
+			}
+
+			offset += record.length;
+		}
+
+		// The records appended are on disk before the segment is deleted
+		writeLock.lock();
+		try {
+			checkOpen ();
+			active.channel.force(false);
+			deleteSegment (segment);
+		} finally {
+			writeLock.unlock();
+		}
+
+		log.info("Compacted segment {} of {} bytes in {}", segment.number, before, dir);
+	}
+
+	private Segment createSegment (long number) throws IOException {
+
+		Path path = segmentPath (number);
+
+		// Of the full size at once, so that it is mapped in full
+		try (RandomAccessFile file = new RandomAccessFile (path.toFile(), "rw")) {
+			file.setLength(segmentBytes);
+		}
+
+		Segment segment = new Segment (number, map (path, segmentBytes));
+		segment.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+		segments.put(number, segment);
+
+		return segment;
+	}
+
+	/*
+	 * Open a segment and read the locations of its records, from the hint file if any
+	 */
+	private Segment openSegment (long number, Path path, boolean last) throws IOException {
+
+		int end = 0;
+		Segment segment;
+		Path hint = hintPath (number);
+
+		if (last) {
+			// Of the full size, to be mapped in full
+			long capacity = Math.max(Files.size(path), segmentBytes);
+			try (RandomAccessFile file = new RandomAccessFile (path.toFile(), "rw")) {
+				file.setLength(capacity);
+			}
+
+			segment = new Segment (number, map (path, capacity));
+			if (Files.exists(hint))
+				end = readHint (segment, hint);
+			end = readRecords (segment, end);
+
+			// The hint file of the last segment is out of date with the next write
+			Files.deleteIfExists(hint);
+
+			// Clear what is after the records, e.g. a record partly written, so it is not read after the next records
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(end);
+			}
+			try (RandomAccessFile file = new RandomAccessFile (path.toFile(), "rw")) {
+				file.setLength(capacity);
+			}
+			segment.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+		} else {
+			segment = new Segment (number, map (path, Files.size(path)));
+			end = (Files.exists(hint) ? readHint (segment, hint) : readRecords (segment, 0));
+		}
+
+		segment.end = end;
+		return segment;
+	}
+
+	/*
+	 * Read the records of a segment from an offset, up to the first which is not complete
+	 */
+	private int readRecords (Segment segment, int offset) {
+
+		int limit = segment.map.capacity();
+
+		Record record;
+		while ((record = decode (segment.map, offset, limit)) != null) {
+			apply (segment, offset, record);
+			offset += record.length;
+		}
+		return offset;
+	}
+
+	/*
+	 * Read the locations of the records of a segment from its hint file, mapped.
+	 * Entry: byte type | short ID length | ID | short version length (-1 for NULL) | version | int offset |
+	 *        int length | int document offset, with the CRC32 of all entries at the end
+	 */
+	private int readHint (Segment segment, Path path) throws IOException {
+
+		MappedByteBuffer hint = map (path, Files.size(path));
+
+		CRC32 crc = new CRC32 ();
+		ByteBuffer entries = hint.duplicate();
+		entries.limit(Math.max(hint.capacity() - 4, 0));
+		crc.update(entries);
+
+		if (hint.capacity() < 4 || (int) crc.getValue() != hint.getInt(hint.capacity() - 4)) {
+			log.warn("Hint file not valid, reading the records instead: {}", path);
+			return readRecords (segment, 0);
+		}
+
+		int end = 0;
+		try {
+			hint.limit(hint.capacity() - 4);
+			while (hint.hasRemaining()) {
+				Record record = new Record ();
+				record.type = hint.get();
+				record.key = getString (hint, hint.getShort());
+				record.version = getString (hint, hint.getShort());
+				int offset = hint.getInt();
+				record.length = hint.getInt();
+				record.documentOffset = hint.getInt();
+
+				apply (segment, offset, record);
+				end = offset + record.length;
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException ("Hint file not valid: " + path, e);
+		}
+		return end;
+	}
+
+	/*
+	 * Write the hint file of a segment, replaced atomically
+	 */
+	private void writeHint (Segment segment) throws IOException {
+
+		Path path = hintPath (segment.number);
+		Path temp = Files.createTempFile(dir, "." + segment.number, ".tmp");
+		CRC32 crc = new CRC32 ();
+
+		try {
+			try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream(temp), 64 * 1024) {
+				@Override
+				public void write (byte [] b, int off, int len) throws IOException {
+					crc.update(b, off, len);
+					super.write(b, off, len);
+				}
+				@Override
+				public void write (int b) throws IOException {
+					crc.update(b);
+					super.write(b);
+				}
+			})) {
+				Record record;
+				for (int offset = 0; (record = decode (segment.map, offset, segment.end)) != null; offset += record.length) {
+					out.writeByte(record.type);
+					putString (out, record.key);
+					putString (out, record.version);
+					out.writeInt(offset);
+					out.writeInt(record.length);
+					out.writeInt(record.documentOffset);
+				}
+				out.flush();
+				out.writeInt((int) crc.getValue());
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void deleteSegment (Segment segment) throws IOException {
+
+		if (segment.channel != null)
+			segment.channel.close();
+
+		segments.remove(segment.number);
+		Files.deleteIfExists(segmentPath (segment.number));
+		Files.deleteIfExists(hintPath (segment.number));
+	}
+
+	private void markDirty () {
+		writeLock.lock();
+		try {
+			dirty = true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void checkOpen () {
+		if (closed)
+			throw new IllegalStateException ("Log is closed: " + dir);
+	}
+
+	private Path segmentPath (long number) {
+		return dir.resolve(String.format("%010d", number) + SEGMENT_SUFFIX);
+	}
+
+	private Path hintPath (long number) {
+		return dir.resolve(String.format("%010d", number) + HINT_SUFFIX);
+	}
+
+	/*
+	 * Read the document of a record
+	 */
+	private static StoredDocument read (String key, Location location) {
+
+		ByteBuffer json = slice (location.segment, location.offset + location.documentOffset,
+				location.offset + location.length);
+
+		StoredDocument doc;
+		try {
+			doc = new StoredDocument (mapper.readValue(new ByteBufferBackedInputStream (json), ModelMap.class));
+		} catch (IOException e) {
+			throw new DataAccessResourceFailureException("Document can not be read: " + key, e);
+		}
+
+		doc.setId(key);
+		doc.setVersion(location.version);
+		return doc;
+	}
+
+	private static byte [] toJson (ModelMap document) {
+		try {
+			return mapper.writeValueAsBytes(document);
+		} catch (IOException e) {
+			throw new IllegalArgumentException ("Document can not be written as JSON", e);
+		}
+	}
+
+	/*
+	 * Encode a record, rejecting it before anything is written if it does not fit in a segment
+	 */
+	private ByteBuffer encode (byte type, String key, String version, byte [] document) {
+
+		byte [] id = key.getBytes(StandardCharsets.UTF_8);
+		byte [] ver = (version == null ? new byte [0] : version.getBytes(StandardCharsets.UTF_8));
+
+		if (id.length > Short.MAX_VALUE || ver.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException ("ID or version is too long to store");
+
+		long recordBytes = HEADER_BYTES + 2 + id.length + 2 + ver.length + (document == null ? 0L : document.length);
+		if (recordBytes > segmentBytes)
+			throw new IllegalArgumentException ("Document of " + recordBytes 
+					+ " bytes is larger than the segment size of " + segmentBytes + " bytes");
+
+		int length = (int) recordBytes;
+
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.putInt(length).putInt(0).put(type);
+		record.putShort((short) id.length).put(id);
+		record.putShort(version == null ? -1 : (short) ver.length).put(ver);
+		if (document != null)
+			record.put(document);
+
+		CRC32 crc = new CRC32 ();
+		crc.update(record.array(), 8, length - 8);
+		record.putInt(4, (int) crc.getValue());
+
+		record.flip();
+		return record;
+	}
+
+	/*
+	 * Read the header of the record at an offset, or NULL if there is no complete record
+	 */
+	private static Record decode (ByteBuffer segment, int offset, int limit) {
+
+		if (offset + HEADER_BYTES + 4 > limit)
+			return null;
+
+		int length = segment.getInt(offset);
+		if (length < HEADER_BYTES + 4 || length > limit - offset)
+			return null;
+
+		ByteBuffer content = segment.duplicate();
+		content.limit(offset + length).position(offset + 8);
+
+		CRC32 crc = new CRC32 ();
+		crc.update(content);
+		if ((int) crc.getValue() != segment.getInt(offset + 4))
+			return null;
+
+		content.position(offset + 8);
+
+		Record record = new Record ();
+		record.type = content.get();
+		record.key = getString (content, content.getShort());
+		record.version = getString (content, content.getShort());
+		record.length = length;
+		record.documentOffset = content.position() - offset;
+		return record;
+	}
+
+	/*
+	 * Read a string of a length from the position of a buffer, NULL if the length is -1
+	 */
+	private static String getString (ByteBuffer buffer, int length) {
+
+		if (length == -1)
+			return null;
+
+		byte [] bytes = new byte [length];
+		buffer.get(bytes);
+		return new String (bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putString (DataOutputStream out, String s) throws IOException {
+
+		if (s == null) {
+			out.writeShort(-1);
+			return;
+		}
+
+		byte [] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static ByteBuffer slice (Segment segment, int from, int to) {
+		ByteBuffer slice = segment.map.duplicate();
+		slice.limit(to).position(from);
+		return slice;
+	}
+
+	private static MappedByteBuffer map (Path path, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package repository;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * 
+ * Configuration of the {@link DocRepository} bean kept on disk with the profile "embedded", 
+ * as the repository of the default collection of {@link LogDocRepositoryFactory}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+@Profile ("embedded")
+public class LogRepositoryConfig {
+
+	@Bean
+	public DocRepository docRepository (LogDocRepositoryFactory repositoryFactory) {
+		return repositoryFactory.getRawRepository(repositoryFactory.getDefaultCollectionName());
+	}
+}
@@ -0,0 +1,96 @@
+package repository;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * 
+ * Storage of documents in memory, in a concurrent skip list by ID, so reads never lock 
+ * and documents are in the order of IDs. A write replaces the document by compare-and-set.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+final class MemoryDocumentStore implements DocumentStore {
+
+	private final ConcurrentSkipListMap <String, StoredDocument> docs = new ConcurrentSkipListMap <String, StoredDocument> ();
+
+	// The size of the skip list is counted by traversing, so it is kept as documents are added and removed
+	private final AtomicLong size = new AtomicLong ();
+
+	@Override
+	public StoredDocument get (String key) {
+		return docs.get(key);
+	}
+
+	@Override
+	public StoredDocument getVersion (String key) {
+		return docs.get(key);
+	}
+
+	@Override
+	public boolean contains (String key) {
+		return docs.containsKey(key);
+	}
+
+	@Override
+	public long size () {
+		return size.get();
+	}
+
+	@Override
+	public Stream <StoredDocument> scan (String fromKey, boolean fromInclusive, String toKey) {
+
+		Collection <StoredDocument> range;
+		if (fromKey == null)
+			range = (toKey == null ? docs.values() : docs.headMap(toKey, false).values());
+		else
+			range = (toKey == null ? docs.tailMap(fromKey, fromInclusive).values() 
+					: docs.subMap(fromKey, fromInclusive, toKey, false).values());
+
+		return range.stream();
+	}
+
+	@Override
+	public Stream <String> keys () {
+		return docs.keySet().stream();
+	}
+
+	@Override
+	public void put (StoredDocument doc) {
+		if (docs.put(doc.getId(), doc) == null)
+			size.incrementAndGet();
+	}
+
+	@Override
+	public boolean insert (StoredDocument doc) {
+		if (docs.putIfAbsent(doc.getId(), doc) != null)
+			return false;
+
+		size.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public boolean update (String key, UnaryOperator <StoredDocument> update) {
+		return docs.computeIfPresent(key, (k, old) -> update.apply(old)) != null;
+	}
+
+	@Override
+	public boolean remove (String key) {
+		if (docs.remove(key) == null)
+			return false;
+
+		size.decrementAndGet();
+		return true;
+	}
+
+	@Override
+	public void clear () {
+		for (String key : docs.keySet())
+			remove (key);
+	}
+}
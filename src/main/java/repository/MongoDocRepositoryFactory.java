@@ -0,0 +1,102 @@
+package repository;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.repository.query.MongoEntityInformation;
+import org.springframework.data.mongodb.repository.support.MappingMongoEntityInformation;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.data.mongodb.repository.support.SimpleMongoRepository;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.stereotype.Component;
+
+/**
+ * 
+ * Factory of {@link DocRepository} of collections in Mongodb, 
+ * with the default collection of {@link StoredDocument} served by the {@link DocRepository} bean.
+ * 
+ * Repositories created are post-processed the same as the {@link DocRepository} bean 
+ * (e.g. wrapped to record metrics).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+@Conditional (MongoProfileCondition.class)
+public class MongoDocRepositoryFactory implements DocRepositoryFactory {
+
+	private MongoOperations mongoOps;
+	
+	private DocumentConsistency consistency;
+	
+	private AutowireCapableBeanFactory beanFactory;
+	
+	@Autowired
+	public MongoDocRepositoryFactory (MongoOperations mongoOps, DocumentConsistency consistency, 
+			AutowireCapableBeanFactory beanFactory) {
+		this.mongoOps = mongoOps;
+		this.consistency = consistency;
+		this.beanFactory = beanFactory;
+	}
+	
+	@Override
+	public String getDefaultCollectionName () {
+		return mongoOps.getCollectionName(StoredDocument.class);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public DocRepository getRepository (String collectionName) {
+		
+		MongoPersistentEntity <StoredDocument> entity = (MongoPersistentEntity <StoredDocument>) 
+				mongoOps.getConverter().getMappingContext().getPersistentEntity(StoredDocument.class);
+		
+		MongoEntityInformation <StoredDocument, String> entityInformation = 
+				new MappingMongoEntityInformation <StoredDocument, String> (entity, collectionName);
+		
+		// The operations of MongoRepository on the collection instead of the one of the entity
+		MongoRepositoryFactory factory = new MongoRepositoryFactory (mongoOps) {
+			@Override
+			protected Object getTargetRepository (RepositoryInformation information) {
+				return new SimpleMongoRepository <StoredDocument, String> (entityInformation, mongoOps);
+			}
+		};
+		
+		DocRepository repository = factory.getRepository(DocRepository.class, 
+				new DocRepositoryImpl (mongoOps, collectionName, consistency));
+		
+		return (DocRepository) beanFactory.applyBeanPostProcessorsAfterInitialization(repository, 
+				"docRepository." + collectionName);
+	}
+	
+	@Override
+	public Set <String> findCollectionNames () {
+		
+		Set <String> names = new TreeSet <String> ();
+		for (String name : mongoOps.getCollectionNames())
+			if (!name.startsWith("system."))
+				names.add(name);
+		
+		return names;
+	}
+	
+	@Override
+	public boolean collectionExists (String collectionName) {
+		return !collectionName.startsWith("system.") && mongoOps.collectionExists(collectionName);
+	}
+	
+	@Override
+	public boolean dropCollection (String collectionName) {
+		
+		if (!mongoOps.collectionExists(collectionName))
+			return false;
+		
+		mongoOps.dropCollection(collectionName);
+		return true;
+	}
+}
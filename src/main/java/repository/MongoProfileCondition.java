@@ -0,0 +1,21 @@
+package repository;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * 
+ * Condition of the beans on Mongodb: not with the profiles of the other storage, 
+ * "memory" ({@link InMemoryDocRepositoryFactory}) or "embedded" ({@link LogDocRepositoryFactory}).
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class MongoProfileCondition implements Condition {
+
+	@Override
+	public boolean matches (ConditionContext context, AnnotatedTypeMetadata metadata) {
+		return !context.getEnvironment().acceptsProfiles("memory", "embedded");
+	}
+}
@@ -0,0 +1,38 @@
+package repository;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+
+/**
+ * 
+ * Configuration of the {@link DocRepository} bean on Mongodb, 
+ * implemented by the framework and merged with {@link DocRepositoryImpl}.
+ * Not with the profiles "memory" or "embedded", where {@link InMemoryDocRepositoryFactory} 
+ * or {@link LogDocRepositoryFactory} provides the bean instead.
+ * 
+ * The template, in place of the one of Spring Boot, resolves the write concern by {@link DocumentConsistency},
+ * so that the writes through the template (e.g. insert of a single document) also use it.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+@Conditional (MongoProfileCondition.class)
+@EnableMongoRepositories (basePackages = {"repository"})
+public class MongoRepositoryConfig {
+
+	@Bean
+	public MongoTemplate mongoTemplate (MongoDbFactory mongoDbFactory, MongoConverter converter, 
+			DocumentConsistency consistency) {
+		
+		MongoTemplate template = new MongoTemplate (mongoDbFactory, converter);
+		template.setWriteConcernResolver(consistency);
+		
+		return template;
+	}
+}
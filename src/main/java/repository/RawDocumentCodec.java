@@ -0,0 +1,384 @@
+package repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.OutputBuffer;
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * 
+ * Conversion between the JSON of a raw document and the BSON of a stored document, 
+ * streamed token by token with the Jackson parser and generator, without building 
+ * any intermediate map of the document.
+ * 
+ * The BSON is in the same layout as written for {@link StoredDocument}:
+ * 
+ *  { "_id" : id, "document" : { raw document } }
+ *  
+ * and is converted back to the same JSON as {@link StoredDocument}:
+ * 
+ *  { "id" : id, "document" : { raw document } }
+ *  
+ * @author goldyliang@gmail.com
+ *
+ */
+public class RawDocumentCodec {
+
+	private static final byte BSON_DOUBLE = 0x01;
+	private static final byte BSON_STRING = 0x02;
+	private static final byte BSON_DOCUMENT = 0x03;
+	private static final byte BSON_ARRAY = 0x04;
+	private static final byte BSON_BINARY = 0x05;
+	private static final byte BSON_OBJECT_ID = 0x07;
+	private static final byte BSON_BOOLEAN = 0x08;
+	private static final byte BSON_DATE = 0x09;
+	private static final byte BSON_NULL = 0x0A;
+	private static final byte BSON_REGEX = 0x0B;
+	private static final byte BSON_INT32 = 0x10;
+	private static final byte BSON_TIMESTAMP = 0x11;
+	private static final byte BSON_INT64 = 0x12;
+	
+	private static final JsonFactory jsonFactory = new JsonFactory ()
+			.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	
+	private RawDocumentCodec () {}
+	
+	/**
+	 * Convert the JSON of a raw document to the BSON of a stored document
+	 * 
+	 * @param id The ID of the stored document, {@link ObjectId} or String
+	 * @param version The version of the stored document, or NULL to store no version
+	 * @param json The raw document in JSON, which shall be a JSON object
+	 * @return The stored document in BSON
+	 * @throws JsonParseException If the input is not a valid JSON object
+	 * @throws IOException If reading the input fails
+	 */
+	public static byte[] jsonToBson (Object id, String version, InputStream json) throws IOException {
+		
+		try (JsonParser parser = jsonFactory.createParser(json)) {
+			
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonParseException("Document shall be a JSON object", 
+						parser.getCurrentLocation());
+			
+			OutputBuffer out = new BasicOutputBuffer ();
+			
+			int start = out.getPosition();
+			out.writeInt(0);
+			
+			if (id instanceof ObjectId) {
+				out.write(BSON_OBJECT_ID);
+				out.writeCString("_id");
+				out.write(((ObjectId) id).toByteArray());
+			} else {
+				out.write(BSON_STRING);
+				out.writeCString("_id");
+				out.writeString(id.toString());
+			}
+			
+			if (version != null) {
+				out.write(BSON_STRING);
+				out.writeCString("version");
+				out.writeString(version);
+			}
+			
+			out.write(BSON_DOCUMENT);
+			out.writeCString("document");
+			writeDocument (parser, out);
+			
+			out.write(0);
+			out.backpatchSize(out.getPosition() - start);
+			
+			if (parser.nextToken() != null)
+				throw new JsonParseException("Unexpected content after the document", 
+						parser.getCurrentLocation());
+			
+			return out.toByteArray();
+		}
+	}
+	
+	/*
+	 * Write the JSON object at the current START_OBJECT token as an embedded BSON document
+	 */
+	private static void writeDocument (JsonParser parser, OutputBuffer out) throws IOException {
+		
+		int start = out.getPosition();
+		out.writeInt(0);
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			writeElement (parser, out, name);
+		}
+		
+		out.write(0);
+		out.backpatchSize(out.getPosition() - start);
+	}
+	
+	/*
+	 * Write the JSON array at the current START_ARRAY token as an embedded BSON array
+	 */
+	private static void writeArray (JsonParser parser, OutputBuffer out) throws IOException {
+		
+		int start = out.getPosition();
+		out.writeInt(0);
+		
+		int index = 0;
+		while (parser.nextToken() != JsonToken.END_ARRAY)
+			writeElement (parser, out, Integer.toString(index++));
+		
+		out.write(0);
+		out.backpatchSize(out.getPosition() - start);
+	}
+	
+	/*
+	 * Write the JSON value at the current token as a BSON element with the name
+	 */
+	private static void writeElement (JsonParser parser, OutputBuffer out, String name) 
+			throws IOException {
+		
+		switch (parser.getCurrentToken()) {
+		case START_OBJECT:
+			out.write(BSON_DOCUMENT);
+			out.writeCString(name);
+			writeDocument (parser, out);
+			break;
+		case START_ARRAY:
+			out.write(BSON_ARRAY);
+			out.writeCString(name);
+			writeArray (parser, out);
+			break;
+		case VALUE_STRING:
+			out.write(BSON_STRING);
+			out.writeCString(name);
+			out.writeString(parser.getText());
+			break;
+		case VALUE_NUMBER_INT:
+			switch (parser.getNumberType()) {
+			case INT:
+				out.write(BSON_INT32);
+				out.writeCString(name);
+				out.writeInt(parser.getIntValue());
+				break;
+			case LONG:
+				out.write(BSON_INT64);
+				out.writeCString(name);
+				out.writeLong(parser.getLongValue());
+				break;
+			default:
+				// Integers out of the range of long can only be kept approximately
+				out.write(BSON_DOUBLE);
+				out.writeCString(name);
+				out.writeDouble(parser.getDoubleValue());
+			}
+			break;
+		case VALUE_NUMBER_FLOAT:
+			out.write(BSON_DOUBLE);
+			out.writeCString(name);
+			out.writeDouble(parser.getDoubleValue());
+			break;
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			out.write(BSON_BOOLEAN);
+			out.writeCString(name);
+			out.write(parser.getBooleanValue() ? 1 : 0);
+			break;
+		case VALUE_NULL:
+			out.write(BSON_NULL);
+			out.writeCString(name);
+			break;
+		default:
+			throw new JsonParseException("Unexpected token " + parser.getCurrentToken(), 
+					parser.getCurrentLocation());
+		}
+	}
+	
+	/**
+	 * Convert the BSON of a stored document to JSON, written to the output as it is read.
+	 * 
+	 * Fields other than the ID and the raw document (e.g. the type information) are skipped.
+	 * 
+	 * @param bson The stored document in BSON
+	 * @param json The output to write the JSON to, which is flushed but not closed
+	 * @throws IOException If writing the output fails, or the BSON has a type not supported
+	 */
+	public static void bsonToJson (byte[] bson, OutputStream json) throws IOException {
+		
+		ByteBuffer in = ByteBuffer.wrap(bson).order(ByteOrder.LITTLE_ENDIAN);
+		
+		try (JsonGenerator gen = jsonFactory.createGenerator(json)) {
+			
+			gen.writeStartObject();
+			
+			in.getInt();
+			
+			byte type;
+			while ((type = in.get()) != 0) {
+				String name = readCString (in);
+				
+				if ("_id".equals(name)) {
+					gen.writeFieldName("id");
+					writeValue (type, in, gen);
+				} else if ("document".equals(name)) {
+					gen.writeFieldName("document");
+					writeValue (type, in, gen);
+				} else {
+					skipValue (type, in);
+				}
+			}
+			
+			gen.writeEndObject();
+		}
+	}
+	
+	/*
+	 * Write the BSON value of the type at the current position to JSON
+	 */
+	private static void writeValue (byte type, ByteBuffer in, JsonGenerator gen) throws IOException {
+		
+		switch (type) {
+		case BSON_DOUBLE:
+			gen.writeNumber(in.getDouble());
+			break;
+		case BSON_STRING:
+			gen.writeString(readString (in));
+			break;
+		case BSON_DOCUMENT:
+			in.getInt();
+			gen.writeStartObject();
+			for (byte t = in.get(); t != 0; t = in.get()) {
+				gen.writeFieldName(readCString (in));
+				writeValue (t, in, gen);
+			}
+			gen.writeEndObject();
+			break;
+		case BSON_ARRAY:
+			in.getInt();
+			gen.writeStartArray();
+			for (byte t = in.get(); t != 0; t = in.get()) {
+				readCString (in);
+				writeValue (t, in, gen);
+			}
+			gen.writeEndArray();
+			break;
+		case BSON_BINARY: {
+			byte[] data = new byte[in.getInt()];
+			in.get();
+			in.get(data);
+			gen.writeBinary(data);
+			break;
+		}
+		case BSON_OBJECT_ID: {
+			byte[] id = new byte[12];
+			in.get(id);
+			gen.writeString(new ObjectId (id).toHexString());
+			break;
+		}
+		case BSON_BOOLEAN:
+			gen.writeBoolean(in.get() != 0);
+			break;
+		case BSON_DATE:
+		case BSON_TIMESTAMP:
+		case BSON_INT64:
+			gen.writeNumber(in.getLong());
+			break;
+		case BSON_NULL:
+			gen.writeNull();
+			break;
+		case BSON_REGEX:
+			gen.writeString(readCString (in));
+			readCString (in);
+			break;
+		case BSON_INT32:
+			gen.writeNumber(in.getInt());
+			break;
+		default:
+			throw new IOException("Unsupported BSON type " + type);
+		}
+	}
+	
+	/*
+	 * Skip the BSON value of the type at the current position
+	 */
+	private static void skipValue (byte type, ByteBuffer in) throws IOException {
+		
+		switch (type) {
+		case BSON_BOOLEAN:
+			in.get();
+			break;
+		case BSON_INT32:
+			in.getInt();
+			break;
+		case BSON_DOUBLE:
+		case BSON_DATE:
+		case BSON_TIMESTAMP:
+		case BSON_INT64:
+			in.getLong();
+			break;
+		case BSON_OBJECT_ID:
+			in.position(in.position() + 12);
+			break;
+		case BSON_STRING: {
+			int length = in.getInt();
+			in.position(in.position() + length);
+			break;
+		}
+		case BSON_DOCUMENT:
+		case BSON_ARRAY:
+			in.position(in.position() + in.getInt(in.position()));
+			break;
+		case BSON_BINARY: {
+			int length = in.getInt();
+			in.position(in.position() + 1 + length);
+			break;
+		}
+		case BSON_NULL:
+			break;
+		case BSON_REGEX:
+			readCString (in);
+			readCString (in);
+			break;
+		default:
+			throw new IOException("Unsupported BSON type " + type);
+		}
+	}
+	
+	/*
+	 * Read a zero-terminated UTF-8 string
+	 */
+	private static String readCString (ByteBuffer in) {
+		
+		int start = in.position();
+		int end = start;
+		while (in.get(end) != 0)
+			end++;
+		
+		in.position(end + 1);
+		return new String (in.array(), start, end - start, StandardCharsets.UTF_8);
+	}
+	
+	/*
+	 * Read a length-prefixed, zero-terminated UTF-8 string
+	 */
+	private static String readString (ByteBuffer in) {
+		
+		int length = in.getInt();
+		int start = in.position();
+		
+		in.position(start + length);
+		return new String (in.array(), start, length - 1, StandardCharsets.UTF_8);
+	}
+}
@@ -1,12 +1,18 @@
 package repository;
 
+import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
 import org.springframework.ui.ModelMap;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * Document class wrapping the document id and the raw document contents represented as {@link ModelMap}.
  * 
+ * The document also carries a version, which is changed on every write of the document.
+ * The version is not part of the JSON of the document.
+ * 
  * @author goldyliang@gmail.com
  *
  */
@@ -18,6 +24,9 @@ public class StoredDocument {
 	
 	private ModelMap document;
 	
+	@JsonIgnore
+	private String version;
+	
 	/**
 	 * Default constructor
 	 */
@@ -39,6 +48,11 @@ public class StoredDocument {
 	 */
 	public void setDocument ( ModelMap doc) {this.document = doc;}
 	
+	/**
+	 * Set the version
+	 */
+	public void setVersion (String version) { this.version = version;}
+	
 	/**
 	 * Get the ID
 	 */
@@ -48,4 +62,15 @@ public class StoredDocument {
 	 * Get the document
 	 */
 	public ModelMap getDocument () { return document; }
+	
+	/**
+	 * Get the version, or NULL if the document is stored without a version
+	 */
+	public String getVersion () { return version; }
+	
+	/**
+	 * Generate a new version, which is different from all versions generated before,
+	 * also by other processes.
+	 */
+	public static String newVersion () { return new ObjectId().toHexString(); }
 }
@@ -4,7 +4,6 @@ package restapi;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 /**
  * Rest service of document CRUD with Spring boot and embedded Tomcat server
@@ -13,8 +12,7 @@ import org.springframework.data.mongodb.repository.config.EnableMongoRepositorie
  *
  */
 @SpringBootApplication
-@ComponentScan (basePackages = {"docservice", "restapi"})
-@EnableMongoRepositories(basePackages = {"repository"})
+@ComponentScan (basePackages = {"docservice", "restapi", "metrics", "repository"})
 public class Application {
 
     public static void main(String[] args) {
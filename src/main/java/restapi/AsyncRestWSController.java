@@ -0,0 +1,198 @@
+package restapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import docservice.AsyncDocumentService;
+import docservice.DocumentPage;
+import docservice.DocumentService;
+import repository.FieldProjection;
+import repository.StoredDocument;
+
+/**
+ * RESTful Spring MVC controller with the same CRUD operations as {@link RestWSController} 
+ * under /restAPI/async/items, handled asynchronously. Only the default collection is served.
+ * 
+ * Each handler returns a {@link DeferredResult} at once, and the servlet thread is released 
+ * while the operation runs on the executor of {@link AsyncDocumentService}. 
+ * 
+ * Besides the status codes of {@link RestWSController}, 503 Service Unavailable is returned
+ * if too many operations are pending on the executor.
+ * Exceptions are handled by {@link RestExceptionHandler}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RestController 
+@RequestMapping ("/restAPI/async/items")
+public class AsyncRestWSController {
+
+    private AsyncDocumentService serviceDoc;
+    
+    @Autowired
+    public AsyncRestWSController (AsyncDocumentService service) {
+    	serviceDoc = service;
+    }
+    
+    /*
+     * Convert a future result to a deferred result, with the value mapped by the mapper.
+     * An exception completing the future is set as the error result, 
+     * so it is handled by the exception handlers the same as if thrown by the handler.
+     */
+    private static <T, R> DeferredResult<R> toDeferredResult (
+    		CompletableFuture<T> future, Function<T, R> mapper) {
+    	
+    	DeferredResult<R> result = new DeferredResult<R> ();
+    	
+    	future.whenComplete((value, e) -> {
+    		if (e == null)
+    			result.setResult(mapper.apply(value));
+    		else
+    			result.setErrorResult(
+    					e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+    	});
+    	
+    	return result;
+    }
+    
+    /**
+     * Insert a new document with either POST or PUT.
+     * 
+     * @see RestWSController#insertDoc(ModelMap, DocumentService)
+     */
+    @RequestMapping ( method={RequestMethod.POST, RequestMethod.PUT} ) 
+    public DeferredResult<ResponseEntity<DocIDReturn>> insertDoc (
+    		@RequestBody ModelMap doc) {
+    	
+    	return toDeferredResult (serviceDoc.insertDocument(doc), 
+    			id -> new ResponseEntity<DocIDReturn> (new DocIDReturn (id), HttpStatus.CREATED));
+    }
+    
+    /**
+     * Insert a list of new documents with either POST or PUT to /restAPI/async/items/_bulk.
+     * 
+     * @see RestWSController#insertDocs(List, boolean, DocumentService)
+     */
+    @RequestMapping ( 
+    		value="/_bulk",
+    		method={RequestMethod.POST, RequestMethod.PUT} ) 
+    public DeferredResult<ResponseEntity<List<DocIDReturn>>> insertDocs (
+    		@RequestBody List<ModelMap> docs,
+    		@RequestParam(defaultValue="true") boolean ordered) {
+    	
+    	return toDeferredResult (serviceDoc.insertDocuments(docs, ordered), ids -> {
+    		List <DocIDReturn> idReturns = new ArrayList <DocIDReturn> (ids.size());
+    		for (String id : ids)
+    			idReturns.add(new DocIDReturn (id));
+    		
+    		return new ResponseEntity<List<DocIDReturn>> (idReturns, HttpStatus.CREATED);
+    	});
+    }
+    
+    /**
+     * Update an existing document with either POST or PUT request, provided with a document ID.
+     * 
+     * @see RestWSController#updateDoc(String, ModelMap, DocumentService)
+     */
+    @RequestMapping( 
+    		value="/{id}", 
+    		method={RequestMethod.POST, RequestMethod.PUT}) 
+    public DeferredResult<ResponseEntity<Void>> updateDoc (
+    		@PathVariable String id,
+    		@RequestBody ModelMap doc) {
+    	
+    	return toDeferredResult (serviceDoc.updateDocument(id, doc), 
+    			v -> new ResponseEntity<Void> (HttpStatus.OK));
+    }
+    
+    /**
+     * Update part of an existing document with PATCH, provided with a document ID.
+     * 
+     * @see RestWSController#patchDoc(String, Map, DocumentService)
+     */
+    @RequestMapping( 
+    		value="/{id}", 
+    		method={RequestMethod.PATCH},
+    		consumes={"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE}) 
+    public DeferredResult<ResponseEntity<Void>> patchDoc (
+    		@PathVariable String id,
+    		@RequestBody Map<String, Object> patch) {
+    	
+    	return toDeferredResult (serviceDoc.patchDocument(id, patch), 
+    			v -> new ResponseEntity<Void> (HttpStatus.OK));
+    }
+    
+    /**
+     * Delete a document with provided id in the URL
+     * 
+     * @see RestWSController#deleteDoc(String, DocumentService)
+     */
+    @RequestMapping(
+    		value="/{id}", 
+    		method={RequestMethod.DELETE}) 
+    public DeferredResult<ResponseEntity<Void>> deleteDoc (
+    		@PathVariable String id) {
+    	
+    	return toDeferredResult (serviceDoc.deleteDocument(id), 
+    			v -> new ResponseEntity<Void> (HttpStatus.OK));
+    }
+    
+    /**
+     * Retrieve a document by the id provided in the URL, without ETag and conditional GET
+     * 
+     * @see RestWSController#getDocById
+     */
+    @RequestMapping(
+    		value="/{id}", 
+    		method={RequestMethod.GET}) 
+    public DeferredResult<StoredDocument> getDocById (
+    		@PathVariable String id,
+    		@RequestParam(required=false) String fields) {
+    	
+    	return toDeferredResult (serviceDoc.getDocumentById(id, FieldProjection.parse(fields)), doc -> doc);
+    }
+    
+    /**
+     * Get all documents, with GET /restAPI/async/items[?fields=paths]
+     * 
+     * @see RestWSController#getAllDoc(String, DocumentService)
+     */
+    @RequestMapping(method={RequestMethod.GET}) 
+    public DeferredResult<List<StoredDocument>> getAllDoc (
+    		@RequestParam(required=false) String fields) {
+    	
+    	return toDeferredResult (serviceDoc.getAllDocuments(FieldProjection.parse(fields)), docs -> docs);
+    }
+    
+    /**
+     * Get one page of documents, with GET /restAPI/async/items?limit=n[&after=token]
+     * 
+     * @see RestWSController#getDocPage(int, String, DocumentService)
+     */
+    @RequestMapping(
+    		method={RequestMethod.GET},
+    		params="limit")
+    public DeferredResult<DocumentPage> getDocPage (
+    		@RequestParam int limit,
+    		@RequestParam(required=false) String after) {
+    	
+    	return toDeferredResult (serviceDoc.getDocumentsPage(after, limit), page -> page);
+    }
+}
@@ -0,0 +1,67 @@
+package restapi;
+
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import docservice.CollectionNotFoundException;
+import docservice.DocumentCollectionService;
+
+/**
+ * RESTful Spring MVC controller, for the administration of the collections of documents
+ * under /restAPI/_collections. 
+ * 
+ * Documents of a collection are served under /restAPI/{collection}/items (see {@link RestWSController}),
+ * and the collection is created on the first write.
+ * 
+ * Exceptions are handled by {@link RestExceptionHandler}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RestController 
+@RequestMapping ("/restAPI/_collections")
+public class CollectionController {
+
+    private DocumentCollectionService serviceCollection;
+    
+    @Autowired
+    public CollectionController (DocumentCollectionService service) {
+    	serviceCollection = service;
+    }
+    
+    /**
+     * Get the names of all collections with GET
+     * 
+     * Return HTTP status of 200 OK, with the names in the form of JSON array.
+     * 
+     * @return The names of collections in alphabetical order
+     */
+    @RequestMapping (method={RequestMethod.GET})
+    public Set<String> getCollections () {
+    	
+    	return serviceCollection.getCollectionNames();
+    }
+    
+    /**
+     * Drop a collection with all its documents and indexes, with DELETE to /restAPI/_collections/{collection}
+     * 
+     * Return HTTP status of 200 OK if dropped.
+     * Return HTTP status of 404 Not Found if the collection does not exist.
+     * 
+     * @param collection The name of the collection
+     * @throws CollectionNotFoundException If the collection does not exist (to be handled in exception handler)
+     */
+    @RequestMapping (
+    		value="/{collection}",
+    		method={RequestMethod.DELETE})
+    public void dropCollection (
+    		@PathVariable String collection) throws CollectionNotFoundException {
+    	
+    	serviceCollection.dropCollection(collection);
+    }
+}
@@ -0,0 +1,105 @@
+package restapi;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import docservice.CollectionNotFoundException;
+import docservice.DocumentCollectionService;
+import docservice.DocumentIndexService;
+import docservice.DocumentService;
+
+/**
+ * 
+ * Configuration of routing requests to the collection in the path, e.g. /restAPI/{collection}/items.
+ * 
+ * Controller methods taking a {@link DocumentService} or {@link DocumentIndexService} argument
+ * get the service of the collection in the {collection} variable of the path,
+ * or of the default collection if the path has no such variable (e.g. /restAPI/items).
+ * 
+ * Only requests which may write (POST, PUT and PATCH, other than those which only read, e.g. _search)
+ * create the services of a collection which does not exist. Other requests on such a collection
+ * are answered with 404 Not Found by {@link CollectionNotFoundException}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class CollectionRoutingConfig extends WebMvcConfigurerAdapter {
+
+	/**
+	 * Name of the path variable of the collection
+	 */
+	public static final String COLLECTION = "collection";
+	
+	/*
+	 * The last part of the paths of the requests with POST which only read
+	 */
+	private static final Set <String> READ_ONLY_POSTS = 
+			new HashSet <String> (Arrays.asList("_search", "_aggregate", "_count", "_export"));
+	
+	@Autowired
+	private DocumentCollectionService collections;
+	
+	@Override
+	public void addArgumentResolvers (List <HandlerMethodArgumentResolver> argumentResolvers) {
+		
+		argumentResolvers.add(new HandlerMethodArgumentResolver () {
+			
+			@Override
+			public boolean supportsParameter (MethodParameter parameter) {
+				return parameter.getParameterType() == DocumentService.class
+						|| parameter.getParameterType() == DocumentIndexService.class;
+			}
+			
+			@Override
+			public Object resolveArgument (MethodParameter parameter, ModelAndViewContainer mavContainer,
+					NativeWebRequest webRequest, WebDataBinderFactory binderFactory) 
+					throws CollectionNotFoundException {
+				
+				HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+				
+				@SuppressWarnings("unchecked")
+				Map <String, String> variables = (Map <String, String>) 
+						request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+				
+				String collection = (variables == null ? null : variables.get(COLLECTION));
+				boolean create = mayWrite (request);
+				
+				if (parameter.getParameterType() == DocumentService.class)
+					return collections.getDocumentService(collection, create);
+				else
+					return collections.getIndexService(collection, create);
+			}
+		});
+	}
+	
+	/*
+	 * Check whether a request may write documents or indexes
+	 */
+	private static boolean mayWrite (HttpServletRequest request) {
+		
+		String method = request.getMethod();
+		if (method.equals("PUT") || method.equals("PATCH"))
+			return true;
+		if (!method.equals("POST"))
+			return false;
+		
+		String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		return pattern == null || !READ_ONLY_POSTS.contains(pattern.substring(pattern.lastIndexOf('/') + 1));
+	}
+}
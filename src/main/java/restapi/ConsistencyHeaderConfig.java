@@ -0,0 +1,75 @@
+package restapi;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import repository.DocumentConsistency;
+
+/**
+ *
+ * Configuration of overriding the read preference and write concern of a request by headers:
+ *
+ *  - X-Read-Preference : primary, primaryPreferred, secondary, secondaryPreferred or nearest
+ *  - X-Write-Concern   : unacknowledged, w1, majority or journaled
+ *
+ * A request without the headers uses the defaults configured in {@link docservice.DocumentConsistencyConfig}.
+ * An invalid header is rejected as a bad request.
+ *
+ * The override applies to the repository operations in the thread of the request, and is carried 
+ * to those run by other threads: the asynchronous endpoints of {@link AsyncRestWSController}, 
+ * the documents inserted in batches by {@link docservice.BatchingDocumentInserter}, and exports.
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class ConsistencyHeaderConfig extends WebMvcConfigurerAdapter {
+
+	/**
+	 * Header of the read preference of a request
+	 */
+	public static final String READ_PREFERENCE = "X-Read-Preference";
+
+	/**
+	 * Header of the write concern of a request
+	 */
+	public static final String WRITE_CONCERN = "X-Write-Concern";
+
+	@Autowired
+	private DocumentConsistency consistency;
+
+	@Override
+	public void addInterceptors (InterceptorRegistry registry) {
+
+		registry.addInterceptor(new HandlerInterceptorAdapter () {
+
+			@Override
+			public boolean preHandle (HttpServletRequest request, HttpServletResponse response, Object handler) {
+
+				// Parsed before the override, so an invalid header leaves the defaults in place
+				consistency.override(
+						DocumentConsistency.parseReadPreference(request.getHeader(READ_PREFERENCE)),
+						DocumentConsistency.parseWriteConcern(request.getHeader(WRITE_CONCERN)));
+				return true;
+			}
+
+			@Override
+			public void afterCompletion (HttpServletRequest request, HttpServletResponse response, Object handler,
+					Exception ex) {
+				consistency.clearOverride();
+			}
+
+			@Override
+			public void afterConcurrentHandlingStarted (HttpServletRequest request, HttpServletResponse response,
+					Object handler) {
+				consistency.clearOverride();
+			}
+		}).addPathPatterns("/restAPI/**");
+	}
+}
@@ -0,0 +1,125 @@
+package restapi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import docservice.DocumentIndexService;
+import docservice.IndexBuild;
+import docservice.IndexNotFoundException;
+import repository.DocumentIndex;
+
+/**
+ * RESTful Spring MVC controller, for the administration of secondary indexes on 
+ * fields of the raw documents, under /restAPI/items/_indexes for the default collection,
+ * or /restAPI/{collection}/items/_indexes for the collection selected by the caller
+ * 
+ * An index is in the form of JSON as:
+ * 
+ * { "name" : name,
+ *   "fields" : [ "author.name", "-pages" ],
+ *   "unique" : false,
+ *   "sparse" : false,
+ *   "partialFilter" : { "pages" : { "$gt" : 100 } },
+ *   "ttlSeconds" : 3600
+ * }
+ * 
+ * where fields are dotted paths into the raw documents, with a leading '-' for descending order,
+ * and the partial filter is in the form of the filter of /restAPI/items/_search.
+ * Only "fields" is required.
+ * 
+ * Exceptions are handled by {@link RestExceptionHandler}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RestController 
+@RequestMapping ({"/restAPI/items/_indexes", "/restAPI/{collection}/items/_indexes"})
+public class IndexController {
+
+    /**
+     * Get all secondary indexes with GET, including those being built
+     * 
+     * Return HTTP status of 200 OK, with the list of indexes in the form of JSON array.
+     * 
+     * @param serviceIndex The service of indexes in the collection of the path
+     * @return The list of indexes
+     */
+    @RequestMapping (method={RequestMethod.GET})
+    public List<DocumentIndex> getIndexes (DocumentIndexService serviceIndex) {
+    	
+    	return serviceIndex.getIndexes();
+    }
+    
+    /**
+     * Start building an index with POST. The index is built in the background,
+     * with the state of the build got from /restAPI/items/_indexes/_builds.
+     * 
+     * Return HTTP status 202 Accepted, with the name of the index in the form of JSON:
+     * 
+     *     { "name" : name }
+     * 
+     * Return HTTP status of 400 Bad Request if the index is not valid, 
+     * or an index of the same name is being built.
+     * 
+     * @param index The index provided in the body of request
+     * @param serviceIndex The service of indexes in the collection of the path
+     * @return The name of the index and HTTP status of 202 Accepted, or error information
+     */
+    @RequestMapping (method={RequestMethod.POST})
+    public ResponseEntity<Map<String, String>> createIndex (
+    		@RequestBody DocumentIndex index,
+    		DocumentIndexService serviceIndex) {
+    	
+    	String name = serviceIndex.createIndex(index);
+    	
+    	return new ResponseEntity<Map<String, String>> (
+    			Collections.singletonMap("name", name), HttpStatus.ACCEPTED);
+    }
+    
+    /**
+     * Drop an index with DELETE to /restAPI/items/_indexes/{name}
+     * 
+     * Return HTTP status of 200 OK if dropped.
+     * Return HTTP status of 404 Not Found if the index does not exist.
+     * 
+     * @param name The name of the index
+     * @param serviceIndex The service of indexes in the collection of the path
+     * @throws IndexNotFoundException If the index does not exist (to be handled in exception handler)
+     */
+    @RequestMapping (
+    		value="/{name:.+}",
+    		method={RequestMethod.DELETE})
+    public void dropIndex (
+    		@PathVariable String name,
+    		DocumentIndexService serviceIndex) throws IndexNotFoundException {
+    	
+    	serviceIndex.dropIndex(name);
+    }
+    
+    /**
+     * Get the state of the index builds started since the service is up, 
+     * with GET /restAPI/items/_indexes/_builds
+     * 
+     * [ { "name" : name, "state" : "RUNNING" | "DONE" | "FAILED", "error" : reason of failure,
+     *     "done" : documents indexed, "total" : documents to index }, ... ]
+     *     
+     * @param serviceIndex The service of indexes in the collection of the path
+     * @return The list of builds
+     */
+    @RequestMapping (
+    		value="/_builds",
+    		method={RequestMethod.GET})
+    public List<IndexBuild> getIndexBuilds (DocumentIndexService serviceIndex) {
+    	
+    	return serviceIndex.getIndexBuilds();
+    }
+}
@@ -0,0 +1,27 @@
+package restapi;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Message converter for a binary data format of Jackson, like Smile or CBOR.
+ * 
+ * Objects are mapped the same way as by the JSON message converter, 
+ * only the format is given by the factory of the object mapper.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class JacksonBinaryHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+	/**
+	 * Construct the converter
+	 * @param mapper The object mapper, created with the factory of the binary format
+	 * @param mediaType The media type of the binary format
+	 */
+	public JacksonBinaryHttpMessageConverter (ObjectMapper mapper, MediaType mediaType) {
+		super (mapper, mediaType);
+	}
+}
@@ -0,0 +1,53 @@
+package restapi;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import metrics.MetricsRegistry;
+
+/**
+ * Controller exposing the metrics of the service in Prometheus text format
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RestController 
+public class MetricsController {
+
+	/**
+	 * Content type of Prometheus text format
+	 */
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+    private MetricsRegistry metrics;
+    
+    @Autowired
+    public MetricsController (MetricsRegistry metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * Get all metrics in Prometheus text format, with GET /restAPI/metrics
+     * 
+     * @param response The HTTP response to write the metrics to
+     * @throws IOException If writing to the response fails
+     */
+    @RequestMapping(
+    		value="/restAPI/metrics", 
+    		method={RequestMethod.GET}) 
+    public void getMetrics (HttpServletResponse response) throws IOException {
+    	
+    	response.setContentType(PROMETHEUS_CONTENT_TYPE);
+    	
+    	Writer writer = response.getWriter();
+    	metrics.writePrometheus(writer);
+    	writer.flush();
+    }
+}
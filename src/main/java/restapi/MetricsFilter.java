@@ -0,0 +1,197 @@
+package restapi;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import metrics.MetricsRegistry;
+
+/**
+ * 
+ * Servlet filter recording the metrics of each HTTP request, labeled by the endpoint 
+ * (HTTP method and the matched URL pattern, e.g. "GET /restAPI/items/{id}"):
+ * 
+ *  - restapi_request_seconds{endpoint}, latency until the response is completed
+ *  - restapi_request_bytes{endpoint}, size of request body
+ *  - restapi_response_bytes{endpoint}, size of response body written through the output stream
+ *  - restapi_responses_total{endpoint,status}, number of responses by HTTP status
+ *  
+ * Asynchronous requests are recorded when they complete.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Component
+public class MetricsFilter extends OncePerRequestFilter {
+
+	private MetricsRegistry metrics;
+	
+	@Autowired
+	public MetricsFilter (MetricsRegistry metrics) {
+		this.metrics = metrics;
+	}
+	
+	@Override
+	protected void doFilterInternal (HttpServletRequest request, HttpServletResponse response, 
+			FilterChain chain) throws ServletException, IOException {
+		
+		long start = System.nanoTime();
+		
+		CountingRequest countingRequest = new CountingRequest (request);
+		CountingResponse countingResponse = new CountingResponse (response);
+		
+		try {
+			chain.doFilter(countingRequest, countingResponse);
+		} finally {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new AsyncListener () {
+					@Override
+					public void onComplete (AsyncEvent event) {
+						record (request, response, countingRequest, countingResponse, start);
+					}
+					@Override
+					public void onTimeout (AsyncEvent event) { }
+					@Override
+					public void onError (AsyncEvent event) { }
+					@Override
+					public void onStartAsync (AsyncEvent event) { }
+				});
+			} else {
+				record (request, response, countingRequest, countingResponse, start);
+			}
+		}
+	}
+	
+	/*
+	 * Record the metrics of a completed request
+	 */
+	private void record (HttpServletRequest request, HttpServletResponse response, 
+			CountingRequest countingRequest, CountingResponse countingResponse, long start) {
+		
+		long latency = System.nanoTime() - start;
+		
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		
+		// Requests not mapped to any handler are recorded together, to bound the number of labels
+		String endpoint = request.getMethod() + " " + (pattern != null ? pattern : "unmatched");
+		
+		metrics.histogram("restapi_request_seconds", "Latency of HTTP requests", 1e-9, 
+				"endpoint", endpoint).record(latency);
+		metrics.histogram("restapi_request_bytes", "Size of HTTP request bodies", 1, 
+				"endpoint", endpoint).record(countingRequest.bytes);
+		metrics.histogram("restapi_response_bytes", "Size of HTTP response bodies", 1, 
+				"endpoint", endpoint).record(countingResponse.bytes);
+		metrics.counter("restapi_responses_total", "HTTP responses by status", 
+				"endpoint", endpoint, "status", Integer.toString(response.getStatus())).increment();
+	}
+	
+	/*
+	 * Request wrapper counting the bytes read from the body
+	 */
+	private static class CountingRequest extends HttpServletRequestWrapper {
+		
+		private volatile long bytes;
+		
+		private ServletInputStream input;
+		
+		CountingRequest (HttpServletRequest request) {
+			super (request);
+		}
+		
+		@Override
+		public ServletInputStream getInputStream () throws IOException {
+			
+			if (input == null) {
+				ServletInputStream original = super.getInputStream();
+				
+				input = new ServletInputStream () {
+					@Override
+					public int read () throws IOException {
+						int b = original.read();
+						if (b >= 0) bytes++;
+						return b;
+					}
+					@Override
+					public int read (byte[] buf, int off, int len) throws IOException {
+						int n = original.read(buf, off, len);
+						if (n > 0) bytes += n;
+						return n;
+					}
+					@Override
+					public boolean isFinished () { return original.isFinished(); }
+					@Override
+					public boolean isReady () { return original.isReady(); }
+					@Override
+					public void setReadListener (ReadListener listener) { 
+						original.setReadListener(listener); 
+					}
+				};
+			}
+			
+			return input;
+		}
+	}
+	
+	/*
+	 * Response wrapper counting the bytes written to the body
+	 */
+	private static class CountingResponse extends HttpServletResponseWrapper {
+		
+		private volatile long bytes;
+		
+		private ServletOutputStream output;
+		
+		CountingResponse (HttpServletResponse response) {
+			super (response);
+		}
+		
+		@Override
+		public ServletOutputStream getOutputStream () throws IOException {
+			
+			if (output == null) {
+				ServletOutputStream original = super.getOutputStream();
+				
+				output = new ServletOutputStream () {
+					@Override
+					public void write (int b) throws IOException {
+						original.write(b);
+						bytes++;
+					}
+					@Override
+					public void write (byte[] buf, int off, int len) throws IOException {
+						original.write(buf, off, len);
+						bytes += len;
+					}
+					@Override
+					public void flush () throws IOException { original.flush(); }
+					@Override
+					public void close () throws IOException { original.close(); }
+					@Override
+					public boolean isReady () { return original.isReady(); }
+					@Override
+					public void setWriteListener (WriteListener listener) { 
+						original.setWriteListener(listener); 
+					}
+				};
+			}
+			
+			return output;
+		}
+	}
+}
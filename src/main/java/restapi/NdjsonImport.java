@@ -0,0 +1,257 @@
+package restapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ui.ModelMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import docservice.DocumentImportResult;
+import docservice.DocumentService;
+
+/**
+ * Import of documents in NDJSON (one JSON document per line), in bounded batches.
+ *
+ * Lines are read and parsed until a batch is full, then the batch is inserted and its results
+ * are written before reading more, so the input is read only as fast as batches are inserted,
+ * and at most one batch is held in memory whatever the size of the input.
+ *
+ * The result of each non-empty line is written as one line of NDJSON,
+ * followed by a summary line at the end:
+ *
+ *     { "line" : number, "id" : generated_id }  or  { "line" : number, "error" : reason }
+ *     { "inserted" : number, "failed" : number }
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+class NdjsonImport {
+
+	/**
+	 * Media type of NDJSON
+	 */
+	static final String NDJSON_VALUE = "application/x-ndjson";
+
+	/**
+	 * Maximum size of a line, the maximum size of a document in Mongodb
+	 */
+	static final int MAX_LINE_BYTES = 16 * 1024 * 1024;
+
+	private final ObjectMapper mapper;
+
+	private final int batchSize;
+
+	private final long batchBytes;
+
+	// The lines of the current batch, with the error of each line not parsed, or NULL
+	private final List <Integer> lines = new ArrayList <Integer> ();
+
+	private final List <String> errors = new ArrayList <String> ();
+
+	private final List <ModelMap> docs = new ArrayList <ModelMap> ();
+
+	private long bytes;
+
+	private long inserted;
+
+	private long failed;
+
+	/**
+	 * Construct an import
+	 * @param mapper The mapper of JSON
+	 * @param batchSize The maximum number of documents in one batch
+	 * @param batchBytes The maximum size of the lines of one batch in bytes
+	 */
+	NdjsonImport (ObjectMapper mapper, int batchSize, long batchBytes) {
+		this.mapper = mapper;
+		this.batchSize = batchSize;
+		this.batchBytes = batchBytes;
+	}
+
+	/**
+	 * Import the documents, and write the results
+	 * @param ndjson The input of documents
+	 * @param results The output of results, flushed after each batch
+	 * @param serviceDoc The service of documents to insert to
+	 * @throws IOException If reading the input or writing the results fails
+	 */
+	void run (InputStream ndjson, OutputStream results, DocumentService serviceDoc) throws IOException {
+
+		LineReader line = new LineReader (ndjson);
+
+		for (int number = 1; line.read(); number++) {
+
+			if (line.isBlank()) continue;
+
+			lines.add(number);
+			bytes += line.length;
+
+			if (line.tooLong) {
+				errors.add("Line longer than " + MAX_LINE_BYTES + " bytes");
+			} else {
+				try {
+					ModelMap doc = mapper.readValue(line.bytes, 0, line.length, ModelMap.class);
+					if (doc == null)
+						throw new IllegalArgumentException("Not a JSON object");
+					docs.add(doc);
+					errors.add(null);
+				} catch (JsonProcessingException e) {
+					errors.add(e.getOriginalMessage());
+				} catch (IllegalArgumentException e) {
+					errors.add(e.getMessage());
+				}
+			}
+
+			if (docs.size() >= batchSize || bytes >= batchBytes)
+				flush (results, serviceDoc);
+		}
+
+		flush (results, serviceDoc);
+
+		Map <String, Object> summary = new LinkedHashMap <String, Object> ();
+		summary.put("inserted", inserted);
+		summary.put("failed", failed);
+		writeLine (results, summary);
+		results.flush();
+	}
+
+	/*
+	 * Insert the documents of the batch, and write the results of its lines
+	 */
+	private void flush (OutputStream results, DocumentService serviceDoc) throws IOException {
+
+		if (lines.isEmpty()) return;
+
+		Iterator <DocumentImportResult> docResults = serviceDoc.importDocuments(docs).iterator();
+
+		for (int i = 0; i < lines.size(); i++) {
+			Map <String, Object> result = new LinkedHashMap <String, Object> ();
+			result.put("line", lines.get(i));
+
+			String error = errors.get(i);
+			if (error == null) {
+				DocumentImportResult docResult = docResults.next();
+				if (docResult.getId() != null)
+					result.put("id", docResult.getId());
+				error = docResult.getError();
+			}
+
+			if (error == null) {
+				inserted++;
+			} else {
+				result.put("error", error);
+				failed++;
+			}
+			writeLine (results, result);
+		}
+
+		results.flush();
+
+		lines.clear();
+		errors.clear();
+		docs.clear();
+		bytes = 0;
+	}
+
+	private void writeLine (OutputStream results, Object value) throws IOException {
+		results.write(mapper.writeValueAsBytes(value));
+		results.write('\n');
+	}
+
+	/*
+	 * Reader of lines of bytes, with the line reused for all lines. 
+	 * As '\n' is never part of a multi-byte character in UTF-8, lines are split before decoding.
+	 */
+	private static class LineReader {
+
+		private final InputStream input;
+
+		private final byte [] chunk = new byte [64 * 1024];
+
+		private int position, limit;
+
+		byte [] bytes = new byte [8192];
+
+		int length;
+
+		boolean tooLong;
+
+		LineReader (InputStream input) {
+			this.input = input;
+		}
+
+		/*
+		 * Read the next line, without the line break
+		 * @return False at the end of the input
+		 */
+		boolean read () throws IOException {
+
+			length = 0;
+			tooLong = false;
+
+			boolean found = false;
+
+			while (true) {
+				if (position == limit) {
+					limit = input.read(chunk);
+					position = 0;
+					if (limit < 0) {
+						limit = 0;
+						break;
+					}
+				}
+
+				found = true;
+
+				int end = position;
+				while (end < limit && chunk[end] != '\n') end++;
+
+				append (position, end);
+
+				if (end < limit) {
+					position = end + 1;
+					break;
+				}
+				position = limit;
+			}
+
+			if (length > 0 && bytes[length - 1] == '\r')
+				length--;
+
+			return found;
+		}
+
+		boolean isBlank () {
+			if (tooLong) return false;
+			for (int i = 0; i < length; i++)
+				if (!Character.isWhitespace(bytes[i]))
+					return false;
+			return true;
+		}
+
+		/*
+		 * Append a part of the chunk to the line, skipping what is beyond the maximum size
+		 */
+		private void append (int from, int to) {
+
+			int n = Math.min(to - from, MAX_LINE_BYTES - length);
+			if (n < to - from)
+				tooLong = true;
+
+			if (length + n > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.min(Math.max(bytes.length * 2, length + n), MAX_LINE_BYTES));
+
+			System.arraycopy(chunk, from, bytes, length, n);
+			length += n;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package restapi;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import docservice.CollectionNotFoundException;
+import docservice.DocumentNotFoundException;
+import docservice.IndexNotFoundException;
+import metrics.MetricsRegistry;
+
+/**
+ * Exception handling shared by the REST controllers, 
+ * including exceptions completing the results of asynchronous requests.
+ * 
+ * Each handled exception is counted in restapi_errors_total{exception}.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@ControllerAdvice (assignableTypes = {RestWSController.class, AsyncRestWSController.class, 
+		IndexController.class, CollectionController.class})
+public class RestExceptionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(RestExceptionHandler.class);
+	
+    private MetricsRegistry metrics;
+    
+    @Autowired
+    public RestExceptionHandler (MetricsRegistry metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /*
+     * Count an exception by its type
+     */
+    private void countError (Exception e) {
+    	metrics.counter("restapi_errors_total", "Exceptions handled by type", 
+    			"exception", e.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * Exception handling for DocumentNotFoundException
+     * Return HTTP status with NOT_FOUND (404) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.NOT_FOUND,reason = "Specified Document not found")
+    @ExceptionHandler(DocumentNotFoundException.class)
+    public void exceptionHandler(DocumentNotFoundException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for IndexNotFoundException
+     * Return HTTP status with NOT_FOUND (404) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.NOT_FOUND,reason = "Specified Index not found")
+    @ExceptionHandler(IndexNotFoundException.class)
+    public void exceptionHandler(IndexNotFoundException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for CollectionNotFoundException
+     * Return HTTP status with NOT_FOUND (404) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.NOT_FOUND,reason = "Specified Collection not found")
+    @ExceptionHandler(CollectionNotFoundException.class)
+    public void exceptionHandler(CollectionNotFoundException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for HttpMessageNotReadableException (invalid body data)
+     * Return HTTP status with BAD_REQUEST (400) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Invalid Http message")
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public void exceptionHandler(HttpMessageNotReadableException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for JsonProcessingException (invalid body data of raw documents)
+     * Return HTTP status with BAD_REQUEST (400) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Invalid Http message")
+    @ExceptionHandler(JsonProcessingException.class)
+    public void exceptionHandler(JsonProcessingException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for IllegalArgumentException (invalid request parameters)
+     * Return HTTP status with BAD_REQUEST (400) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Invalid request parameter")
+    @ExceptionHandler(IllegalArgumentException.class)
+    public void exceptionHandler(IllegalArgumentException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for TypeMismatchException (request parameter of invalid type, e.g. limit=abc)
+     * Return HTTP status with BAD_REQUEST (400) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Invalid request parameter")
+    @ExceptionHandler(TypeMismatchException.class)
+    public void exceptionHandler(TypeMismatchException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for MissingServletRequestParameterException (required request parameter missing)
+     * Return HTTP status with BAD_REQUEST (400) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Missing request parameter")
+    @ExceptionHandler(MissingServletRequestParameterException.class)
+    public void exceptionHandler(MissingServletRequestParameterException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for RejectedExecutionException (too many requests pending on the service)
+     * Return HTTP status with SERVICE_UNAVAILABLE (503) and proper information
+     */
+    @ResponseStatus(code=HttpStatus.SERVICE_UNAVAILABLE,reason = "Service busy")
+    @ExceptionHandler(RejectedExecutionException.class)
+    public void exceptionHandler(RejectedExecutionException e) {
+    	countError (e);
+    }
+    
+    /**
+     * Exception handling for all other exceptions except for DocumentNotFoundException, 
+     * IndexNotFoundException, CollectionNotFoundException, HttpMessageNotReadableException, 
+     * JsonProcessingException, IllegalArgumentException, TypeMismatchException, 
+     * MissingServletRequestParameterException and RejectedExecutionException.
+     * Return HTTP status with INTERNAL_SERVER_ERROR (500).
+     * @param e The exception
+     */
+    @ResponseStatus(code=HttpStatus.INTERNAL_SERVER_ERROR,reason = "Internal error")
+    @ExceptionHandler(Exception.class)
+    public void exceptionHandler(Exception e) 
+    {
+    	countError (e);
+    	
+    	log.error("Internal error", e);
+    }
+}
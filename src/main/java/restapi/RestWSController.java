@@ -2,73 +2,104 @@ package restapi;
 
 
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.ui.ModelMap;
-import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
+import docservice.DocumentCacheStats;
 import docservice.DocumentNotFoundException;
+import docservice.DocumentPage;
 import docservice.DocumentService;
+import repository.DocumentQuery;
+import repository.FieldProjection;
 import repository.StoredDocument;
 
 /**
  * RESTful Spring MVC controller, for a service of JSON document CRUD operations
  * 
+ * Documents are in the default collection under /restAPI/items, or in the collection 
+ * selected by the caller under /restAPI/{collection}/items, with the same operations.
+ * Each operation gets the {@link DocumentService} of the collection (see {@link CollectionRoutingConfig}).
+ * 
+ * Exceptions are handled by {@link RestExceptionHandler}
+ * 
  * @author goldyliang@gmail.com
  *
  */
 @RestController 
-@RequestMapping ("/restAPI/items")
+@RequestMapping ({"/restAPI/items", "/restAPI/{collection}/items"})
 public class RestWSController {
 
-    private DocumentService serviceDoc;
+    private ObjectMapper mapper;
     
-    @Autowired
-    public RestWSController (DocumentService service) {
-    	serviceDoc = service;
-    }
-
-    /**
-     * Exception handling for DocumentNotFoundException
-     * Return HTTP status with NOT_FOUND (404) and proper information
-     */
-    @ResponseStatus(code=HttpStatus.NOT_FOUND,reason = "Specified Document not found")
-    @ExceptionHandler(DocumentNotFoundException.class)
-    public void exceptionHandler(DocumentNotFoundException e) { }
+    private int importBatchSize;
     
-    /**
-     * Exception handling for HttpMessageNotReadableException (invalid body data)
-     * Return HTTP status with BAD_REQUEST (400) and proper information
-     */
-    @ResponseStatus(code=HttpStatus.BAD_REQUEST,reason = "Invalid Http message")
-    @ExceptionHandler(HttpMessageNotReadableException.class)
-    public void exceptionHandler(HttpMessageNotReadableException e) { }
+    private long importBatchBytes;
+    
+    private Path exportDir;
     
     /**
-     * Exception handling for all other exceptions except for DocumentNotFoundException and 
-     * HttpMessageNotReadableException.
-     * Return HTTP status with INTERNAL_SERVER_ERROR (500).
-     * @param e The exception
+     * Construct the controller, with properties of imports by {@link #importDocs(HttpServletRequest, HttpServletResponse, DocumentService)}
+     * and exports by {@link #exportDocsToFile(String, int, boolean, DocumentService)}:
+     * 
+     *  - docservice.import.batch-size  : maximum number of documents in one batch insert (default 1000)
+     *  - docservice.import.batch-bytes : maximum size in bytes of the documents of one batch (default 8MB)
+     *  - docservice.export.dir         : directory of the files of exports (default none, exports to files disabled)
+     *  
+     * @param mapper The mapper of JSON
+     * @param importBatchSize The maximum number of documents in one batch of an import
+     * @param importBatchBytes The maximum size of the documents of one batch of an import
+     * @param exportDir The directory of the files of exports, or empty to disable exports to files
      */
-    @ResponseStatus(code=HttpStatus.INTERNAL_SERVER_ERROR,reason = "Internal error")
-    @ExceptionHandler(Exception.class)
-    public void exceptionHandler(Exception e) 
-    {
-    	// Print out exception information
-    	// TODO: log it using logging system
-    	e.printStackTrace();
+    @Autowired
+    public RestWSController (ObjectMapper mapper,
+    		@Value("${docservice.import.batch-size:1000}") int importBatchSize,
+    		@Value("${docservice.import.batch-bytes:8388608}") long importBatchBytes,
+    		@Value("${docservice.export.dir:}") String exportDir) {
+    	
+    	if (importBatchSize <= 0 || importBatchBytes <= 0)
+    		throw new IllegalArgumentException("Invalid batch of import: " + importBatchSize + ", " + importBatchBytes);
+    	
+    	this.mapper = mapper;
+    	this.importBatchSize = importBatchSize;
+    	this.importBatchBytes = importBatchBytes;
+    	this.exportDir = exportDir.isEmpty() ? null : Paths.get(exportDir);
     }
-    
+
     /**
      * Insert a new document with either POST or PUT without ID specified.
      * Raw document content is provided in the body in the form of JSON.
@@ -81,11 +112,13 @@ public class RestWSController {
      * Refer to exceptionHandler(s) for status codes to be returned if any error.
      * 
      * @param doc Raw document provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
      * @return Document ID and HTTP status of 201 Created, or error information
      */
     @RequestMapping ( method={RequestMethod.POST, RequestMethod.PUT} ) 
     public ResponseEntity<DocIDReturn> insertDoc (
-    		@RequestBody ModelMap doc) {
+    		@RequestBody ModelMap doc,
+    		DocumentService serviceDoc) {
     	
     	String id = serviceDoc.insertDocument(doc);
     	
@@ -93,6 +126,105 @@ public class RestWSController {
     			new DocIDReturn (id), HttpStatus.CREATED);
     }
     
+    /**
+     * Insert a new document with either POST or PUT to /restAPI/items?raw=true
+     * 
+     * The same as {@link #insertDoc(ModelMap, DocumentService)}, but the body is converted directly to BSON 
+     * and stored, without being mapped to objects.
+     * 
+     * @param request The HTTP request with the raw document in the body
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return Document ID and HTTP status of 201 Created, or error information
+     * @throws IOException If the body is not valid JSON (to be handled in exception handler)
+     */
+    @RequestMapping ( 
+    		method={RequestMethod.POST, RequestMethod.PUT},
+    		params="raw=true" ) 
+    public ResponseEntity<DocIDReturn> insertRawDoc (
+    		HttpServletRequest request,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	String id = serviceDoc.insertRawDocument(request.getInputStream());
+    	
+    	return new ResponseEntity<DocIDReturn> (
+    			new DocIDReturn (id), HttpStatus.CREATED);
+    }
+    
+    /**
+     * Insert a list of new documents with either POST or PUT to /restAPI/items/_bulk.
+     * Raw document contents are provided in the body as a JSON array, 
+     * and inserted with one batch write to the database.
+     * 
+     * Return HTTP status 201 Created if success.
+     * And return the generated document IDs in the same order as the documents:
+     * 
+     *     [ { "id" : generated_id#1 }, { "id" : generated_id#2 }, ... ]
+     * 
+     * Refer to exceptionHandler(s) for status codes to be returned if any error.
+     * 
+     * @param docs Raw documents provided in the body of request
+     * @param ordered If false, continue inserting the rest of documents if any fails (default true)
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return Document IDs and HTTP status of 201 Created, or error information
+     */
+    @RequestMapping ( 
+    		value="/_bulk",
+    		method={RequestMethod.POST, RequestMethod.PUT} ) 
+    public ResponseEntity<List<DocIDReturn>> insertDocs (
+    		@RequestBody List<ModelMap> docs,
+    		@RequestParam(defaultValue="true") boolean ordered,
+    		DocumentService serviceDoc) {
+    	
+    	List <String> ids = serviceDoc.insertDocuments(docs, ordered);
+    	
+    	List <DocIDReturn> idReturns = new ArrayList <DocIDReturn> (ids.size());
+    	for (String id : ids)
+    		idReturns.add(new DocIDReturn (id));
+    	
+    	return new ResponseEntity<List<DocIDReturn>> (
+    			idReturns, HttpStatus.CREATED);
+    }
+    
+    /**
+     * Import documents in NDJSON (one JSON document per line), with either POST or PUT 
+     * to /restAPI/items/_import and Content-Type application/x-ndjson.
+     * 
+     * The body is read line by line, and the documents are inserted in bounded batches. 
+     * The next lines are read after the batch is inserted, so a large import is read only as fast 
+     * as it is inserted, without holding more than one batch in memory.
+     * 
+     * Return HTTP status 200 OK, and the result of each non-empty line in NDJSON, 
+     * written as each batch is inserted, followed by a summary:
+     * 
+     *     { "line" : 1, "id" : generated_id }
+     *     { "line" : 2, "error" : reason }
+     *     ...
+     *     { "inserted" : number, "failed" : number }
+     * 
+     * A line which is not a JSON object fails without failing the other lines.
+     * If an error happens after the response is committed (e.g. the database is not reachable),
+     * the response is truncated.
+     * 
+     * @param request The HTTP request with the documents in the body
+     * @param response The HTTP response to write the results to
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws IOException If reading the request or writing the response fails
+     */
+    @RequestMapping ( 
+    		value="/_import",
+    		method={RequestMethod.POST, RequestMethod.PUT},
+    		consumes=NdjsonImport.NDJSON_VALUE ) 
+    public void importDocs (
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	response.setContentType(NdjsonImport.NDJSON_VALUE);
+    	
+    	new NdjsonImport (mapper, importBatchSize, importBatchBytes)
+    		.run(request.getInputStream(), response.getOutputStream(), serviceDoc);
+    }
+    
     /**
      * Update an existing document with either POST or PUT request, provided with a document ID.
      * 
@@ -103,6 +235,7 @@ public class RestWSController {
      * 
      * @param id  Document id provided in the URL
      * @param doc Raw document provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
      * @return HTTP status of 200 OK or error information.
      * @throws DocumentNotFoundException (to be handled in exception handler)
      */
@@ -111,11 +244,63 @@ public class RestWSController {
     		method={RequestMethod.POST, RequestMethod.PUT}) 
     public void updateDoc (
     		@PathVariable String id,
-    		@RequestBody ModelMap doc) throws DocumentNotFoundException {
+    		@RequestBody ModelMap doc,
+    		DocumentService serviceDoc) throws DocumentNotFoundException {
     	    	
     	serviceDoc.updateDocument(id, doc);
     }
     
+    /**
+     * Update an existing document with either POST or PUT to /restAPI/items/{id}?raw=true
+     * 
+     * The same as {@link #updateDoc(String, ModelMap, DocumentService)}, but the body is converted directly to BSON 
+     * and stored, without being mapped to objects.
+     * 
+     * @param id  Document id provided in the URL
+     * @param request The HTTP request with the raw document in the body
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws DocumentNotFoundException (to be handled in exception handler)
+     * @throws IOException If the body is not valid JSON (to be handled in exception handler)
+     */
+    @RequestMapping( 
+    		value="/{id}", 
+    		method={RequestMethod.POST, RequestMethod.PUT},
+    		params="raw=true") 
+    public void updateRawDoc (
+    		@PathVariable String id,
+    		HttpServletRequest request,
+    		DocumentService serviceDoc) throws DocumentNotFoundException, IOException {
+    	    	
+    	serviceDoc.updateRawDocument(id, request.getInputStream());
+    }
+    
+    /**
+     * Update part of an existing document with PATCH, provided with a document ID.
+     * 
+     * The body is a JSON Merge Patch (RFC 7386), with content type of application/merge-patch+json 
+     * or application/json. Only the fields in the patch are written to the database:
+     * fields with null value are removed, objects are merged, and other values replace the fields.
+     * 
+     * Return HTTP status 200 OK and an empty body if success.
+     * Refer to exceptionHandler(s) for status codes to be returned if any error.
+     * 
+     * @param id  Document id provided in the URL
+     * @param patch The merge patch provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws DocumentNotFoundException (to be handled in exception handler)
+     */
+    @RequestMapping( 
+    		value="/{id}", 
+    		method={RequestMethod.PATCH},
+    		consumes={"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE}) 
+    public void patchDoc (
+    		@PathVariable String id,
+    		@RequestBody Map<String, Object> patch,
+    		DocumentService serviceDoc) throws DocumentNotFoundException {
+    	    	
+    	serviceDoc.patchDocument(id, patch);
+    }
+    
     /**
      * Delete a document with provided id in the URL
      * 
@@ -123,6 +308,7 @@ public class RestWSController {
      * Refer to exceptionHandler(s) for status codes to be returned if any error.
      * 
      * @param id Document id provided in the URL
+     * @param serviceDoc The service of documents in the collection of the path
      * @return HTTP status of 200 OK or error information.
      * @throws DocumentNotFoundException (to be handled in exception handler)
      */
@@ -130,7 +316,8 @@ public class RestWSController {
     		value="/{id}", 
     		method={RequestMethod.DELETE}) 
     public void deleteDoc (
-    		@PathVariable String id) 
+    		@PathVariable String id,
+    		DocumentService serviceDoc) 
     	throws DocumentNotFoundException {
     	
         serviceDoc.deleteDocument(id);
@@ -149,18 +336,79 @@ public class RestWSController {
      * Return HTTP status of 200 OK and empty body if deleted.
      * Refer to exceptionHandler(s) for status codes to be returned if any error.
      * 
+     * The version of the document is returned as a weak ETag header, since the same version is
+     * sent in different representations (JSON, Smile, CBOR, compressed or not). If the request has
+     * an If-None-Match header which matches the current version, only the version is read 
+     * from the cache or the repository, and HTTP status of 304 Not Modified is returned without body.
+     * 
+     * Only part of the raw document is returned with GET /restAPI/items/{id}?fields=paths, 
+     * where paths is a comma separated list of dotted paths into the raw document.
+     * Either all paths are included (e.g. fields=author.name,content), 
+     * or all paths are excluded with a leading '-' (e.g. fields=-author.address).
+     * Return HTTP status of 400 Bad Request if the paths are not valid.
+     * 
      * @param id The id of the document to be retrieved
-     * @return The document to be retrieved with document ID and raw content
+     * @param fields The fields of the raw document to return or exclude, or absent for all fields
+     * @param request The request, to check the If-None-Match header
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The document to be retrieved with document ID and raw content, 
+     *         or NULL if it is not modified
      * @throws DocumentNotFoundException (to be handled in exception handler)
      */
     @RequestMapping(
     		value="/{id}", 
     		method={RequestMethod.GET}) 
-    public StoredDocument getDocById (
-    		@PathVariable String id) 
+    public ResponseEntity<StoredDocument> getDocById (
+    		@PathVariable String id,
+    		@RequestParam(required=false) String fields,
+    		WebRequest request,
+    		DocumentService serviceDoc) 
     	throws DocumentNotFoundException {
     	
-    	return serviceDoc.getDocumentById(id);
+    	FieldProjection projection = FieldProjection.parse(fields);
+    	
+    	if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+    		// Compare with the version only, before reading the whole document
+    		String version = serviceDoc.getDocumentVersion(id);
+    		
+    		if (version != null && request.checkNotModified(toETag (version)))
+    			return null;
+    	}
+    	
+    	StoredDocument doc = serviceDoc.getDocumentById(id, projection);
+    	
+    	ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+    	if (doc.getVersion() != null)
+    		builder.eTag(toETag (doc.getVersion()));
+    	
+    	return builder.body(doc);
+    }
+    
+    /**
+     * Retrieve a document by the id provided in the URL, with GET /restAPI/items/{id}?raw=true
+     * 
+     * The same as {@link #getDocById(String, String, WebRequest, DocumentService)}, but the JSON is converted directly from the BSON 
+     * read from the database and written to the response, without being mapped to objects.
+     * 
+     * @param id The id of the document to be retrieved
+     * @param response The HTTP response to write the document to
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws DocumentNotFoundException (to be handled in exception handler)
+     * @throws IOException If writing to the response fails
+     */
+    @RequestMapping(
+    		value="/{id}", 
+    		method={RequestMethod.GET},
+    		params="raw=true") 
+    public void getRawDocById (
+    		@PathVariable String id,
+    		HttpServletResponse response,
+    		DocumentService serviceDoc) 
+    	throws DocumentNotFoundException, IOException {
+    	
+    	response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    	
+    	serviceDoc.writeRawDocumentById(id, response.getOutputStream());
     }
     
     /**
@@ -179,17 +427,368 @@ public class RestWSController {
      * 
      * Return [] if no any documents.
      * 
+     * Only part of the raw documents are returned with GET /restAPI/items?fields=paths,
+     * the same as {@link #getDocById(String, String, WebRequest, DocumentService)}.
+     * 
      * Return HTTP status of 200 OK if no error.
      * Refer to exceptionHandler(s) for status codes to be returned if any error.
      *  
+     * @param fields The fields of the raw documents to return or exclude, or absent for all fields
+     * @param serviceDoc The service of documents in the collection of the path
      * @return The list of documents with IDs and raw contents.
      */
     @RequestMapping(method={RequestMethod.GET}) 
-    public List<StoredDocument> getAllDoc () {
-    	List <StoredDocument> docs = serviceDoc.getAllDocuments();
+    public List<StoredDocument> getAllDoc (
+    		@RequestParam(required=false) String fields,
+    		DocumentService serviceDoc) {
+    	List <StoredDocument> docs = serviceDoc.getAllDocuments(FieldProjection.parse(fields));
     	
     	return docs;
     }
-	    
+    
+    /**
+     * Get one page of documents, with GET /restAPI/items?limit=n[&after=token]
+     * 
+     * The documents are returned in ascending order of ID, together with the token of the next page:
+     * 
+     * { "documents" : [ { "id" : id for document#1,
+     *                     "document" : { ... }
+     *                   }
+     *                   ...
+     *                 ],
+     *   "next" : token of next page, or null if this is the last page
+     * }
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the limit is out of range or the token is not valid.
+     * Refer to exceptionHandler(s) for status codes to be returned if any other error.
+     * 
+     * @param limit The maximum number of documents in the page
+     * @param after The token returned as next of the previous page, or absent for the first page
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The page of documents and the token of the next page
+     */
+    @RequestMapping(
+    		method={RequestMethod.GET},
+    		params="limit")
+    public DocumentPage getDocPage (
+    		@RequestParam int limit,
+    		@RequestParam(required=false) String after,
+    		DocumentService serviceDoc) {
+    	
+    	return serviceDoc.getDocumentsPage(after, limit);
+    }
+    
+    /**
+     * Get all documents from the repository in streaming mode, with GET /restAPI/items?stream=true
+     * 
+     * The returned JSON is the same as {@link #getAllDoc(String, DocumentService)}, but each document is written to 
+     * the response as soon as it is read from the database cursor, instead of building the
+     * whole list in memory first.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * If an error happens after the response is committed, the response is truncated.
+     * 
+     * @param response The HTTP response to write the documents to
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws IOException If writing to the response fails
+     */
+    @RequestMapping(
+    		method={RequestMethod.GET},
+    		params={"stream=true", "!limit"})
+    public void streamAllDoc (HttpServletResponse response,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	try (CloseableIterator <StoredDocument> docs = serviceDoc.streamAllDocuments()) {
+    		writeDocuments (docs, response);
+    	}
+    }
+    
+    /**
+     * Export all documents in NDJSON, with GET /restAPI/items/_export
+     * 
+     * Each document is written as one line, in the same form as {@link #getRawDocById(String, HttpServletResponse, DocumentService)},
+     * in no particular order. The IDs are split into ranges which are read in parallel by
+     * a number of threads (parameter parallelism, default 4), so a large collection is exported
+     * much faster than by {@link #streamAllDoc(HttpServletResponse, DocumentService)}, while the memory used
+     * stays bounded as the reading waits for the response.
+     * 
+     * With parameter gzip=true, the response is compressed with Content-Encoding gzip.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the parallelism is not valid.
+     * If an error happens after the response is committed, the response is truncated.
+     * 
+     * @param parallelism The number of threads reading the documents
+     * @param gzip Whether to compress the response
+     * @param response The HTTP response to write the documents to
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws IOException If writing to the response fails
+     */
+    @RequestMapping(
+    		value="/_export",
+    		method={RequestMethod.GET})
+    public void exportDocs (
+    		@RequestParam(defaultValue="4") int parallelism,
+    		@RequestParam(defaultValue="false") boolean gzip,
+    		HttpServletResponse response,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	if (parallelism <= 0 || parallelism > DocumentService.MAX_EXPORT_PARALLELISM)
+    		throw new IllegalArgumentException ("Invalid parallelism: " + parallelism);
+    	
+    	response.setContentType(NdjsonImport.NDJSON_VALUE);
+    	if (gzip)
+    		response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+    	
+    	serviceDoc.exportDocuments(response.getOutputStream(), parallelism, gzip);
+    }
+    
+    /**
+     * Export all documents in NDJSON to a file on the server, with POST to /restAPI/items/_export?file=name
+     * 
+     * The same as {@link #exportDocs(int, boolean, HttpServletResponse, DocumentService)}, but written to
+     * the file of the name in the directory of docservice.export.dir, e.g. for a backup. 
+     * The file is written under a temporary name and then renamed, so it is either complete or absent.
+     * An existing file of the name is replaced.
+     * 
+     * Return HTTP status of 200 OK with the file name and the number of documents exported:
+     * 
+     *     { "file" : name, "documents" : number }
+     * 
+     * Return HTTP status of 400 Bad Request if exports to files are not enabled,
+     * or the name is not a plain file name in the directory.
+     * 
+     * @param file The name of the file
+     * @param parallelism The number of threads reading the documents
+     * @param gzip Whether to compress the file by gzip
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The file name and the number of documents exported
+     * @throws IOException If writing the file fails
+     */
+    @RequestMapping(
+    		value="/_export",
+    		method={RequestMethod.POST},
+    		params="file")
+    public Map<String, Object> exportDocsToFile (
+    		@RequestParam String file,
+    		@RequestParam(defaultValue="4") int parallelism,
+    		@RequestParam(defaultValue="false") boolean gzip,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	if (exportDir == null)
+    		throw new IllegalArgumentException ("Exports to files are not enabled");
+    	
+    	if (!file.matches("[A-Za-z0-9][A-Za-z0-9._-]*"))
+    		throw new IllegalArgumentException ("Invalid file name: " + file);
+    	
+    	Files.createDirectories(exportDir);
+    	
+    	Path target = exportDir.resolve(file);
+    	Path temp = Files.createTempFile(exportDir, "." + file, ".tmp");
+    	
+    	long count;
+    	try {
+    		try (OutputStream out = new BufferedOutputStream (Files.newOutputStream(temp), 64 * 1024)) {
+    			count = serviceDoc.exportDocuments(out, parallelism, gzip);
+    		}
+    		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    	} finally {
+    		Files.deleteIfExists(temp);
+    	}
+    	
+    	Map<String, Object> result = new LinkedHashMap<String, Object>();
+    	result.put("file", file);
+    	result.put("documents", count);
+    	return result;
+    }
+    
+    /**
+     * Find documents matching a query, with POST to /restAPI/items/_search
+     * 
+     * The query is provided in the body, with a filter on the fields of the raw documents, 
+     * sort, limit and projection (see {@link DocumentQuery} for the supported filters):
+     * 
+     * { "filter" : { "author.name" : "Gordon", "pages" : { "$gte" : 100 } },
+     *   "sort" : [ "-pages", "author.name" ],
+     *   "limit" : 10,
+     *   "fields" : "author,content"
+     * }
+     * 
+     * The query is run by the database, and the matching documents are streamed 
+     * in the same form as {@link #getAllDoc(String, DocumentService)}.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the query is not valid.
+     * If an error happens after the response is committed, the response is truncated.
+     * 
+     * @param query The query provided in the body of request
+     * @param response The HTTP response to write the documents to
+     * @param serviceDoc The service of documents in the collection of the path
+     * @throws IOException If writing to the response fails
+     */
+    @RequestMapping(
+    		value="/_search",
+    		method={RequestMethod.POST})
+    public void searchDoc (
+    		@RequestBody DocumentQuery query,
+    		HttpServletResponse response,
+    		DocumentService serviceDoc) throws IOException {
+    	
+    	try (CloseableIterator <StoredDocument> docs = serviceDoc.searchDocuments(query)) {
+    		writeDocuments (docs, response);
+    	}
+    }
+    
+    /**
+     * Explain a query of documents, with POST to /restAPI/items/_search?explain=true
+     * 
+     * The query is provided in the body as to {@link #searchDoc(DocumentQuery, HttpServletResponse, DocumentService)}.
+     * Instead of the matching documents, return how the database runs the query:
+     * 
+     * { "indexes" : [ index_name, ... ], "plan" : { query plan of the database } }
+     * 
+     * where "indexes" is empty if no index is used and the collection is scanned.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the query is not valid.
+     * 
+     * @param query The query provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The explanation of the query
+     */
+    @RequestMapping(
+    		value="/_search",
+    		method={RequestMethod.POST},
+    		params="explain=true")
+    public Map<String, Object> explainSearchDoc (
+    		@RequestBody DocumentQuery query,
+    		DocumentService serviceDoc) {
+    	
+    	return serviceDoc.explainSearch(query);
+    }
+    
+    /**
+     * Aggregate documents with POST to /restAPI/items/_aggregate
+     * 
+     * The pipeline is provided in the body, as a restricted Mongodb aggregation pipeline 
+     * on the fields of the raw documents, for example the number of documents and pages by author:
+     * 
+     * [ { "$match" : { "pages" : { "$gt" : 0 } } },
+     *   { "$group" : { "_id" : "$author.name", "count" : { "$sum" : 1 }, "pages" : { "$sum" : "$pages" } } },
+     *   { "$sort" : { "pages" : -1 } },
+     *   { "$limit" : 10 } ]
+     *   
+     * The stages $match, $group (with $sum, $avg, $min, $max), $count, $sort and $limit are supported,
+     * and there must be at least one $group or $count. The pipeline is run by the database, 
+     * and only the results are returned in the form of JSON array.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the pipeline is not valid or not supported.
+     * 
+     * @param pipeline The list of stages provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The list of results
+     */
+    @RequestMapping(
+    		value="/_aggregate",
+    		method={RequestMethod.POST})
+    public List<Map<String, Object>> aggregateDoc (
+    		@RequestBody List<Map<String, Object>> pipeline,
+    		DocumentService serviceDoc) {
+    	
+    	return serviceDoc.aggregateDocuments(pipeline);
+    }
+    
+    /**
+     * Count all documents with GET /restAPI/items/_count[?estimated=true]
+     * 
+     * With estimated=true, the count is taken from the metadata of the collection without 
+     * reading documents, which is fast but may be inaccurate after an unclean shutdown of the database.
+     * 
+     * Return HTTP status of 200 OK, with the count in the form of JSON:
+     * 
+     *     { "count" : number }
+     * 
+     * @param estimated Whether the count can be estimated
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The count of documents
+     */
+    @RequestMapping(
+    		value="/_count",
+    		method={RequestMethod.GET})
+    public Map<String, Long> countDoc (
+    		@RequestParam(value="estimated", defaultValue="false") boolean estimated,
+    		DocumentService serviceDoc) {
+    	
+    	return Collections.singletonMap("count", serviceDoc.countDocuments(null, estimated));
+    }
+    
+    /**
+     * Count documents matching a filter with POST to /restAPI/items/_count
+     * 
+     * The filter is provided in the body in the same form as the filter of {@link #searchDoc(DocumentQuery, HttpServletResponse, DocumentService)},
+     * and the count is returned in the same form as {@link #countDoc(boolean, DocumentService)}.
+     * 
+     * Return HTTP status of 200 OK if no error.
+     * Return HTTP status of 400 Bad Request if the filter is not valid.
+     * 
+     * @param filter The filter provided in the body of request
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The count of documents
+     */
+    @RequestMapping(
+    		value="/_count",
+    		method={RequestMethod.POST})
+    public Map<String, Long> countDoc (
+    		@RequestBody Map<String, Object> filter,
+    		DocumentService serviceDoc) {
+    	
+    	return Collections.singletonMap("count", serviceDoc.countDocuments(filter, false));
+    }
+    
+    /*
+     * Write documents to the response as a JSON array, each as soon as it is read from the iterator
+     */
+    private void writeDocuments (Iterator <StoredDocument> docs, HttpServletResponse response) 
+    		throws IOException {
+    	
+    	// Let the servlet buffer decide when to flush, instead of flushing per document
+    	ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    	
+    	response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    	
+    	JsonGenerator gen = mapper.getFactory().createGenerator(response.getOutputStream());
+    	
+    	gen.writeStartArray();
+    	while (docs.hasNext())
+    		writer.writeValue(gen, docs.next());
+    	gen.writeEndArray();
+    	
+    	gen.close();
+    }
+    
+    /**
+     * Get the statistics of the document cache, with GET /restAPI/items/_cache
+     * 
+     * { "hitCount" : number, "missCount" : number, "evictionCount" : number,
+     *   "size" : number, "estimatedBytes" : number }
+     * 
+     * @param serviceDoc The service of documents in the collection of the path
+     * @return The statistics of the document cache
+     */
+    @RequestMapping(
+    		value="/_cache", 
+    		method={RequestMethod.GET}) 
+    public DocumentCacheStats getCacheStats (DocumentService serviceDoc) {
+    	return serviceDoc.getCacheStats();
+    }
+    
+    /*
+     * Convert the version of a document to a weak entity tag, which matches any representation of the version
+     */
+    private static String toETag (String version) {
+    	return "W/\"" + version + "\"";
+    }
 
 }
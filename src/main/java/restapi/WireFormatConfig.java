@@ -0,0 +1,62 @@
+package restapi;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * 
+ * Configuration of binary wire formats, in addition to JSON:
+ * 
+ *  - Smile (application/x-jackson-smile)
+ *  - CBOR (application/cbor)
+ *  
+ * They are accepted and produced when the client sends the matching Content-Type or Accept header.
+ * The converters are added after the JSON converter, so JSON is still produced by default.
+ * 
+ * Responses streamed directly or in raw mode are always JSON.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@Configuration
+public class WireFormatConfig extends WebMvcConfigurerAdapter {
+
+	/**
+	 * Media type of Smile
+	 */
+	public static final MediaType SMILE = new MediaType ("application", "x-jackson-smile");
+	
+	/**
+	 * Media type of CBOR
+	 */
+	public static final MediaType CBOR = new MediaType ("application", "cbor");
+	
+	@Autowired
+	private Jackson2ObjectMapperBuilder mapperBuilder;
+	
+	@Override
+	public void extendMessageConverters (List <HttpMessageConverter <?>> converters) {
+		converters.add(new JacksonBinaryHttpMessageConverter (
+				createMapper (new ObjectMapper (new SmileFactory ())), SMILE));
+		converters.add(new JacksonBinaryHttpMessageConverter (
+				createMapper (new ObjectMapper (new CBORFactory ())), CBOR));
+	}
+	
+	/*
+	 * Apply the same settings as the JSON object mapper to the mapper of a binary format
+	 */
+	private ObjectMapper createMapper (ObjectMapper mapper) {
+		mapperBuilder.configure(mapper);
+		return mapper;
+	}
+}
@@ -0,0 +1,259 @@
+package testdocsvc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.ui.ModelMap;
+
+import com.mongodb.WriteConcern;
+
+import docservice.BatchingDocumentInserter;
+import repository.DocRepository;
+import repository.DocumentConsistency;
+import repository.StoredDocument;
+
+/**
+ * Unit test of inserting documents in batches by {@link BatchingDocumentInserter}, with mock repository.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestBatchingDocumentInserter {
+
+	@Mock 
+	private DocRepository mockDocRepository;
+	
+	/*
+	 * Helper method to create a doc for testing
+	 */
+	private static StoredDocument createDoc (int i) {
+		return new StoredDocument (new ModelMap ("content", i));
+	}
+	
+	/**
+	 * Test documents queued together are inserted with one batch insert,
+	 * and each future is completed with its ID
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testInsertInBatches () throws Exception {
+		
+		AtomicInteger nextId = new AtomicInteger ();
+		CountDownLatch firstBatchStarted = new CountDownLatch (1);
+		CountDownLatch firstBatchRelease = new CountDownLatch (1);
+		
+		// Hold the first batch, so the other documents are queued while it is written
+		Mockito.when(mockDocRepository.insertBatch(anyListOf(StoredDocument.class), anyBoolean()))
+			.thenAnswer(invocation -> {
+				if (firstBatchStarted.getCount() > 0) {
+					firstBatchStarted.countDown();
+					firstBatchRelease.await();
+				}
+				List <StoredDocument> docs = (List <StoredDocument>) invocation.getArguments()[0];
+				for (StoredDocument doc : docs)
+					doc.setId(String.valueOf(nextId.incrementAndGet()));
+				return docs;
+			});
+		
+		BatchingDocumentInserter inserter = new BatchingDocumentInserter (mockDocRepository, 4, 50, 100);
+		
+		List <CompletableFuture <StoredDocument>> futures = new ArrayList <CompletableFuture <StoredDocument>> ();
+		
+		futures.add(inserter.insert(createDoc (0)));
+		firstBatchStarted.await();
+		
+		for (int i = 1; i <= 8; i++)
+			futures.add(inserter.insert(createDoc (i)));
+		
+		firstBatchRelease.countDown();
+		
+		for (int i = 0; i <= 8; i++) {
+			StoredDocument doc = futures.get(i).get();
+			assertEquals (i, doc.getDocument().get("content"));
+			assertNotNull (doc.getId());
+		}
+		
+		// The first document alone (after waiting for the delay), then two full batches
+		Mockito.verify(mockDocRepository, Mockito.times(3))
+			.insertBatch(anyListOf(StoredDocument.class), anyBoolean());
+		
+		inserter.close();
+	}
+	
+	/**
+	 * Test all documents of a failed batch get the exception, and a full queue is rejected
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testInsertFailedAndRejected () throws Exception {
+		
+		CountDownLatch release = new CountDownLatch (1);
+		
+		Mockito.when(mockDocRepository.insertBatch(anyListOf(StoredDocument.class), anyBoolean()))
+			.thenAnswer(invocation -> {
+				release.await();
+				throw new IllegalStateException("Database down");
+			});
+		
+		BatchingDocumentInserter inserter = new BatchingDocumentInserter (mockDocRepository, 2, 0, 2);
+		
+		List <CompletableFuture <StoredDocument>> futures = new ArrayList <CompletableFuture <StoredDocument>> ();
+		futures.add(inserter.insert(createDoc (0)));
+		
+		// Wait until the first document is taken into a batch
+		Mockito.verify(mockDocRepository, Mockito.timeout(1000))
+			.insertBatch(anyListOf(StoredDocument.class), anyBoolean());
+		
+		futures.add(inserter.insert(createDoc (1)));
+		futures.add(inserter.insert(createDoc (2)));
+		
+		try {
+			inserter.insert(createDoc (3)).get();
+			fail ("Insert shall be rejected when the queue is full");
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause() instanceof RejectedExecutionException);
+		}
+		
+		release.countDown();
+		
+		for (CompletableFuture <StoredDocument> future : futures) {
+			try {
+				future.get();
+				fail ("Insert shall fail");
+			} catch (ExecutionException e) {
+				assertTrue (e.getCause() instanceof IllegalStateException);
+			}
+		}
+		
+		inserter.close();
+	}
+	
+	/**
+	 * Test each document of a failed batch gets its own outcome: inserted by the batch, 
+	 * failed on its own, or inserted on its own. And documents are rejected after close.
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testInsertFailedPartly () throws Exception {
+		
+		Map <String, StoredDocument> stored = new ConcurrentHashMap <String, StoredDocument> ();
+		
+		// The batch stores its first document only, and the second one violates a unique index
+		Mockito.when(mockDocRepository.insertBatch(anyListOf(StoredDocument.class), anyBoolean()))
+			.thenAnswer(invocation -> {
+				List <StoredDocument> docs = (List <StoredDocument>) invocation.getArguments()[0];
+				StoredDocument doc = docs.get(0);
+				
+				if (docs.size() == 1 && doc.getDocument().get("content").equals(1))
+					throw new DuplicateKeyException("Unique index violated");
+				
+				stored.put(doc.getId(), doc);
+				if (docs.size() > 1)
+					throw new DuplicateKeyException("Unique index violated");
+				return docs;
+			});
+		Mockito.when(mockDocRepository.findVersion(anyString()))
+			.thenAnswer(invocation -> stored.get(invocation.getArguments()[0]));
+		
+		BatchingDocumentInserter inserter = new BatchingDocumentInserter (mockDocRepository, 3, 1000, 10);
+		
+		List <CompletableFuture <StoredDocument>> futures = new ArrayList <CompletableFuture <StoredDocument>> ();
+		for (int i = 0; i < 3; i++)
+			futures.add(inserter.insert(createDoc (i)));
+		
+		assertSame (stored.get(futures.get(0).get().getId()), futures.get(0).get());
+		assertSame (stored.get(futures.get(2).get().getId()), futures.get(2).get());
+		
+		try {
+			futures.get(1).get();
+			fail ("Insert shall fail");
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause() instanceof DuplicateKeyException);
+		}
+		
+		assertEquals (2, stored.size());
+		
+		// The first document is not inserted twice
+		Mockito.verify(mockDocRepository, Mockito.times(3))
+			.insertBatch(anyListOf(StoredDocument.class), anyBoolean());
+		
+		inserter.close();
+		
+		try {
+			inserter.insert(createDoc (3)).get();
+			fail ("Insert shall be rejected after close");
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+	
+	/**
+	 * Test each document is written with the write concern of the thread inserting it,
+	 * by one batch insert for each write concern
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testInsertWithWriteConcern () throws Exception {
+		
+		DocumentConsistency consistency = new DocumentConsistency ();
+		Map <Object, WriteConcern> writeConcerns = new ConcurrentHashMap <Object, WriteConcern> ();
+		
+		Mockito.when(mockDocRepository.insertBatch(anyListOf(StoredDocument.class), anyBoolean()))
+			.thenAnswer(invocation -> {
+				List <StoredDocument> docs = (List <StoredDocument>) invocation.getArguments()[0];
+				for (StoredDocument doc : docs)
+					writeConcerns.put(doc.getDocument().get("content"), 
+							consistency.getWriteConcern() == null ? WriteConcern.ACKNOWLEDGED : consistency.getWriteConcern());
+				return docs;
+			});
+		
+		BatchingDocumentInserter inserter = new BatchingDocumentInserter (mockDocRepository, consistency, 3, 1000, 10);
+		
+		List <CompletableFuture <StoredDocument>> futures = new ArrayList <CompletableFuture <StoredDocument>> ();
+		futures.add(inserter.insert(createDoc (0)));
+		
+		consistency.override(null, WriteConcern.MAJORITY);
+		try {
+			futures.add(inserter.insert(createDoc (1)));
+		} finally {
+			consistency.clearOverride();
+		}
+		futures.add(inserter.insert(createDoc (2)));
+		
+		for (CompletableFuture <StoredDocument> future : futures)
+			future.get();
+		
+		assertEquals (WriteConcern.ACKNOWLEDGED, writeConcerns.get(0));
+		assertEquals (WriteConcern.MAJORITY, writeConcerns.get(1));
+		assertEquals (WriteConcern.ACKNOWLEDGED, writeConcerns.get(2));
+		
+		Mockito.verify(mockDocRepository, Mockito.times(2))
+			.insertBatch(anyListOf(StoredDocument.class), anyBoolean());
+		
+		inserter.close();
+	}
+}
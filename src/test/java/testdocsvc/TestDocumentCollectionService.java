@@ -0,0 +1,183 @@
+package testdocsvc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.env.MockEnvironment;
+
+import docservice.CollectionNotFoundException;
+import docservice.DocumentCollectionService;
+import docservice.DocumentIndexService;
+import docservice.DocumentService;
+import docservice.NoDocumentCache;
+import repository.DocRepository;
+import repository.DocRepositoryFactory;
+import repository.DocumentConsistency;
+
+/**
+ * Unit test of routing to the services of collections by {@link DocumentCollectionService}, 
+ * with mock repositories.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestDocumentCollectionService {
+
+	@Mock 
+	private DocRepositoryFactory mockRepositoryFactory;
+	
+	@Mock 
+	private DocRepository mockDocRepository;
+	
+	private DocumentService defaultService;
+	
+	private DocumentIndexService defaultIndexService;
+	
+	private DocumentCollectionService service;
+	
+	/**
+	 * Create the service with the default collection "entries"
+	 */
+	@Before
+	public void setUp () {
+		Mockito.when(mockRepositoryFactory.getDefaultCollectionName()).thenReturn("entries");
+		Mockito.when(mockRepositoryFactory.getRepository(Mockito.anyString())).thenReturn(mockDocRepository);
+		
+		MockEnvironment env = new MockEnvironment ()
+				.withProperty("docservice.collections.tenant1.cache.max-entries", "100");
+		
+		defaultService = new DocumentService (mockDocRepository);
+		defaultIndexService = new DocumentIndexService (mockDocRepository);
+		
+		service = new DocumentCollectionService (mockRepositoryFactory, env, new DocumentConsistency (), 
+				defaultService, defaultIndexService, new NoDocumentCache ());
+	}
+	
+	/**
+	 * Test the default collection is served by the default services, and other collections 
+	 * by services created once on first use
+	 */
+	@Test
+	public void testGetServices () {
+		
+		assertSame (defaultService, service.getDocumentService(null));
+		assertSame (defaultService, service.getDocumentService("entries"));
+		assertSame (defaultIndexService, service.getIndexService(null));
+		
+		DocumentService tenantService = service.getDocumentService("tenant1");
+		assertNotSame (defaultService, tenantService);
+		assertSame (tenantService, service.getDocumentService("tenant1"));
+		assertNotSame (tenantService, service.getDocumentService("tenant2"));
+		
+		Mockito.verify(mockRepositoryFactory, Mockito.times(1)).getRepository("tenant1");
+	}
+	
+	/**
+	 * Test the services of a collection which does not exist are created only to write
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetServices_NotExisting () throws Exception {
+		
+		try {
+			service.getDocumentService("tenant1", false);
+			fail ("Collection shall not be found");
+		} catch (CollectionNotFoundException e) {
+			// expected
+		}
+		
+		try {
+			service.getIndexService("tenant1", false);
+			fail ("Collection shall not be found");
+		} catch (CollectionNotFoundException e) {
+			// expected
+		}
+		
+		Mockito.verify(mockRepositoryFactory, Mockito.never()).getRepository(Mockito.anyString());
+		
+		Mockito.when(mockRepositoryFactory.collectionExists("tenant2")).thenReturn(true);
+		DocumentService tenantService = service.getDocumentService("tenant2", false);
+		
+		// Created to write, and then found without checking the database
+		assertSame (service.getDocumentService("tenant1", true), service.getDocumentService("tenant1", false));
+		assertSame (tenantService, service.getDocumentService("tenant2", false));
+		assertSame (defaultService, service.getDocumentService("entries", false));
+		
+		Mockito.verify(mockRepositoryFactory, Mockito.times(1)).collectionExists("tenant2");
+	}
+	
+	/**
+	 * Test the services of a collection not used for the idle time are closed 
+	 * when those of another collection are created, and created again on the next use
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCloseIdleCollections () throws Exception {
+		
+		service = new DocumentCollectionService (mockRepositoryFactory, 
+				new MockEnvironment ().withProperty("docservice.collections.idle-seconds", "1"), 
+				new DocumentConsistency (), defaultService, defaultIndexService, new NoDocumentCache ());
+		
+		DocumentService tenantService = service.getDocumentService("tenant1");
+		
+		Thread.sleep(1100);
+		service.getDocumentService("tenant2");
+		
+		assertNotSame (tenantService, service.getDocumentService("tenant1"));
+		Mockito.verify(mockRepositoryFactory, Mockito.times(2)).getRepository("tenant1");
+		
+		// Not idle yet
+		assertSame (service.getDocumentService("tenant2"), service.getDocumentService("tenant2"));
+		Mockito.verify(mockRepositoryFactory, Mockito.times(1)).getRepository("tenant2");
+	}
+	
+	/**
+	 * Test names of collections which are not valid
+	 */
+	@Test
+	public void testGetServices_InvalidName () {
+		
+		for (String name : new String [] { "", "a.b", "$cmd", "a/b", new String (new char [65]).replace('\0', 'a'), 
+				"async", "items", "metrics", "_collections" }) {
+			try {
+				service.getDocumentService(name);
+				fail ("Collection name shall be invalid: " + name);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		Mockito.verify(mockRepositoryFactory, Mockito.never()).getRepository(Mockito.anyString());
+	}
+	
+	/**
+	 * Test dropping a collection discards its services, and dropping one not existing
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDropCollection () throws Exception {
+		
+		DocumentService tenantService = service.getDocumentService("tenant1");
+		
+		Mockito.when(mockRepositoryFactory.dropCollection("tenant1")).thenReturn(true, false);
+		
+		service.dropCollection("tenant1");
+		assertNotSame (tenantService, service.getDocumentService("tenant1"));
+		
+		try {
+			service.dropCollection("tenant1");
+			fail ("Collection shall not be found");
+		} catch (CollectionNotFoundException e) {
+			// expected
+		}
+	}
+}
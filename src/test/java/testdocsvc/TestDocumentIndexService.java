@@ -0,0 +1,151 @@
+package testdocsvc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import docservice.DocumentIndexService;
+import docservice.IndexBuild;
+import docservice.IndexNotFoundException;
+import repository.DocRepository;
+import repository.DocumentIndex;
+import repository.IndexBuildProgress;
+
+/**
+ * Unit test of building indexes in the background by {@link DocumentIndexService}, with mock repository.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestDocumentIndexService {
+
+	@Mock 
+	private DocRepository mockDocRepository;
+	
+	/*
+	 * Helper method to wait until the build of an index is no longer running
+	 */
+	private static IndexBuild waitForBuild (DocumentIndexService service, String name) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			for (IndexBuild build : service.getIndexBuilds())
+				if (build.getName().equals(name) && build.getState() != IndexBuild.State.RUNNING)
+					return build;
+			Thread.sleep(10);
+		}
+		fail ("Build not finished: " + name);
+		return null;
+	}
+	
+	/**
+	 * Test an index is built in the background with a generated name, 
+	 * with the progress reported while running, and the state after done or failed
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreateIndex () throws Exception {
+		
+		CountDownLatch buildStarted = new CountDownLatch (1);
+		CountDownLatch buildRelease = new CountDownLatch (1);
+		
+		Mockito.doAnswer(invocation -> {
+			buildStarted.countDown();
+			buildRelease.await();
+			return null;
+		}).when(mockDocRepository).createIndex(any(DocumentIndex.class));
+		
+		Mockito.when(mockDocRepository.findIndexBuilds()).thenReturn(Collections.singletonMap(
+				"document.author.name_1_document.pages_-1", new IndexBuildProgress (5, 10)));
+		
+		DocumentIndexService service = new DocumentIndexService (mockDocRepository);
+		
+		DocumentIndex index = new DocumentIndex ();
+		index.setFields(Arrays.asList("author.name", "-pages"));
+		
+		String name = service.createIndex(index);
+		assertEquals ("document.author.name_1_document.pages_-1", name);
+		
+		assertTrue (buildStarted.await(1, TimeUnit.SECONDS));
+		
+		List <IndexBuild> builds = service.getIndexBuilds();
+		assertEquals (1, builds.size());
+		assertEquals (IndexBuild.State.RUNNING, builds.get(0).getState());
+		assertEquals (5, builds.get(0).getDone());
+		assertEquals (10, builds.get(0).getTotal());
+		
+		// The same index can not be built twice at the same time
+		try {
+			service.createIndex(index);
+			fail ("Index shall be being built");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		buildRelease.countDown();
+		assertEquals (IndexBuild.State.DONE, waitForBuild (service, name).getState());
+		
+		// A failed build
+		Mockito.doThrow(new IllegalArgumentException ("duplicate key")).when(mockDocRepository)
+			.createIndex(any(DocumentIndex.class));
+		
+		service.createIndex(index);
+		IndexBuild failed = waitForBuild (service, name);
+		assertEquals (IndexBuild.State.FAILED, failed.getState());
+		assertEquals ("duplicate key", failed.getError());
+		
+		service.close();
+	}
+	
+	/**
+	 * Test indexes with invalid fields are rejected before building
+	 */
+	@Test
+	public void testCreateIndex_Invalid () {
+		
+		DocumentIndexService service = new DocumentIndexService (mockDocRepository);
+		
+		List <List <String>> invalids = Arrays.asList(
+				Collections.<String> emptyList(), Arrays.asList("a..b"), Arrays.asList("$where"));
+		
+		for (List <String> fields : invalids) {
+			DocumentIndex index = new DocumentIndex ();
+			index.setFields(fields);
+			
+			try {
+				service.createIndex(index);
+				fail ("Index shall be invalid: " + fields);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		assertTrue (service.getIndexBuilds().isEmpty());
+		
+		service.close();
+	}
+	
+	/**
+	 * Test dropping an index not existing
+	 * 
+	 * @throws Exception
+	 */
+	@Test (expected = IndexNotFoundException.class)
+	public void testDropIndex_NotFound () throws Exception {
+		
+		Mockito.when(mockDocRepository.dropIndex("unknown")).thenReturn(false);
+		
+		new DocumentIndexService (mockDocRepository).dropIndex("unknown");
+	}
+}
@@ -2,19 +2,54 @@ package testdocsvc;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mapping.model.MappingException;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.ui.ModelMap;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import docservice.AsyncDocumentService;
+import docservice.CaffeineDocumentCache;
+import docservice.DocumentCacheStats;
+import docservice.DocumentImportResult;
 import docservice.DocumentNotFoundException;
+import docservice.DocumentPage;
 import docservice.DocumentService;
 import repository.DocRepository;
+import repository.FieldProjection;
+import repository.IdRange;
 import repository.StoredDocument;
 
+import org.mockito.ArgumentMatcher;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -95,6 +130,280 @@ public class TestDocumentServiceWithMockRepo {
 
 	}
 	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentById (String) getDocumentById}
+	 * 
+	 * With the document cache enabled, and invalidated by update and delete
+	 * 
+	 * @throws DocumentNotFoundException
+	 */
+	@Test
+	public void testGetDocumentById_Cached () throws DocumentNotFoundException {
+		
+		DocumentService cachedService = new DocumentService (
+				mockDocRepository, new CaffeineDocumentCache (100, 1024 * 1024, 0));
+		
+		String id = "abcde12355";
+		
+		StoredDocument doc = new StoredDocument (createDoc("Bahh", "unknown", "good book"));
+        doc.setId(id);
+        
+		Mockito.when(mockDocRepository.findOne(id)).thenReturn(doc);
+		Mockito.when(mockDocRepository.replace(any(StoredDocument.class))).thenReturn(true);
+		Mockito.when(mockDocRepository.remove(id)).thenReturn(true);
+		
+		// Loaded from the repository once, then served from the cache
+		assertEquals (doc, cachedService.getDocumentById(id));
+		assertEquals (doc, cachedService.getDocumentById(id));
+		
+		Mockito.verify(mockDocRepository, Mockito.times(1)).findOne(id);
+		
+		DocumentCacheStats stats = cachedService.getCacheStats();
+		assertEquals (1, stats.getHitCount());
+		assertEquals (1, stats.getMissCount());
+		assertEquals (1, stats.getSize());
+		
+		// Update invalidates the cached document
+		cachedService.updateDocument(id, createDoc("Bahh", "unknown", "better book"));
+		cachedService.getDocumentById(id);
+		
+		Mockito.verify(mockDocRepository, Mockito.times(2)).findOne(id);
+		
+		// Delete invalidates the cached document, and not-found is not cached
+		cachedService.deleteDocument(id);
+		Mockito.when(mockDocRepository.findOne(id)).thenReturn(null);
+		
+		for (int i = 0; i < 2; i++) {
+			try {
+				cachedService.getDocumentById(id);
+				fail ("Deleted document shall not be found");
+			} catch (DocumentNotFoundException e) {
+				// expected
+			}
+		}
+		
+		Mockito.verify(mockDocRepository, Mockito.times(4)).findOne(id);
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentById (String) getDocumentById}
+	 *
+	 * Concurrent reads of the same document share one read from the repository,
+	 * and all get the document or all get not found
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetDocumentById_Coalesced () throws Exception {
+
+		String id = "abcde12355";
+
+		StoredDocument doc = new StoredDocument (createDoc("Bahh", "unknown", "good book"));
+		doc.setId(id);
+
+		int readers = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(readers);
+
+		try {
+			for (StoredDocument found : new StoredDocument [] { doc, null }) {
+
+				CountDownLatch arrived = new CountDownLatch (readers);
+				CountDownLatch release = new CountDownLatch (1);
+				Set <Thread> readerThreads = ConcurrentHashMap.newKeySet();
+
+				// The read is held in flight until all readers have arrived
+				Mockito.when(mockDocRepository.findOne(id)).thenAnswer(invocation -> {
+					release.await();
+					return found;
+				});
+
+				List <Future <StoredDocument>> results = new ArrayList <Future <StoredDocument>> ();
+				for (int i = 0; i < readers; i++)
+					results.add(executor.submit(() -> {
+						readerThreads.add(Thread.currentThread());
+						arrived.countDown();
+						return service.getDocumentById(id);
+					}));
+
+				assertTrue (arrived.await(5, TimeUnit.SECONDS));
+				
+				// Each reader waits either in the read in flight or for it
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				for (Thread reader : readerThreads) {
+					while (reader.getState() != Thread.State.WAITING) {
+						assertTrue ("Reader shall wait for the read in flight", System.nanoTime() < deadline);
+						Thread.yield();
+					}
+				}
+				release.countDown();
+
+				for (Future <StoredDocument> result : results) {
+					try {
+						assertSame (found, result.get(5, TimeUnit.SECONDS));
+					} catch (ExecutionException e) {
+						assertNull (found);
+						assertTrue (e.getCause() instanceof DocumentNotFoundException);
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Mockito.verify(mockDocRepository, Mockito.times(2)).findOne(id);
+	}
+
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentById (String) getDocumentById}
+	 *
+	 * A read after an update of the document does not wait for the read in flight of the old content,
+	 * but starts a new one
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetDocumentById_NotCoalescedAfterUpdate () throws Exception {
+
+		String id = "abcde12355";
+
+		StoredDocument oldDoc = new StoredDocument (createDoc("Bahh", "unknown", "good book"));
+		oldDoc.setId(id);
+		StoredDocument newDoc = new StoredDocument (createDoc("Bahh", "unknown", "better book"));
+		newDoc.setId(id);
+
+		CountDownLatch loading = new CountDownLatch (1);
+		CountDownLatch release = new CountDownLatch (1);
+
+		// The first read is held in flight, and the later ones get the new content
+		Mockito.when(mockDocRepository.findOne(id)).thenAnswer(invocation -> {
+			if (loading.getCount() == 0)
+				return newDoc;
+			loading.countDown();
+			release.await();
+			return oldDoc;
+		});
+		Mockito.when(mockDocRepository.replace(any(StoredDocument.class))).thenReturn(true);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future <StoredDocument> oldRead = executor.submit(() -> service.getDocumentById(id));
+			assertTrue (loading.await(5, TimeUnit.SECONDS));
+
+			service.updateDocument(id, createDoc("Bahh", "unknown", "better book"));
+
+			assertSame (newDoc, service.getDocumentById(id));
+
+			release.countDown();
+			assertSame (oldDoc, oldRead.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Mockito.verify(mockDocRepository, Mockito.times(2)).findOne(id);
+	}
+
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentById (String, FieldProjection) getDocumentById}
+	 * 
+	 * The projected document is read from the repository, without going through the document cache
+	 * 
+	 * @throws DocumentNotFoundException
+	 */
+	@Test
+	public void testGetDocumentById_Projected () throws DocumentNotFoundException {
+		
+		DocumentService cachedService = new DocumentService (
+				mockDocRepository, new CaffeineDocumentCache (100, 1024 * 1024, 0));
+		
+		String id = "abcde12355";
+		FieldProjection fields = FieldProjection.parse("author.name");
+		
+		StoredDocument doc = new StoredDocument (new ModelMap ("author", new ModelMap ("name", "Bahh")));
+        doc.setId(id);
+        
+		Mockito.when(mockDocRepository.findOneProjected(id, fields)).thenReturn(doc);
+		
+		assertEquals (doc, cachedService.getDocumentById(id, fields));
+		assertEquals (doc, cachedService.getDocumentById(id, fields));
+		
+		Mockito.verify(mockDocRepository, Mockito.times(2)).findOneProjected(id, fields);
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(id);
+		assertEquals (0, cachedService.getCacheStats().getSize());
+		
+		// Not found
+		Mockito.when(mockDocRepository.findOneProjected(id, fields)).thenReturn(null);
+		
+		try {
+			cachedService.getDocumentById(id, fields);
+			fail ("Document shall not be found");
+		} catch (DocumentNotFoundException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getAllDocuments(FieldProjection) getAllDocuments}
+	 */
+	@Test
+	public void testGetAllDocuments_Projected() {
+		List<StoredDocument> listDocs = new ArrayList <StoredDocument> ();
+		
+		listDocs.add (new StoredDocument (new ModelMap ("content", "c")));
+		listDocs.add (new StoredDocument (new ModelMap ("content", "f")));
+		
+		FieldProjection fields = FieldProjection.parse("-author");
+		
+		Mockito.when(mockDocRepository.findAllProjected(fields)).thenReturn(listDocs);
+		
+		assertEquals (listDocs, service.getAllDocuments(fields));
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentVersion (String) getDocumentVersion}
+	 * 
+	 * The version is taken from the cache if cached, otherwise read from the repository without the document
+	 * 
+	 * @throws DocumentNotFoundException
+	 */
+	@Test
+	public void testGetDocumentVersion () throws DocumentNotFoundException {
+		
+		DocumentService cachedService = new DocumentService (
+				mockDocRepository, new CaffeineDocumentCache (100, 1024 * 1024, 0));
+		
+		String id = "abcde12355";
+		
+		StoredDocument version = new StoredDocument ();
+		version.setId(id);
+		version.setVersion("v1");
+		
+		Mockito.when(mockDocRepository.findVersion(id)).thenReturn(version);
+		
+		assertEquals ("v1", cachedService.getDocumentVersion(id));
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(id);
+		
+		// Cached after the document is read
+		StoredDocument doc = new StoredDocument (createDoc("Bahh", "unknown", "good book"));
+		doc.setId(id);
+		doc.setVersion("v2");
+		
+		Mockito.when(mockDocRepository.findOne(id)).thenReturn(doc);
+		cachedService.getDocumentById(id);
+		
+		assertEquals ("v2", cachedService.getDocumentVersion(id));
+		Mockito.verify(mockDocRepository, Mockito.times(1)).findVersion(id);
+		
+		// Not found
+		Mockito.when(mockDocRepository.findVersion("1234")).thenReturn(null);
+		
+		try {
+			cachedService.getDocumentVersion("1234");
+			fail ("Document shall not be found");
+		} catch (DocumentNotFoundException e) {
+			// expected
+		}
+	}
+	
 	/**
 	 * Test method of {@link docservice.DocumentService#getAllDocuments() getAllDocuments}
 	 */
@@ -127,6 +436,76 @@ public class TestDocumentServiceWithMockRepo {
 		assertNull (listDocsRetrieved);	
 	}
 	
+	/**
+	 * Test method of {@link docservice.DocumentService#streamAllDocuments() streamAllDocuments}
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testStreamAllDocuments() {
+		
+		CloseableIterator <StoredDocument> iter = Mockito.mock(CloseableIterator.class);
+		
+		Mockito.when(mockDocRepository.streamAll()).thenReturn(iter);
+		
+		// The cursor from the repository is handed over as is, without being consumed
+		assertSame (iter, service.streamAllDocuments());
+		
+		Mockito.verify(iter, Mockito.never()).next();
+		Mockito.verify(mockDocRepository, Mockito.never()).findAll();
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentsPage(String, int) getDocumentsPage}
+	 */
+	@Test
+	public void testGetDocumentsPage() {
+		List<StoredDocument> listDocs = new ArrayList <StoredDocument> ();
+		
+		for (String id : new String[] {"a1", "a2", "a3"}) {
+			StoredDocument doc = new StoredDocument (createDoc (id,"b","c"));
+			doc.setId(id);
+			listDocs.add (doc);
+		}
+		
+		// First page, with one more document available than the limit
+		Mockito.when(mockDocRepository.findAfter(null, 3)).thenReturn(listDocs);
+		
+		DocumentPage page = service.getDocumentsPage(null, 2);
+		
+		assertEquals (2, page.getDocuments().size());
+		assertEquals ("a2", page.getDocuments().get(1).getId());
+		assertNotNull (page.getNext());
+		
+		// Second (last) page, located after the last id of the first page
+		Mockito.when(mockDocRepository.findAfter("a2", 3)).thenReturn(listDocs.subList(2, 3));
+		
+		page = service.getDocumentsPage(page.getNext(), 2);
+		
+		assertEquals (1, page.getDocuments().size());
+		assertEquals ("a3", page.getDocuments().get(0).getId());
+		assertNull (page.getNext());
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentsPage(String, int) getDocumentsPage}
+	 * 
+	 * With IllegalArgumentException thrown if the limit is out of range
+	 */
+	@Test (expected = IllegalArgumentException.class)
+	public void testGetDocumentsPage_InvalidLimit() {
+		service.getDocumentsPage(null, 0);
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#getDocumentsPage(String, int) getDocumentsPage}
+	 * 
+	 * With IllegalArgumentException thrown if the token is not valid
+	 */
+	@Test (expected = IllegalArgumentException.class)
+	public void testGetDocumentsPage_InvalidToken() {
+		service.getDocumentsPage("not a token!", 10);
+	}
+	
 	/**
 	 * Test method of {@link docservice.DocumentService#insertDocument() insertDocument}
 	 */
@@ -143,10 +522,227 @@ public class TestDocumentServiceWithMockRepo {
 		
 		assertEquals ("abcde", id);
 		
+		// Inserted with a new version
+		Mockito.verify(mockDocRepository).insert(argThat(new ArgumentMatcher <StoredDocument> () {
+			@Override
+			public boolean matches (Object o) {
+				return ((StoredDocument) o).getVersion() != null;
+			}
+		}));
+		
 		// Test insert with null document
 		assertNull (service.insertDocument(null));
 	}
 	
+	/**
+	 * Test method of {@link docservice.DocumentService#insertDocuments(List, boolean) insertDocuments}
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testInsertDocuments() {
+		
+		Mockito.when (mockDocRepository.insertBatch( anyList(), eq(false)))
+		       .thenAnswer (invocation -> {
+		    	   List <StoredDocument> docs = (List <StoredDocument>) invocation.getArguments()[0];
+		    	   for (int i = 0; i < docs.size(); i++)
+		    		   docs.get(i).setId("id" + i);
+		    	   return docs;
+		       });
+		
+		List <String> ids = service.insertDocuments(
+				Arrays.asList(createDoc ("a","b","c"), createDoc ("d","e","f")), false);
+		
+		assertEquals (Arrays.asList("id0", "id1"), ids);
+		
+		// Only one batch write to the repository
+		Mockito.verify(mockDocRepository, Mockito.times(1)).insertBatch(anyList(), eq(false));
+		Mockito.verify(mockDocRepository, Mockito.never()).insert(any(StoredDocument.class));
+		
+		// Test insert with null and empty list
+		assertNull (service.insertDocuments(null));
+		assertTrue (service.insertDocuments(new ArrayList <ModelMap> ()).isEmpty());
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#insertDocuments(List, boolean) insertDocuments}
+	 * 
+	 * With IllegalArgumentException thrown if any document is null
+	 */
+	@Test (expected = IllegalArgumentException.class)
+	public void testInsertDocuments_NullDocument() {
+		service.insertDocuments(Arrays.asList(createDoc ("a","b","c"), null));
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#importDocuments(List) importDocuments}
+	 * 
+	 * With the documents inserted one by one after the batch write fails, 
+	 * and the documents inserted by the failed batch found by their IDs
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testImportDocuments() {
+		
+		List <ModelMap> docs = Arrays.asList(createDoc ("a","b","c"), createDoc ("d","e","f"), createDoc ("g","h","i"));
+		
+		List <DocumentImportResult> results = service.importDocuments(docs);
+		
+		assertEquals (3, results.size());
+		for (DocumentImportResult result : results) {
+			assertNotNull (result.getId());
+			assertNull (result.getError());
+		}
+		Mockito.verify(mockDocRepository, Mockito.times(1)).insertBatch(anyList(), eq(false));
+		
+		// The batch fails after inserting the first document, and the second document fails on its own
+		Mockito.doThrow(new DuplicateKeyException ("E11000"))
+			.when(mockDocRepository).insertBatch(anyList(), eq(false));
+		Mockito.when(mockDocRepository.findVersion(anyString())).thenReturn(new StoredDocument ());
+		Mockito.doThrow(new DuplicateKeyException ("E11000"))
+			.doThrow(new MappingException ("Invalid key"))
+			.doReturn(null)
+			.when(mockDocRepository).insertBatch(anyList(), eq(true));
+		
+		results = service.importDocuments(docs);
+		
+		assertNotNull (results.get(0).getId());
+		assertNull (results.get(0).getError());
+		assertNull (results.get(1).getId());
+		assertEquals ("Invalid key", results.get(1).getError());
+		assertNotNull (results.get(2).getId());
+		assertNull (results.get(2).getError());
+		
+		Mockito.verify(mockDocRepository, Mockito.times(3)).insertBatch(anyList(), eq(true));
+		
+		// Not retried one by one if the database is not reachable
+		Mockito.doThrow(new DataAccessResourceFailureException ("Timeout"))
+			.when(mockDocRepository).insertBatch(anyList(), eq(false));
+		try {
+			service.importDocuments(docs);
+			fail ("Import shall fail");
+		} catch (DataAccessResourceFailureException e) {
+			// expected
+		}
+		Mockito.verify(mockDocRepository, Mockito.times(3)).insertBatch(anyList(), eq(true));
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#importDocuments(List) importDocuments}
+	 * 
+	 * With the batch write failing on a unique index, and the document violating it
+	 * reported as failed rather than as inserted by the batch
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testImportDocuments_UniqueIndex() {
+		
+		List <ModelMap> docs = Arrays.asList(createDoc ("a","b","c"), createDoc ("d","e","f"));
+		List <String> stored = new ArrayList <String> ();
+		
+		// The batch inserts the first document, and the second one violates a unique index
+		Mockito.doAnswer(invocation -> {
+				stored.add(((List <StoredDocument>) invocation.getArguments()[0]).get(0).getId());
+				throw new DuplicateKeyException ("E11000 duplicate key on document.isbn");
+			}).when(mockDocRepository).insertBatch(anyList(), eq(false));
+		Mockito.doThrow(new DuplicateKeyException ("E11000 duplicate key"))
+			.when(mockDocRepository).insertBatch(anyList(), eq(true));
+		Mockito.when(mockDocRepository.findVersion(anyString()))
+			.thenAnswer(invocation -> stored.contains(invocation.getArguments()[0]) ? new StoredDocument () : null);
+		
+		List <DocumentImportResult> results = service.importDocuments(docs);
+		
+		assertEquals (stored.get(0), results.get(0).getId());
+		assertNull (results.get(0).getError());
+		assertNull (results.get(1).getId());
+		assertEquals ("E11000 duplicate key", results.get(1).getError());
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#exportDocuments(OutputStream, int, boolean) exportDocuments}
+	 * @throws IOException
+	 */
+	@Test
+	public void testExportDocuments() throws IOException {
+		
+		List <IdRange> ranges = Arrays.asList(new IdRange ("000000010000000000000000", "000000020000000000000000"),
+				new IdRange ("000000020000000000000000", "000000030000000000000000"), IdRange.notObjectIds());
+		Mockito.when(mockDocRepository.splitIdRanges(anyInt())).thenReturn(ranges);
+		
+		// Each range writes its documents as lines, many enough to be sent in several chunks
+		Mockito.doAnswer(invocation -> {
+			IdRange range = (IdRange) invocation.getArguments()[0];
+			OutputStream out = (OutputStream) invocation.getArguments()[1];
+			int count = range.isObjectIds() ? 20000 : 3;
+			for (int i = 0; i < count; i++)
+				out.write(("{\"id\":\"" + range.getFrom() + "-" + i + "\",\"document\":{}}\n").getBytes(StandardCharsets.UTF_8));
+			return (long) count;
+		}).when(mockDocRepository).writeRawRange(any(IdRange.class), any(OutputStream.class));
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		assertEquals (40003, service.exportDocuments(out, 2, false));
+		
+		Set <String> lines = new HashSet <String> (Arrays.asList(out.toString("UTF-8").split("\n")));
+		assertEquals (40003, lines.size());
+		assertTrue (lines.contains("{\"id\":\"000000020000000000000000-19999\",\"document\":{}}"));
+		assertTrue (lines.contains("{\"id\":\"null-2\",\"document\":{}}"));
+		
+		// Compressed, the concatenated gzip members decompress to the same lines
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream ();
+		assertEquals (40003, service.exportDocuments(compressed, 3, true));
+		
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream ();
+		try (InputStream in = new GZIPInputStream (new ByteArrayInputStream (compressed.toByteArray()))) {
+			byte [] buffer = new byte [8192];
+			for (int n; (n = in.read(buffer)) > 0; )
+				decompressed.write(buffer, 0, n);
+		}
+		assertEquals (lines, new HashSet <String> (Arrays.asList(decompressed.toString("UTF-8").split("\n"))));
+		
+		// A range which fails fails the export
+		Mockito.doThrow(new DataAccessResourceFailureException ("Timeout"))
+			.when(mockDocRepository).writeRawRange(Mockito.argThat(new ArgumentMatcher <IdRange> () {
+				@Override
+				public boolean matches (Object range) { return !((IdRange) range).isObjectIds(); }
+			}), any(OutputStream.class));
+		try {
+			service.exportDocuments(new ByteArrayOutputStream (), 2, false);
+			fail ("Export shall fail");
+		} catch (DataAccessResourceFailureException e) {
+			// expected
+		}
+		
+		try {
+			service.exportDocuments(new ByteArrayOutputStream (), 0, false);
+			fail ("Export shall fail");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#exportDocuments(OutputStream, int, boolean) exportDocuments}
+	 * 
+	 * With no documents, compressed to a valid gzip stream of nothing
+	 * @throws IOException
+	 */
+	@Test
+	public void testExportDocuments_Empty() throws IOException {
+		
+		Mockito.when(mockDocRepository.splitIdRanges(anyInt())).thenReturn(Arrays.asList(IdRange.notObjectIds()));
+		Mockito.when(mockDocRepository.writeRawRange(any(IdRange.class), any(OutputStream.class))).thenReturn(0L);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		assertEquals (0, service.exportDocuments(out, 2, false));
+		assertEquals (0, out.size());
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream ();
+		assertEquals (0, service.exportDocuments(compressed, 2, true));
+		
+		try (InputStream in = new GZIPInputStream (new ByteArrayInputStream (compressed.toByteArray()))) {
+			assertEquals (-1, in.read());
+		}
+	}
+	
 	/**
 	 * Test method of {@link docservice.DocumentService#updateDocument() updateDocument}
 	 * @throws DocumentNotFoundException
@@ -156,20 +752,25 @@ public class TestDocumentServiceWithMockRepo {
 		
 		/* update if document present */
 		String id = "abcde";
-		StoredDocument docRet = new StoredDocument (createDoc ("a","b","c"));
-		docRet.setId(id);
 		
 		StoredDocument docNew = new StoredDocument (createDoc ("d", "e", "ef"));
 		docNew.setId(id);
 		
-		Mockito.when (mockDocRepository.findOne(id))
-	       .thenReturn (docRet);
-		
-		Mockito.when (mockDocRepository.save( any(StoredDocument.class)))
-	       .thenReturn (docNew);
+		Mockito.when (mockDocRepository.replace( any(StoredDocument.class)))
+	       .thenReturn (true);
 		
 		service.updateDocument(id, docNew.getDocument());
 		
+		// Replaced with one conditional write, without reading the document first
+		Mockito.verify(mockDocRepository).replace(argThat(new ArgumentMatcher <StoredDocument> () {
+			@Override
+			public boolean matches (Object o) {
+				StoredDocument doc = (StoredDocument) o;
+				return id.equals(doc.getId()) && docNew.getDocument().equals(doc.getDocument())
+						&& doc.getVersion() != null;
+			}
+		}));
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(id);
 	}
 	
 	/**
@@ -185,11 +786,156 @@ public class TestDocumentServiceWithMockRepo {
 		/* update if document present */
 		String id = "abcde";
 		
-		Mockito.when (mockDocRepository.findOne(id))
-	       .thenReturn (null);
+		Mockito.when (mockDocRepository.replace( any(StoredDocument.class)))
+	       .thenReturn (false);
 		
 		service.updateDocument(id, createDoc("a","b","c"));
 		
 	}
 	
+	/**
+	 * Test method of {@link docservice.DocumentService#patchDocument(String, java.util.Map) patchDocument}
+	 * 
+	 * The merge patch is flattened to the fields to set and remove, without reading the document
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPatchDocument () throws Exception {
+		
+		String id = "abcde";
+		
+		Map <String, Object> patch = new ObjectMapper ().readValue(
+				"{ \"author\" : { \"address\" : null, \"name\" : \"Bach\" }, "
+				+ "\"tags\" : [ 1, { \"x\" : null } ], \"content\" : null, \"pages\" : 3 }", 
+				new TypeReference <Map <String, Object>> () {});
+		
+		Map <String, Object> set = new HashMap <String, Object> ();
+		set.put("author.name", "Bach");
+		set.put("tags", patch.get("tags"));
+		set.put("pages", 3);
+		
+		Mockito.when (mockDocRepository.update(eq(id), eq(set), 
+				eq(Arrays.asList("author.address", "content")), anyString()))
+		       .thenReturn (true);
+		
+		service.patchDocument(id, patch);
+		
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(id);
+		
+		// Not found
+		Mockito.when (mockDocRepository.update(eq(id), anyMapOf(String.class, Object.class), 
+				anyCollectionOf(String.class), anyString()))
+		       .thenReturn (false);
+		
+		try {
+			service.patchDocument(id, patch);
+			fail ("Document shall not be found");
+		} catch (DocumentNotFoundException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#patchDocument(String, java.util.Map) patchDocument}
+	 * 
+	 * With IllegalArgumentException thrown if a field name can not be used as a path
+	 * 
+	 * @throws DocumentNotFoundException
+	 */
+	@Test (expected = IllegalArgumentException.class)
+	public void testPatchDocument_InvalidField () throws DocumentNotFoundException {
+		service.patchDocument("abcde", new ModelMap ("author", new ModelMap ("$set", 1)));
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#deleteDocument(String) deleteDocument}
+	 * @throws DocumentNotFoundException
+	 */
+	@Test
+	public void testDeleteDocument () throws DocumentNotFoundException {
+		
+		String id = "abcde";
+		
+		Mockito.when (mockDocRepository.remove(id))
+	       .thenReturn (true);
+		
+		service.deleteDocument(id);
+		
+		// Deleted with one conditional write, without reading the document first
+		Mockito.verify(mockDocRepository).remove(id);
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(id);
+	}
+	
+	/**
+	 * Test method of {@link docservice.DocumentService#deleteDocument(String) deleteDocument}
+	 * 
+	 * When the document is not present
+	 * 
+	 * @throws DocumentNotFoundException
+	 */
+	@Test (expected = DocumentNotFoundException.class)
+	public void testDeleteDocument_NotFound () throws DocumentNotFoundException {
+		
+		String id = "abcde";
+		
+		Mockito.when (mockDocRepository.remove(id))
+	       .thenReturn (false);
+		
+		service.deleteDocument(id);
+	}
+	
+	/**
+	 * Test methods of {@link docservice.AsyncDocumentService}, 
+	 * with the results and exceptions of the service completing the futures
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testAsyncDocumentService () throws Exception {
+		
+		AsyncDocumentService asyncService = new AsyncDocumentService (service, Runnable::run);
+		
+		String id = "abcde12355";
+		
+		StoredDocument doc = new StoredDocument (createDoc("Bahh", "unknown", "good book"));
+        doc.setId(id);
+        
+		Mockito.when(mockDocRepository.findOne(id)).thenReturn(doc);
+		
+		assertEquals (doc, asyncService.getDocumentById(id).get());
+		
+		// Not found, with the same exception as the synchronous service
+		Mockito.when(mockDocRepository.remove(id)).thenReturn(false);
+		
+		try {
+			asyncService.deleteDocument(id).get();
+			fail ("Deleted document shall not be found");
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause() instanceof DocumentNotFoundException);
+		}
+	}
+	
+	/**
+	 * Test methods of {@link docservice.AsyncDocumentService}, 
+	 * with the futures completed by RejectedExecutionException if the executor is full
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testAsyncDocumentService_Rejected () throws Exception {
+		
+		AsyncDocumentService asyncService = new AsyncDocumentService (service, 
+				task -> { throw new RejectedExecutionException(); });
+		
+		try {
+			asyncService.getDocumentById("abcde").get();
+			fail ("Operation shall be rejected");
+		} catch (ExecutionException e) {
+			assertTrue (e.getCause() instanceof RejectedExecutionException);
+		}
+		
+		Mockito.verify(mockDocRepository, Mockito.never()).findOne(anyString());
+	}
+	
 }
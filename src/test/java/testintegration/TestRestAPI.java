@@ -8,13 +8,21 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
@@ -29,13 +37,24 @@ import org.springframework.web.context.WebApplicationContext;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import repository.DocRepository;
 import repository.StoredDocument;
 import restapi.Application;
 import restapi.DocIDReturn;
+import restapi.WireFormatConfig;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.*;
 
 /**
@@ -103,6 +122,7 @@ public class TestRestAPI {
 	private void addDoc (String name, String address, String content) {
 		
 		StoredDocument doc = new StoredDocument (createDoc (name,address,content));
+		doc.setVersion(StoredDocument.newVersion());
 		
         preAddedDocs.add ( docRepository.save(doc));
 	}
@@ -190,6 +210,415 @@ public class TestRestAPI {
         	verifyDoc (r, i, preAddedDocs.get(i));
  	}
     
+    /**
+     * Test GET on /restAPI/items?stream=true
+     * To retrieve all documents in streaming mode
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testGetAllDocStream () throws Exception {
+		
+        ResultActions r = mockMvc.perform(get("/restAPI/items/").param("stream", "true"));
+        
+        r.andExpect(status().isOk())
+         .andExpect(content().contentTypeCompatibleWith("application/json"))
+         .andExpect(jsonPath("$", hasSize(preAddedDocs.size())));
+        
+        // Verify each document
+        for (int i = 0; i < preAddedDocs.size(); i++)
+        	verifyDoc (r, i, preAddedDocs.get(i));
+ 	}
+    
+    /**
+     * Test POST on /restAPI/items/_search
+     * To find documents with filter, sort, limit and projection
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testSearchDoc () throws Exception {
+		
+        mockMvc.perform(post("/restAPI/items/_search")
+        		.contentType(contentType)
+        		.content("{ \"filter\" : { \"author.address\" : { \"$gte\" : \"6951\" } },"
+        				+ " \"sort\" : [ \"-author.name\" ], \"limit\" : 1, \"fields\" : \"author.name\" }"))
+        	.andExpect(status().isOk())
+        	.andExpect(content().contentTypeCompatibleWith(contentType))
+        	.andExpect(jsonPath("$", hasSize(1)))
+        	.andExpect(jsonPath("$[0].id", is(preAddedDocs.get(0).getId())))
+        	.andExpect(jsonPath("$[0].document.author.name", is("Gordon")))
+        	.andExpect(jsonPath("$[0].document.content").doesNotExist());
+        
+        mockMvc.perform(post("/restAPI/items/_search")
+        		.contentType(contentType)
+        		.content("{ \"filter\" : { \"content\" : \"Another content\" } }"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(1)))
+        	.andExpect(jsonPath("$[0].id", is(preAddedDocs.get(1).getId())));
+        
+        // Unsupported operator
+        mockMvc.perform(post("/restAPI/items/_search")
+        		.contentType(contentType)
+        		.content("{ \"filter\" : { \"$where\" : \"true\" } }"))
+        	.andExpect(status().isBadRequest());
+ 	}
+    
+    /**
+     * Test CRUD on /restAPI/{collection}/items in a collection other than the default one,
+     * and dropping the collection with DELETE on /restAPI/_collections/{collection}
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testCollection () throws Exception {
+		
+    	mockMvc.perform(delete("/restAPI/_collections/testtenant"));
+    	
+    	ModelMap doc = createDoc ("Tenant", "1 tenant road", "Content of tenant");
+    	
+        MvcResult result = mockMvc.perform(post("/restAPI/testtenant/items")
+        		.contentType(contentType)
+        		.content(objectToJson (doc)))
+        	.andExpect(status().isCreated())
+        	.andReturn();
+        
+        String id = mapper.readValue(result.getResponse().getContentAsString(), DocIDReturn.class).getId();
+        
+        mockMvc.perform(get("/restAPI/testtenant/items/" + id))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.document.author.name", is("Tenant")));
+        
+        mockMvc.perform(get("/restAPI/testtenant/items"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(1)));
+        
+        // Not in the default collection
+        mockMvc.perform(get("/restAPI/items/" + id))
+        	.andExpect(status().isNotFound());
+        
+        mockMvc.perform(get("/restAPI/items"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(preAddedDocs.size())));
+        
+        mockMvc.perform(get("/restAPI/_collections"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasItem("testtenant")));
+        
+        mockMvc.perform(get("/restAPI/bad.name/items"))
+        	.andExpect(status().isBadRequest());
+        
+        // The async API, not a collection named async
+        mockMvc.perform(get("/restAPI/async/items"))
+        	.andExpect(request().asyncStarted());
+        
+        mockMvc.perform(patch("/restAPI/async/items/" + id)
+        		.contentType(contentType)
+        		.content("{ \"pages\" : 3 }"))
+        	.andExpect(request().asyncStarted());
+        
+        mockMvc.perform(post("/restAPI/async/items/_search")
+        		.contentType(contentType)
+        		.content("{}"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(post("/restAPI/async/items/_indexes")
+        		.contentType(contentType)
+        		.content("{ \"fields\" : [ \"content\" ] }"))
+        	.andExpect(status().isBadRequest());
+        
+        // Not created by reading
+        mockMvc.perform(get("/restAPI/testunknown/items"))
+        	.andExpect(status().isNotFound());
+        
+        mockMvc.perform(post("/restAPI/testunknown/items/_search")
+        		.contentType(contentType)
+        		.content("{}"))
+        	.andExpect(status().isNotFound());
+        
+        mockMvc.perform(get("/restAPI/_collections"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", not(hasItem("testunknown"))))
+        	.andExpect(jsonPath("$", not(hasItem("async"))));
+        
+        mockMvc.perform(delete("/restAPI/_collections/testtenant"))
+        	.andExpect(status().isOk());
+        
+        mockMvc.perform(get("/restAPI/testtenant/items/" + id))
+        	.andExpect(status().isNotFound());
+        
+        mockMvc.perform(delete("/restAPI/_collections/testtenant"))
+        	.andExpect(status().isNotFound());
+ 	}
+    
+    /**
+     * Test POST on /restAPI/items/_import, with documents in NDJSON 
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testImportDoc () throws Exception {
+		
+    	String ndjson = objectToJson (createDoc ("Import1", "1 import road", "Content of import"))
+    			+ "\n\n{ not json\n[ 1, 2 ]\r\n"
+    			+ objectToJson (createDoc ("Import2", "2 import road", "Content of import"));
+    	
+        MvcResult result = mockMvc.perform(post("/restAPI/items/_import")
+        		.contentType("application/x-ndjson")
+        		.content(ndjson))
+        	.andExpect(status().isOk())
+        	.andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+        	.andReturn();
+        
+        String [] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals (5, lines.length);
+        
+        Map <?, ?> line1 = mapper.readValue(lines[0], Map.class);
+        assertEquals (1, line1.get("line"));
+        
+        mockMvc.perform(get("/restAPI/items/" + line1.get("id")))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.document.author.name", is("Import1")));
+        
+        // The blank line 2 has no result
+        assertEquals (3, mapper.readValue(lines[1], Map.class).get("line"));
+        assertNotNull (mapper.readValue(lines[1], Map.class).get("error"));
+        assertEquals (4, mapper.readValue(lines[2], Map.class).get("line"));
+        assertNotNull (mapper.readValue(lines[2], Map.class).get("error"));
+        assertEquals (5, mapper.readValue(lines[3], Map.class).get("line"));
+        assertNotNull (mapper.readValue(lines[3], Map.class).get("id"));
+        
+        Map <?, ?> summary = mapper.readValue(lines[4], Map.class);
+        assertEquals (2, summary.get("inserted"));
+        assertEquals (2, summary.get("failed"));
+        
+        mockMvc.perform(get("/restAPI/items"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(preAddedDocs.size() + 2)));
+
+ 	}
+    
+    /**
+     * Test GET on /restAPI/items/_export, with all documents in NDJSON read in parallel
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testExportDoc () throws Exception {
+		
+        MvcResult result = mockMvc.perform(get("/restAPI/items/_export").param("parallelism", "3"))
+        	.andExpect(status().isOk())
+        	.andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+        	.andReturn();
+        
+        String [] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals (preAddedDocs.size(), lines.length);
+        
+        Set <Object> ids = new HashSet <Object> ();
+        for (String line : lines)
+        	ids.add(mapper.readValue(line, Map.class).get("id"));
+        for (StoredDocument doc : preAddedDocs)
+        	assertTrue (ids.contains(doc.getId()));
+        
+        // Compressed
+        result = mockMvc.perform(get("/restAPI/items/_export").param("gzip", "true"))
+        	.andExpect(status().isOk())
+        	.andExpect(header().string("Content-Encoding", "gzip"))
+        	.andReturn();
+        
+        try (BufferedReader reader = new BufferedReader (new InputStreamReader (
+        		new GZIPInputStream (new ByteArrayInputStream (result.getResponse().getContentAsByteArray())), "UTF-8"))) {
+        	assertEquals (preAddedDocs.size(), reader.lines().count());
+        }
+        
+        mockMvc.perform(get("/restAPI/items/_export").param("parallelism", "0"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(get("/restAPI/items/_export").param("parallelism", "x"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(post("/restAPI/items/_export").param("file", "backup.ndjson").param("parallelism", "x"))
+        	.andExpect(status().isBadRequest());
+        
+        // Exports to files are not enabled without docservice.export.dir
+        mockMvc.perform(post("/restAPI/items/_export").param("file", "backup.ndjson"))
+        	.andExpect(status().isBadRequest());
+ 	}
+    
+    /**
+     * Test the headers of read preference and write concern on /restAPI/items
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testConsistencyHeaders () throws Exception {
+		
+    	ModelMap doc = createDoc ("Consistency", "1 replica road", "Content of consistency");
+    	
+        MvcResult result = mockMvc.perform(post("/restAPI/items")
+        		.header("X-Write-Concern", "w1")
+        		.contentType(contentType)
+        		.content(objectToJson (doc)))
+        	.andExpect(status().isCreated())
+        	.andReturn();
+        
+        String id = mapper.readValue(result.getResponse().getContentAsString(), DocIDReturn.class).getId();
+        
+        mockMvc.perform(get("/restAPI/items/" + id).header("X-Read-Preference", "nearest"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.document.author.name", is("Consistency")));
+        
+        mockMvc.perform(get("/restAPI/items").header("X-Read-Preference", "primaryPreferred"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(preAddedDocs.size() + 1)));
+        
+        mockMvc.perform(get("/restAPI/items/" + id).header("X-Read-Preference", "anywhere"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(delete("/restAPI/items/" + id).header("X-Write-Concern", "w0"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(delete("/restAPI/items/" + id).header("X-Write-Concern", "w1"))
+        	.andExpect(status().isOk());
+        
+        mockMvc.perform(get("/restAPI/items/" + id))
+        	.andExpect(status().isNotFound());
+ 	}
+    
+    /**
+     * Test POST on /restAPI/items/_aggregate, and GET/POST on /restAPI/items/_count
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testAggregateAndCountDoc () throws Exception {
+		
+        mockMvc.perform(get("/restAPI/items/_count"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.count", is(2)));
+        
+        mockMvc.perform(get("/restAPI/items/_count").param("estimated", "true"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.count", is(2)));
+        
+        mockMvc.perform(post("/restAPI/items/_count")
+        		.contentType(contentType)
+        		.content("{ \"author.name\" : \"Gordon\" }"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.count", is(1)));
+        
+        mockMvc.perform(post("/restAPI/items/_aggregate")
+        		.contentType(contentType)
+        		.content("[ { \"$match\" : { \"author.address\" : { \"$gte\" : \"6951\" } } },"
+        				+ " { \"$group\" : { \"_id\" : \"$author.name\", \"count\" : { \"$sum\" : 1 } } },"
+        				+ " { \"$sort\" : { \"_id\" : 1 } } ]"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(2)))
+        	.andExpect(jsonPath("$[0]._id", is("Betty")))
+        	.andExpect(jsonPath("$[0].count", is(1)))
+        	.andExpect(jsonPath("$[1]._id", is("Gordon")));
+        
+        mockMvc.perform(post("/restAPI/items/_aggregate")
+        		.contentType(contentType)
+        		.content("[ { \"$count\" : \"total\" } ]"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(1)))
+        	.andExpect(jsonPath("$[0].total", is(2)));
+        
+        // Not grouped
+        mockMvc.perform(post("/restAPI/items/_aggregate")
+        		.contentType(contentType)
+        		.content("[ { \"$limit\" : 1 } ]"))
+        	.andExpect(status().isBadRequest());
+ 	}
+    
+    /**
+     * Test index administration on /restAPI/items/_indexes, and explain of queries
+     * with POST on /restAPI/items/_search?explain=true
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testIndexes () throws Exception {
+		
+        mockMvc.perform(post("/restAPI/items/_indexes")
+        		.contentType(contentType)
+        		.content("{ \"fields\" : [ \"author.name\", \"-author.address\" ] }"))
+        	.andExpect(status().isAccepted())
+        	.andExpect(jsonPath("$.name", is("document.author.name_1_document.author.address_-1")));
+        
+        // Wait for the build in the background
+        for (int i = 0; i < 100; i++) {
+        	String builds = mockMvc.perform(get("/restAPI/items/_indexes/_builds"))
+        			.andExpect(status().isOk())
+        			.andReturn().getResponse().getContentAsString();
+        	if (!builds.contains("RUNNING")) {
+        		assertThat (builds, containsString("DONE"));
+        		break;
+        	}
+        	Thread.sleep(10);
+        }
+        
+        mockMvc.perform(get("/restAPI/items/_indexes"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$[*].name", containsInAnyOrder("document.author.name_1_document.author.address_-1")))
+        	.andExpect(jsonPath("$[0].fields", containsInAnyOrder("author.name", "-author.address")));
+        
+        mockMvc.perform(post("/restAPI/items/_search")
+        		.param("explain", "true")
+        		.contentType(contentType)
+        		.content("{ \"filter\" : { \"author.name\" : \"Gordon\" } }"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.plan", notNullValue()));
+        
+        // Invalid field
+        mockMvc.perform(post("/restAPI/items/_indexes")
+        		.contentType(contentType)
+        		.content("{ \"fields\" : [ \"$where\" ] }"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(delete("/restAPI/items/_indexes/document.author.name_1_document.author.address_-1"))
+        	.andExpect(status().isOk());
+        
+        mockMvc.perform(delete("/restAPI/items/_indexes/document.author.name_1_document.author.address_-1"))
+        	.andExpect(status().isNotFound());
+ 	}
+    
+    /**
+     * Test GET on /restAPI/items?limit=n&after=token
+     * To retrieve all documents page by page
+     * 
+     * @throws Exception
+     */
+    @Test
+	public void testGetDocPages () throws Exception {
+		
+    	// First page, with the first document
+        ResultActions r = mockMvc.perform(get("/restAPI/items/").param("limit", "1"));
+        
+        r.andExpect(status().isOk())
+         .andExpect(jsonPath("$.documents", hasSize(1)))
+         .andExpect(jsonPath("$.documents[0].id", is(preAddedDocs.get(0).getId())));
+        
+        String next = mapper.readTree(r.andReturn().getResponse().getContentAsString())
+        					.get("next").asText();
+        
+        // Second page, with the second document and no more pages
+        r = mockMvc.perform(get("/restAPI/items/").param("limit", "2").param("after", next));
+        
+        r.andExpect(status().isOk())
+         .andExpect(jsonPath("$.documents", hasSize(1)))
+         .andExpect(jsonPath("$.documents[0].id", is(preAddedDocs.get(1).getId())))
+         .andExpect(jsonPath("$.next", nullValue()));
+        
+        // Invalid limit
+        mockMvc.perform(get("/restAPI/items/").param("limit", "0"))
+        	.andExpect(status().isBadRequest());
+        
+        mockMvc.perform(get("/restAPI/items/").param("limit", "abc"))
+        	.andExpect(status().isBadRequest());
+ 	}
+    
     /**
      * Test GET on /restAPI/items/{id}, to retrieve one document
      * 
@@ -223,6 +652,176 @@ public class TestRestAPI {
         
 	}
 	
+	/**
+	 * Test GET on /restAPI/items/{id} with the ETag, and If-None-Match for conditional GET
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetOneDocNotModified () throws Exception {
+		
+		StoredDocument doc = preAddedDocs.get(0);
+		
+		String etag = mockMvc.perform(get("/restAPI/items/" + doc.getId()))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", startsWith("W/\"")))
+				.andReturn().getResponse().getHeader("ETag");
+		
+		// Not modified
+		mockMvc.perform(get("/restAPI/items/" + doc.getId()).header("If-None-Match", etag))
+			.andExpect(status().isNotModified())
+			.andExpect(header().string("ETag", etag))
+			.andExpect(content().string(""));
+		
+		// Not modified, in another representation of the same version
+		mockMvc.perform(get("/restAPI/items/" + doc.getId()).header("If-None-Match", etag)
+				.accept("application/cbor"))
+			.andExpect(status().isNotModified());
+		
+		// Modified by an update, with a new ETag
+		mockMvc.perform(put("/restAPI/items/" + doc.getId())
+				.contentType(contentType)
+				.content(objectToJson(createDoc("Gordon", "6955 fielding", "New content"))))
+			.andExpect(status().isOk());
+		
+		mockMvc.perform(get("/restAPI/items/" + doc.getId()).header("If-None-Match", etag))
+			.andExpect(status().isOk())
+			.andExpect(header().string("ETag", not(etag)))
+			.andExpect(jsonPath("$.document.content", is("New content")));
+		
+		// Not found
+		String fakeId = doc.getId().substring(0, doc.getId().length()-1);
+		
+		mockMvc.perform(get("/restAPI/items/" + fakeId).header("If-None-Match", etag))
+			.andExpect(status().isNotFound());
+	}
+	
+	/**
+	 * Test GET on /restAPI/items/{id}?fields=paths and /restAPI/items?fields=paths, 
+	 * to retrieve only part of the documents
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetDocProjected () throws Exception {
+		
+		StoredDocument doc = preAddedDocs.get(0);
+		
+		// Included fields only
+        mockMvc.perform(get("/restAPI/items/" + doc.getId()).param("fields", "author.name"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$.id", is(doc.getId())))
+        	.andExpect(jsonPath("$.document.author.name", is("Gordon")))
+        	.andExpect(jsonPath("$.document.author.address").doesNotExist())
+        	.andExpect(jsonPath("$.document.content").doesNotExist());
+        
+        // All fields except the excluded ones
+        mockMvc.perform(get("/restAPI/items/").param("fields", "-content,-author.address"))
+        	.andExpect(status().isOk())
+        	.andExpect(jsonPath("$", hasSize(preAddedDocs.size())))
+        	.andExpect(jsonPath("$[*].document.author.name", containsInAnyOrder("Gordon", "Betty")))
+        	.andExpect(jsonPath("$[*].document.author.address", hasSize(0)))
+        	.andExpect(jsonPath("$[*].document.content", hasSize(0)));
+        
+        // Mixed included and excluded fields
+        mockMvc.perform(get("/restAPI/items/" + doc.getId()).param("fields", "content,-author"))
+        	.andExpect(status().isBadRequest());
+	}
+	
+	/**
+	 * Test GET on /restAPI/async/items/{id}, to retrieve one document asynchronously
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetOneDocAsync () throws Exception {
+		
+		StoredDocument doc = preAddedDocs.get(0);
+		
+		MvcResult result = mockMvc.perform(get("/restAPI/async/items/" + doc.getId()))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+        
+        verifyDoc (mockMvc.perform(asyncDispatch(result)), -1, doc);
+        
+        // Not found
+        String fakeId = doc.getId().substring(0, doc.getId().length()-1);
+        
+		result = mockMvc.perform(get("/restAPI/async/items/" + fakeId))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		mockMvc.perform(asyncDispatch(result))
+			.andExpect(status().isNotFound());
+	}
+	
+	/**
+	 * Test GET on /restAPI/async/items, to retrieve all documents asynchronously
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetAllDocAsync () throws Exception {
+		
+		MvcResult result = mockMvc.perform(get("/restAPI/async/items"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		ResultActions r = mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(preAddedDocs.size())));
+		
+        for (int i = 0; i < preAddedDocs.size(); i++)
+        	verifyDoc (r, i, preAddedDocs.get(i));
+	}
+	
+	/**
+	 * Test PATCH to /restAPI/async/items/{id}, to update part of a document asynchronously
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPatchDocAsync () throws Exception {
+		
+		String id = preAddedDocs.get(0).getId();
+		
+		MvcResult result = mockMvc.perform(patch("/restAPI/async/items/" + id)
+							.contentType("application/merge-patch+json")
+							.content("{ \"pages\" : 3 }"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		mockMvc.perform(asyncDispatch(result))
+			.andExpect(status().isOk());
+		
+        assertEquals (3, docRepository.findOne(id).getDocument().get("pages"));
+        
+        // Not found
+		result = mockMvc.perform(patch("/restAPI/async/items/" + id.substring(0, id.length()-1))
+							.contentType(contentType)
+							.content("{ \"pages\" : 3 }"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		mockMvc.perform(asyncDispatch(result))
+			.andExpect(status().isNotFound());
+	}
+	
+	/**
+	 * Test GET on /restAPI/metrics, with the repository operations done in setup recorded
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetMetrics () throws Exception {
+		
+        mockMvc.perform(get("/restAPI/metrics"))
+        	.andExpect(status().isOk())
+        	.andExpect(content().contentTypeCompatibleWith("text/plain"))
+        	.andExpect(content().string(containsString(
+        			"repository_operation_seconds_count{operation=\"save\"}")));
+	}
+	
 	/**
 	 * Test GET on /restAPI/items/{id}, but the document is not found
 	 * @throws Exception
@@ -293,6 +892,128 @@ public class TestRestAPI {
 		testAddOneNewDoc (false); // isPost = false
 	}
 	
+	/**
+	 * Test POST on /restAPI/items in Smile, and GET on /restAPI/items/{id} and /restAPI/items in CBOR
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPostAndGetBinaryDoc () throws Exception {
+		
+		ObjectMapper smileMapper = new ObjectMapper (new SmileFactory ());
+		ObjectMapper cborMapper = new ObjectMapper (new CBORFactory ());
+		
+		ModelMap newDoc = createDoc("Bach", "unknonwn", "Wonderful");
+		
+		MvcResult result = mockMvc.perform(post("/restAPI/items/")
+				.contentType(WireFormatConfig.SMILE)
+				.accept(WireFormatConfig.SMILE)
+				.content(smileMapper.writeValueAsBytes(newDoc)))
+			.andExpect(status().isCreated())
+			.andExpect(content().contentTypeCompatibleWith(WireFormatConfig.SMILE))
+			.andReturn();
+		
+		DocIDReturn idRet = smileMapper.readValue(
+				result.getResponse().getContentAsByteArray(), DocIDReturn.class);
+		
+		result = mockMvc.perform(get("/restAPI/items/" + idRet.getId()).accept(WireFormatConfig.CBOR))
+			.andExpect(status().isOk())
+			.andExpect(content().contentTypeCompatibleWith(WireFormatConfig.CBOR))
+			.andReturn();
+		
+		StoredDocument doc = cborMapper.readValue(
+				result.getResponse().getContentAsByteArray(), StoredDocument.class);
+		
+		assertEquals (idRet.getId(), doc.getId());
+		assertEquals (newDoc, doc.getDocument());
+		
+		result = mockMvc.perform(get("/restAPI/items/").accept(WireFormatConfig.CBOR))
+			.andExpect(status().isOk())
+			.andExpect(content().contentTypeCompatibleWith(WireFormatConfig.CBOR))
+			.andReturn();
+		
+		assertEquals (3, cborMapper.readValue(
+				result.getResponse().getContentAsByteArray(), List.class).size());
+		
+		// JSON is still the default
+		mockMvc.perform(get("/restAPI/items/" + idRet.getId()))
+			.andExpect(content().contentTypeCompatibleWith(contentType));
+	}
+	
+	/**
+	 * Test POST on /restAPI/items?raw=true to add a document, and GET on /restAPI/items/{id}?raw=true
+	 * to retrieve it, both converted directly between JSON and BSON
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPostAndGetRawDoc () throws Exception {
+		ModelMap newDoc = createDoc("Bach", "unknonwn", "Wonderful");
+		
+		MvcResult result = mockMvc.perform(post ("/restAPI/items/").param("raw", "true")
+												.contentType (contentType)
+												.content(objectToJson(newDoc)))
+								  .andExpect(status().isCreated() )
+								  .andReturn();
+		
+		DocIDReturn idRet = mapper.readValue(
+				result.getResponse().getContentAsString(), DocIDReturn.class);
+		
+        assertEquals (3, docRepository.count());
+        
+        // The raw document can be read through the repository as well
+        StoredDocument retrievedDoc = docRepository.findOne(idRet.getId());
+        assertEquals (newDoc, retrievedDoc.getDocument());
+        
+        // And retrieved in raw mode as the same as in normal mode
+        verifyDoc (mockMvc.perform(get("/restAPI/items/" + idRet.getId()).param("raw", "true")),
+        		-1, retrievedDoc);
+        
+        // Documents stored in normal mode can be retrieved in raw mode
+        verifyDoc (mockMvc.perform(get("/restAPI/items/" + preAddedDocs.get(0).getId())
+        							.param("raw", "true")),
+        		-1, preAddedDocs.get(0));
+        
+        // Invalid body
+        mockMvc.perform(post ("/restAPI/items/").param("raw", "true")
+        						.contentType (contentType)
+        						.content("{ \"a\" : "))
+        		.andExpect(status().isBadRequest());
+	}
+	
+	/**
+	 * Test POST on /restAPI/items/_bulk, to add a list of documents
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPostBulkNewDocs () throws Exception {
+		
+		List <ModelMap> newDocs = new ArrayList <ModelMap> ();
+		newDocs.add (createDoc("Bach", "unknonwn", "Wonderful"));
+		newDocs.add (createDoc("Mozart", "Salzburg", "Amazing"));
+		newDocs.add (createDoc("Haydn", "Vienna", "Fine"));
+		
+		MvcResult result = mockMvc.perform(post ("/restAPI/items/_bulk")
+												.contentType (contentType)
+												.content(objectToJson(newDocs)))
+								  .andExpect(status().isCreated() )
+								  .andReturn();
+		
+		// Get the document IDs returned
+		DocIDReturn[] idRets = mapper.readValue(
+				result.getResponse().getContentAsString(), DocIDReturn[].class);
+		
+		assertEquals (newDocs.size(), idRets.length);
+		
+		// Now in the database there shall be 5 documents
+        assertEquals (5, docRepository.count());
+        
+        // IDs are returned in the same order as the documents
+        for (int i = 0; i < idRets.length; i++)
+        	assertEquals (newDocs.get(i), docRepository.findOne(idRets[i].getId()).getDocument());
+	}
+	
 	/*
 	 * Test POST or PUT on /restAPI/items, but with an invalid body
 	 */
@@ -500,6 +1221,42 @@ public class TestRestAPI {
 		testUpdateDocNotValid (false); // isPost = false
 	}
 
+	/**
+	 * Test PATCH to /restAPI/items/{id} with a JSON Merge Patch, to update part of a document
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPatchDoc () throws Exception {
+		
+		String id = this.preAddedDocs.get(0).getId();
+		
+		this.mockMvc.perform(patch("/restAPI/items/" + id)
+							.contentType("application/merge-patch+json")
+							.content("{ \"author\" : { \"address\" : null }, \"pages\" : 3 }"))
+							.andExpect(status().isOk());
+		
+		ModelMap expectedDoc = createDoc("Gordon", null, "Here is the content");
+		((ModelMap) expectedDoc.get("author")).remove("address");
+		expectedDoc.addAttribute("pages", 3);
+		
+        assertEquals (expectedDoc, docRepository.findOne(id).getDocument());
+        
+        // Not found
+		String fakeId = id.substring(0, id.length()-1);
+		
+		this.mockMvc.perform(patch("/restAPI/items/" + fakeId)
+							.contentType(contentType)
+							.content("{ \"pages\" : 3 }"))
+							.andExpect(status().isNotFound());
+		
+		// Not valid field name
+		this.mockMvc.perform(patch("/restAPI/items/" + id)
+							.contentType(contentType)
+							.content("{ \"a.b\" : 3 }"))
+							.andExpect(status().isBadRequest());
+	}
+	
 	/**
 	 * Test DELETE to /restAPI/items/{id}, to delete a document
 	 * 
@@ -0,0 +1,94 @@
+package testmetrics;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+
+import metrics.HistogramMetric;
+import metrics.MetricsRegistry;
+
+/**
+ * Unit test of {@link MetricsRegistry}, and its output in Prometheus text format
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestMetricsRegistry {
+
+	private MetricsRegistry metrics = new MetricsRegistry ();
+	
+	private String writePrometheus () throws IOException {
+		StringWriter out = new StringWriter ();
+		metrics.writePrometheus(out);
+		return out.toString();
+	}
+	
+	/**
+	 * Test counters, with the same name and labels counted together
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCounter () throws IOException {
+		
+		metrics.counter("errors_total", "Errors", "exception", "A").increment();
+		metrics.counter("errors_total", "Errors", "exception", "A").increment();
+		metrics.counter("errors_total", "Errors", "exception", "B\"").increment();
+		
+		String output = writePrometheus ();
+		
+		assertTrue (output.contains("# TYPE errors_total counter\n"));
+		assertTrue (output.contains("errors_total{exception=\"A\"} 2.0\n"));
+		assertTrue (output.contains("errors_total{exception=\"B\\\"\"} 1.0\n"));
+	}
+	
+	/**
+	 * Test counters looked up by labels in an array, which the caller changes afterwards
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCounter_LabelArray () throws IOException {
+		
+		String[] labels = {"op", "get"};
+		
+		LongAdder counter = metrics.counter("requests_total", "Requests", labels);
+		labels[1] = "put";
+		
+		assertNotSame (counter, metrics.counter("requests_total", "Requests", labels));
+		assertSame (counter, metrics.counter("requests_total", "Requests", "op", "get"));
+		
+		counter.increment();
+		
+		assertTrue (writePrometheus ().contains("requests_total{op=\"get\"} 1.0\n"));
+	}
+	
+	/**
+	 * Test histograms, exported as summaries with quantiles and maximum
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testHistogram () throws IOException {
+		
+		HistogramMetric histogram = metrics.histogram("latency_seconds", "Latency", 1e-3, "op", "get");
+		
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i);
+		
+		assertEquals (1000, histogram.snapshot().getTotalCount());
+		assertEquals (500, histogram.snapshot().getValueAtPercentile(50), 1);
+		
+		String output = writePrometheus ();
+		
+		assertTrue (output.contains("# TYPE latency_seconds summary\n"));
+		assertTrue (output.contains("latency_seconds{op=\"get\",quantile=\"0.5\"} 0.5"));
+		assertTrue (output.contains("latency_seconds_count{op=\"get\"} 1000.0\n"));
+		assertTrue (output.contains("# TYPE latency_seconds_max gauge\n"));
+		assertTrue (output.contains("latency_seconds_max{op=\"get\"} 1.0"));
+	}
+}
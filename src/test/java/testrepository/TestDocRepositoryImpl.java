@@ -0,0 +1,475 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.InsertOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+import com.mongodb.util.JSON;
+
+import repository.DocRepositoryImpl;
+import repository.DocumentConsistency;
+import repository.DocumentIndex;
+import repository.DocumentQuery;
+import repository.IdRange;
+import repository.StoredDocument;
+
+/**
+ * Unit test of the queries built by {@link DocRepositoryImpl}, with mock {@link MongoOperations}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestDocRepositoryImpl {
+
+	@Mock
+	private MongoOperations mockMongoOps;
+	
+	@Mock
+	private DBCollection mockCollection;
+	
+	private ObjectMapper mapper = new ObjectMapper ();
+	
+	/**
+	 * Run the callbacks on the collection with the mock collection
+	 */
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setUp () {
+		Mockito.when(mockMongoOps.getCollectionName(StoredDocument.class)).thenReturn("entries");
+		Mockito.when(mockMongoOps.execute(eq("entries"), any(CollectionCallback.class))).thenAnswer(
+				invocation -> ((CollectionCallback <?>) invocation.getArguments()[1]).doInCollection(mockCollection));
+	}
+	
+	/*
+	 * Helper method to create a filter from JSON
+	 */
+	private Map <String, Object> toFilter (String json) throws IOException {
+		return mapper.readValue(json, new TypeReference <Map <String, Object>> () {});
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#search(DocumentQuery) search},
+	 * with filter, sort, limit and projection translated to the Mongodb query
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSearch () throws IOException {
+		
+		DocumentQuery query = new DocumentQuery ();
+		query.setFilter(toFilter ("{ \"author.name\" : \"Gordon\", \"pages\" : { \"$gte\" : 100 },"
+				+ " \"$or\" : [ { \"tags\" : { \"$in\" : [ \"a\" ] } }, { \"draft\" : { \"$exists\" : false } } ] }"));
+		query.setSort(Arrays.asList("-pages", "author.name"));
+		query.setLimit(10);
+		query.setFields("author,content");
+		
+		DBCursor mockCursor = Mockito.mock(DBCursor.class);
+		Mockito.when(mockCollection.find(any(DBObject.class), any(DBObject.class))).thenReturn(mockCursor);
+		Mockito.when(mockCursor.limit(anyInt())).thenReturn(mockCursor);
+		Mockito.when(mockCursor.setReadPreference(any(ReadPreference.class))).thenReturn(mockCursor);
+		
+		new DocRepositoryImpl (mockMongoOps).search(query);
+		
+		Mockito.verify(mockCollection).find(
+				(DBObject) JSON.parse("{ \"document.author.name\" : \"Gordon\", \"document.pages\" : { \"$gte\" : 100 },"
+						+ " \"$or\" : [ { \"document.tags\" : { \"$in\" : [ \"a\" ] } }, "
+						+ "{ \"document.draft\" : { \"$exists\" : false } } ] }"), 
+				new BasicDBObject ("document.author", 1).append("document.content", 1).append("version", 1));
+		Mockito.verify(mockCursor).sort(new BasicDBObject ("document.pages", -1).append("document.author.name", 1));
+		Mockito.verify(mockCursor).limit(10);
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#search(DocumentQuery) search},
+	 * with IllegalArgumentException thrown for queries which are not valid or not supported
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSearch_Invalid () throws IOException {
+		
+		String [] invalids = { 
+				"{ \"$where\" : \"sleep(1000)\" }", 
+				"{ \"content\" : { \"$regex\" : \"a*\" } }",
+				"{ \"a.$.b\" : 1 }",
+				"{ \"$or\" : { \"a\" : 1 } }",
+				"{ \"$and\" : [] }",
+				"{ \"a\" : { \"$in\" : 1 } }",
+				"{ \"a\" : { \"$exists\" : 1 } }",
+				"{ \"$or\" : [ { \"a\" : { \"$gt\" : 1, \"$where\" : \"x\" } } ] }" };
+		
+		for (String invalid : invalids) {
+			DocumentQuery query = new DocumentQuery ();
+			query.setFilter(toFilter (invalid));
+			
+			try {
+				new DocRepositoryImpl (mockMongoOps).search(query);
+				fail ("Query shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		DocumentQuery query = new DocumentQuery ();
+		query.setSort(Arrays.asList("-$natural"));
+		
+		try {
+			new DocRepositoryImpl (mockMongoOps).search(query);
+			fail ("Sort shall be invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		Mockito.verify(mockCollection, Mockito.never()).find(any(DBObject.class), any(DBObject.class));
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#createIndex(DocumentIndex) createIndex},
+	 * with the fields and options translated to a background index on the raw documents
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateIndex () throws IOException {
+		
+		DocumentIndex index = new DocumentIndex ();
+		index.setName("by_author");
+		index.setFields(Arrays.asList("author.name", "-pages"));
+		index.setUnique(true);
+		index.setPartialFilter(toFilter ("{ \"pages\" : { \"$gt\" : 100 } }"));
+		
+		new DocRepositoryImpl (mockMongoOps).createIndex(index);
+		
+		Mockito.verify(mockCollection).createIndex(
+				new BasicDBObject ("document.author.name", 1).append("document.pages", -1), 
+				(DBObject) JSON.parse("{ \"name\" : \"by_author\", \"background\" : true, \"unique\" : true,"
+						+ " \"partialFilterExpression\" : { \"document.pages\" : { \"$gt\" : 100 } } }"));
+		
+		// TTL only on a single field
+		index.setPartialFilter(null);
+		index.setTtlSeconds(60L);
+		try {
+			new DocRepositoryImpl (mockMongoOps).createIndex(index);
+			fail ("TTL on compound index shall be invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		index.setFields(Arrays.asList("a.$"));
+		index.setTtlSeconds(null);
+		try {
+			new DocRepositoryImpl (mockMongoOps).createIndex(index);
+			fail ("Field shall be invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		Mockito.verify(mockCollection, Mockito.times(1)).createIndex(any(DBObject.class), any(DBObject.class));
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#findIndexes() findIndexes},
+	 * with the index of ID left out and fields translated back to paths of raw documents
+	 */
+	@Test
+	public void testFindIndexes () {
+		
+		Mockito.when(mockCollection.getIndexInfo()).thenReturn(Arrays.asList(
+				(DBObject) JSON.parse("{ \"name\" : \"_id_\", \"key\" : { \"_id\" : 1 } }"),
+				(DBObject) JSON.parse("{ \"name\" : \"by_date\", \"key\" : { \"document.date\" : -1 },"
+						+ " \"sparse\" : true, \"expireAfterSeconds\" : 60 }")));
+		
+		List <DocumentIndex> indexes = new DocRepositoryImpl (mockMongoOps).findIndexes();
+		
+		assertEquals (1, indexes.size());
+		assertEquals ("by_date", indexes.get(0).getName());
+		assertEquals (Arrays.asList("-date"), indexes.get(0).getFields());
+		assertTrue (indexes.get(0).isSparse());
+		assertFalse (indexes.get(0).isUnique());
+		assertEquals (Long.valueOf(60), indexes.get(0).getTtlSeconds());
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#explain(DocumentQuery) explain},
+	 * with the names of indexes used found in the winning plan only
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExplain () throws IOException {
+		
+		DBCursor mockCursor = Mockito.mock(DBCursor.class);
+		Mockito.when(mockCollection.find(any(DBObject.class), any(DBObject.class))).thenReturn(mockCursor);
+		Mockito.when(mockCursor.limit(anyInt())).thenReturn(mockCursor);
+		Mockito.when(mockCursor.setReadPreference(any(ReadPreference.class))).thenReturn(mockCursor);
+		Mockito.when(mockCursor.explain()).thenReturn((DBObject) JSON.parse(
+				"{ \"queryPlanner\" : { \"winningPlan\" : { \"stage\" : \"FETCH\", "
+				+ "\"inputStage\" : { \"stage\" : \"IXSCAN\", \"indexName\" : \"by_author\" } },"
+				+ " \"rejectedPlans\" : [ { \"stage\" : \"IXSCAN\", \"indexName\" : \"by_date\" } ] } }"));
+		
+		DocumentQuery query = new DocumentQuery ();
+		query.setFilter(toFilter ("{ \"author.name\" : \"Gordon\" }"));
+		
+		Map <String, Object> explanation = new DocRepositoryImpl (mockMongoOps).explain(query);
+		
+		Mockito.verify(mockCollection).find(new BasicDBObject ("document.author.name", "Gordon"), null);
+		assertEquals (new ArrayList <Object> (Arrays.asList("by_author")), 
+				new ArrayList <Object> ((Collection <?>) explanation.get("indexes")));
+		assertNotNull (explanation.get("plan"));
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#aggregate(List) aggregate},
+	 * with paths on the raw documents before grouping and on the results after
+	 * 
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAggregate () throws IOException {
+		
+		Cursor mockCursor = Mockito.mock(Cursor.class);
+		Mockito.when(mockCursor.hasNext()).thenReturn(true, false);
+		Mockito.when(mockCursor.next()).thenReturn(new BasicDBObject ("_id", "Gordon").append("pages", 10));
+		Mockito.when(mockCollection.aggregate(anyListOf(DBObject.class), any(AggregationOptions.class)))
+			.thenReturn(mockCursor);
+		
+		List <Map <String, Object>> pipeline = mapper.readValue(
+				"[ { \"$match\" : { \"pages\" : { \"$gt\" : 0 } } },"
+				+ " { \"$group\" : { \"_id\" : \"$author.name\", \"pages\" : { \"$sum\" : \"$pages\" } } },"
+				+ " { \"$match\" : { \"pages\" : { \"$gte\" : 10 } } },"
+				+ " { \"$sort\" : { \"pages\" : -1 } }, { \"$limit\" : 5 } ]",
+				new TypeReference <List <Map <String, Object>>> () {});
+		
+		List <Map <String, Object>> results = new DocRepositoryImpl (mockMongoOps).aggregate(pipeline);
+		
+		assertEquals (1, results.size());
+		assertEquals ("Gordon", results.get(0).get("_id"));
+		assertEquals (10, results.get(0).get("pages"));
+		
+		ArgumentCaptor <List> captor = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(mockCollection).aggregate(captor.capture(), any(AggregationOptions.class));
+		Mockito.verify(mockCursor).close();
+		
+		assertEquals (JSON.parse("[ { \"$match\" : { \"document.pages\" : { \"$gt\" : 0 } } },"
+				+ " { \"$group\" : { \"_id\" : \"$document.author.name\", \"pages\" : { \"$sum\" : \"$document.pages\" } } },"
+				+ " { \"$match\" : { \"pages\" : { \"$gte\" : 10 } } },"
+				+ " { \"$sort\" : { \"pages\" : -1 } }, { \"$limit\" : 5 } ]"), 
+				captor.getValue());
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#aggregate(List) aggregate},
+	 * with IllegalArgumentException thrown for pipelines which are not valid or not supported
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testAggregate_Invalid () throws IOException {
+		
+		String [] invalids = {
+				"[ { \"$match\" : { \"pages\" : 1 } } ]",
+				"[ { \"$lookup\" : { \"from\" : \"other\" } }, { \"$count\" : \"n\" } ]",
+				"[ { \"$group\" : { \"_id\" : null, \"n\" : { \"$push\" : \"$pages\" } } } ]",
+				"[ { \"$group\" : { \"_id\" : \"$$ROOT\" } } ]",
+				"[ { \"$group\" : { \"_id\" : { \"$concat\" : [ \"$a\" ] } } } ]",
+				"[ { \"$count\" : \"a.b\" } ]",
+				"[ { \"$count\" : \"n\" }, { \"$limit\" : 0 } ]",
+				"[ { \"$count\" : \"n\", \"$limit\" : 1 } ]" };
+		
+		for (String invalid : invalids) {
+			List <Map <String, Object>> pipeline = mapper.readValue(invalid, 
+					new TypeReference <List <Map <String, Object>>> () {});
+			
+			try {
+				new DocRepositoryImpl (mockMongoOps).aggregate(pipeline);
+				fail ("Pipeline shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		
+		Mockito.verify(mockCollection, Mockito.never()).aggregate(anyListOf(DBObject.class), any(AggregationOptions.class));
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#count(Map, boolean) count},
+	 * with estimated count from the metadata, and exact count with a query
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCount () throws IOException {
+		
+		Mockito.when(mockCollection.getCount()).thenReturn(7L);
+		Mockito.when(mockMongoOps.count(any(Query.class), eq(StoredDocument.class), eq("entries"))).thenReturn(3L);
+		
+		DocRepositoryImpl repository = new DocRepositoryImpl (mockMongoOps);
+		
+		assertEquals (7, repository.count(null, true));
+		assertEquals (3, repository.count(toFilter ("{ \"pages\" : 1 }"), false));
+		
+		ArgumentCaptor <Query> captor = ArgumentCaptor.forClass(Query.class);
+		Mockito.verify(mockMongoOps).count(captor.capture(), eq(StoredDocument.class), eq("entries"));
+		assertEquals (new BasicDBObject ("document.pages", 1), captor.getValue().getQueryObject());
+		
+		try {
+			repository.count(toFilter ("{ \"pages\" : 1 }"), true);
+			fail ("Estimated count with filter shall be invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#splitIdRanges(int) splitIdRanges},
+	 * with the ObjectIds split by the timestamps between the first and the last
+	 */
+	@Test
+	public void testSplitIdRanges () {
+		
+		DBCursor mockCursor = Mockito.mock(DBCursor.class);
+		DBCursor mockFirst = Mockito.mock(DBCursor.class);
+		DBCursor mockLast = Mockito.mock(DBCursor.class);
+		Mockito.when(mockCollection.find(any(DBObject.class), any(DBObject.class))).thenReturn(mockCursor);
+		Mockito.when(mockCursor.sort(new BasicDBObject ("_id", 1))).thenReturn(mockFirst);
+		Mockito.when(mockCursor.sort(new BasicDBObject ("_id", -1))).thenReturn(mockLast);
+		Mockito.when(mockFirst.limit(anyInt())).thenReturn(mockFirst);
+		Mockito.when(mockLast.limit(anyInt())).thenReturn(mockLast);
+		
+		DocRepositoryImpl repository = new DocRepositoryImpl (mockMongoOps);
+		
+		// No ObjectIds
+		List <IdRange> ranges = repository.splitIdRanges(4);
+		assertEquals (1, ranges.size());
+		assertFalse (ranges.get(0).isObjectIds());
+		
+		// ObjectIds from second 0x3e8 to 0x3f1, in ranges of 3 seconds
+		Mockito.when(mockFirst.hasNext()).thenReturn(true);
+		Mockito.when(mockFirst.next()).thenReturn(new BasicDBObject ("_id", new ObjectId ("000003e8aaaaaaaaaaaaaaaa")));
+		Mockito.when(mockLast.hasNext()).thenReturn(true);
+		Mockito.when(mockLast.next()).thenReturn(new BasicDBObject ("_id", new ObjectId ("000003f1aaaaaaaaaaaaaaaa")));
+		
+		ranges = repository.splitIdRanges(4);
+		assertEquals (5, ranges.size());
+		assertEquals ("000003e80000000000000000", ranges.get(0).getFrom());
+		assertEquals ("000003eb0000000000000000", ranges.get(0).getTo());
+		assertEquals ("000003eb0000000000000000", ranges.get(1).getFrom());
+		assertEquals ("000003f10000000000000000", ranges.get(3).getFrom());
+		assertEquals ("000003f20000000000000000", ranges.get(3).getTo());
+		assertFalse (ranges.get(4).isObjectIds());
+		
+		Mockito.verify(mockCollection, Mockito.times(4)).find(
+				new BasicDBObject ("_id", new BasicDBObject ("$gte", new ObjectId ("000000000000000000000000"))), 
+				new BasicDBObject ("_id", 1));
+		
+		// No more ranges than seconds
+		assertEquals (11, repository.splitIdRanges(100).size());
+	}
+	
+	/**
+	 * Test method of {@link repository.DocRepositoryImpl#findOne(String) findOne},
+	 * {@link repository.DocRepositoryImpl#findAll() findAll} and other reads, reading with the read preference
+	 * configured and overridden
+	 */
+	@Test
+	public void testReadPreference () {
+		
+		DBCursor mockCursor = Mockito.mock(DBCursor.class);
+		Mockito.when(mockCollection.find(any(DBObject.class), any(DBObject.class))).thenReturn(mockCursor);
+		Mockito.when(mockCursor.limit(anyInt())).thenReturn(mockCursor);
+		Mockito.when(mockCursor.setReadPreference(any(ReadPreference.class))).thenReturn(mockCursor);
+		
+		DocumentConsistency consistency = new DocumentConsistency (ReadPreference.secondaryPreferred(), null);
+		DocRepositoryImpl repository = new DocRepositoryImpl (mockMongoOps, consistency);
+		
+		assertNull (repository.findOne("56a8b8e4e4b0f1d2c3a4b5c6"));
+		Mockito.verify(mockCollection).findOne(new BasicDBObject ("_id", new ObjectId ("56a8b8e4e4b0f1d2c3a4b5c6")), 
+				null, ReadPreference.secondaryPreferred());
+		
+		assertTrue (repository.findAll().isEmpty());
+		Mockito.verify(mockCursor).setReadPreference(ReadPreference.secondaryPreferred());
+		
+		consistency.override(ReadPreference.nearest(), null);
+		try {
+			repository.findOne("id1");
+			Mockito.verify(mockCollection).findOne(new BasicDBObject ("_id", "id1"), null, ReadPreference.nearest());
+		} finally {
+			consistency.clearOverride();
+		}
+		
+		repository.findOne("id1");
+		Mockito.verify(mockCollection).findOne(new BasicDBObject ("_id", "id1"), null, ReadPreference.secondaryPreferred());
+		
+		repository.findVersion("id1");
+		Mockito.verify(mockCollection).findOne(new BasicDBObject ("_id", "id1"), new BasicDBObject ("version", 1), 
+				ReadPreference.secondaryPreferred());
+		
+		assertTrue (repository.findAfter(null, 10).isEmpty());
+		Mockito.verify(mockCursor, Mockito.times(2)).setReadPreference(ReadPreference.secondaryPreferred());
+	}
+	
+	/**
+	 * Test writes with the write concern configured, 
+	 * and unacknowledged writes taken as matched without asking for the result
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWriteConcern () throws IOException {
+		
+		DocumentConsistency consistency = new DocumentConsistency (null, WriteConcern.MAJORITY);
+		DocRepositoryImpl repository = new DocRepositoryImpl (mockMongoOps, consistency);
+		
+		repository.insertRaw(new ByteArrayInputStream ("{ \"a\" : 1 }".getBytes("UTF-8")), "v1");
+		
+		ArgumentCaptor <InsertOptions> captor = ArgumentCaptor.forClass(InsertOptions.class);
+		Mockito.verify(mockCollection).insert(anyListOf(DBObject.class), captor.capture());
+		assertEquals (WriteConcern.MAJORITY, captor.getValue().getWriteConcern());
+		
+		WriteResult mockResult = Mockito.mock(WriteResult.class);
+		Mockito.when(mockMongoOps.remove(any(Query.class), eq(StoredDocument.class), eq("entries"))).thenReturn(mockResult);
+		
+		consistency.override(null, WriteConcern.UNACKNOWLEDGED);
+		try {
+			assertTrue (repository.remove("id1"));
+			Mockito.verify(mockResult, Mockito.never()).getN();
+		} finally {
+			consistency.clearOverride();
+		}
+		
+		assertFalse (repository.remove("id1"));
+	}
+}
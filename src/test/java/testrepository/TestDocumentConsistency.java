@@ -0,0 +1,120 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+
+import repository.DocumentConsistency;
+
+/**
+ * Unit test of parsing and overriding the read preference and write concern of {@link DocumentConsistency}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestDocumentConsistency {
+
+	/**
+	 * Test the names of read preferences and write concerns
+	 */
+	@Test
+	public void testParse () {
+		
+		assertEquals (ReadPreference.nearest(), DocumentConsistency.parseReadPreference("nearest"));
+		assertEquals (ReadPreference.secondaryPreferred(), DocumentConsistency.parseReadPreference("secondaryPreferred"));
+		assertNull (DocumentConsistency.parseReadPreference(""));
+		
+		assertEquals (WriteConcern.UNACKNOWLEDGED, DocumentConsistency.parseWriteConcern("unacknowledged"));
+		assertEquals (new WriteConcern (1), DocumentConsistency.parseWriteConcern("w1"));
+		assertEquals (WriteConcern.MAJORITY, DocumentConsistency.parseWriteConcern("majority"));
+		assertEquals (WriteConcern.JOURNALED, DocumentConsistency.parseWriteConcern("journaled"));
+		assertNull (DocumentConsistency.parseWriteConcern(null));
+		
+		String [] invalids = { "secondaries", "w2", "fsynced" };
+		
+		for (String invalid : invalids) {
+			try {
+				DocumentConsistency.parseReadPreference(invalid);
+				fail ("Read preference shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				DocumentConsistency.parseWriteConcern(invalid);
+				fail ("Write concern shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	/**
+	 * Test the defaults, and overriding them in the current thread only
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testOverride () throws InterruptedException {
+		
+		assertEquals (ReadPreference.primary(), new DocumentConsistency ().getReadPreference());
+		assertNull (new DocumentConsistency ().getWriteConcern());
+		
+		DocumentConsistency consistency = new DocumentConsistency (ReadPreference.secondary(), WriteConcern.MAJORITY);
+		
+		consistency.override(ReadPreference.nearest(), null);
+		
+		assertEquals (ReadPreference.nearest(), consistency.getReadPreference());
+		assertEquals (WriteConcern.MAJORITY, consistency.getWriteConcern());
+		
+		// Not overridden in other threads
+		ReadPreference [] other = new ReadPreference [1];
+		Thread thread = new Thread (() -> other[0] = consistency.getReadPreference());
+		thread.start();
+		thread.join();
+		assertEquals (ReadPreference.secondary(), other[0]);
+		
+		consistency.clearOverride();
+		
+		assertEquals (ReadPreference.secondary(), consistency.getReadPreference());
+	}
+	
+	/**
+	 * Test a task propagated to another thread runs with the override of the thread wrapping it,
+	 * and the override of the thread running it is restored after
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testPropagate () throws InterruptedException {
+		
+		DocumentConsistency consistency = new DocumentConsistency (ReadPreference.secondary(), null);
+		
+		Object [] seen = new Object [2];
+		
+		consistency.override(ReadPreference.nearest(), WriteConcern.JOURNALED);
+		Runnable task = consistency.propagate(() -> {
+			seen[0] = consistency.getReadPreference();
+			seen[1] = consistency.getWriteConcern();
+		});
+		consistency.clearOverride();
+		
+		ReadPreference [] after = new ReadPreference [1];
+		Thread thread = new Thread (() -> {
+			task.run();
+			after[0] = consistency.getReadPreference();
+		});
+		thread.start();
+		thread.join();
+		
+		assertEquals (ReadPreference.nearest(), seen[0]);
+		assertEquals (WriteConcern.JOURNALED, seen[1]);
+		assertEquals (ReadPreference.secondary(), after[0]);
+		
+		// Without override, the task runs with the defaults
+		consistency.propagate(() -> seen[0] = consistency.getReadPreference()).run();
+		assertEquals (ReadPreference.secondary(), seen[0]);
+	}
+}
@@ -0,0 +1,58 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import repository.FieldProjection;
+
+/**
+ * Unit test of parsing the fields of {@link FieldProjection}
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestFieldProjection {
+
+	/**
+	 * Test included and excluded fields
+	 */
+	@Test
+	public void testParse () {
+		
+		FieldProjection fields = FieldProjection.parse("author.name, content");
+		
+		assertEquals (Arrays.asList("author.name", "content"), fields.getPaths());
+		assertFalse (fields.isExclude());
+		
+		fields = FieldProjection.parse("-author.address,-content");
+		
+		assertEquals (Arrays.asList("author.address", "content"), fields.getPaths());
+		assertTrue (fields.isExclude());
+		
+		// No projection
+		assertNull (FieldProjection.parse(null));
+		assertNull (FieldProjection.parse(" "));
+	}
+	
+	/**
+	 * Test fields which are not valid
+	 */
+	@Test
+	public void testParse_Invalid () {
+		
+		String [] invalids = { "author,-content", "author..name", "author.", "content,", 
+				"-", "$where", "author.$ne" };
+		
+		for (String invalid : invalids) {
+			try {
+				FieldProjection.parse(invalid);
+				fail ("Fields shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.ui.ModelMap;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import repository.DocRepository;
+import repository.DocumentIndex;
+import repository.DocumentQuery;
+import repository.IdRange;
+import repository.InMemoryDocRepository;
+import repository.InMemoryDocRepositoryFactory;
+import repository.StoredDocument;
+
+/**
+ * Unit test of {@link InMemoryDocRepository}, with the queries evaluated the same as by Mongodb
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestInMemoryDocRepository {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder ();
+
+	private ObjectMapper mapper = new ObjectMapper ();
+
+	private InMemoryDocRepository repository = new InMemoryDocRepository ();
+
+	/*
+	 * Helper method to create a raw document or a filter from JSON
+	 */
+	private ModelMap toMap (String json) throws IOException {
+		return mapper.readValue(json, ModelMap.class);
+	}
+
+	/*
+	 * Helper method to insert a document from JSON
+	 */
+	private String insert (String json) throws IOException {
+		StoredDocument doc = new StoredDocument (toMap (json));
+		doc.setVersion(StoredDocument.newVersion());
+		return repository.insert(doc).getId();
+	}
+
+	/*
+	 * Helper method to read the results of a query
+	 */
+	private List <StoredDocument> search (String filter, List <String> sort, int limit, String fields) throws IOException {
+
+		DocumentQuery query = new DocumentQuery ();
+		query.setFilter(filter == null ? null : toMap (filter));
+		query.setSort(sort);
+		query.setLimit(limit);
+		query.setFields(fields);
+
+		List <StoredDocument> found = new ArrayList <StoredDocument> ();
+		try (CloseableIterator <StoredDocument> iterator = repository.search(query)) {
+			while (iterator.hasNext())
+				found.add(iterator.next());
+		}
+		return found;
+	}
+
+	/**
+	 * Test of insert, find, replace and delete of documents, with the stored documents not shared with the caller
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCrud () throws IOException {
+
+		String id = insert ("{ \"title\" : \"a\", \"author\" : { \"name\" : \"Gordon\" } }");
+		assertTrue (ObjectId.isValid(id));
+
+		StoredDocument found = repository.findOne(id);
+		assertEquals ("Gordon", ((Map <?, ?>) found.getDocument().get("author")).get("name"));
+
+		// Modifying the document read does not modify the stored one
+		found.getDocument().put("title", "b");
+		assertEquals ("a", repository.findOne(id).getDocument().get("title"));
+
+		// ObjectIds are matched in any case
+		assertTrue (repository.exists(id.toUpperCase()));
+
+		StoredDocument replaced = new StoredDocument (toMap ("{ \"title\" : \"c\" }"));
+		replaced.setId(id);
+		replaced.setVersion("v2");
+		assertTrue (repository.replace(replaced));
+		assertEquals ("v2", repository.findVersion(id).getVersion());
+		assertNull (repository.findVersion(id).getDocument());
+
+		replaced.setId("unknown");
+		assertFalse (repository.replace(replaced));
+
+		assertEquals (1, repository.count());
+		assertTrue (repository.remove(id));
+		assertFalse (repository.remove(id));
+		assertNull (repository.findOne(id));
+		assertEquals (0, repository.count());
+	}
+
+	/**
+	 * Test of inserts of documents with existing IDs, in order and not in order
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testInsertDuplicate () throws IOException {
+
+		String id = insert ("{ \"n\" : 0 }");
+
+		List <StoredDocument> docs = new ArrayList <StoredDocument> ();
+		for (int i = 1; i <= 3; i++)
+			docs.add(new StoredDocument (toMap ("{ \"n\" : " + i + " }")));
+		docs.get(1).setId(id);
+
+		try {
+			repository.insertBatch(docs, true);
+			fail ("Duplicate ID shall fail");
+		} catch (DuplicateKeyException e) {
+			// expected
+		}
+		assertEquals (2, repository.count());
+
+		docs.get(0).setId(null);
+		docs.get(2).setId(null);
+		try {
+			repository.insertBatch(docs, false);
+			fail ("Duplicate ID shall fail");
+		} catch (DuplicateKeyException e) {
+			// expected
+		}
+		assertEquals (4, repository.count());
+		assertEquals (0, repository.findOne(id).getDocument().get("n"));
+	}
+
+	/**
+	 * Test of paging of all documents by the order of IDs and of fields
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testFindPaged () throws IOException {
+
+		List <String> ids = new ArrayList <String> ();
+		for (int i = 0; i < 5; i++)
+			ids.add(insert ("{ \"n\" : " + (i % 2) + " }"));
+		Collections.sort(ids);
+
+		List <StoredDocument> after = repository.findAfter(ids.get(1), 2);
+		assertEquals (ids.get(2), after.get(0).getId());
+		assertEquals (ids.get(3), after.get(1).getId());
+
+		List <StoredDocument> page = repository.findAll(new PageRequest (1, 2,
+				new Sort (new Sort.Order (Sort.Direction.DESC, "document.n"), new Sort.Order ("id")))).getContent();
+		assertEquals (2, page.size());
+		assertEquals (ids.get(0), page.get(0).getId());
+		assertEquals (ids.get(2), page.get(1).getId());
+	}
+
+	/**
+	 * Test of search with filter, sort, limit and projection
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSearch () throws IOException {
+
+		insert ("{ \"author\" : { \"name\" : \"Gordon\" }, \"pages\" : 120, \"tags\" : [ \"a\", \"b\" ], \"content\" : \"x\" }");
+		insert ("{ \"author\" : { \"name\" : \"Gordon\" }, \"pages\" : 300, \"draft\" : true, \"content\" : \"y\" }");
+		insert ("{ \"author\" : { \"name\" : \"Alice\" }, \"pages\" : 500 }");
+		insert ("{ \"author\" : { \"name\" : \"Gordon\" }, \"pages\" : \"many\" }");
+
+		List <StoredDocument> found = search ("{ \"author.name\" : \"Gordon\", \"pages\" : { \"$gte\" : 100 },"
+				+ " \"$or\" : [ { \"tags\" : { \"$in\" : [ \"a\" ] } }, { \"draft\" : { \"$exists\" : true } } ] }",
+				Arrays.asList("-pages"), 0, "pages,content");
+
+		assertEquals (2, found.size());
+		assertEquals (toMap ("{ \"pages\" : 300, \"content\" : \"y\" }"), found.get(0).getDocument());
+		assertEquals (toMap ("{ \"pages\" : 120, \"content\" : \"x\" }"), found.get(1).getDocument());
+		assertNotNull (found.get(0).getVersion());
+
+		// Numbers before strings, the same as by Mongodb
+		found = search (null, Arrays.asList("-pages"), 1, "-author");
+		assertEquals ("many", found.get(0).getDocument().get("pages"));
+
+		assertEquals (1, repository.count(toMap ("{ \"tags\" : \"b\" }"), false));
+		assertEquals (4, repository.count(null, true));
+
+		String [] invalids = {
+				"{ \"$where\" : \"sleep(1000)\" }",
+				"{ \"a.$.b\" : 1 }",
+				"{ \"$and\" : [] }",
+				"{ \"a\" : { \"$in\" : 1 } }" };
+
+		for (String invalid : invalids) {
+			try {
+				search (invalid, null, 0, null);
+				fail ("Query shall be invalid: " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Test of aggregation with $match, $group, $sort and $limit
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testAggregate () throws IOException {
+
+		insert ("{ \"author\" : \"Gordon\", \"pages\" : 100 }");
+		insert ("{ \"author\" : \"Gordon\", \"pages\" : 300 }");
+		insert ("{ \"author\" : \"Alice\", \"pages\" : 50 }");
+		insert ("{ \"author\" : \"Bob\" }");
+
+		List <Map <String, Object>> pipeline = mapper.readValue(
+				"[ { \"$match\" : { \"pages\" : { \"$exists\" : true } } },"
+				+ " { \"$group\" : { \"_id\" : \"$author\", \"count\" : { \"$sum\" : 1 }, \"avg\" : { \"$avg\" : \"$pages\" } } },"
+				+ " { \"$sort\" : { \"count\" : -1 } }, { \"$limit\" : 1 } ]",
+				new TypeReference <List <Map <String, Object>>> () {});
+
+		List <Map <String, Object>> results = repository.aggregate(pipeline);
+		assertEquals (1, results.size());
+		assertEquals ("Gordon", results.get(0).get("_id"));
+		assertEquals (2, ((Number) results.get(0).get("count")).intValue());
+		assertEquals (200.0, ((Number) results.get(0).get("avg")).doubleValue(), 0);
+
+		pipeline = mapper.readValue("[ { \"$count\" : \"total\" } ]", new TypeReference <List <Map <String, Object>>> () {});
+		assertEquals (4, ((Number) repository.aggregate(pipeline).get(0).get("total")).intValue());
+
+		try {
+			repository.aggregate(mapper.readValue("[ { \"$match\" : {} } ]", new TypeReference <List <Map <String, Object>>> () {}));
+			fail ("Pipeline without $group shall be invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test of update of fields by dotted paths
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testUpdate () throws IOException {
+
+		String id = insert ("{ \"title\" : \"a\", \"author\" : { \"name\" : \"Gordon\", \"age\" : 40 } }");
+
+		assertTrue (repository.update(id, toMap ("{ \"author.name\" : \"Alice\", \"meta.pages\" : 10 }"),
+				Arrays.asList("author.age", "missing"), "v2"));
+
+		StoredDocument updated = repository.findOne(id);
+		assertEquals (toMap ("{ \"title\" : \"a\", \"author\" : { \"name\" : \"Alice\" }, \"meta\" : { \"pages\" : 10 } }"),
+				updated.getDocument());
+		assertEquals ("v2", updated.getVersion());
+
+		assertFalse (repository.update("unknown", toMap ("{ \"a\" : 1 }"), Collections.emptyList(), "v3"));
+
+		try {
+			repository.update(id, toMap ("{ \"title.x\" : 1 }"), Collections.emptyList(), "v3");
+			fail ("Update through a string shall fail");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals ("v2", repository.findVersion(id).getVersion());
+	}
+
+	/**
+	 * Test of concurrent updates of the same document, with no update lost
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentUpdate () throws Exception {
+
+		String id = insert ("{}");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 1000; i++) {
+			String field = "f" + i;
+			executor.execute(() -> repository.update(id, Collections.singletonMap(field, 1),
+					Collections.emptyList(), StoredDocument.newVersion()));
+		}
+		executor.shutdown();
+		assertTrue (executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals (1000, repository.findOne(id).getDocument().size());
+	}
+
+	/**
+	 * Test of insert, replace and write of raw documents in JSON
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRaw () throws IOException {
+
+		String id = repository.insertRaw(new ByteArrayInputStream ("{ \"a\" : [ 1, { \"b\" : null } ] }".getBytes()), "v1");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		assertTrue (repository.writeRaw(id, out));
+		assertEquals ("{\"id\":\"" + id + "\",\"document\":{\"a\":[1,{\"b\":null}]}}", out.toString());
+
+		assertTrue (repository.replaceRaw(id, new ByteArrayInputStream ("{ \"c\" : 1 }".getBytes()), "v2"));
+		assertEquals (toMap ("{ \"c\" : 1 }"), repository.findOne(id).getDocument());
+
+		assertFalse (repository.writeRaw("unknown", out));
+
+		try {
+			repository.insertRaw(new ByteArrayInputStream ("[ 1 ]".getBytes()), "v3");
+			fail ("Array shall be invalid");
+		} catch (JsonParseException e) {
+			// expected
+		}
+		assertEquals (1, repository.count());
+	}
+
+	/**
+	 * Test of split of the IDs into ranges, which together cover all documents
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSplitIdRanges () throws IOException {
+
+		int seconds = (int) (System.currentTimeMillis() / 1000);
+		for (int i = 0; i < 10; i++) {
+			StoredDocument doc = new StoredDocument (toMap ("{ \"n\" : " + i + " }"));
+			doc.setId(new ObjectId (new Date ((seconds - i * 60) * 1000L), i).toHexString());
+			repository.insert(doc);
+		}
+		StoredDocument doc = new StoredDocument (toMap ("{ \"n\" : 10 }"));
+		doc.setId("not-an-objectid");
+		repository.insert(doc);
+
+		List <IdRange> ranges = repository.splitIdRanges(4);
+		assertEquals (5, ranges.size());
+		assertFalse (ranges.get(4).isObjectIds());
+
+		long count = 0;
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		for (IdRange range : ranges)
+			count += repository.writeRawRange(range, out);
+
+		assertEquals (11, count);
+		assertEquals (11, out.toString().split("\n").length);
+	}
+
+	/**
+	 * Test of indexes, kept as definitions only
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIndexes () throws IOException {
+
+		DocumentIndex index = new DocumentIndex ();
+		index.setName("by_author");
+		index.setFields(Arrays.asList("author.name", "-pages"));
+
+		repository.createIndex(index);
+		repository.createIndex(index);
+		assertEquals (1, repository.findIndexes().size());
+		assertEquals ("by_author", repository.findIndexes().get(0).getName());
+
+		index.setUnique(true);
+		try {
+			repository.createIndex(index);
+			fail ("Unique index shall not be supported");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertTrue (repository.dropIndex("by_author"));
+		assertFalse (repository.dropIndex("by_author"));
+	}
+
+	/**
+	 * Test of snapshots of the collections of {@link InMemoryDocRepositoryFactory},
+	 * written on shutdown and read back on start
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSnapshot () throws IOException {
+
+		AutowireCapableBeanFactory mockBeanFactory = Mockito.mock(AutowireCapableBeanFactory.class);
+		Mockito.when(mockBeanFactory.applyBeanPostProcessorsAfterInitialization(any(), anyString()))
+			.thenAnswer(invocation -> invocation.getArguments()[0]);
+
+		String dir = folder.getRoot().getPath();
+
+		InMemoryDocRepositoryFactory factory = new InMemoryDocRepositoryFactory (dir, mockBeanFactory);
+		factory.loadSnapshots();
+
+		DocRepository tenant = factory.getRepository("tenant");
+		StoredDocument doc = new StoredDocument (toMap ("{ \"title\" : \"a\", \"tags\" : [ 1, 2 ] }"));
+		doc.setId("doc1");
+		doc.setVersion("v1");
+		tenant.insert(doc);
+		factory.getRepository("dropped").insert(new StoredDocument (toMap ("{}")));
+		factory.saveSnapshots();
+
+		assertTrue (factory.dropCollection("dropped"));
+		factory.saveSnapshots();
+
+		factory = new InMemoryDocRepositoryFactory (dir, mockBeanFactory);
+		factory.loadSnapshots();
+
+		assertEquals (Collections.singleton("tenant"), factory.findCollectionNames());
+
+		StoredDocument found = factory.getRepository("tenant").findOne("doc1");
+		assertEquals (doc.getDocument(), found.getDocument());
+		assertEquals ("v1", found.getVersion());
+	}
+}
@@ -0,0 +1,279 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.ui.ModelMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import repository.DocRepository;
+import repository.DocumentIndex;
+import repository.IdRange;
+import repository.LogDocRepository;
+import repository.LogDocRepositoryFactory;
+import repository.StoredDocument;
+
+/**
+ * Unit test of {@link LogDocRepository}, with the documents kept in the log
+ * across reopening, compaction and crashes
+ *
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestLogDocRepository {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder ();
+
+	private ObjectMapper mapper = new ObjectMapper ();
+
+	private AutowireCapableBeanFactory mockBeanFactory = Mockito.mock(AutowireCapableBeanFactory.class);
+
+	@Before
+	public void setUp () {
+		Mockito.when(mockBeanFactory.applyBeanPostProcessorsAfterInitialization(any(), anyString()))
+			.thenAnswer(invocation -> invocation.getArguments()[0]);
+	}
+
+	/*
+	 * Helper method to open the factory on the folder, with small segments and each write forced to disk
+	 */
+	private LogDocRepositoryFactory open () throws IOException {
+		LogDocRepositoryFactory factory = new LogDocRepositoryFactory (folder.getRoot().getPath(),
+				4096, 0, 0.5, 3600, mockBeanFactory);
+		factory.open();
+		return factory;
+	}
+
+	/*
+	 * Helper method to write a document with an ID from JSON
+	 */
+	private void save (DocRepository repository, String id, String json) throws IOException {
+		StoredDocument doc = new StoredDocument (mapper.readValue(json, ModelMap.class));
+		doc.setId(id);
+		doc.setVersion(StoredDocument.newVersion());
+		repository.save(doc);
+	}
+
+	private int countSegments (String collection) {
+		return new File (folder.getRoot(), collection).list((dir, name) -> name.endsWith(".log")).length;
+	}
+
+	/**
+	 * Test of the documents written, updated and deleted, read back after reopening
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReopen () throws Exception {
+
+		LogDocRepositoryFactory factory = open ();
+		DocRepository repository = factory.getRepository("tenant");
+
+		save (repository, "a", "{ \"title\" : \"a\", \"tags\" : [ 1, 2 ] }");
+		save (repository, "b", "{ \"title\" : \"b\" }");
+		save (repository, "c", "{ \"title\" : \"c\" }");
+		assertTrue (repository.update("a", Collections.singletonMap("author.name", "Gordon"),
+				Arrays.asList("tags"), "v2"));
+		assertTrue (repository.remove("b"));
+		factory.close();
+
+		factory = open ();
+		repository = factory.getRepository("tenant");
+
+		assertEquals (Collections.singleton("tenant"), factory.findCollectionNames());
+		assertEquals (2, repository.count());
+		assertNull (repository.findOne("b"));
+
+		StoredDocument found = repository.findOne("a");
+		assertEquals (mapper.readValue("{ \"title\" : \"a\", \"author\" : { \"name\" : \"Gordon\" } }", ModelMap.class),
+				found.getDocument());
+		assertEquals ("v2", repository.findVersion("a").getVersion());
+		factory.close();
+	}
+
+	/**
+	 * Test of the documents read from the records of the log when not closed, e.g. after the process is killed,
+	 * up to a record partly written
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRecoverWithoutClose () throws Exception {
+
+		LogDocRepositoryFactory factory = open ();
+		DocRepository repository = factory.getRepository("tenant");
+		save (repository, "a", "{ \"n\" : 1 }");
+		save (repository, "b", "{ \"n\" : 2 }");
+
+		// Not closed, and the beginning of a record partly written after the last one
+		File segment = new File (folder.getRoot(), "tenant").listFiles((dir, name) -> name.endsWith(".log"))[0];
+		byte [] content = Files.readAllBytes(segment.toPath());
+		int end = 0;
+		while (content[end] != 0 || content[end + 1] != 0 || content[end + 2] != 0 || content[end + 3] != 0)
+			end += ByteBuffer.wrap(content, end, 4).getInt();
+		try (RandomAccessFile file = new RandomAccessFile (segment, "rw")) {
+			file.seek(end);
+			file.writeInt(100);
+			file.writeInt(12345);
+		}
+
+		factory = open ();
+		repository = factory.getRepository("tenant");
+		assertEquals (2, repository.count());
+
+		// Written over the partial record
+		save (repository, "c", "{ \"n\" : 3 }");
+		factory.close();
+
+		factory = open ();
+		assertEquals (3, factory.getRepository("tenant").count());
+		factory.close();
+	}
+
+	/**
+	 * Test of a document larger than a segment rejected before anything is written,
+	 * so that it is not found after reopening
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testDocumentLargerThanSegment () throws Exception {
+
+		LogDocRepositoryFactory factory = open ();
+		DocRepository repository = factory.getRepository("tenant");
+		save (repository, "a", "{ \"n\" : 1 }");
+
+		char [] padding = new char [5000];
+		Arrays.fill(padding, 'x');
+		try {
+			save (repository, "large", "{ \"padding\" : \"" + new String (padding) + "\" }");
+			fail ("A document larger than a segment shall be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			repository.update("a", Collections.singletonMap("padding", new String (padding)), 
+					Collections.emptyList(), "v2");
+			fail ("A document larger than a segment shall be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertNull (repository.findOne("large"));
+		assertEquals (1, countSegments ("tenant"));
+		factory.close();
+
+		factory = open ();
+		repository = factory.getRepository("tenant");
+		assertEquals (1, repository.count());
+		assertNull (repository.findOne("large"));
+		assertEquals (1, repository.findOne("a").getDocument().get("n"));
+		assertNull (repository.findOne("a").getDocument().get("padding"));
+		factory.close();
+	}
+
+	/**
+	 * Test of the space of documents replaced and deleted reclaimed by compaction,
+	 * with the deletes still in effect after reopening
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompact () throws Exception {
+
+		LogDocRepositoryFactory factory = open ();
+		DocRepository repository = factory.getRepository("tenant");
+
+		save (repository, "deleted", "{ \"n\" : 0 }");
+		save (repository, "kept", "{ \"n\" : 0 }");
+
+		char [] padding = new char [500];
+		Arrays.fill(padding, 'x');
+		for (int i = 0; i < 100; i++)
+			save (repository, "updated", "{ \"n\" : " + i + ", \"padding\" : \"" + new String (padding) + "\" }");
+		repository.remove("deleted");
+
+		int before = countSegments ("tenant");
+		assertTrue (before > 10);
+
+		factory.compact();
+		assertTrue (countSegments ("tenant") < before / 2);
+
+		assertEquals (99, repository.findOne("updated").getDocument().get("n"));
+		factory.close();
+
+		factory = open ();
+		repository = factory.getRepository("tenant");
+		assertEquals (2, repository.count());
+		assertNull (repository.findOne("deleted"));
+		assertEquals (0, repository.findOne("kept").getDocument().get("n"));
+		assertEquals (99, repository.findOne("updated").getDocument().get("n"));
+		factory.close();
+	}
+
+	/**
+	 * Test of raw documents written out from the log, in the same form as read as documents,
+	 * and of the indexes kept beside the log
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRawAndIndexes () throws Exception {
+
+		LogDocRepositoryFactory factory = open ();
+		DocRepository repository = factory.getRepository("tenant");
+
+		String id = repository.insertRaw(new ByteArrayInputStream ("{ \"a\" : [ 1, { \"b\" : \"\\u00e9\\n\" } ] }".getBytes("UTF-8")), "v1");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		assertTrue (repository.writeRaw(id.toUpperCase(), out));
+		assertEquals (mapper.writeValueAsString(repository.findOne(id)), out.toString("UTF-8"));
+		assertFalse (repository.writeRaw("unknown", out));
+
+		out.reset();
+		long count = 0;
+		for (IdRange range : repository.splitIdRanges(4))
+			count += repository.writeRawRange(range, out);
+		assertEquals (1, count);
+
+		DocumentIndex index = new DocumentIndex ();
+		index.setName("by_a");
+		index.setFields(Arrays.asList("a"));
+		repository.createIndex(index);
+		factory.close();
+
+		factory = open ();
+		List <DocumentIndex> indexes = factory.getRepository("tenant").findIndexes();
+		assertEquals (1, indexes.size());
+		assertEquals ("by_a", indexes.get(0).getName());
+
+		assertTrue (factory.dropCollection("tenant"));
+		assertFalse (new File (folder.getRoot(), "tenant").exists());
+		assertFalse (factory.collectionExists("tenant"));
+		assertFalse (factory.dropCollection("tenant"));
+		factory.close();
+
+		factory = open ();
+		assertTrue (factory.findCollectionNames().isEmpty());
+		factory.close();
+	}
+}
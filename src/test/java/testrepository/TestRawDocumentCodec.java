@@ -0,0 +1,145 @@
+package testrepository;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BSON;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBObject;
+
+import repository.RawDocumentCodec;
+
+/**
+ * Unit test of the conversion between JSON and BSON of {@link RawDocumentCodec}
+ * 
+ * The BSON is verified with the decoder and encoder of the Mongodb driver.
+ * 
+ * @author goldyliang@gmail.com
+ *
+ */
+public class TestRawDocumentCodec {
+
+	private static final String JSON = 
+			"{ \"author\" : { \"name\" : \"Gordon\", \"address\" : \"6955 fielding\" },"
+			+ " \"content\" : \"Here is the content \\u00e9\","
+			+ " \"pages\" : 120, \"words\" : 12345678901, \"price\" : 9.5,"
+			+ " \"tags\" : [ \"a\", 1, true, null, { \"x\" : [] } ] }";
+	
+	private ObjectMapper mapper = new ObjectMapper ();
+	
+	private static byte[] toBson (Object id, String json) throws IOException {
+		return RawDocumentCodec.jsonToBson(id, "v1", 
+				new ByteArrayInputStream (json.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Test method of {@link repository.RawDocumentCodec#jsonToBson jsonToBson},
+	 * verified by decoding the BSON with the driver
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testJsonToBson () throws IOException {
+		
+		ObjectId id = new ObjectId ();
+		
+		DBObject dbObject = new LazyDBObject (toBson (id, JSON), new LazyDBCallback (null));
+		
+		assertEquals (id, dbObject.get("_id"));
+		assertEquals ("v1", dbObject.get("version"));
+		
+		DBObject doc = (DBObject) dbObject.get("document");
+		
+		assertEquals ("Gordon", ((DBObject) doc.get("author")).get("name"));
+		assertEquals ("Here is the content \u00e9", doc.get("content"));
+		assertEquals (120, doc.get("pages"));
+		assertEquals (12345678901L, doc.get("words"));
+		assertEquals (9.5, doc.get("price"));
+		
+		@SuppressWarnings("unchecked")
+		List <Object> tags = (List <Object>) doc.get("tags");
+		assertEquals (5, tags.size());
+		assertEquals (Arrays.asList("a", 1, true, null), 
+				Arrays.asList(tags.get(0), tags.get(1), tags.get(2), tags.get(3)));
+	}
+	
+	/**
+	 * Test method of {@link repository.RawDocumentCodec#bsonToJson bsonToJson},
+	 * with the JSON converted back from BSON the same as the original
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip () throws IOException {
+		
+		ByteArrayOutputStream json = new ByteArrayOutputStream ();
+		RawDocumentCodec.bsonToJson(toBson ("abc", JSON), json);
+		
+		Map <?, ?> result = mapper.readValue(json.toByteArray(), Map.class);
+		
+		assertEquals ("abc", result.get("id"));
+		assertEquals (mapper.readValue(JSON, Map.class), result.get("document"));
+	}
+	
+	/**
+	 * Test method of {@link repository.RawDocumentCodec#bsonToJson bsonToJson},
+	 * with BSON written by the driver, including fields not part of the document
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBsonToJson_FromDriver () throws IOException {
+		
+		ObjectId id = new ObjectId ();
+		
+		DBObject dbObject = new BasicDBObject ("_class", "repository.StoredDocument")
+				.append("_id", id)
+				.append("document", new BasicDBObject ("content", "abc")
+						.append("list", Arrays.asList(1L, 2.5)));
+		
+		ByteArrayOutputStream json = new ByteArrayOutputStream ();
+		RawDocumentCodec.bsonToJson(BSON.encode(dbObject), json);
+		
+		assertEquals ("{\"id\":\"" + id.toHexString() 
+				+ "\",\"document\":{\"content\":\"abc\",\"list\":[1,2.5]}}", 
+				new String (json.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Test method of {@link repository.RawDocumentCodec#jsonToBson jsonToBson}
+	 * 
+	 * With JsonParseException thrown if the JSON is not valid
+	 * 
+	 * @throws IOException
+	 */
+	@Test (expected = JsonParseException.class)
+	public void testJsonToBson_Invalid () throws IOException {
+		toBson ("abc", JSON.substring(0, JSON.lastIndexOf("}")));
+	}
+	
+	/**
+	 * Test method of {@link repository.RawDocumentCodec#jsonToBson jsonToBson}
+	 * 
+	 * With JsonParseException thrown if the JSON is not an object
+	 * 
+	 * @throws IOException
+	 */
+	@Test (expected = JsonParseException.class)
+	public void testJsonToBson_NotObject () throws IOException {
+		toBson ("abc", "[1, 2]");
+	}
+}